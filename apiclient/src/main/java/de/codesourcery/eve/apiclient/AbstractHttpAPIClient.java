@@ -16,18 +16,24 @@
 package de.codesourcery.eve.apiclient;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -36,30 +42,17 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import javax.swing.SwingUtilities;
 
-import org.apache.http.HttpVersion;
-import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.params.ConnManagerParams;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.client.HttpResponseException;
 import org.apache.log4j.Logger;
 
 import de.codesourcery.eve.apiclient.IErrorHandler.IJoinPoint;
+import de.codesourcery.eve.apiclient.InternalAPIResponse.PayloadInputStream;
 import de.codesourcery.eve.apiclient.cache.DefaultCacheProvider;
 import de.codesourcery.eve.apiclient.cache.IResponseCacheProvider;
+import de.codesourcery.eve.apiclient.cache.ParsedResponseCache;
 import de.codesourcery.eve.apiclient.datamodel.APIError;
 import de.codesourcery.eve.apiclient.datamodel.APIKey;
 import de.codesourcery.eve.apiclient.datamodel.APIKey.KeyRole;
@@ -73,8 +66,16 @@ import de.codesourcery.eve.apiclient.exceptions.InvalidCredentialsException;
 import de.codesourcery.eve.apiclient.exceptions.ResponseNotCachedException;
 import de.codesourcery.eve.apiclient.exceptions.ShutdownException;
 import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
+import de.codesourcery.eve.apiclient.http.DefaultHttpTransport;
+import de.codesourcery.eve.apiclient.http.IHttpTransport;
+import de.codesourcery.eve.apiclient.metrics.APIClientMetrics;
+import de.codesourcery.eve.apiclient.metrics.EndpointMetrics;
+import de.codesourcery.eve.apiclient.parsers.ICacheableResponseParser;
 import de.codesourcery.eve.apiclient.parsers.IResponseParser;
+import de.codesourcery.eve.apiclient.parsers.RefreshResponseParser;
 import de.codesourcery.eve.apiclient.utils.DefaultSystemClock;
+import de.codesourcery.eve.apiclient.utils.PayloadCapturingInputStream;
+import de.codesourcery.eve.apiclient.utils.RequestRateLimiter;
 import de.codesourcery.eve.skills.datamodel.CharacterID;
 import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
 import de.codesourcery.eve.skills.utils.EveDate;
@@ -114,10 +115,12 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
 
     private final Object CLIENT_LOCK = new Object();
     // guarded-by: CLIENT_LOCK
-    private HttpClient httpClient;
+    private IHttpTransport transport;
 
-    // guarded by: CLIENT_LOCK
-    private ThreadSafeClientConnManager connectionManager;
+    // guarded-by: CLIENT_LOCK
+    private ParsedResponseCache parsedResponseCache;
+
+    private volatile int parsedResponseCacheSize = ParsedResponseCache.DEFAULT_MAX_ENTRIES;
 
     private IStaticDataModel daoProvider;
 
@@ -129,6 +132,51 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
 
     private IResponseParserInvoker responseParserInvoker;
 
+    /*
+     * Requests currently being sent to the server. Concurrent requests for the
+     * same query wait for the request that is already in flight instead of
+     * sending their own.
+     */
+    private final ConcurrentMap<APIQuery, FutureTask<InternalAPIResponse>> inFlightRequests =
+            new ConcurrentHashMap<APIQuery, FutureTask<InternalAPIResponse>>();
+
+    private static final AtomicInteger CLIENT_COUNT = new AtomicInteger( 0 );
+
+    private final APIClientMetrics metrics =
+            new APIClientMetrics( getClass().getSimpleName() + "-"
+                    + CLIENT_COUNT.incrementAndGet() );
+
+    /**
+     * Default max. number of requests per second sent to the server.
+     */
+    public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 30;
+
+    /**
+     * Default max. number of requests that may be sent to a host
+     * at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST = 10;
+
+    private volatile RequestRateLimiter rateLimiter =
+            new RequestRateLimiter( DEFAULT_MAX_REQUESTS_PER_SECOND,
+                    (int) DEFAULT_MAX_REQUESTS_PER_SECOND );
+
+    private volatile int maxConcurrentRequestsPerHost =
+            DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST;
+
+    private volatile RefreshAheadScheduler refreshAheadScheduler;
+
+    /*
+     * Options used when refreshing cache entries in the background , parsing
+     * must not be handed to a (possibly EDT-bound) parser invoker.
+     */
+    private static final RequestOptions REFRESH_OPTIONS =
+            new RequestOptions( DataRetrievalStrategy.DEFAULT, true, true, null );
+
+    // permits for concurrent requests , by host name
+    private final ConcurrentMap<String, Semaphore> hostPermits =
+            new ConcurrentHashMap<String, Semaphore>();
+
     protected static final URI toURI(String s)
     {
         try
@@ -314,6 +362,7 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
         try
         {
             this.cacheProvider = cacheProvider;
+            getParsedResponseCache().clear();
         }
         finally
         {
@@ -321,6 +370,41 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
         }
     }
 
+    /**
+     * Sets the max. number of parsed API results
+     * this client keeps in memory.
+     * 
+     * Parsed results are kept in addition to the raw responses
+     * held by the {@link IResponseCacheProvider} so that cache hits
+     * do not need to parse the response XML again.
+     * 
+     * @param maxEntries max. number of results, <code>0</code> disables
+     *            caching of parsed results
+     * @see ICacheableResponseParser
+     */
+    public void setParsedResponseCacheSize(int maxEntries)
+    {
+        if ( maxEntries < 0 )
+        {
+            throw new IllegalArgumentException( "cache size must be >= 0" );
+        }
+        this.parsedResponseCacheSize = maxEntries;
+        getParsedResponseCache().setMaxEntries( maxEntries );
+    }
+
+    protected final ParsedResponseCache getParsedResponseCache()
+    {
+        synchronized (CLIENT_LOCK)
+        {
+            if ( parsedResponseCache == null )
+            {
+                parsedResponseCache =
+                        new ParsedResponseCache( parsedResponseCacheSize, getSystemClock() );
+            }
+            return parsedResponseCache;
+        }
+    }
+
     public AbstractHttpAPIClient(URI baseURI) {
         if ( baseURI == null )
         {
@@ -378,10 +462,18 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
                     cacheProvider.shutdown();
                 }
 
-                if ( httpClient != null )
+                final RefreshAheadScheduler scheduler = this.refreshAheadScheduler;
+                if ( scheduler != null )
                 {
-                    httpClient.getConnectionManager().shutdown();
-                    httpClient = null;
+                    scheduler.shutdown();
+                }
+
+                metrics.stop();
+
+                if ( transport != null )
+                {
+                    transport.shutdown();
+                    transport = null;
                 }
 
                 disposeHook();
@@ -402,80 +494,94 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
 
     }
 
-    protected final HttpClient getClient()
+    /**
+     * Returns the transport used to talk to the server , creating it
+     * if necessary.
+     * 
+     * @return
+     * @see #createHttpTransport()
+     */
+    public final IHttpTransport getHttpTransport()
     {
-
         synchronized (CLIENT_LOCK)
         {
-            if ( httpClient == null )
+            if ( transport == null )
             {
-                LOG.debug( "getClient(): Instantiating HTTP client." );
-                httpClient = createClient();
+                LOG.debug( "getHttpTransport(): Creating HTTP transport." );
+                transport = createHttpTransport();
             }
+            return transport;
         }
+    }
 
-        return httpClient;
+    /**
+     * Sets the transport used to talk to the server.
+     * 
+     * The transport is shut down when this client
+     * gets disposed , a transport replaced by this
+     * method is not.
+     * 
+     * @param transport
+     */
+    public final void setHttpTransport(IHttpTransport transport)
+    {
+        if ( transport == null )
+        {
+            throw new IllegalArgumentException( "transport cannot be NULL" );
+        }
+        synchronized (CLIENT_LOCK)
+        {
+            this.transport = transport;
+        }
     }
 
-    private ThreadSafeClientConnManager getConnectionManager()
+    /**
+     * Creates the default transport.
+     * 
+     * <pre>
+     * The pool allows as many connections per host as this client
+     * sends concurrent requests per host by default
+     * (see {@link #setMaxConcurrentRequestsPerHost(int)}).
+     * HTTPS connections accept any server certificate.
+     * </pre>
+     * 
+     * @return
+     */
+    protected IHttpTransport createHttpTransport()
     {
-        if ( connectionManager == null )
+        final SSLContext sslContext;
+        try
         {
-            // Create and initialize HTTP parameters
-            final HttpParams params = new BasicHttpParams();
-            ConnManagerParams.setMaxTotalConnections( params, 30 );
+            sslContext = SSLContext.getInstance( "SSL" );
 
-            HttpProtocolParams.setVersion( params, HttpVersion.HTTP_1_1 );
+            // set up a TrustManager that trusts everything
+            sslContext.init( null, new TrustManager[] { new X509TrustManager() {
 
-            // Create and initialize scheme registry
-            SchemeRegistry schemeRegistry = new SchemeRegistry();
-            schemeRegistry.register( new Scheme( "http", PlainSocketFactory
-                    .getSocketFactory(), 80 ) );
-            
-            // setup SSL
-			try {
-				SSLContext sslContext = SSLContext.getInstance("SSL");
-
-				// set up a TrustManager that trusts everything
-				sslContext.init(null, new TrustManager[] { new X509TrustManager() {
-				            public X509Certificate[] getAcceptedIssuers() {
-				                    return null;
-				            }
-
-				            public void checkClientTrusted(X509Certificate[] certs,
-				                            String authType) {
-				            }
-
-				            public void checkServerTrusted(X509Certificate[] certs,
-				                            String authType) {
-				            }
-				} }, new SecureRandom());
-
-				SSLSocketFactory sf = new SSLSocketFactory(sslContext);
-				Scheme httpsScheme = new Scheme("https", 443, sf);
-				schemeRegistry.register(httpsScheme);				
-			} 
-			catch (Exception e) 
-			{
-				LOG.error("getConnectionManager(): Failed to setup SSL protocol for http client",e);
-				throw new RuntimeException(e);
-			}
-
-            // Create an HttpClient with the ThreadSafeClientConnManager.
-            // This connection manager must be used if more than one thread will
-            // be using the HttpClient.
-            connectionManager = new ThreadSafeClientConnManager( params, schemeRegistry );
-            
+                public X509Certificate[] getAcceptedIssuers()
+                {
+                    return null;
+                }
 
+                public void checkClientTrusted(X509Certificate[] certs, String authType)
+                {
+                }
+
+                public void checkServerTrusted(X509Certificate[] certs, String authType)
+                {
+                }
+            } }, new SecureRandom() );
+        }
+        catch (Exception e)
+        {
+            LOG.error( "createHttpTransport(): Failed to setup SSL protocol for http client", e );
+            throw new RuntimeException( e );
         }
-        return connectionManager;
-    }
 
-    protected HttpClient createClient()
-    {
-        return new DefaultHttpClient( getConnectionManager(), new BasicHttpParams() );
+        final DefaultHttpTransport result = new DefaultHttpTransport( sslContext );
+        result.setMaxConnectionsPerRoute( DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST );
+        return result;
     }
-    
+
     /**
      * Send request.
      * 
@@ -599,29 +705,14 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
         throw ex;
     }
 
-    protected UrlEncodedFormEntity toFormEntity(Map<String, Object> requestParams)
-            throws UnsupportedEncodingException
-    {
-
-        final List<NameValuePair> pairs = new ArrayList<NameValuePair>();
-
-        for (Iterator<Entry<String, Object>> keys = requestParams.entrySet().iterator(); keys
-                .hasNext();)
-        {
-            final Entry<String, Object> e = keys.next();
-            final String key = e.getKey();
-            pairs.add( new BasicNameValuePair( key, e.getValue().toString() ) );
-        }
-
-        return new UrlEncodedFormEntity( pairs );
-    }
-
     protected interface IRequestTemplate
     {
 
         public InternalAPIResponse execute() throws Exception;
 
         public APIQuery getQuery();
+
+        public EndpointMetrics getMetrics();
     }
 
     protected InternalAPIResponse executeRequestTemplate(final IResponseParser<?> parser,
@@ -641,6 +732,7 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
             @Override
             public void retry() throws Exception
             {
+                template.getMetrics().recordRetry();
                 try
                 {
                     notifyRequestStarted( template, parser );
@@ -651,6 +743,8 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
                 {
                     LOG.error( "executeRequestTemplate(): (retry) Caught ", e );
 
+                    template.getMetrics().recordError();
+
                     errorHandler.handleError( AbstractHttpAPIClient.this, this, template
                             .getQuery(), e );
 
@@ -681,6 +775,8 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
 
             LOG.error( "executeRequestTemplate(): Caught ", e );
 
+            template.getMetrics().recordError();
+
             DataRetrievalStrategy strategy = requestOptions.getDataRetrievalStrategy();
 
             if ( strategy == DataRetrievalStrategy.DEFAULT )
@@ -697,7 +793,8 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
                 if ( response != null )
                 {
                     final InternalAPIResponse apiResponse =
-                            parseResponse( parser, response );
+                            parseResponse( template.getQuery(), parser, response, template
+                                    .getMetrics() );
 
                     notifyRequestFinished( template, parser );
 
@@ -737,15 +834,70 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
         return result[0];
     }
 
-    protected InternalAPIResponse parseResponse(IResponseParser<?> parser,
-            InternalAPIResponse resp)
+    protected InternalAPIResponse parseResponse(APIQuery query, IResponseParser<?> parser,
+            InternalAPIResponse resp, EndpointMetrics endpointMetrics)
     {
+        final ICacheableResponseParser<?> cacheableParser = toCacheableParser( parser );
+
+        if ( cacheableParser != null )
+        {
+            final boolean restored =
+                    getParsedResponseCache().restore( query, resp, cacheableParser );
+            endpointMetrics.recordParsedCacheLookup( restored );
+            if ( restored )
+            {
+                return resp;
+            }
+        }
+
         parser.reset();
 
-        parser.parse( resp.getTimestamp(), resp.getPayload() );
+        final long start = System.nanoTime();
+        try
+        {
+            parser.parse( resp.getTimestamp(), resp.getPayloadStream() );
+        }
+        catch (IOException e)
+        {
+            // should never happen , we're reading a byte array...
+            throw new RuntimeException( e );
+        }
+        endpointMetrics.recordParseTime( System.nanoTime() - start );
+
+        if ( cacheableParser != null )
+        {
+            getParsedResponseCache().put( query, resp, cacheableParser );
+        }
         return resp;
     }
 
+    /**
+     * Returns the parser as {@link ICacheableResponseParser} , unwrapping
+     * any wrapper used for a custom {@link IResponseParserInvoker}.
+     * 
+     * @param parser
+     * @return parser or <code>null</code> if the parser's results
+     *         cannot be cached.
+     */
+    private ICacheableResponseParser<?> toCacheableParser(IResponseParser<?> parser)
+    {
+        final IResponseParser<?> realParser;
+        if ( parser instanceof ResponseParserWrapper<?> )
+        {
+            realParser = ( (ResponseParserWrapper<?>) parser ).parser;
+        }
+        else
+        {
+            realParser = parser;
+        }
+
+        if ( realParser instanceof ICacheableResponseParser<?> )
+        {
+            return (ICacheableResponseParser<?>) realParser;
+        }
+        return null;
+    }
+
     private final class ResponseParserWrapper<T> implements IResponseParser<T>
     {
 
@@ -798,6 +950,13 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
             return responseParserInvoker.runParser( this.parser, responseTimestamp, xml );
         }
 
+        @Override
+        public InternalAPIResponse parse(Date responseTimestamp, InputStream in)
+                throws IOException, UnparseableResponseException
+        {
+            return responseParserInvoker.runParser( this.parser, responseTimestamp, in );
+        }
+
         @Override
         public void reset()
         {
@@ -897,7 +1056,28 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
             LOG.debug( "internalSendRequest(): query = " + query );
         }
 
+        final InternalAPIResponse response =
+                answerQuery( query, uri, requestParams, parser, requestOptions,
+                    retrievalStrategy, metrics.getEndpoint( relativeURI.toString() ) );
+
+        final RefreshAheadScheduler scheduler = this.refreshAheadScheduler;
+        if ( scheduler != null )
+        {
+            scheduler.queryAnswered( query, relativeURI, requestParams, response,
+                requestOptions.isKeepFresh() );
+        }
+        return response;
+    }
+
+    private InternalAPIResponse answerQuery(final APIQuery query, final URI uri,
+            final Map<String, Object> requestParams, final IResponseParser<?> parser,
+            final RequestOptions requestOptions,
+            final DataRetrievalStrategy retrievalStrategy,
+            final EndpointMetrics endpointMetrics) throws IOException
+    {
+        final long lookupStart = System.nanoTime();
         final InternalAPIResponse cached = getCachedResult( query );
+        endpointMetrics.recordCacheLookup( System.nanoTime() - lookupStart, cached != null );
 
         if ( retrievalStrategy == DataRetrievalStrategy.OFFLINE )
         {
@@ -905,7 +1085,7 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
             {
                 LOG
                         .debug( "internalSendRequest(): Returning cached result (offline mode)" );
-                return parseResponse( parser, cached );
+                return parseResponse( query, parser, cached, endpointMetrics );
             }
             LOG.error( "internalSendRequest(): Response not cached (offline mode)" );
             throw new ResponseNotCachedException();
@@ -929,7 +1109,7 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
                             .debug( "internalSendRequest(): Returning cached result (prefer cache) [ stale = "
                                     + canQueryAgain + " ]" );
                 }
-                return parseResponse( parser, cached );
+                return parseResponse( query, parser, cached, endpointMetrics );
             }
 
             if ( LOG.isDebugEnabled() )
@@ -943,7 +1123,7 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
                     && retrievalStrategy != DataRetrievalStrategy.FORCE_UPDATE )
             {
                 LOG.debug( "internalSendRequest(): Returning cached response." );
-                return parseResponse( parser, cached );
+                return parseResponse( query, parser, cached, endpointMetrics );
             }
         }
 
@@ -960,21 +1140,32 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
 
                 LOG.debug( "internalSendRequest(): Sending request to server." );
 
-                final String body = sendRequestToServer( uri, requestParams );
-
-                final Date responseTimestamp =
-                        new Date( getSystemClock().getCurrentTimeMillis() );
-
-                LOG.debug( "internalSendRequest(): Received response from server" );
-
-                /*
-                 * We might actually retry a previously failed parsing
-                 * attempt,make sure the parser's internal state is reset
-                 * beforehand.
-                 */
-                parser.reset();
-
-                return parser.parse( responseTimestamp, body );
+                return throttledSendRequestToServer( uri, requestParams, endpointMetrics,
+                    new IResponseBodyHandler<InternalAPIResponse>() {
+
+                        @Override
+                        public InternalAPIResponse handleResponseBody(InputStream body)
+                                throws IOException
+                        {
+                            final Date responseTimestamp =
+                                    new Date( getSystemClock().getCurrentTimeMillis() );
+
+                            LOG.debug( "internalSendRequest(): Receiving response from server" );
+
+                            /*
+                             * We might actually retry a previously failed
+                             * parsing attempt,make sure the parser's internal
+                             * state is reset beforehand.
+                             */
+                            parser.reset();
+
+                            final long start = System.nanoTime();
+                            final InternalAPIResponse result =
+                                    parser.parse( responseTimestamp, body );
+                            endpointMetrics.recordParseTime( System.nanoTime() - start );
+                            return result;
+                        }
+                    } );
             }
 
             @Override
@@ -982,8 +1173,129 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
             {
                 return query;
             }
+
+            @Override
+            public EndpointMetrics getMetrics()
+            {
+                return endpointMetrics;
+            }
         };
 
+        final FutureTask<InternalAPIResponse> request =
+                new FutureTask<InternalAPIResponse>( new Callable<InternalAPIResponse>() {
+
+                    @Override
+                    public InternalAPIResponse call() throws Exception
+                    {
+                        return fetchResponse( query, cached, parser, requestOptions,
+                            template );
+                    }
+                } );
+
+        final FutureTask<InternalAPIResponse> inFlight =
+                inFlightRequests.putIfAbsent( query, request );
+
+        if ( inFlight != null && SwingUtilities.isEventDispatchThread() )
+        {
+            /*
+             * The thread sending the in-flight request might need the EDT to
+             * parse the response (see ThreadConfinedStaticDataModel) , waiting
+             * for it here would deadlock.
+             */
+            LOG.debug( "internalSendRequest(): Not waiting for in-flight request on the EDT" );
+            return fetchResponse( query, cached, parser, requestOptions, template );
+        }
+
+        if ( inFlight != null )
+        {
+            final InternalAPIResponse response = awaitInFlightRequest( query, inFlight );
+            if ( response != null )
+            {
+                return parseResponse( query, parser, response, endpointMetrics );
+            }
+
+            // in-flight request failed , try on our own
+            return fetchResponse( query, cached, parser, requestOptions, template );
+        }
+
+        try
+        {
+            request.run();
+            return request.get();
+        }
+        catch (InterruptedException e)
+        {
+            // cannot happen , task already ran in this thread
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while sending request" );
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new RuntimeException( cause );
+        }
+        finally
+        {
+            inFlightRequests.remove( query, request );
+        }
+    }
+
+    /**
+     * Waits for a request that is already being sent by another thread.
+     * 
+     * @param query
+     * @param inFlight
+     * @return the response or <code>null</code> if the in-flight request
+     *         failed
+     * @throws InterruptedIOException
+     */
+    private InternalAPIResponse awaitInFlightRequest(APIQuery query,
+            FutureTask<InternalAPIResponse> inFlight) throws InterruptedIOException
+    {
+        metrics.recordCoalescedRequest();
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "internalSendRequest(): Waiting for in-flight request " + query );
+        }
+
+        try
+        {
+            return inFlight.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for request "
+                    + query );
+        }
+        catch (ExecutionException e)
+        {
+            if ( LOG.isDebugEnabled() )
+            {
+                LOG.debug( "internalSendRequest(): In-flight request " + query
+                        + " failed: " + e.getCause() );
+            }
+            return null;
+        }
+    }
+
+    private InternalAPIResponse fetchResponse(APIQuery query, InternalAPIResponse cached,
+            IResponseParser<?> parser, RequestOptions requestOptions,
+            IRequestTemplate template) throws IOException
+    {
         final InternalAPIResponse response =
                 executeRequestTemplate( parser, requestOptions, template );
 
@@ -1007,6 +1319,13 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
             {
                 LOG.debug( "internalSendRequest(): storing response in cache." );
                 storeResponse( query, response );
+
+                final ICacheableResponseParser<?> cacheableParser =
+                        toCacheableParser( parser );
+                if ( cacheableParser != null )
+                {
+                    getParsedResponseCache().put( query, response, cacheableParser );
+                }
             }
             else
             {
@@ -1024,13 +1343,231 @@ public abstract class AbstractHttpAPIClient implements IAPIClient
         return response;
     }
 
-    protected String sendRequestToServer(URI uri, Map<String, Object> requestParams)
-            throws ClientProtocolException, IOException
+    /**
+     * Returns the metrics collected by this client.
+     * 
+     * @return
+     * @see APIClientMetrics#start()
+     */
+    public final APIClientMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of requests this client
+     * sent to the server.
+     * 
+     * @return
+     * @see #getCoalescedRequestCount()
+     */
+    public final long getServerRequestCount()
+    {
+        return metrics.getServerRequestCount();
+    }
+
+    /**
+     * Returns the number of requests that did not
+     * need to be sent to the server because an identical
+     * request was already in flight.
+     * 
+     * @return
+     */
+    public final long getCoalescedRequestCount()
+    {
+        return metrics.getCoalescedRequestCount();
+    }
+
+    /**
+     * Sets the rate limiter for requests sent to the server.
+     * 
+     * Responses served from the cache do not count against this limit.
+     * 
+     * @param rateLimiter
+     *            rate limiter or <code>null</code> to send requests as fast
+     *            as possible
+     */
+    public void setRateLimiter(RequestRateLimiter rateLimiter)
+    {
+        LOG.info( "setRateLimiter(): rate limiter = " + rateLimiter );
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Sets the max. number of requests this client sends to the same host at
+     * the same time.
+     * 
+     * Only affects hosts this client did not talk to yet. Requests exceeding
+     * the transport's per-host connection limit wait for a connection to
+     * become available (see {@link DefaultHttpTransport#setMaxConnectionsPerRoute(int)}).
+     * 
+     * @param maxRequests
+     *            max. number of concurrent requests , <code>0</code> means
+     *            unlimited
+     */
+    public void setMaxConcurrentRequestsPerHost(int maxRequests)
+    {
+        if ( maxRequests < 0 )
+        {
+            throw new IllegalArgumentException( "max. requests must be >= 0" );
+        }
+        this.maxConcurrentRequestsPerHost = maxRequests;
+    }
+
+    /**
+     * Sets the scheduler that keeps frequently read responses fresh.
+     * 
+     * @param scheduler
+     *            scheduler or <code>null</code>
+     * @see RefreshAheadScheduler#start()
+     */
+    final void setRefreshAheadScheduler(RefreshAheadScheduler scheduler)
+    {
+        this.refreshAheadScheduler = scheduler;
+    }
+
+    /**
+     * Re-fetches a response from the server (if the cached response is
+     * stale) and stores it in the cache.
+     * 
+     * @param relativeURI
+     * @param requestParams
+     *            request parameters , including credentials
+     * @return
+     * @see RefreshAheadScheduler
+     */
+    final InternalAPIResponse refresh(URI relativeURI, Map<String, Object> requestParams)
+    {
+        return sendRequest( null, new RefreshResponseParser( getSystemClock(),
+                relativeURI ), requestParams, KeyRole.NONE_REQUIRED, REFRESH_OPTIONS );
+    }
+
+    /**
+     * Sends a request to the server and hands the response body to a handler.
+     * 
+     * <pre>
+     * The body is buffered in memory and the handler only gets invoked after
+     * the HTTP connection and the per-host permit have been released. Parsers
+     * may block on other threads (see ThreadConfinedStaticDataModel) , parsing
+     * while still holding the permit would deadlock when the thread they're
+     * waiting for sends a request to the same host itself.
+     * </pre>
+     */
+    private InternalAPIResponse throttledSendRequestToServer(URI uri,
+            Map<String, Object> requestParams, EndpointMetrics endpointMetrics,
+            final IResponseBodyHandler<InternalAPIResponse> bodyHandler) throws IOException
     {
-        final HttpPost request = new HttpPost( uri );
-        request.setEntity( toFormEntity( requestParams ) );
+        final byte[] body;
+        final Semaphore permits = getHostPermits( uri );
+        try
+        {
+            if ( permits != null )
+            {
+                permits.acquire();
+            }
 
-        return getClient().execute( request, new BasicResponseHandler() );
+            try
+            {
+                final RequestRateLimiter limiter = this.rateLimiter;
+                if ( limiter != null )
+                {
+                    limiter.acquire();
+                }
+                final long start = System.nanoTime();
+                byte[] received = null;
+                try
+                {
+                    received =
+                            sendRequestToServer( uri, requestParams,
+                                new IResponseBodyHandler<byte[]>() {
+
+                                    @Override
+                                    public byte[] handleResponseBody(InputStream in)
+                                            throws IOException
+                                    {
+                                        return new PayloadCapturingInputStream( in ).drain();
+                                    }
+                                } );
+                }
+                finally
+                {
+                    endpointMetrics.recordNetworkTime( System.nanoTime() - start,
+                        received != null ? received.length : 0 );
+                }
+                body = received;
+            }
+            finally
+            {
+                if ( permits != null )
+                {
+                    permits.release();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting to send request to "
+                    + uri );
+        }
+
+        return bodyHandler.handleResponseBody( new PayloadInputStream( body ) );
+    }
+
+    private Semaphore getHostPermits(URI uri)
+    {
+        final int maxRequests = this.maxConcurrentRequestsPerHost;
+        if ( maxRequests == 0 || uri.getHost() == null )
+        {
+            return null;
+        }
+
+        final String host = uri.getHost().toLowerCase();
+        Semaphore result = hostPermits.get( host );
+        if ( result == null )
+        {
+            final Semaphore newPermits = new Semaphore( maxRequests, true );
+            result = hostPermits.putIfAbsent( host, newPermits );
+            if ( result == null )
+            {
+                result = newPermits;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Consumes a HTTP response body.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     * @see AbstractHttpAPIClient#sendRequestToServer(URI, Map, IResponseBodyHandler)
+     */
+    protected interface IResponseBodyHandler<T> extends IHttpTransport.IResponseBodyHandler<T>
+    {
+    }
+
+    /**
+     * Sends a request to the server (using {@link #getHttpTransport()}) and
+     * streams the response body to a handler.
+     * 
+     * <pre>
+     * The body is never materialized as a <code>String</code> , the
+     * handler reads it while it's being received.
+     * </pre>
+     * 
+     * @param uri
+     * @param requestParams
+     * @param bodyHandler
+     * @return the handler's result
+     * @throws HttpResponseException
+     *             if the server returned a HTTP status code >= 300
+     * @throws IOException
+     */
+    protected <T> T sendRequestToServer(URI uri, Map<String, Object> requestParams,
+            final IResponseBodyHandler<T> bodyHandler) throws ClientProtocolException,
+            IOException
+    {
+        return getHttpTransport().post( uri, requestParams, bodyHandler );
     }
 
     private void addCredentialsToRequestParams(ICredentialsProvider credentialsProvider,
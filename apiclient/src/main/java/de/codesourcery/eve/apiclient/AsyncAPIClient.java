@@ -0,0 +1,331 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.apiclient.datamodel.APIResponse;
+import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.apiclient.datamodel.SkillInTraining;
+import de.codesourcery.eve.apiclient.datamodel.SkillQueueEntry;
+import de.codesourcery.eve.skills.datamodel.AssetList;
+import de.codesourcery.eve.skills.datamodel.CharacterID;
+import de.codesourcery.eve.skills.datamodel.ICharacter;
+import de.codesourcery.eve.skills.datamodel.IndustryJob;
+import de.codesourcery.eve.skills.datamodel.MarketOrder;
+import de.codesourcery.eve.skills.datamodel.MarketTransaction;
+
+/**
+ * Runs {@link IAPIClient} requests on a bounded
+ * thread pool.
+ *
+ * <pre>
+ * Requests still go through the wrapped client , so caching , request coalescing
+ * and the client's rate limit / per-host concurrency limit
+ * (see {@link AbstractHttpAPIClient#setRateLimiter(de.codesourcery.eve.apiclient.utils.RequestRateLimiter)})
+ * apply as usual.
+ *
+ * Fetching the same data for many characters at once:
+ *
+ * {@literal
+ * final Map<CharacterID,Future<APIResponse<AssetList>>> result =
+ *     asyncClient.submitForAll( charactersByAccount , AsyncAPIClient.ASSET_LIST , RequestOptions.DEFAULT );
+ * }
+ * </pre>
+ *
+ * This class is thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class AsyncAPIClient
+{
+    private static final Logger LOG = Logger.getLogger( AsyncAPIClient.class );
+
+    /**
+     * Default number of threads used to send requests.
+     */
+    public static final int DEFAULT_THREAD_COUNT = 8;
+
+    private final IAPIClient client;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * A request for a single character.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     * @see AsyncAPIClient#submitForAll(Map, ICharacterRequest, RequestOptions)
+     */
+    public interface ICharacterRequest<T>
+    {
+        public APIResponse<T> execute(IAPIClient client, ICharacter character,
+                ICredentialsProvider credentials, RequestOptions options);
+    }
+
+    public static final ICharacterRequest<ICharacter> CHARACTER =
+            new ICharacterRequest<ICharacter>() {
+
+                @Override
+                public APIResponse<ICharacter> execute(IAPIClient client,
+                        ICharacter character, ICredentialsProvider credentials,
+                        RequestOptions options)
+                {
+                    return client.getCharacter( character.getCharacterId(), credentials,
+                        options );
+                }
+            };
+
+    public static final ICharacterRequest<AssetList> ASSET_LIST =
+            new ICharacterRequest<AssetList>() {
+
+                @Override
+                public APIResponse<AssetList> execute(IAPIClient client,
+                        ICharacter character, ICredentialsProvider credentials,
+                        RequestOptions options)
+                {
+                    return client.getAssetList( character.getCharacterId(), credentials,
+                        options );
+                }
+            };
+
+    public static final ICharacterRequest<List<MarketOrder>> MARKET_ORDERS =
+            new ICharacterRequest<List<MarketOrder>>() {
+
+                @Override
+                public APIResponse<List<MarketOrder>> execute(IAPIClient client,
+                        ICharacter character, ICredentialsProvider credentials,
+                        RequestOptions options)
+                {
+                    return client.getMarketOrders( character, credentials, options );
+                }
+            };
+
+    public static final ICharacterRequest<List<MarketTransaction>> MARKET_TRANSACTIONS =
+            new ICharacterRequest<List<MarketTransaction>>() {
+
+                @Override
+                public APIResponse<List<MarketTransaction>> execute(IAPIClient client,
+                        ICharacter character, ICredentialsProvider credentials,
+                        RequestOptions options)
+                {
+                    return client.getMarketTransactions( character, credentials, options );
+                }
+            };
+
+    public static final ICharacterRequest<Collection<IndustryJob>> INDUSTRY_JOBS =
+            new ICharacterRequest<Collection<IndustryJob>>() {
+
+                @Override
+                public APIResponse<Collection<IndustryJob>> execute(IAPIClient client,
+                        ICharacter character, ICredentialsProvider credentials,
+                        RequestOptions options)
+                {
+                    return client.getCharacterIndustryJobs( character, credentials,
+                        options );
+                }
+            };
+
+    public static final ICharacterRequest<SkillInTraining> SKILL_IN_TRAINING =
+            new ICharacterRequest<SkillInTraining>() {
+
+                @Override
+                public APIResponse<SkillInTraining> execute(IAPIClient client,
+                        ICharacter character, ICredentialsProvider credentials,
+                        RequestOptions options)
+                {
+                    return client.getSkillInTraining( character.getCharacterId(),
+                        credentials, options );
+                }
+            };
+
+    public static final ICharacterRequest<List<SkillQueueEntry>> SKILL_QUEUE =
+            new ICharacterRequest<List<SkillQueueEntry>>() {
+
+                @Override
+                public APIResponse<List<SkillQueueEntry>> execute(IAPIClient client,
+                        ICharacter character, ICredentialsProvider credentials,
+                        RequestOptions options)
+                {
+                    return client.getSkillQueue( character, credentials, options );
+                }
+            };
+
+    public AsyncAPIClient(IAPIClient client) {
+        this( client, DEFAULT_THREAD_COUNT );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param client
+     *            the client to send requests with
+     * @param threadCount
+     *            max. number of requests processed at the same time
+     */
+    public AsyncAPIClient(IAPIClient client, int threadCount) {
+        if ( client == null )
+        {
+            throw new IllegalArgumentException( "client cannot be NULL" );
+        }
+        if ( threadCount < 1 )
+        {
+            throw new IllegalArgumentException( "thread count must be >= 1" );
+        }
+        this.client = client;
+
+        final AtomicInteger threadNumber = new AtomicInteger( 1 );
+        this.executor =
+                new ThreadPoolExecutor( threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                final Thread t =
+                                        new Thread( r, "api-request-"
+                                                + threadNumber.getAndIncrement() );
+                                t.setDaemon( true );
+                                return t;
+                            }
+                        } );
+        this.executor.allowCoreThreadTimeOut( true );
+    }
+
+    /**
+     * Submits an arbitrary request.
+     *
+     * @param request
+     * @return
+     */
+    public <T> Future<APIResponse<T>> submit(Callable<APIResponse<T>> request)
+    {
+        if ( request == null )
+        {
+            throw new IllegalArgumentException( "request cannot be NULL" );
+        }
+        return executor.submit( request );
+    }
+
+    /**
+     * Submits a request for a single character.
+     *
+     * @param request
+     * @param character
+     * @param credentials
+     * @param options
+     * @return
+     */
+    public <T> Future<APIResponse<T>> submit(final ICharacterRequest<T> request,
+            final ICharacter character, final ICredentialsProvider credentials,
+            final RequestOptions options)
+    {
+        if ( request == null )
+        {
+            throw new IllegalArgumentException( "request cannot be NULL" );
+        }
+        if ( character == null )
+        {
+            throw new IllegalArgumentException( "character cannot be NULL" );
+        }
+
+        return submit( new Callable<APIResponse<T>>() {
+
+            @Override
+            public APIResponse<T> call() throws Exception
+            {
+                return request.execute( client, character, credentials, options );
+            }
+        } );
+    }
+
+    /**
+     * Submits the same request for many characters.
+     *
+     * @param characters
+     *            characters to submit the request for , by the credentials
+     *            needed to access them (usually the user account)
+     * @param request
+     * @param options
+     * @return futures by character ID , in iteration order of the input
+     */
+    public <T> Map<CharacterID, Future<APIResponse<T>>> submitForAll(
+            Map<? extends ICredentialsProvider, ? extends Collection<? extends ICharacter>> characters,
+            ICharacterRequest<T> request, RequestOptions options)
+    {
+        if ( characters == null )
+        {
+            throw new IllegalArgumentException( "characters cannot be NULL" );
+        }
+
+        final Map<CharacterID, Future<APIResponse<T>>> result =
+                new LinkedHashMap<CharacterID, Future<APIResponse<T>>>();
+
+        for (Map.Entry<? extends ICredentialsProvider, ? extends Collection<? extends ICharacter>> entry : characters
+                .entrySet())
+        {
+            for (ICharacter character : entry.getValue())
+            {
+                result.put( character.getCharacterId(), submit( request, character, entry
+                        .getKey(), options ) );
+            }
+        }
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "submitForAll(): Submitted " + result.size() + " requests." );
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of submitted requests that
+     * have not been started yet.
+     *
+     * @return
+     */
+    public int getQueuedRequestCount()
+    {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting new requests , already submitted requests are still
+     * processed.
+     *
+     * Does NOT dispose the wrapped client.
+     */
+    public void shutdown()
+    {
+        LOG.debug( "shutdown(): Called." );
+        executor.shutdown();
+    }
+
+    public IAPIClient getClient()
+    {
+        return client;
+    }
+}
@@ -0,0 +1,464 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.apiclient.IAPIClient.EntityType;
+import de.codesourcery.eve.apiclient.cache.PersistentNameStore;
+import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.apiclient.exceptions.APIErrorException;
+import de.codesourcery.eve.apiclient.exceptions.APIUnavailableException;
+
+/**
+ * {@link INameResolver} that batches lookups and keeps
+ * resolved names in a {@link PersistentNameStore}.
+ * 
+ * <pre>
+ * IDs requested within a short time window (see {@link #setBatchWindowMillis(long)})
+ * are collected and sent using a single 
+ * {@link IAPIClient#resolveNames(EntityType[], String[], RequestOptions)} call
+ * per entity type , at most {@link #setMaxIdsPerRequest(int)} IDs
+ * per request. 
+ * 
+ * Names are stored on disk so they survive restarts , IDs that 
+ * cannot be resolved are not remembered.
+ * 
+ * This class is thread-safe.
+ * </pre>
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class BatchingNameResolver implements INameResolver
+{
+    private static final Logger LOG = Logger.getLogger( BatchingNameResolver.class );
+
+    /**
+     * Max. number of IDs the EVE API accepts with a single request.
+     */
+    public static final int DEFAULT_MAX_IDS_PER_REQUEST = 250;
+
+    public static final long DEFAULT_BATCH_WINDOW_MILLIS = 50;
+
+    private static final Callable<String> NOP = new Callable<String>() {
+
+        @Override
+        public String call() throws Exception
+        {
+            throw new UnsupportedOperationException( "Must not be invoked" );
+        }
+    };
+
+    /**
+     * Name that is set by whoever resolves it.
+     * 
+     * @author tobias.gierke@code-sourcery.de
+     */
+    private static final class PendingName extends FutureTask<String>
+    {
+        public PendingName() {
+            super( NOP );
+        }
+
+        public PendingName(String name) {
+            super( NOP );
+            set( name );
+        }
+
+        public void resolved(String name)
+        {
+            set( name );
+        }
+
+        public void failed(Throwable t)
+        {
+            setException( t );
+        }
+    }
+
+    private final IAPIClient client;
+    private final PersistentNameStore store;
+    private final ScheduledExecutorService executor;
+
+    private final Object pendingLock = new Object();
+
+    // IDs waiting to be sent , by entity type
+    // guarded-by: pendingLock
+    private final Map<EntityType, Map<String, PendingName>> pending =
+            new EnumMap<EntityType, Map<String, PendingName>>( EntityType.class );
+
+    // guarded-by: pendingLock
+    private boolean disposed = false;
+
+    private volatile long batchWindowMillis = DEFAULT_BATCH_WINDOW_MILLIS;
+    private volatile int maxIdsPerRequest = DEFAULT_MAX_IDS_PER_REQUEST;
+    private volatile RequestOptions requestOptions = RequestOptions.DEFAULT;
+
+    private final AtomicLong requestCount = new AtomicLong( 0 );
+
+    public BatchingNameResolver(IAPIClient client, File storeFile) throws IOException {
+        this( client, new PersistentNameStore( storeFile ) );
+    }
+
+    public BatchingNameResolver(IAPIClient client, PersistentNameStore store) {
+        if ( client == null )
+        {
+            throw new IllegalArgumentException( "client cannot be NULL" );
+        }
+        if ( store == null )
+        {
+            throw new IllegalArgumentException( "store cannot be NULL" );
+        }
+        this.client = client;
+        this.store = store;
+        this.executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                final Thread t = new Thread( r, "name-resolver" );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+    }
+
+    @Override
+    public String getCachedName(String id)
+    {
+        if ( id == null )
+        {
+            throw new IllegalArgumentException( "id cannot be NULL" );
+        }
+        return store.get( id.trim() );
+    }
+
+    @Override
+    public Future<String> requestName(final EntityType type, String id)
+    {
+        if ( type == null )
+        {
+            throw new IllegalArgumentException( "type cannot be NULL" );
+        }
+        if ( id == null )
+        {
+            throw new IllegalArgumentException( "id cannot be NULL" );
+        }
+
+        final String key = id.trim();
+        final String name = store.get( key );
+        if ( name != null )
+        {
+            return new PendingName( name );
+        }
+
+        synchronized ( pendingLock )
+        {
+            if ( disposed )
+            {
+                throw new IllegalStateException( "Name resolver already disposed" );
+            }
+
+            Map<String, PendingName> batch = pending.get( type );
+            if ( batch == null )
+            {
+                batch = new LinkedHashMap<String, PendingName>();
+                pending.put( type, batch );
+            }
+
+            PendingName result = batch.get( key );
+            if ( result != null )
+            {
+                return result;
+            }
+
+            result = new PendingName();
+            batch.put( key, result );
+
+            if ( batch.size() >= maxIdsPerRequest )
+            {
+                pending.remove( type );
+                final Map<String, PendingName> fullBatch = batch;
+                executor.execute( new Runnable() {
+
+                    @Override
+                    public void run()
+                    {
+                        send( type, fullBatch );
+                    }
+                } );
+            }
+            else if ( batch.size() == 1 )
+            {
+                executor.schedule( new Runnable() {
+
+                    @Override
+                    public void run()
+                    {
+                        flush( type );
+                    }
+                }, batchWindowMillis, TimeUnit.MILLISECONDS );
+            }
+            return result;
+        }
+    }
+
+    private void flush(EntityType type)
+    {
+        final Map<String, PendingName> batch;
+        synchronized ( pendingLock )
+        {
+            batch = pending.remove( type );
+        }
+
+        if ( batch != null && ! batch.isEmpty() )
+        {
+            send( type, batch );
+        }
+    }
+
+    private void send(EntityType type, Map<String, PendingName> batch)
+    {
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "send(): Resolving " + batch.size() + " IDs of type " + type );
+        }
+
+        Throwable failure = null;
+        try
+        {
+            requestCount.incrementAndGet();
+            final Map<String, String> names =
+                    client.resolveNames( new EntityType[] { type },
+                        batch.keySet().toArray( new String[batch.size()] ), requestOptions )
+                            .getPayload();
+
+            final Map<String, String> resolved = new HashMap<String, String>();
+            for (Map.Entry<String, String> entry : names.entrySet())
+            {
+                if ( entry.getValue() != null )
+                {
+                    resolved.put( entry.getKey(), entry.getValue() );
+                }
+            }
+
+            try
+            {
+                store.putAll( resolved );
+            }
+            catch (IOException e)
+            {
+                LOG.error( "send(): Failed to persist resolved names", e );
+            }
+
+            for (Map.Entry<String, PendingName> entry : batch.entrySet())
+            {
+                entry.getValue().resolved( resolved.get( entry.getKey() ) );
+            }
+        }
+        catch (RuntimeException e)
+        {
+            failure = e;
+            LOG.error( "send(): Failed to resolve " + batch.size() + " IDs", e );
+        }
+        catch (Error e)
+        {
+            failure = e;
+            LOG.error( "send(): Failed to resolve " + batch.size() + " IDs", e );
+            throw e;
+        }
+        finally
+        {
+            // never leave callers waiting for a name
+            for (PendingName name : batch.values())
+            {
+                if ( ! name.isDone() )
+                {
+                    name.failed( failure != null ? failure : new IllegalStateException(
+                            "Failed to resolve ID of type " + type ) );
+                }
+            }
+        }
+    }
+
+    @Override
+    public String resolveName(EntityType type, String id) throws APIUnavailableException,
+            APIErrorException
+    {
+        return await( requestName( type, id ) );
+    }
+
+    @Override
+    public Map<String, String> resolveNames(EntityType type, Collection<String> ids)
+            throws APIUnavailableException, APIErrorException
+    {
+        if ( ids == null )
+        {
+            throw new IllegalArgumentException( "ids cannot be NULL" );
+        }
+
+        final List<String> keys = new ArrayList<String>( ids.size() );
+        final List<Future<String>> futures = new ArrayList<Future<String>>( ids.size() );
+        for (String id : ids)
+        {
+            keys.add( id );
+            futures.add( requestName( type, id ) );
+        }
+
+        final Map<String, String> result = new HashMap<String, String>();
+        for (int i = 0; i < keys.size(); i++)
+        {
+            result.put( keys.get( i ), await( futures.get( i ) ) );
+        }
+        return result;
+    }
+
+    private static String await(Future<String> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new APIUnavailableException( new InterruptedIOException(
+                    "Interrupted while resolving name" ) );
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new RuntimeException( cause );
+        }
+    }
+
+    /**
+     * Sets how long to wait for more IDs before sending a request.
+     * 
+     * @param millis
+     */
+    public void setBatchWindowMillis(long millis)
+    {
+        if ( millis < 0 )
+        {
+            throw new IllegalArgumentException( "batch window must be >= 0" );
+        }
+        this.batchWindowMillis = millis;
+    }
+
+    public long getBatchWindowMillis()
+    {
+        return batchWindowMillis;
+    }
+
+    /**
+     * Sets the max. number of IDs sent with a single request.
+     * 
+     * @param maxIds
+     */
+    public void setMaxIdsPerRequest(int maxIds)
+    {
+        if ( maxIds < 1 )
+        {
+            throw new IllegalArgumentException( "max. IDs per request must be >= 1" );
+        }
+        this.maxIdsPerRequest = maxIds;
+    }
+
+    public int getMaxIdsPerRequest()
+    {
+        return maxIdsPerRequest;
+    }
+
+    public void setRequestOptions(RequestOptions requestOptions)
+    {
+        if ( requestOptions == null )
+        {
+            throw new IllegalArgumentException( "requestOptions cannot be NULL" );
+        }
+        this.requestOptions = requestOptions;
+    }
+
+    /**
+     * Returns the number of <code>resolveNames</code> requests sent so far.
+     * 
+     * @return
+     */
+    public long getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    /**
+     * Stops this resolver , lookups still pending
+     * fail with an <code>IllegalStateException</code>.
+     */
+    public void dispose()
+    {
+        final List<PendingName> cancelled = new ArrayList<PendingName>();
+        synchronized ( pendingLock )
+        {
+            disposed = true;
+            for (Map<String, PendingName> batch : pending.values())
+            {
+                cancelled.addAll( batch.values() );
+            }
+            pending.clear();
+        }
+
+        for (PendingName name : cancelled)
+        {
+            name.failed( new IllegalStateException( "Name resolver disposed" ) );
+        }
+
+        executor.shutdown();
+        try
+        {
+            store.close();
+        }
+        catch (IOException e)
+        {
+            LOG.error( "dispose(): Failed to close name store", e );
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import de.codesourcery.eve.apiclient.IAPIClient.EntityType;
+import de.codesourcery.eve.apiclient.exceptions.APIErrorException;
+import de.codesourcery.eve.apiclient.exceptions.APIUnavailableException;
+
+/**
+ * Resolves entity (character , corporation , ...) IDs to names.
+ * 
+ * <pre>
+ * Unlike {@link IAPIClient#resolveNames(EntityType[], String[], de.codesourcery.eve.apiclient.datamodel.RequestOptions)}
+ * implementations are expected to cache names (they practically never
+ * change) and to combine lookups requested by different callers
+ * into as few API requests as possible.
+ * </pre>
+ * @author tobias.gierke@code-sourcery.de
+ * @see BatchingNameResolver
+ */
+public interface INameResolver
+{
+    /**
+     * Resolves a single ID , blocking until
+     * the name is available.
+     * 
+     * @param type
+     * @param id
+     * @return name or <code>null</code> if the ID could not be resolved
+     * @throws APIUnavailableException
+     * @throws APIErrorException
+     */
+    public String resolveName(EntityType type, String id) throws APIUnavailableException,
+            APIErrorException;
+
+    /**
+     * Resolves IDs , blocking until all names are available.
+     * 
+     * @param type
+     * @param ids
+     * @return map with ID (key) and resolved name (value) or a
+     *         <code>null</code> value if the ID could not be resolved to a name
+     * @throws APIUnavailableException
+     * @throws APIErrorException
+     */
+    public Map<String, String> resolveNames(EntityType type, Collection<String> ids)
+            throws APIUnavailableException, APIErrorException;
+
+    /**
+     * Requests an ID to be resolved without blocking.
+     * 
+     * @param type
+     * @param id
+     * @return future returning the name or <code>null</code> if the ID could
+     *         not be resolved
+     */
+    public Future<String> requestName(EntityType type, String id);
+
+    /**
+     * Returns a name if it is already known , never sends any request.
+     * 
+     * @param id
+     * @return name or <code>null</code>
+     */
+    public String getCachedName(String id);
+}
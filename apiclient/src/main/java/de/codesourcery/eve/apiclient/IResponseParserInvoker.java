@@ -15,6 +15,8 @@
  */
 package de.codesourcery.eve.apiclient;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 
 import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
@@ -47,4 +49,18 @@ public interface IResponseParserInvoker
 	 * @throws UnparseableResponseException
 	 */
 	public <T> InternalAPIResponse runParser(IResponseParser<T> parser,Date responseTimestamp, String xml) throws UnparseableResponseException;
+	
+	/**
+	 * Invoke parser on a response body stream.
+	 * 
+	 * @param parser the parser to invoke
+	 * @param responseTimestamp Time when the response XML was received (LOCAL time)
+	 * @param in stream to read the XML from. The stream is only 
+	 * valid until this method returns.
+	 * @return the result returned from the parser
+	 * @throws IOException if reading from the stream failed
+	 * @throws UnparseableResponseException
+	 * @see IResponseParser#parse(Date, InputStream)
+	 */
+	public <T> InternalAPIResponse runParser(IResponseParser<T> parser,Date responseTimestamp, InputStream in) throws IOException,UnparseableResponseException;
 }
@@ -15,9 +15,12 @@
  */
 package de.codesourcery.eve.apiclient;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
 import java.util.Date;
 
 import de.codesourcery.eve.apiclient.parsers.IResponseParser;
+import de.codesourcery.eve.apiclient.utils.PayloadCompression;
 import de.codesourcery.eve.skills.utils.EveDate;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
@@ -31,7 +34,18 @@ import de.codesourcery.eve.skills.utils.ISystemClock;
  */
 public class InternalAPIResponse {
 
-	private final String payload;
+	/**
+	 * Character set used to store payloads.
+	 */
+	public static final Charset PAYLOAD_CHARSET = Charset.forName("UTF-8");
+	
+	/**
+	 * Payload as UTF-8 bytes (possibly compressed) , <code>null</code> if
+	 * this response has no payload.
+	 */
+	private final byte[] payload;
+	private final boolean compressed;
+	private final int uncompressedPayloadSize;
 	private final Date timestamp;
 	
 	/**
@@ -59,7 +73,22 @@ public class InternalAPIResponse {
 	 * @param cachedUntil
 	 */
 	public InternalAPIResponse(String payload, Date timestamp,EveDate serverTime,EveDate cachedUntil) {
+		this( toBytes( payload ) , timestamp , serverTime , cachedUntil );
+	}
+	
+	/**
+	 * INTERNAL USE ONLY.
+	 * 
+	 * @param payload payload as UTF-8 bytes, the array
+	 * must not be modified afterwards
+	 * @param timestamp
+	 * @param serverTime
+	 * @param cachedUntil
+	 */
+	public InternalAPIResponse(byte[] payload, Date timestamp,EveDate serverTime,EveDate cachedUntil) {
 		this.payload = payload;
+		this.compressed = false;
+		this.uncompressedPayloadSize = payload != null ? payload.length : 0;
 		this.timestamp = timestamp;
 		this.serverTime = serverTime;
 		this.cachedUntilServerTime = cachedUntil;
@@ -78,6 +107,24 @@ public class InternalAPIResponse {
 	 * @see IResponseParser#getError()
 	 */
 	public InternalAPIResponse(String payload, Date timestamp, IResponseParser<?> parser) 
+	{
+		this( toBytes( payload ) , timestamp , parser );
+	}
+	
+	/**
+	 * Create instance.
+	 * 
+	 * @param payload the payload as UTF-8 bytes, never <code>null</code>. The
+	 * array must not be modified afterwards.
+	 * @param timestamp the timestamp (local time) when this response was received
+	 * @param parser the parser that will be queried to retrieve response data. The parser 
+	 * must <b>NOT</b> report an API error !
+	 * @throws  IllegalArgumentException if <code>payload</code> is <code>null</code>
+	 * or the parser reported an error
+	 * 
+	 * @see IResponseParser#getError()
+	 */
+	public InternalAPIResponse(byte[] payload, Date timestamp, IResponseParser<?> parser) 
 	{
 		
 		if ( payload == null ) {
@@ -91,18 +138,81 @@ public class InternalAPIResponse {
 		}
 		
 		this.payload = payload;
+		this.compressed = false;
+		this.uncompressedPayloadSize = payload.length;
 		this.timestamp = timestamp;
 		this.serverTime = parser.getServerTime();
 		this.cachedUntilServerTime = parser.getCachedUntilServerTime();
 	}
 	
+	private InternalAPIResponse(InternalAPIResponse original,byte[] compressedPayload) {
+		this.payload = compressedPayload;
+		this.compressed = true;
+		this.uncompressedPayloadSize = original.uncompressedPayloadSize;
+		this.timestamp = original.timestamp;
+		this.serverTime = original.serverTime;
+		this.cachedUntilServerTime = original.cachedUntilServerTime;
+	}
+	
 	/**
-	 * Returns payload size in bytes.
+	 * Returns a copy of this response that
+	 * holds its payload compressed.
 	 * 
-	 * @return
+	 * <pre>
+	 * The payload gets transparently decompressed 
+	 * when accessed , so the copy is a drop-in replacement
+	 * for this response that trades memory for CPU time.
+	 * </pre>
+	 * @return compressed copy , <code>this</code> if this
+	 * response is already compressed or compressing
+	 * would not save any memory
+	 */
+	public InternalAPIResponse compress() {
+		if ( compressed || payload == null ) {
+			return this;
+		}
+		final byte[] data = PayloadCompression.compress( payload );
+		if ( data.length >= payload.length ) {
+			return this;
+		}
+		return new InternalAPIResponse( this , data );
+	}
+	
+	public boolean isCompressed() {
+		return compressed;
+	}
+	
+	/**
+	 * Returns the number of payload bytes
+	 * held in memory.
+	 * 
+	 * @return payload size in bytes (after compression , if
+	 * this response is compressed)
+	 * @see #getUncompressedPayloadSize()
 	 */
 	public int getPayloadSize() {
-		return payload.length()*2;
+		return payload != null ? payload.length : 0;
+	}
+	
+	/**
+	 * Returns the size of the 
+	 * uncompressed payload in bytes.
+	 * 
+	 * @return
+	 */
+	public int getUncompressedPayloadSize() {
+		return uncompressedPayloadSize;
+	}
+	
+	private byte[] uncompressedPayload() {
+		if ( compressed ) {
+			return PayloadCompression.decompress( payload , uncompressedPayloadSize );
+		}
+		return payload;
+	}
+	
+	private static byte[] toBytes(String payload) {
+		return payload != null ? payload.getBytes( PAYLOAD_CHARSET ) : null;
 	}
 	
 	private long toUnixTimestamp(Date d) {
@@ -127,7 +237,7 @@ public class InternalAPIResponse {
 	 * @return
 	 */
 	public boolean hasLargerPayloadThan(InternalAPIResponse other) {
-		return this.getPayload().length() > other.getPayload().length();
+		return this.getUncompressedPayloadSize() > other.getUncompressedPayloadSize();
 	}
 
 	/**
@@ -164,10 +274,62 @@ public class InternalAPIResponse {
 	/**
 	 * Returns the server response's payload (XML).
 	 * 
+	 * The payload is stored as UTF-8 bytes , this method
+	 * decodes it on every call. Use {@link #getPayloadStream()} to
+	 * feed it to a parser.
+	 * 
 	 * @return
 	 */
 	public String getPayload() {
-		return payload;
+		return payload != null ? new String( uncompressedPayload() , PAYLOAD_CHARSET ) : null;
+	}
+	
+	/**
+	 * Returns a copy of the server response's payload (XML).
+	 * 
+	 * @return payload as UTF-8 bytes , <code>null</code>
+	 * if this response has no payload
+	 */
+	public byte[] getPayloadBytes() {
+		if ( payload == null ) {
+			return null;
+		}
+		return compressed ? uncompressedPayload() : payload.clone();
+	}
+	
+	/**
+	 * Returns a stream reading the server response's payload (XML)
+	 * without copying it (compressed payloads
+	 * get decompressed first).
+	 * 
+	 * @return stream returning UTF-8 bytes
+	 */
+	public PayloadInputStream getPayloadStream() {
+		return new PayloadInputStream( payload != null ? uncompressedPayload() : new byte[0] );
+	}
+	
+	/**
+	 * Stream returned by {@link InternalAPIResponse#getPayloadStream()}.
+	 * 
+	 * Parsers may use {@link #getBuffer()} to construct a new
+	 * response from the same data without copying it.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static final class PayloadInputStream extends ByteArrayInputStream {
+
+		public PayloadInputStream(byte[] buf) {
+			super(buf);
+		}
+		
+		/**
+		 * Returns the (unmodifiable) array backing this stream.
+		 * 
+		 * @return
+		 */
+		public byte[] getBuffer() {
+			return buf;
+		}
 	}
 
 	/**
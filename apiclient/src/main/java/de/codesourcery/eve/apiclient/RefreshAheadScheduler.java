@@ -0,0 +1,553 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.apiclient.datamodel.APIQuery;
+import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.apiclient.utils.RequestRateLimiter;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Re-fetches "hot" API responses in the background right after
+ * their <code>cachedUntil</code> time has passed , so that the
+ * next read is served from the cache.
+ *
+ * <pre>
+ * A query is considered hot if
+ *
+ * - it was requested with {@link RequestOptions#isKeepFresh()} or
+ * - it was read at least {@link #setMinReads(int)} times within {@link #setHotnessWindowMillis(long)} milliseconds.
+ *
+ * Queries stop being refreshed when they were
+ * not read for {@link #setMaxIdleMillis(long)} milliseconds , queries
+ * requested with {@link RequestOptions#isKeepFresh()} use the longer
+ * {@link #setMaxPinnedIdleMillis(long)} limit. All
+ * refreshes share a global budget ({@link #setMaxRefreshesPerHour(int)}) , refreshes
+ * that exceed the budget are postponed.
+ * </pre>
+ *
+ * This class is thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see AbstractHttpAPIClient#refresh(URI, Map)
+ */
+public class RefreshAheadScheduler
+{
+    private static final Logger LOG = Logger.getLogger( RefreshAheadScheduler.class );
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+
+    public static final int DEFAULT_MIN_READS = 2;
+
+    public static final long DEFAULT_HOTNESS_WINDOW_MILLIS = 30 * 60 * 1000;
+
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 2 * 60 * 60 * 1000;
+
+    public static final long DEFAULT_MAX_PINNED_IDLE_MILLIS = 24 * 60 * 60 * 1000;
+
+    public static final long DEFAULT_REFRESH_DELAY_MILLIS = 5 * 1000;
+
+    public static final int DEFAULT_MAX_REFRESHES_PER_HOUR = 600;
+
+    public static final int DEFAULT_MAX_TRACKED_QUERIES = 1000;
+
+    /*
+     * Number of failed refreshes in a row after which a query
+     * is no longer refreshed.
+     */
+    private static final int MAX_FAILURES = 3;
+
+    private final AbstractHttpAPIClient client;
+    private final ScheduledThreadPoolExecutor executor;
+
+    // queries being tracked
+    private final ConcurrentMap<APIQuery, TrackedQuery> trackedQueries =
+            new ConcurrentHashMap<APIQuery, TrackedQuery>();
+
+    // set while refreshing , reads from refresh threads do not count
+    private final ThreadLocal<Boolean> isRefreshing = new ThreadLocal<Boolean>();
+
+    private volatile int minReads = DEFAULT_MIN_READS;
+    private volatile long hotnessWindowMillis = DEFAULT_HOTNESS_WINDOW_MILLIS;
+    private volatile long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+    private volatile long maxPinnedIdleMillis = DEFAULT_MAX_PINNED_IDLE_MILLIS;
+    private volatile long refreshDelayMillis = DEFAULT_REFRESH_DELAY_MILLIS;
+    private volatile int maxTrackedQueries = DEFAULT_MAX_TRACKED_QUERIES;
+    private volatile RequestRateLimiter budget;
+
+    private final AtomicLong refreshCount = new AtomicLong( 0 );
+    private final AtomicLong postponedRefreshCount = new AtomicLong( 0 );
+
+    private final class TrackedQuery implements Runnable
+    {
+        private final APIQuery query;
+        private final URI relativeURI;
+        private final Map<String, Object> requestParams;
+
+        // guarded-by: this
+        private boolean isPinned;
+        // guarded-by: this
+        private boolean isHot;
+        // guarded-by: this
+        private long windowStart;
+        // guarded-by: this
+        private int readsInWindow;
+        // guarded-by: this
+        private long lastRead;
+        // guarded-by: this
+        private long cachedUntil;
+        // guarded-by: this
+        private boolean isScheduled;
+        // guarded-by: this
+        private int failureCount;
+
+        public TrackedQuery(APIQuery query, URI relativeURI,
+                Map<String, Object> requestParams) {
+            this.query = query;
+            this.relativeURI = relativeURI;
+            this.requestParams = new HashMap<String, Object>( requestParams );
+        }
+
+        public synchronized void read(long now, boolean pinned)
+        {
+            if ( pinned )
+            {
+                isPinned = true;
+            }
+
+            if ( now - windowStart > hotnessWindowMillis )
+            {
+                windowStart = now;
+                readsInWindow = 0;
+            }
+            readsInWindow++;
+            lastRead = now;
+
+            if ( isPinned || readsInWindow >= minReads )
+            {
+                isHot = true;
+            }
+        }
+
+        /**
+         * Updates the expiration time and returns the delay until the next
+         * refresh.
+         *
+         * @return delay in milliseconds or <code>-1</code> if no refresh needs
+         *         to be scheduled
+         */
+        public synchronized long responseReceived(long cachedUntil, long now)
+        {
+            this.cachedUntil = cachedUntil;
+            if ( ! isHot || isScheduled )
+            {
+                return -1;
+            }
+            isScheduled = true;
+            return Math.max( 0, cachedUntil - now ) + refreshDelayMillis;
+        }
+
+        private synchronized boolean isStillHot(long now)
+        {
+            final long maxIdle = isPinned ? maxPinnedIdleMillis : maxIdleMillis;
+            if ( now - lastRead > maxIdle )
+            {
+                isPinned = false;
+                isHot = false;
+            }
+            return isHot;
+        }
+
+        @Override
+        public void run()
+        {
+            final long now = getSystemClock().getCurrentTimeMillis();
+
+            if ( ! isStillHot( now ) )
+            {
+                if ( LOG.isDebugEnabled() )
+                {
+                    LOG.debug( "run(): No longer refreshing idle query " + query );
+                }
+                forget( this );
+                return;
+            }
+
+            final RequestRateLimiter limiter = budget;
+            if ( limiter != null && ! limiter.tryAcquire() )
+            {
+                postponedRefreshCount.incrementAndGet();
+                if ( LOG.isDebugEnabled() )
+                {
+                    LOG.debug( "run(): Refresh budget exhausted , postponing " + query );
+                }
+                schedule( this, Math.max( refreshDelayMillis, 60 * 1000 ) );
+                return;
+            }
+
+            synchronized (this)
+            {
+                isScheduled = false;
+            }
+
+            isRefreshing.set( Boolean.TRUE );
+            try
+            {
+                refreshCount.incrementAndGet();
+                client.refresh( relativeURI, requestParams );
+                synchronized (this)
+                {
+                    failureCount = 0;
+                }
+            }
+            catch (Exception e)
+            {
+                LOG.error( "run(): Failed to refresh " + query, e );
+                onFailure();
+            }
+            finally
+            {
+                isRefreshing.remove();
+            }
+        }
+
+        private void onFailure()
+        {
+            final long delay;
+            synchronized (this)
+            {
+                if ( ++failureCount >= MAX_FAILURES )
+                {
+                    delay = -1;
+                }
+                else if ( isScheduled )
+                {
+                    return;
+                }
+                else
+                {
+                    isScheduled = true;
+                    delay = Math.max( refreshDelayMillis, 60 * 1000 ) * failureCount;
+                }
+            }
+
+            if ( delay < 0 )
+            {
+                LOG.warn( "onFailure(): Giving up on " + query + " after " + MAX_FAILURES
+                        + " failed attempts" );
+                forget( this );
+            }
+            else
+            {
+                schedule( this, delay );
+            }
+        }
+    }
+
+    public RefreshAheadScheduler(AbstractHttpAPIClient client) {
+        this( client, DEFAULT_THREAD_COUNT );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param client
+     *            the client whose responses should be kept fresh
+     * @param threadCount
+     *            max. number of refreshes running at the same time
+     */
+    public RefreshAheadScheduler(AbstractHttpAPIClient client, int threadCount) {
+        if ( client == null )
+        {
+            throw new IllegalArgumentException( "client cannot be NULL" );
+        }
+        if ( threadCount < 1 )
+        {
+            throw new IllegalArgumentException( "thread count must be >= 1" );
+        }
+        this.client = client;
+
+        final AtomicInteger threadNumber = new AtomicInteger( 1 );
+        this.executor = new ScheduledThreadPoolExecutor( threadCount, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                final Thread t =
+                        new Thread( r, "api-refresh-" + threadNumber.getAndIncrement() );
+                t.setDaemon( true );
+                t.setPriority( Thread.MIN_PRIORITY );
+                return t;
+            }
+        } );
+        setMaxRefreshesPerHour( DEFAULT_MAX_REFRESHES_PER_HOUR );
+    }
+
+    /**
+     * Starts tracking the client's requests.
+     */
+    public void start()
+    {
+        LOG.info( "start(): Refresh-ahead enabled." );
+        client.setRefreshAheadScheduler( this );
+    }
+
+    /**
+     * Stops refreshing responses , pending refreshes are cancelled.
+     */
+    public void shutdown()
+    {
+        LOG.info( "shutdown(): Called." );
+        client.setRefreshAheadScheduler( null );
+        executor.shutdownNow();
+        trackedQueries.clear();
+    }
+
+    /**
+     * Invoked by the client after a query has been answered (either from the
+     * cache or by the server).
+     *
+     * @param query
+     * @param relativeURI
+     * @param requestParams
+     *            request parameters including credentials
+     * @param response
+     * @param pinned
+     *            whether the query should be refreshed regardless of how
+     *            often it is read
+     */
+    void queryAnswered(APIQuery query, URI relativeURI, Map<String, Object> requestParams,
+            InternalAPIResponse response, boolean pinned)
+    {
+        if ( executor.isShutdown() || response.getCachedUntilServerTime() == null )
+        {
+            return;
+        }
+
+        final long now = getSystemClock().getCurrentTimeMillis();
+
+        TrackedQuery tracked = trackedQueries.get( query );
+        if ( tracked == null )
+        {
+            if ( ! pinned && trackedQueries.size() >= maxTrackedQueries )
+            {
+                return;
+            }
+            final TrackedQuery newQuery = new TrackedQuery( query, relativeURI, requestParams );
+            tracked = trackedQueries.putIfAbsent( query, newQuery );
+            if ( tracked == null )
+            {
+                tracked = newQuery;
+            }
+        }
+
+        if ( isRefreshing.get() == null )
+        {
+            tracked.read( now, pinned );
+        }
+
+        final long delay =
+                tracked.responseReceived( response.getCachedUntilServerTime().getLocalTime()
+                        .getTime(), now );
+
+        if ( delay >= 0 )
+        {
+            if ( LOG.isDebugEnabled() )
+            {
+                LOG.debug( "queryAnswered(): Refreshing " + query + " in " + delay
+                        + " milliseconds" );
+            }
+            schedule( tracked, delay );
+        }
+    }
+
+    private void schedule(TrackedQuery query, long delayMillis)
+    {
+        try
+        {
+            executor.schedule( query, delayMillis, TimeUnit.MILLISECONDS );
+        }
+        catch (RejectedExecutionException e)
+        {
+            // shutdown
+        }
+    }
+
+    private void forget(TrackedQuery query)
+    {
+        trackedQueries.remove( query.query, query );
+    }
+
+    private ISystemClock getSystemClock()
+    {
+        return client.getSystemClock();
+    }
+
+    /**
+     * Sets how many times a query needs to be read within the hotness window
+     * before it is refreshed in the background.
+     *
+     * @param minReads
+     * @see #setHotnessWindowMillis(long)
+     */
+    public void setMinReads(int minReads)
+    {
+        if ( minReads < 1 )
+        {
+            throw new IllegalArgumentException( "min. reads must be >= 1" );
+        }
+        this.minReads = minReads;
+    }
+
+    public void setHotnessWindowMillis(long hotnessWindowMillis)
+    {
+        if ( hotnessWindowMillis <= 0 )
+        {
+            throw new IllegalArgumentException( "hotness window must be > 0" );
+        }
+        this.hotnessWindowMillis = hotnessWindowMillis;
+    }
+
+    /**
+     * Sets how long a query may go unread before it is no longer refreshed.
+     *
+     * Does not apply to queries that were requested with
+     * {@link RequestOptions#isKeepFresh()}.
+     *
+     * @param maxIdleMillis
+     * @see #setMaxPinnedIdleMillis(long)
+     */
+    public void setMaxIdleMillis(long maxIdleMillis)
+    {
+        if ( maxIdleMillis <= 0 )
+        {
+            throw new IllegalArgumentException( "max. idle time must be > 0" );
+        }
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * Sets how long a query that was requested with
+     * {@link RequestOptions#isKeepFresh()} may go unread before it is no
+     * longer refreshed (for example because the character it belongs to was
+     * removed).
+     *
+     * @param maxPinnedIdleMillis
+     */
+    public void setMaxPinnedIdleMillis(long maxPinnedIdleMillis)
+    {
+        if ( maxPinnedIdleMillis <= 0 )
+        {
+            throw new IllegalArgumentException( "max. idle time must be > 0" );
+        }
+        this.maxPinnedIdleMillis = maxPinnedIdleMillis;
+    }
+
+    /**
+     * Sets how long to wait after a response's <code>cachedUntil</code> time
+     * before refreshing it , to compensate for clock skew.
+     *
+     * @param refreshDelayMillis
+     */
+    public void setRefreshDelayMillis(long refreshDelayMillis)
+    {
+        if ( refreshDelayMillis < 0 )
+        {
+            throw new IllegalArgumentException( "refresh delay must be >= 0" );
+        }
+        this.refreshDelayMillis = refreshDelayMillis;
+    }
+
+    /**
+     * Sets the global refresh budget.
+     *
+     * @param maxRefreshes
+     *            max. number of refreshes per hour , <code>0</code> means
+     *            unlimited
+     */
+    public void setMaxRefreshesPerHour(int maxRefreshes)
+    {
+        if ( maxRefreshes < 0 )
+        {
+            throw new IllegalArgumentException( "max. refreshes must be >= 0" );
+        }
+
+        if ( maxRefreshes == 0 )
+        {
+            this.budget = null;
+        }
+        else
+        {
+            this.budget =
+                    new RequestRateLimiter( maxRefreshes / 3600.0d, Math.max( 1,
+                        maxRefreshes / 60 ) );
+        }
+    }
+
+    public void setMaxTrackedQueries(int maxTrackedQueries)
+    {
+        if ( maxTrackedQueries < 1 )
+        {
+            throw new IllegalArgumentException( "max. tracked queries must be >= 1" );
+        }
+        this.maxTrackedQueries = maxTrackedQueries;
+    }
+
+    /**
+     * Returns the number of queries currently being tracked.
+     *
+     * @return
+     */
+    public int getTrackedQueryCount()
+    {
+        return trackedQueries.size();
+    }
+
+    /**
+     * Returns the number of refreshes performed so far.
+     *
+     * @return
+     */
+    public long getRefreshCount()
+    {
+        return refreshCount.get();
+    }
+
+    /**
+     * Returns the number of refreshes that were postponed because the
+     * refresh budget was exhausted.
+     *
+     * @return
+     */
+    public long getPostponedRefreshCount()
+    {
+        return postponedRefreshCount.get();
+    }
+}
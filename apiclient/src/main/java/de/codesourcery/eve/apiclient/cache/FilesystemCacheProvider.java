@@ -31,6 +31,9 @@ import de.codesourcery.eve.skills.utils.ISystemClock;
  * Cache provider that uses {@link FilesystemResponseCache} instances as storage
  * backend.
  * 
+ * The on-disk storage format can be selected using the 
+ * {@link #OPTION_STORAGE} option.
+ * 
  * @author tobias.gierke@code-sourcery.de
  */
 public class FilesystemCacheProvider implements IResponseCacheProvider {
@@ -49,6 +52,22 @@ public class FilesystemCacheProvider implements IResponseCacheProvider {
 	private final Properties options = 
 		new Properties();
 
+	/**
+	 * Config option: Storage used by caches created by this provider.
+	 * 
+	 * Possible values: 
+	 * 
+	 * files - one file per cache entry ({@link FilesystemResponseCache} , default)
+	 * segmented - append-only segment files ({@link SegmentedLogResponseCache})
+	 * 
+	 * Changing this option does not affect caches that have already been created.
+	 * @see #setCacheOptions(Properties)
+	 */
+	public static final String OPTION_STORAGE = "filecache.storage";
+
+	public static final String STORAGE_FILES = "files";
+	public static final String STORAGE_SEGMENTED = "segmented";
+
 	public FilesystemCacheProvider(File cacheDirectory,ISystemClock systemClock) throws IOException {
 		this(cacheDirectory, null,systemClock);
 	}
@@ -103,8 +122,7 @@ public class FilesystemCacheProvider implements IResponseCacheProvider {
 				log.info("getCache(): Creating new cache for URI " + baseURI);
 
 				try {
-					result = new FilesystemResponseCache(cacheDirectory,
-							cipherProvider,systemClock);
+					result = createCache();
 					result.setCacheOptions( options );
 					caches.put(baseURI, result);
 				} catch (Exception e) {
@@ -118,6 +136,31 @@ public class FilesystemCacheProvider implements IResponseCacheProvider {
 		}
 	}
 
+	// guarded-by: caches
+	protected FilesystemResponseCache createCache() throws Exception {
+
+		final String storage =
+			options.getProperty( OPTION_STORAGE , STORAGE_FILES ).trim();
+
+		if ( STORAGE_SEGMENTED.equalsIgnoreCase( storage ) ) 
+		{
+			final long segmentSize = Long.parseLong( options.getProperty( 
+					SegmentedLogResponseCache.OPTION_SEGMENT_SIZE , 
+					Long.toString( SegmentedLogResponseCache.DEFAULT_SEGMENT_SIZE ) ).trim() );
+
+			log.info("createCache(): Using segmented log storage , segment size "+
+					segmentSize+" bytes");
+
+			return new SegmentedLogResponseCache( cacheDirectory , cipherProvider , systemClock ,
+					segmentSize );
+		} 
+		
+		if ( ! STORAGE_FILES.equalsIgnoreCase( storage ) ) {
+			log.error("createCache(): Unknown storage type '"+storage+"' , using '"+STORAGE_FILES+"'");
+		}
+		return new FilesystemResponseCache(cacheDirectory, cipherProvider,systemClock);
+	}
+
 	protected final String toFileName(URI baseURI) {
 		final String hostPart = baseURI.getHost().replaceAll("[\\.]", "_");
 
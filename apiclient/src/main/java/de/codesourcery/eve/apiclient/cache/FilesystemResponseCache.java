@@ -16,6 +16,7 @@ package de.codesourcery.eve.apiclient.cache;
  * limitations under the License.
  */
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -23,14 +24,17 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
 import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
-import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
 import javax.xml.stream.XMLInputFactory;
@@ -56,6 +60,12 @@ import de.codesourcery.eve.skills.utils.ISystemClock;
  * is executed or dirty cache entries get 
  * purged because of memory constraints.  
  *
+ * Disk I/O for a given cache entry (loading , writing , deleting)
+ * is serialized using striped locks on the query hash , 
+ * new entries are written to a temporary file that is
+ * atomically renamed afterwards so readers never see
+ * partially written files.
+ *
  * @author tobias.gierke@code-sourcery.de
  */
 public class FilesystemResponseCache extends InMemoryResponseCache {
@@ -72,6 +82,11 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 	private final ICipherProvider cipherProvider;
 	private final ISystemClock systemClock;
 	
+	private static final int DISK_LOCK_STRIPES = 32;
+	
+	// guards disk I/O of all entries whose query hash maps to the same stripe
+	private final Object[] diskLocks = new Object[ DISK_LOCK_STRIPES ];
+	
 	/**
 	 * Config option: Controls whether <code>put()</code> / <code>evict()</code> operations
 	 * will always be persisted to disk immediately.
@@ -87,6 +102,19 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 	 */
 	private boolean immediatelyWriteToDisk = false; 
 	
+	/**
+	 * Config option: Controls whether cache entries get
+	 * GZIP-compressed (before being encrypted) when written to disk.
+	 * 
+	 * Entries are always readable , regardless of this setting.
+	 * 
+	 * Possible values: true,false (default: true)
+	 * @see #setCacheOptions(Map)
+	 */
+	public static final String OPTION_COMPRESS = "filecache.compress";
+	
+	private volatile boolean compressOnDisk = true;
+	
 	public FilesystemResponseCache(String cacheDirectory,ISystemClock clock) throws IOException, XMLStreamException {
 		this( new File(cacheDirectory ), clock );
 	}
@@ -120,6 +148,10 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 		this.cipherProvider = provider;
 		this.cacheDirectory = cacheFile;
 
+		for ( int i = 0 ; i < diskLocks.length ; i++ ) {
+			diskLocks[i] = new Object();
+		}
+
 		if ( cacheFile.exists() && ! cacheFile.isDirectory() ) {
 			throw new IllegalAccessError("Cache directory "+cacheFile+" is not a directory ?");
 		}
@@ -142,36 +174,52 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 		return cacheDirectory;
 	}
 
+	/**
+	 * Returns the lock that needs to be held 
+	 * while reading/writing/deleting the on-disk
+	 * data of a cache entry.
+	 * 
+	 * @param queryHash
+	 * @return
+	 */
+	protected final Object getDiskLock(String queryHash) {
+		return diskLocks[ ( queryHash.hashCode() & 0x7fffffff ) % diskLocks.length ];
+	}
+
 	@Override
 	protected InternalAPIResponse loadFromBackingStore(APIQuery query) {
 
 		final File entryFile =
 			getFilenameForEntry( query );
 
-		if ( ! entryFile.exists() ) {
+		CacheEntry entry;
+		synchronized( getDiskLock( query.getHashString() ) ) 
+		{
+			if ( ! entryFile.exists() ) {
+				if ( log.isTraceEnabled() ) {
+					log.trace("loadFromBackingStore(): [ 2ND LEVEL CACHE MISS ] "+query.getHashString());
+				}
+				return null;
+			}
+
 			if ( log.isTraceEnabled() ) {
-				log.trace("loadFromBackingStore(): [ 2ND LEVEL CACHE MISS ] "+query.getHashString());
+				log.trace("loadFromBackingStore(): [ 2ND LEVEL CACHE HIT ] "+query.getHashString());
 			}
-			return null;
-		}
-		
-		if ( log.isTraceEnabled() ) {
-			log.trace("loadFromBackingStore(): [ 2ND LEVEL CACHE HIT ] "+query.getHashString());
-		}
 
-		CacheEntry entry;
-		try {
-			entry = loadCacheEntry( entryFile );
-			if ( entry == null ) { // file might've been corrupted , loadCacheEntry() will delete the file and return NULL
+			try {
+				entry = loadCacheEntry( entryFile );
+			} 
+			catch (Exception e) {
+				log.error("loadFromBackingStore(): Unable to load cache entry "+entryFile,e);
 				return null;
 			}
-			super.put( query , entry.response );
-			return entry.response;
-		} 
-		catch (Exception e) {
-			log.error("loadFromBackingStore(): Unable to load cache entry "+entryFile,e);
 		}
-		return null;
+		
+		if ( entry == null ) { // file might've been corrupted , loadCacheEntry() will delete the file and return NULL
+			return null;
+		}
+		super.put( query , entry.response );
+		return entry.response;
 	}
 
 	static final class CacheEntry {
@@ -194,15 +242,17 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 		}
 
 		// delete stale entry
-		cacheFile.delete();
+		synchronized( getDiskLock( query.getHashString() ) ) {
+			cacheFile.delete();
+		}
 	}
 
-	protected void cacheEntryEvicted(String queryHash , InternalAPIResponse entry) {
+	protected void cacheEntryEvicted(APIQuery query , InternalAPIResponse entry) {
 		try {
 			if ( log.isDebugEnabled() ) {
-				log.trace("cacheEntryEvicted(): hash="+queryHash);
+				log.trace("cacheEntryEvicted(): hash="+query.getHashString());
 			}
-			persistCacheEntry( queryHash , entry );
+			persistCacheEntryLocked( query.getHashString() , entry );
 		} 
 		catch (XMLStreamException e) {
 			log.error("cacheEntryEvicted(): Unable to store cache entry",e);
@@ -217,6 +267,10 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 	File getFilenameForEntry(String queryHash) {
 		return new File( getCacheDirectory() , queryHash+".xml" );
 	}
+
+	private File getTempFilenameForEntry(String queryHash) {
+		return new File( getCacheDirectory() , queryHash+".xml.tmp" );
+	}
 	
 	protected CacheEntry loadCacheEntry(File inputFile) throws IOException, XMLStreamException {
 		try {
@@ -241,17 +295,100 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 		log.trace("loadCacheEntries(): Loading cache entry "+
 				inputFile.getAbsolutePath() );
 
-		final XMLInputFactory inputFactory=
-			XMLInputFactory.newInstance();
+		final InputStream input = 
+			createDecompressingStream( createDecryptingStream( new FileInputStream( inputFile ) ) );
+		try {
+			return readCacheEntry( input , inputFile.getAbsolutePath() );
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Wraps an input stream so that data
+	 * gets decrypted using this cache's {@link ICipherProvider} (if any).
+	 * 
+	 * @param in
+	 * @return
+	 */
+	protected final InputStream createDecryptingStream(InputStream in) {
+		if ( this.cipherProvider == null ) {
+			return in;
+		}
+		return new CipherInputStream( in , this.cipherProvider.createCipher( true ) );
+	}
 
-		final InputStream input;
+	/**
+	 * Wraps an output stream so that data
+	 * gets encrypted using this cache's {@link ICipherProvider} (if any).
+	 * 
+	 * @param out
+	 * @return
+	 */
+	protected final OutputStream createEncryptingStream(OutputStream out) {
 		if ( this.cipherProvider == null ) {
-			input=new FileInputStream( inputFile );
-		} else {
-			input=
-				new CipherInputStream( new FileInputStream(inputFile) , 
-						this.cipherProvider.createCipher( true ) );
+			return out;
+		}
+		return new CipherOutputStream( out , this.cipherProvider.createCipher( false ) );
+	}
+
+	/**
+	 * Wraps an (already decrypted) output stream so that data 
+	 * gets GZIP-compressed , if enabled.
+	 * 
+	 * Compression needs to happen before encryption ,
+	 * encrypted data does not compress.
+	 * 
+	 * @param out
+	 * @return
+	 * @throws IOException
+	 * @see #OPTION_COMPRESS
+	 */
+	protected final OutputStream createCompressingStream(OutputStream out) throws IOException {
+		if ( ! compressOnDisk ) {
+			return out;
 		}
+		return new GZIPOutputStream( out , 8192 );
+	}
+	
+	/**
+	 * Wraps an (already decrypted) input stream 
+	 * so that GZIP-compressed data gets decompressed.
+	 * 
+	 * Uncompressed data (written by older versions or with
+	 * compression disabled) is passed through as-is.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	protected final InputStream createDecompressingStream(InputStream in) throws IOException {
+
+		final InputStream buffered = new BufferedInputStream( in );
+		buffered.mark( 2 );
+		final int b1 = buffered.read();
+		final int b2 = buffered.read();
+		buffered.reset();
+
+		if ( b1 == ( GZIPInputStream.GZIP_MAGIC & 0xff ) && b2 == ( GZIPInputStream.GZIP_MAGIC >> 8 ) ) {
+			return new GZIPInputStream( buffered , 8192 );
+		}
+		return buffered;
+	}
+	
+	/**
+	 * Reads a cache entry that was written
+	 * by {@link #writeCacheEntry(XMLStreamWriter, String, InternalAPIResponse)}.
+	 * 
+	 * @param input (decrypted) input stream , not closed by this method
+	 * @param source description of the input , used for error messages 
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	protected CacheEntry readCacheEntry(InputStream input,String source) throws XMLStreamException {
+
+		final XMLInputFactory inputFactory=
+			XMLInputFactory.newInstance();
 
 		final XMLStreamReader reader = inputFactory.createXMLStreamReader(input);
 		final XMLStreamHelper helper = new XMLStreamHelper( reader );
@@ -260,8 +397,8 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 
 			// skip to first start element
 			if ( ! helper.readEmptyStartElement( "cacheEntry") ) {
-				log.error("loadCacheEntry(): Corrupted cache file: "+inputFile);
-				throw new RuntimeException("Corrupted cache file: "+inputFile);
+				log.error("loadCacheEntry(): Corrupted cache file: "+source);
+				throw new RuntimeException("Corrupted cache file: "+source);
 			}
 
 			/* <cacheEntry>
@@ -321,7 +458,7 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 
 				@Override
 				public void visit(String apiQueryHashKey, InternalAPIResponse response) throws XMLStreamException {
-					if ( persistCacheEntry(apiQueryHashKey, response) ) {
+					if ( persistCacheEntryLocked(apiQueryHashKey, response) ) {
 						persistedCounter[0]++;
 					}
 				}
@@ -373,6 +510,24 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 		return false;
 	}
 
+	private boolean persistCacheEntryLocked(String apiQueryHashKey,InternalAPIResponse response) throws XMLStreamException {
+		synchronized( getDiskLock( apiQueryHashKey ) ) {
+			return persistCacheEntry( apiQueryHashKey , response );
+		}
+	}
+
+	/**
+	 * Writes a cache entry to disk , unless
+	 * an entry that is at least as recent is already stored.
+	 * 
+	 * Callers need to hold {@link #getDiskLock(String)} for
+	 * the given key.
+	 * 
+	 * @param apiQueryHashKey
+	 * @param response
+	 * @return <code>true</code> if the entry was written
+	 * @throws XMLStreamException
+	 */
 	protected boolean persistCacheEntry(String apiQueryHashKey,InternalAPIResponse response) throws XMLStreamException {
 
 		final File outputFile =
@@ -391,24 +546,36 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 				log.trace("visit(): Writing cache entry "+outputFile.getAbsolutePath());
 			}
 
-			final OutputStream out = createCacheFile( outputFile );
-
-			XMLStreamWriter writer=null;
+			final File tmpFile = getTempFilenameForEntry( apiQueryHashKey );
+			boolean success = false;
 			try {
-				writer= outputFactory.createXMLStreamWriter( out , FILE_ENCODING );
-				writer.writeStartDocument(FILE_ENCODING ,"1.0");
-				writeCacheEntry( writer , apiQueryHashKey , response );
-			} finally {
+				final OutputStream out = createCacheFile( tmpFile );
+
+				XMLStreamWriter writer=null;
 				try {
-					if ( writer != null ) {
-						writer.flush();
-						writer.close();
-					}
+					writer= outputFactory.createXMLStreamWriter( out , FILE_ENCODING );
+					writer.writeStartDocument(FILE_ENCODING ,"1.0");
+					writeCacheEntry( writer , apiQueryHashKey , response );
 				} finally {
-					out.close();
+					try {
+						if ( writer != null ) {
+							writer.flush();
+							writer.close();
+						}
+					} finally {
+						out.close();
+					}
 				}
-			}
 
+				Files.move( tmpFile.toPath() , outputFile.toPath() , 
+						StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+				success = true;
+			} 
+			finally {
+				if ( ! success ) {
+					tmpFile.delete();
+				}
+			}
 		} catch (IOException e) {
 			log.error("visit(): Failed to store cache entry "+outputFile,e);
 		}
@@ -452,15 +619,9 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 
 	protected OutputStream createCacheFile(File outputFile) throws IOException, XMLStreamException {
 
-		if ( cipherProvider != null ) {
-
-			final Cipher algo =
-				cipherProvider.createCipher( false );
-			final OutputStream fileOut = new FileOutputStream( outputFile , false );
-			return new BufferedOutputStream( new CipherOutputStream( fileOut , algo ) );
-		} 
-
-		return new BufferedOutputStream( new FileOutputStream( outputFile , false ) );
+		return new BufferedOutputStream( 
+				createCompressingStream( 
+						createEncryptingStream( new FileOutputStream( outputFile , false ) ) ) );
 	}
 
 	protected void writeCacheEntry(XMLStreamWriter writer , String queryHashCode, InternalAPIResponse response) throws IOException, XMLStreamException {
@@ -507,6 +668,16 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 				this.immediatelyWriteToDisk = false;
 			}
 		}
+		
+		if ( options.containsKey( OPTION_COMPRESS ) ) {
+			final String value = options.getProperty( OPTION_COMPRESS , "true" );
+			if ( "true".equalsIgnoreCase( value.trim() ) ) {
+				this.compressOnDisk = true;
+			} else if ( "false".equalsIgnoreCase( value.trim() ) ) {
+				log.info("setCacheOptions(): Disk cache compression disabled.");
+				this.compressOnDisk = false;
+			}
+		}
 	}
 	
 	@Override
@@ -530,7 +701,7 @@ public class FilesystemResponseCache extends InMemoryResponseCache {
 				log.trace("put(): Immediate-write mode enabled.");
 			}
 			try {
-				persistCacheEntry( query.getHashString() , response );
+				persistCacheEntryLocked( query.getHashString() , response );
 			}
 			catch (XMLStreamException e) {
 				log.error("put(): Immediate write to disk failed",e);
@@ -15,11 +15,19 @@
  */
 package de.codesourcery.eve.apiclient.cache;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -28,19 +36,35 @@ import de.codesourcery.eve.apiclient.datamodel.APIQuery;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
 /**
- * Crude thread-safe cache implementation used
+ * Thread-safe cache implementation used
  * for caching server responses.
  *
  * <pre>
  * This cache always try to utilize it's maximum size. When the
  * maximum size is exceeded, the cache tries to purge as many 
  * stale ( cachedUntilTime > serverTime ) entries as necessary
- * to get below the threshhold. If the cache is still over limit
+ * to get below the threshhold, starting with the entry that
+ * expired first. If the cache is still over limit
  * after all stale entries have been removed, the cache will
- * start removing entries by descending size, starting with the 
- * largest entry first.
+ * start removing entries using a size-weighted LRU strategy
+ * (GreedyDual-Size): Large entries that haven't been
+ * requested for a long time get removed first.
  * 
- * Subclassers must make sure their implementation is thread-safe.
+ * Lookups do not acquire any lock. Entries missing from memory are
+ * loaded using {@link #loadFromBackingStore(APIQuery)} without holding
+ * any global lock , concurrent requests for the same key
+ * wait for a single load. Stale and LRU entries are found
+ * using ordered indices , so evicting an entry takes O(log n).
+ * 
+ * Payloads of at least {@link #DEFAULT_COMPRESSION_THRESHOLD} bytes are
+ * stored compressed (see {@link InternalAPIResponse#compress()}) and
+ * decompressed when accessed , the cache size counts
+ * compressed bytes.
+ * 
+ * Subclassers must make sure their implementation is thread-safe,
+ * {@link #cacheEntryEvicted(APIQuery, InternalAPIResponse)} and 
+ * {@link #cacheEntryReplaced(APIQuery)} are invoked without
+ * holding any lock.
  * </pre>
  * 
  * @author tobias.gierke@code-sourcery.de
@@ -49,12 +73,124 @@ public class InMemoryResponseCache implements IResponseCache {
 
 	private static final Logger log = Logger.getLogger(InMemoryResponseCache.class);
 
-	// guarded-by: cache
-	// key = APIQuery#getHashString()
-	private final Map<String,InternalAPIResponse> cache =
-		new HashMap<String, InternalAPIResponse>();
+	private static final class Entry {
+
+		public final APIQuery key;
+		public final InternalAPIResponse response;
+		public final int size;
+		public final long expirationTime;
+		public final long sequence;
+
+		// GreedyDual-Size priority and time of last access , 
+		// updated on every cache hit
+		private volatile double priority;
+		private volatile long lastAccess;
+
+		// priority / time of last access the entry is 
+		// sorted by in the eviction index 
+		// guarded-by: indexLock
+		private double indexedPriority;
+		// guarded-by: indexLock
+		private long indexedAccess;
+
+		public Entry(APIQuery key, InternalAPIResponse response, long sequence,double inflation) {
+			this.key = key;
+			this.response = response;
+			this.size = response.getPayloadSize();
+			this.sequence = sequence;
+			if ( response.getServerTime() == null || response.getCachedUntilServerTime() == null ) {
+				this.expirationTime = Long.MIN_VALUE;
+			} else {
+				this.expirationTime = response.getCachedUntilServerTime().getServerTime().getTime();
+			}
+			this.priority = calcPriority( inflation );
+			this.lastAccess = sequence;
+			this.indexedPriority = priority;
+			this.indexedAccess = sequence;
+		}
+
+		private double calcPriority(double inflation) {
+			return inflation + ( 1.0d / Math.max( 1 , size ) );
+		}
+
+		public void touch(double inflation,long accessTime) {
+			this.priority = calcPriority( inflation );
+			this.lastAccess = accessTime;
+		}
+
+		// guarded-by: indexLock
+		public boolean isIndexUpToDate() {
+			return priority == indexedPriority && lastAccess == indexedAccess;
+		}
+
+		// guarded-by: indexLock
+		public void updateIndexedValues() {
+			indexedPriority = priority;
+			indexedAccess = lastAccess;
+		}
+	}
+
+	private static final Comparator<Entry> BY_EXPIRATION_TIME = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry o1, Entry o2)
+		{
+			if ( o1.expirationTime != o2.expirationTime ) {
+				return o1.expirationTime < o2.expirationTime ? -1 : 1;
+			}
+			return compareSequence( o1 , o2 );
+		}
+	};
+
+	private static final Comparator<Entry> BY_PRIORITY = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry o1, Entry o2)
+		{
+			final int result = Double.compare( o1.indexedPriority , o2.indexedPriority );
+			if ( result != 0 ) {
+				return result;
+			}
+			// least recently used first
+			return compareLongs( o1.indexedAccess , o2.indexedAccess );
+		}
+	};
+
+	private static int compareSequence(Entry o1,Entry o2) {
+		return compareLongs( o1.sequence , o2.sequence );
+	}
+
+	private static int compareLongs(long l1,long l2) {
+		if ( l1 == l2 ) {
+			return 0;
+		}
+		return l1 < l2 ? -1 : 1;
+	}
+
+	// modifications guarded-by: indexLock
+	private final ConcurrentMap<APIQuery,Entry> cache =
+		new ConcurrentHashMap<APIQuery, Entry>();
 
-	private volatile long payloadSize = 0;
+	private final Object indexLock = new Object();
+
+	// guarded-by: indexLock
+	private final TreeSet<Entry> expirationIndex = new TreeSet<Entry>( BY_EXPIRATION_TIME );
+
+	// guarded-by: indexLock
+	private final TreeSet<Entry> evictionIndex = new TreeSet<Entry>( BY_PRIORITY );
+
+	// GreedyDual-Size 'L' value , priority of the last evicted entry
+	// modifications guarded-by: indexLock
+	private volatile double inflation = 0.0d;
+
+	// logical clock , used for entry sequence numbers / access times
+	private final AtomicLong sequence = new AtomicLong(0);
+
+	// loads from the backing store currently in progress
+	private final ConcurrentMap<APIQuery,FutureTask<InternalAPIResponse>> pendingLoads =
+		new ConcurrentHashMap<APIQuery, FutureTask<InternalAPIResponse>>();
+
+	private final AtomicLong payloadSize = new AtomicLong(0);
 
 	/**
 	 * Max. cache size in bytes.
@@ -70,6 +206,23 @@ public class InMemoryResponseCache implements IResponseCache {
 	 */
 	public static final String OPTION_MEM_CACHE_SIZE= "memcache.cache_size";
 
+	/**
+	 * Payloads smaller than this are not worth compressing.
+	 */
+	public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+	
+	/**
+	 * Config option: Min. payload size in bytes for responses 
+	 * to be stored compressed.
+	 * 
+	 * Possible values: Integer value , negative values disable compression.
+	 * 
+	 * @see #setCacheOptions(Map)
+	 */
+	public static final String OPTION_COMPRESSION_THRESHOLD = "memcache.compression_threshold";
+	
+	private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
 	/**
 	 * Create instance.
 	 * 
@@ -119,27 +272,114 @@ public class InMemoryResponseCache implements IResponseCache {
 			throw new IllegalArgumentException("query cannot be NULL");
 		}
 
-		InternalAPIResponse result=null;
-		synchronized( cache ) {
-			result = cache.get( query.getHashString() );
+		final Entry entry = cache.get( query );
+		if ( entry != null ) {
 			if ( log.isTraceEnabled() ) {
-				if ( result != null ) {
-					log.trace("get(): [ 1ST LEVEL CACHE HIT ] query = "+query.getHashString());
-				} else {
-					log.trace("get(): [ 1ST LEVEL CACHE MISS ] query = "+query.getHashString());
+				log.trace("get(): [ 1ST LEVEL CACHE HIT ] query = "+query.getHashString());
+			}
+			entry.touch( inflation , sequence.incrementAndGet() );
+			return entry.response;
+		}
+
+		if ( log.isTraceEnabled() ) {
+			log.trace("get(): [ 1ST LEVEL CACHE MISS ] query = "+query.getHashString());
+		}
+		return loadOnce( query );
+	}
+
+	/**
+	 * Invokes {@link #loadFromBackingStore(APIQuery)} , making sure
+	 * that concurrent requests for the same query only
+	 * trigger a single load.
+	 */
+	private InternalAPIResponse loadOnce(final APIQuery query) {
+
+		FutureTask<InternalAPIResponse> task = pendingLoads.get( query );
+		if ( task == null ) 
+		{
+			final FutureTask<InternalAPIResponse> newTask = 
+				new FutureTask<InternalAPIResponse>( new Callable<InternalAPIResponse>() {
+
+				@Override
+				public InternalAPIResponse call() throws Exception
+				{
+					// another thread might've loaded the entry in the meantime
+					final Entry existing = cache.get( query );
+					if ( existing != null ) {
+						return existing.response;
+					}
+					return loadFromBackingStore( query );
+				}
+			});
+
+			task = pendingLoads.putIfAbsent( query , newTask );
+			if ( task == null ) {
+				task = newTask;
+				try {
+					newTask.run();
+				} finally {
+					pendingLoads.remove( query , newTask );
+				}
+			}
+		}
+
+		boolean interrupted = false;
+		try {
+			while ( true ) {
+				try {
+					return task.get();
+				} 
+				catch (InterruptedException e) {
+					interrupted = true;
 				}
 			}
-			if ( result == null ) {
-				result = loadFromBackingStore( query );
+		}
+		catch (ExecutionException e) 
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException ) {
+				throw (RuntimeException) cause;
+			} 
+			if ( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException( cause );
+		} 
+		finally {
+			if ( interrupted ) {
+				Thread.currentThread().interrupt();
 			}
 		}
-		return result;
 	}
 
 	protected long getMaxCacheMemSize() {
 		return maxSize;
 	}
+	
+	/**
+	 * Sets the min. payload size for responses to be
+	 * stored compressed.
+	 * 
+	 * @param threshold payload size in bytes , negative values disable compression
+	 */
+	public void setCompressionThreshold(int threshold) {
+		this.compressionThreshold = threshold;
+	}
+	
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
 
+	/**
+	 * Subclassing hook invoked on a cache miss.
+	 * 
+	 * Note that this method is invoked without holding
+	 * any lock , implementations that find a response
+	 * should store it using {@link #put(APIQuery, InternalAPIResponse)}.
+	 * 
+	 * @param query
+	 * @return response or <code>null</code>
+	 */
 	protected InternalAPIResponse loadFromBackingStore(APIQuery query) {
 		return null;
 	}
@@ -157,28 +397,56 @@ public class InMemoryResponseCache implements IResponseCache {
 			throw new IllegalArgumentException("response cannot be NULL");
 		}
 
-		synchronized( cache ) 
-		{
-			final InternalAPIResponse evicted = cache.put( query.getHashString() , response );
-
-			this.payloadSize += response.getPayloadSize();
+		final int threshold = this.compressionThreshold;
+		final InternalAPIResponse stored;
+		if ( threshold >= 0 && response.getPayloadSize() >= threshold ) {
+			stored = response.compress();
+		} else {
+			stored = response;
+		}
+		
+		final Entry entry = 
+			new Entry( query , stored , sequence.incrementAndGet() , inflation );
 
-			if ( evicted != null ) {
-				this.payloadSize -= evicted.getPayloadSize();
-				cacheEntryReplaced( query );
+		final Entry replaced;
+		synchronized( indexLock ) 
+		{
+			replaced = cache.put( query , entry );
+			if ( replaced != null ) {
+				removeFromIndices( replaced );
 			}
+			expirationIndex.add( entry );
+			evictionIndex.add( entry );
+			this.payloadSize.addAndGet( entry.size );
+		}
 
-			if ( this.payloadSize > getMaxCacheMemSize() ) {
-				purgeCache(true);
-			}
+		if ( replaced != null ) {
+			cacheEntryReplaced( query );
+		}
+
+		if ( getSize() > getMaxCacheMemSize() ) {
+			purgeCache(true);
 		}
 
 		if ( log.isTraceEnabled() ) {
-			log.trace("put(): entry added , cache size now: "+this.payloadSize+" bytes");
+			log.trace("put(): entry added , cache size now: "+getSize()+" bytes");
 		}
 
 	}
 
+	// guarded-by: indexLock
+	private void removeFromIndices(Entry entry) {
+		expirationIndex.remove( entry );
+		evictionIndex.remove( entry );
+		this.payloadSize.addAndGet( -entry.size );
+	}
+
+	// guarded-by: indexLock
+	private void remove(Entry entry) {
+		cache.remove( entry.key , entry );
+		removeFromIndices( entry );
+	}
+
 	protected void cacheEntryReplaced(APIQuery query) {
 
 	}
@@ -187,10 +455,7 @@ public class InMemoryResponseCache implements IResponseCache {
 	 * @see de.codesourcery.eve.apiclient.IResponseCache#purgeCache(boolean)
 	 */
 	public final void purgeCache(boolean force) {
-
-		synchronized( cache ) {
-			purgeItems(force);
-		}
+		purgeItems(force);
 	}
 
 	private static final ISystemClock clock = new ISystemClock() {
@@ -208,66 +473,51 @@ public class InMemoryResponseCache implements IResponseCache {
 
 	protected void purgeItems(boolean force) {
 
-		synchronized( cache ) {
-			while ( getSize() > maxSize || force ) {
-
-				String largestKey = null; 
-				InternalAPIResponse largest=null;
+		final List<Entry> evicted = new ArrayList<Entry>();
 
-				for(Iterator<String> it = this.cache.keySet().iterator() ; it.hasNext()  ;  ) 
-				{
-					final String query = it.next();
-
-					final InternalAPIResponse response =
-						this.cache.get( query );
-
-					if ( response.mayBeRequestedAgain( clock ) ) {
-
-						it.remove();
-
-						if ( log.isTraceEnabled() ) {
-							log.trace("purgeItems(): freed "+response.getPayloadSize()+" bytes.");
-						}			
-						payloadSize -= response.getPayloadSize();
-
-						cacheEntryEvicted( query , response); 
-
-						// not forced = remove as few entries as possible
-						if ( getSize() <= maxSize && ! force) {
-							return;
-						}
-						continue;
-					}
-
-					if ( largest == null || response.hasLargerPayloadThan( largest ) )
-					{
-						largestKey = query;
-						largest = response;
-					}
+		synchronized( indexLock ) 
+		{
+			// remove stale entries , oldest first
+			while ( ! expirationIndex.isEmpty() && ( force || getSize() > maxSize ) ) 
+			{
+				final Entry oldest = expirationIndex.first();
+				if ( ! oldest.response.mayBeRequestedAgain( clock ) ) {
+					break;
 				}
+				remove( oldest );
+				evicted.add( oldest );
+			}
 
-				// stop , we've already reached a size below maxSize
-				if ( getSize() <= maxSize ) {
-					return;
+			// remove entries with lowest priority
+			while ( getSize() > maxSize ) 
+			{
+				final Entry candidate = evictionIndex.pollFirst();
+				if ( candidate == null ) { // should never happen 
+					break;
 				}
 
-				if ( largest == null) { // should never happen 
-					return;
+				if ( ! candidate.isIndexUpToDate() ) {
+					// entry has been accessed since it was indexed , re-insert
+					candidate.updateIndexedValues();
+					evictionIndex.add( candidate );
+					continue;
 				}
 
-				// remove largest chunk from cache and try again
-				final InternalAPIResponse removed =
-					this.cache.remove( largestKey );
-				if ( log.isTraceEnabled() ) {
-					log.trace("purgeItems(): freed "+largest.getPayloadSize()+" bytes.");
-				}				
-				this.payloadSize -= largest.getPayloadSize();
-				cacheEntryEvicted( largestKey , removed ); 
+				inflation = candidate.indexedPriority;
+				remove( candidate );
+				evicted.add( candidate );
+			}
+		}
+
+		for ( Entry entry : evicted ) {
+			if ( log.isTraceEnabled() ) {
+				log.trace("purgeItems(): freed "+entry.size+" bytes.");
 			}
+			cacheEntryEvicted( entry.key , entry.response );
 		}
 	}
 
-	protected void cacheEntryEvicted(String queryHash , InternalAPIResponse entry) {
+	protected void cacheEntryEvicted(APIQuery query , InternalAPIResponse entry) {
 
 	}
 
@@ -278,16 +528,21 @@ public class InMemoryResponseCache implements IResponseCache {
 		if ( query == null ) {
 			throw new IllegalArgumentException("query cannot be NULL");
 		}
-		synchronized (cache) {
-			final InternalAPIResponse evicted = cache.remove( query.getHashString() );
+
+		final Entry evicted;
+		synchronized( indexLock ) {
+			evicted = cache.get( query );
 			if ( evicted != null ) {
-				this.payloadSize -= evicted.getPayloadSize();
-				if ( log.isTraceEnabled() ) {
-					log.trace("evict(): freed "+evicted.getPayloadSize()+" bytes.");
-				}				
-				cacheEntryEvicted( query.getHashString() , evicted );
+				remove( evicted );
 			}
 		}
+
+		if ( evicted != null ) {
+			if ( log.isTraceEnabled() ) {
+				log.trace("evict(): freed "+evicted.size+" bytes.");
+			}				
+			cacheEntryEvicted( evicted.key , evicted.response );
+		}
 	}
 
 	/**
@@ -297,7 +552,7 @@ public class InMemoryResponseCache implements IResponseCache {
 	 * @return
 	 */
 	public long getSize() {
-		return this.payloadSize; // UTF-16 => 2 bytes per character
+		return this.payloadSize.get(); // payloads are stored as UTF-8 bytes
 	}
 
 	/* (non-Javadoc)
@@ -307,32 +562,42 @@ public class InMemoryResponseCache implements IResponseCache {
 
 		log.debug("flush(): Discarding all cached entries.");
 
-		synchronized (cache) {
-			for ( Map.Entry<String,InternalAPIResponse> entry : cache.entrySet() ) {
-				cacheEntryEvicted( entry.getKey() , entry.getValue() );
-			}
+		final List<Entry> evicted;
+		synchronized( indexLock ) {
+			evicted = new ArrayList<Entry>( cache.values() );
 			cache.clear();
-			this.payloadSize = 0;
+			expirationIndex.clear();
+			evictionIndex.clear();
+			this.payloadSize.set( 0 );
+		}
+
+		for ( Entry entry : evicted ) {
+			cacheEntryEvicted( entry.key , entry.response );
 		}
 	}
 
 	@Override
 	public final void shutdown() {
-		synchronized( cache ) {
-			shutdownHook();
-			clear();
-		}
+		shutdownHook();
+		clear();
 	}
 
 	protected interface ICacheVisitor {
 		public void visit(String apiQueryHashKey, InternalAPIResponse response) throws Exception;
 	}
 
+	/**
+	 * Visits all cache entries.
+	 * 
+	 * Entries added or removed while this
+	 * method is running may or may not be visited.
+	 * 
+	 * @param v
+	 * @throws Exception
+	 */
 	protected void visitCache(ICacheVisitor v) throws Exception {
-		synchronized( cache ) {
-			for ( Map.Entry<String, InternalAPIResponse> entry : cache.entrySet() ) {
-				v.visit( entry.getKey() , entry.getValue() );
-			}
+		for ( Entry entry : cache.values() ) {
+			v.visit( entry.key.getHashString() , entry.response );
 		}
 	}
 
@@ -354,5 +619,15 @@ public class InMemoryResponseCache implements IResponseCache {
 				log.error("setCacheOptions(): Failed to set memory size to '"+value+"'");
 			}
 		}
+		
+		if ( options.containsKey( OPTION_COMPRESSION_THRESHOLD ) ) {
+			final String value = options.getProperty( OPTION_COMPRESSION_THRESHOLD );
+			try {
+				setCompressionThreshold( Integer.parseInt( value.trim() ) );
+				log.info("setCacheOptions(): Compressing payloads >= "+compressionThreshold+" bytes");
+			} catch(Exception e) {
+				log.error("setCacheOptions(): Invalid compression threshold '"+value+"'");
+			}
+		}
 	}
 }
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.datamodel.APIQuery;
+import de.codesourcery.eve.apiclient.parsers.ICacheableResponseParser;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Thread-safe cache that holds parsed API results (as returned
+ * by {@link ICacheableResponseParser#getResult()} ).
+ *
+ * <pre>
+ * This cache sits in front of the {@link IResponseCache} that
+ * holds the raw XML responses. Each entry remembers the
+ * {@link InternalAPIResponse} it was parsed from and
+ * is only handed out if the raw response the client is about to
+ * parse is the same (same receive timestamp , server time and
+ * cachedUntil time). This way the raw response cache stays the
+ * authoritative source and this cache never returns data that
+ * differs from what parsing the cached XML would yield.
+ *
+ * Entries are discarded once their cachedUntil time has passed
+ * or when the cache exceeds its maximum number of entries
+ * (least-recently used entries are removed first).
+ * </pre>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class ParsedResponseCache
+{
+    private static final Logger log = Logger.getLogger( ParsedResponseCache.class );
+
+    /**
+     * Default max. number of cached results.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+
+    private static final class Entry {
+
+        public final InternalAPIResponse response;
+        public final int apiVersion;
+        public final Object result;
+
+        public Entry(InternalAPIResponse response, int apiVersion, Object result) {
+            this.response = response;
+            this.apiVersion = apiVersion;
+            this.result = result;
+        }
+
+        public boolean isParsedFrom(InternalAPIResponse other)
+        {
+            if ( this.response == other ) {
+                return true;
+            }
+            return ObjectUtils.equals( response.getTimestamp() , other.getTimestamp() ) &&
+                   ObjectUtils.equals( response.getServerTime() , other.getServerTime() ) &&
+                   ObjectUtils.equals( response.getCachedUntilServerTime() , other.getCachedUntilServerTime() );
+        }
+    }
+
+    // guarded-by: cache
+    private final LinkedHashMap<APIQuery,Entry> cache =
+        new LinkedHashMap<APIQuery, Entry>(16, 0.75f , true )
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<APIQuery, Entry> eldest)
+        {
+            return size() > maxEntries;
+        }
+    };
+
+    private volatile int maxEntries;
+
+    private final ISystemClock systemClock;
+
+    /**
+     * Create instance with default size.
+     *
+     * @param systemClock
+     * @see #DEFAULT_MAX_ENTRIES
+     */
+    public ParsedResponseCache(ISystemClock systemClock) {
+        this( DEFAULT_MAX_ENTRIES , systemClock );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param maxEntries max. number of parsed results to keep,
+     * <code>0</code> disables caching
+     * @param systemClock
+     */
+    public ParsedResponseCache(int maxEntries,ISystemClock systemClock) {
+        if ( systemClock == null ) {
+            throw new IllegalArgumentException("systemClock cannot be NULL");
+        }
+        setMaxEntries( maxEntries );
+        this.systemClock = systemClock;
+    }
+
+    /**
+     * Sets the max. number of parsed results to keep.
+     *
+     * @param maxEntries max. number of entries, <code>0</code> disables caching
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        if ( maxEntries < 0 ) {
+            throw new IllegalArgumentException("max. number of entries must be >= 0");
+        }
+        log.info("setMaxEntries(): Caching at most "+maxEntries+" parsed results.");
+        this.maxEntries = maxEntries;
+        synchronized( cache )
+        {
+            for ( Iterator<APIQuery> it = cache.keySet().iterator() ; it.hasNext() && cache.size() > maxEntries ; ) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * Restores a parser's state from a cached result.
+     *
+     * @param query
+     * @param response the (raw) response the parser would otherwise have to parse
+     * @param parser
+     * @return <code>true</code> if a matching result was found and the parser's
+     * state has been restored, <code>false</code> if the caller needs to parse
+     * the response itself
+     */
+    @SuppressWarnings("unchecked")
+    public <T> boolean restore(APIQuery query,InternalAPIResponse response,ICacheableResponseParser<T> parser)
+    {
+        final Entry entry;
+        synchronized( cache )
+        {
+            entry = cache.get( query );
+            if ( entry == null ) {
+                if ( log.isTraceEnabled() ) {
+                    log.trace("restore(): [ PARSED RESULT CACHE MISS ] query = "+query.getHashString());
+                }
+                return false;
+            }
+
+            if ( ! entry.isParsedFrom( response ) ) {
+                if ( log.isTraceEnabled() ) {
+                    log.trace("restore(): [ PARSED RESULT OUTDATED ] query = "+query.getHashString());
+                }
+                cache.remove( query );
+                return false;
+            }
+        }
+
+        if ( log.isTraceEnabled() ) {
+            log.trace("restore(): [ PARSED RESULT CACHE HIT ] query = "+query.getHashString());
+        }
+        parser.reset();
+        parser.restoreFromCache( entry.response , entry.apiVersion , parser.copyResult( (T) entry.result ) );
+        return true;
+    }
+
+    /**
+     * Stores a parser's result.
+     *
+     * The parser must've successfully parsed the given response.
+     *
+     * @param query
+     * @param response the response the parser's result was created from
+     * @param parser
+     */
+    public <T> void put(APIQuery query,InternalAPIResponse response,ICacheableResponseParser<T> parser)
+    {
+        if ( maxEntries == 0 ) {
+            return;
+        }
+
+        /*
+         * Store a copy so callers cannot
+         * alter the cached object.
+         */
+        final Entry entry =
+            new Entry( response , parser.getAPIVersion() , parser.copyResult( parser.getResult() ) );
+
+        synchronized( cache )
+        {
+            purgeExpiredEntries();
+            cache.put( query , entry );
+        }
+    }
+
+    // guarded-by: cache
+    private void purgeExpiredEntries()
+    {
+        for ( Iterator<Entry> it = cache.values().iterator() ; it.hasNext() ; )
+        {
+            if ( it.next().response.mayBeRequestedAgain( systemClock ) ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the parsed result for a given query.
+     *
+     * @param query
+     */
+    public void evict(APIQuery query)
+    {
+        synchronized( cache ) {
+            cache.remove( query );
+        }
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear()
+    {
+        synchronized( cache ) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return
+     */
+    public int size()
+    {
+        synchronized( cache ) {
+            return cache.size();
+        }
+    }
+}
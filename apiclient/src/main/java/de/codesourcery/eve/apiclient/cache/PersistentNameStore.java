@@ -0,0 +1,258 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Size-bounded map from entity ID to name
+ * that is persisted to a file.
+ * 
+ * <pre>
+ * New entries are appended to the file as they're added , one 
+ * <code>ID TAB name</code> line per entry. When the file contains
+ * much more lines than entries in memory (because of updated or evicted
+ * entries) it gets rewritten from scratch.
+ * 
+ * When the store grows beyond its maximum size , the 
+ * least-recently used entries are discarded.
+ * 
+ * This class is thread-safe.
+ * </pre>
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class PersistentNameStore {
+
+	private static final Logger log = Logger.getLogger(PersistentNameStore.class);
+
+	private static final String FILE_ENCODING = "UTF-8";
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	private final File file;
+	private final int maxEntries;
+
+	// guarded-by: this
+	private final LinkedHashMap<String,String> names;
+
+	// guarded-by: this
+	private Writer writer;
+
+	// number of lines in the file
+	// guarded-by: this
+	private int lineCount;
+
+	public PersistentNameStore(File file) throws IOException {
+		this( file , DEFAULT_MAX_ENTRIES );
+	}
+
+	/**
+	 * Create instance.
+	 * 
+	 * @param file file to store names in , gets created if it doesn't exist
+	 * @param maxEntries max. number of names to keep
+	 * @throws IOException
+	 */
+	public PersistentNameStore(File file,int maxEntries) throws IOException {
+
+		if ( file == null ) {
+			throw new IllegalArgumentException("file cannot be NULL");
+		}
+
+		if ( maxEntries < 1 ) {
+			throw new IllegalArgumentException("max. entries must be >= 1");
+		}
+
+		this.file = file;
+		this.maxEntries = maxEntries;
+		this.names = new LinkedHashMap<String,String>( 16 , 0.75f , true ) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > PersistentNameStore.this.maxEntries;
+			}
+		};
+
+		load();
+	}
+
+	private void load() throws IOException {
+
+		if ( ! file.exists() ) {
+			return;
+		}
+
+		final BufferedReader reader = 
+			new BufferedReader( new InputStreamReader( new FileInputStream( file ) , FILE_ENCODING ) );
+		try {
+			String line;
+			while ( ( line = reader.readLine() ) != null ) {
+				lineCount++;
+				final int index = line.indexOf( '\t' );
+				if ( index <= 0 ) {
+					log.warn("load(): Ignoring malformed line "+lineCount+" in "+file.getAbsolutePath());
+					continue;
+				}
+				names.put( line.substring( 0 , index ) , 
+						StringEscapeUtils.unescapeJava( line.substring( index+1 ) ) );
+			}
+		} finally {
+			reader.close();
+		}
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("load(): Loaded "+names.size()+" names from "+file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Looks up a name.
+	 * 
+	 * @param id
+	 * @return name or <code>null</code>
+	 */
+	public synchronized String get(String id) {
+		return names.get( id );
+	}
+
+	/**
+	 * Looks up names.
+	 * 
+	 * @param ids
+	 * @param result map to add names (by ID) to , IDs 
+	 * without a name are not added
+	 */
+	public synchronized void getAll(Iterable<String> ids,Map<String,String> result) {
+		for ( String id : ids ) {
+			final String name = names.get( id );
+			if ( name != null ) {
+				result.put( id , name );
+			}
+		}
+	}
+
+	/**
+	 * Adds names and writes them to disk.
+	 * 
+	 * @param namesById
+	 * @throws IOException
+	 */
+	public synchronized void putAll(Map<String,String> namesById) throws IOException {
+
+		final Writer out = getWriter();
+		for ( Map.Entry<String,String> entry : namesById.entrySet() ) {
+			if ( entry.getValue() == null || entry.getValue().equals( names.get( entry.getKey() ) ) ) {
+				continue;
+			}
+			names.put( entry.getKey() , entry.getValue() );
+			out.write( entry.getKey() );
+			out.write( '\t' );
+			out.write( StringEscapeUtils.escapeJava( entry.getValue() ) );
+			out.write( '\n' );
+			lineCount++;
+		}
+		out.flush();
+
+		if ( lineCount > 2 * Math.max( names.size() , 1000 ) ) {
+			compact();
+		}
+	}
+
+	// guarded-by: this
+	private Writer getWriter() throws IOException {
+		if ( writer == null ) {
+			writer = new BufferedWriter( new OutputStreamWriter( 
+					new FileOutputStream( file , true ) , FILE_ENCODING ) );
+		}
+		return writer;
+	}
+
+	/**
+	 * Rewrites the file with only the names currently in memory.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void compact() throws IOException {
+
+		close();
+
+		final File tmpFile = new File( file.getAbsolutePath()+".tmp" );
+		final Writer out = new BufferedWriter( new OutputStreamWriter( 
+				new FileOutputStream( tmpFile , false ) , FILE_ENCODING ) );
+		try {
+			// write least-recently used first so it's also loaded first
+			for ( Iterator<Map.Entry<String,String>> it = names.entrySet().iterator() ; it.hasNext() ; ) {
+				final Map.Entry<String,String> entry = it.next();
+				out.write( entry.getKey() );
+				out.write( '\t' );
+				out.write( StringEscapeUtils.escapeJava( entry.getValue() ) );
+				out.write( '\n' );
+			}
+		} finally {
+			out.close();
+		}
+
+		if ( ! file.delete() && file.exists() ) {
+			throw new IOException("Failed to delete "+file.getAbsolutePath());
+		}
+		if ( ! tmpFile.renameTo( file ) ) {
+			throw new IOException("Failed to rename "+tmpFile.getAbsolutePath()+" to "+file.getAbsolutePath());
+		}
+		lineCount = names.size();
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("compact(): Rewrote "+file.getAbsolutePath()+" with "+lineCount+" names.");
+		}
+	}
+
+	public synchronized int size() {
+		return names.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Closes the underlying file , the store 
+	 * re-opens it when names are added.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if ( writer != null ) {
+			try {
+				writer.close();
+			} finally {
+				writer = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,782 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.cache;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only storage for binary cache entries.
+ *
+ * <pre>
+ * Entries are appended to segment files (<code>segment-&lt;id&gt;.log</code>)
+ * , the current location of each key is kept in an in-memory
+ * index that gets rebuilt by scanning the record headers
+ * of all segments on startup.
+ *
+ * Record layout:
+ *
+ * int     magic
+ * byte    type (entry / tombstone)
+ * short   key length
+ * byte[]  key (US-ASCII)
+ * long    timestamp (used to detect stale updates)
+ * int     data length
+ * int     CRC32 of data
+ * byte[]  data
+ *
+ * Once a segment exceeds the configured size, a new segment is started.
+ * Sealed segments whose live data drops below 50% are compacted
+ * in the background by copying all live records to the
+ * current segment and deleting the old segment file.
+ *
+ * All reads use positional FileChannel reads. Memory-mapping sealed
+ * segments was dropped on purpose: A mapping cannot be released
+ * explicitly and keeps the file from being deleted after compaction
+ * on some platforms (Windows).
+ *
+ * This class is thread-safe.
+ * </pre>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+final class SegmentedEntryLog {
+
+	private static final Logger log = Logger.getLogger(SegmentedEntryLog.class);
+
+	private static final int MAGIC = 0xCAC4E001;
+
+	private static final byte TYPE_ENTRY = 1;
+	private static final byte TYPE_TOMBSTONE = 2;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * Sealed segments with less than this
+	 * fraction of live data get compacted.
+	 */
+	private static final double COMPACTION_THRESHOLD = 0.5d;
+
+	private final class Segment {
+
+		public final long id;
+		public final File file;
+
+		// guarded-by: this
+		private RandomAccessFile raf;
+
+		// guarded-by: appendLock (writes)
+		private volatile long size;
+		private volatile boolean sealed;
+
+		// number of bytes occupied by records the index points to
+		public final AtomicLong liveBytes = new AtomicLong(0);
+
+		public Segment(long id, File file, long size) {
+			this.id = id;
+			this.file = file;
+			this.size = size;
+		}
+
+		public synchronized FileChannel getChannel() throws IOException {
+			if ( raf == null ) {
+				raf = new RandomAccessFile( file , "rw" );
+			}
+			return raf.getChannel();
+		}
+
+		public void write(long position,ByteBuffer buffer) throws IOException {
+			final FileChannel channel = getChannel();
+			while ( buffer.hasRemaining() ) {
+				position += channel.write( buffer , position );
+			}
+		}
+
+		public byte[] read(long position,int length) throws IOException {
+
+			final byte[] result = new byte[ length ];
+
+			final FileChannel channel = getChannel();
+			final ByteBuffer buffer = ByteBuffer.wrap( result );
+			while ( buffer.hasRemaining() ) {
+				if ( channel.read( buffer , position + buffer.position() ) < 0 ) {
+					throw new EOFException("Premature end of segment "+file.getAbsolutePath());
+				}
+			}
+			return result;
+		}
+
+		public synchronized void close() throws IOException {
+			if ( raf != null ) {
+				try {
+					raf.close();
+				} finally {
+					raf = null;
+				}
+			}
+		}
+
+		public double getLiveRatio() {
+			return size == 0 ? 0.0d : liveBytes.get() / (double) size;
+		}
+
+		@Override
+		public String toString() {
+			return file.getName();
+		}
+	}
+
+	private static final class Location {
+
+		public final Segment segment;
+		public final long recordOffset;
+		public final int recordLength;
+		public final long dataOffset;
+		public final int dataLength;
+		public final int checksum;
+		public final long timestamp;
+
+		public Location(Segment segment, long recordOffset, int recordLength,
+				long dataOffset, int dataLength, int checksum,long timestamp)
+		{
+			this.segment = segment;
+			this.recordOffset = recordOffset;
+			this.recordLength = recordLength;
+			this.dataOffset = dataOffset;
+			this.dataLength = dataLength;
+			this.checksum = checksum;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private final File directory;
+	private final long maxSegmentSize;
+
+	private final ConcurrentMap<String,Location> index =
+		new ConcurrentHashMap<String, Location>();
+
+	// read lock: any segment access , write lock: segment deletion
+	private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
+	private final Object appendLock = new Object();
+
+	// guarded-by: appendLock
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	// guarded-by: appendLock
+	private Segment activeSegment;
+
+	private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+
+	private final Object compactionLock = new Object();
+
+	// guarded-by: appendLock
+	private ExecutorService compactionExecutor;
+
+	/**
+	 * Opens a log , creating the directory if it
+	 * does not exist yet.
+	 *
+	 * @param directory
+	 * @param maxSegmentSize max. size of a segment file in bytes
+	 * @throws IOException
+	 */
+	public SegmentedEntryLog(File directory,long maxSegmentSize) throws IOException {
+
+		if ( directory == null ) {
+			throw new IllegalArgumentException("directory cannot be NULL");
+		}
+
+		if ( maxSegmentSize < 1024 ) {
+			throw new IllegalArgumentException("Segment size must be at least 1024 bytes");
+		}
+
+		if ( ! directory.exists() && ! directory.mkdirs() ) {
+			throw new IOException("Unable to create directory "+directory.getAbsolutePath());
+		}
+
+		this.directory = directory;
+		this.maxSegmentSize = maxSegmentSize;
+
+		recover();
+	}
+
+	private void recover() throws IOException {
+
+		final File[] files = directory.listFiles( new FileFilter() {
+
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && f.getName().startsWith( SEGMENT_PREFIX ) &&
+				f.getName().endsWith( SEGMENT_SUFFIX );
+			}
+		});
+
+		final List<Segment> existing = new ArrayList<Segment>();
+		for ( File f : files ) {
+			final String name = f.getName();
+			try {
+				final long id = Long.parseLong( name.substring( SEGMENT_PREFIX.length() ,
+						name.length() - SEGMENT_SUFFIX.length() ) );
+				existing.add( new Segment( id , f , f.length() ) );
+			} catch(NumberFormatException e) {
+				log.warn("recover(): Ignoring file with invalid name "+f.getAbsolutePath());
+			}
+		}
+
+		final Segment[] sorted = existing.toArray( new Segment[ existing.size() ] );
+		Arrays.sort( sorted , new Comparator<Segment>() {
+
+			@Override
+			public int compare(Segment o1, Segment o2) {
+				return o1.id < o2.id ? -1 : ( o1.id > o2.id ? 1 : 0 );
+			}
+		});
+
+		long time = -System.currentTimeMillis();
+		synchronized( appendLock )
+		{
+			for ( Segment s : sorted ) {
+				scanSegment( s );
+				s.sealed = true;
+				segments.add( s );
+			}
+
+			if ( ! segments.isEmpty() ) {
+				final Segment last = segments.get( segments.size() - 1 );
+				if ( last.size < maxSegmentSize ) {
+					last.sealed = false;
+					activeSegment = last;
+				}
+			}
+		}
+		time += System.currentTimeMillis();
+
+		log.info("recover(): Found "+index.size()+" entries in "+sorted.length+" segments ("+time+" ms)");
+
+		scheduleCompaction();
+	}
+
+	private void scanSegment(Segment segment) throws IOException {
+
+		final DataInputStream in =
+			new DataInputStream( new BufferedInputStream( new FileInputStream( segment.file ) , 64*1024 ) );
+
+		long offset = 0;
+		try {
+			while ( offset < segment.size ) {
+
+				final int magic = in.readInt();
+				if ( magic != MAGIC ) {
+					throw new IOException("Bad record magic");
+				}
+
+				final byte type = in.readByte();
+				final byte[] key = new byte[ in.readShort() ];
+				in.readFully( key );
+				final long timestamp = in.readLong();
+				final int dataLength = in.readInt();
+				final int checksum = in.readInt();
+
+				final long dataOffset = offset + headerLength( key.length );
+				if ( dataOffset + dataLength > segment.size ) {
+					throw new EOFException("Truncated record");
+				}
+
+				int toSkip = dataLength;
+				while ( toSkip > 0 ) {
+					final int skipped = in.skipBytes( toSkip );
+					if ( skipped <= 0 ) {
+						throw new EOFException("Truncated record");
+					}
+					toSkip -= skipped;
+				}
+
+				final int recordLength = (int) ( dataOffset + dataLength - offset );
+				final String sKey = new String( key , "US-ASCII" );
+				if ( type == TYPE_ENTRY ) {
+					setLocation( sKey , new Location( segment , offset , recordLength ,
+							dataOffset , dataLength , checksum , timestamp ) );
+				} else {
+					setLocation( sKey , null );
+				}
+				offset += recordLength;
+			}
+		}
+		catch(IOException e)
+		{
+			// most likely a partially written record , discard everything after the last good record
+			log.error("scanSegment(): Segment "+segment.file.getAbsolutePath()+
+					" is corrupted at offset "+offset+" , truncating ("+e.getMessage()+")");
+			in.close();
+			segment.getChannel().truncate( offset );
+			segment.size = offset;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static int headerLength(int keyLength) {
+		return 4 + 1 + 2 + keyLength + 8 + 4 + 4;
+	}
+
+	/**
+	 * Updates the index.
+	 *
+	 * @param key
+	 * @param location new location or <code>null</code> if the key was deleted
+	 * @return previous location or <code>null</code>
+	 */
+	private Location setLocation(String key,Location location) {
+
+		final Location previous;
+		if ( location != null ) {
+			previous = index.put( key , location );
+			location.segment.liveBytes.addAndGet( location.recordLength );
+		} else {
+			previous = index.remove( key );
+		}
+
+		if ( previous != null ) {
+			previous.segment.liveBytes.addAndGet( -previous.recordLength );
+		}
+		return previous;
+	}
+
+	/**
+	 * Returns the timestamp that was stored
+	 * along with an entry.
+	 *
+	 * @param key
+	 * @return timestamp or <code>-1</code> if no entry exists for this key
+	 */
+	public long getTimestamp(String key) {
+		final Location location = index.get( key );
+		return location != null ? location.timestamp : -1;
+	}
+
+	/**
+	 * Returns whether this log holds an entry for a given key.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean contains(String key) {
+		return index.containsKey( key );
+	}
+
+	/**
+	 * Returns the number of (live) entries.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Reads the data of an entry.
+	 *
+	 * @param key
+	 * @return data or <code>null</code> if no entry exists for this key
+	 * @throws IOException on I/O errors or if the stored data is corrupted
+	 */
+	public byte[] read(String key) throws IOException {
+
+		segmentLock.readLock().lock();
+		try {
+			final Location location = index.get( key );
+			if ( location == null ) {
+				return null;
+			}
+
+			final byte[] data =
+				location.segment.read( location.dataOffset , location.dataLength );
+
+			if ( checksum( data ) != location.checksum ) {
+				throw new IOException("Checksum error in segment "+location.segment+
+						" , offset "+location.recordOffset);
+			}
+			return data;
+		}
+		finally {
+			segmentLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stores an entry , replacing any
+	 * previous entry with the same key.
+	 *
+	 * @param key key , must only consist of US-ASCII characters
+	 * @param timestamp
+	 * @param data
+	 * @throws IOException
+	 */
+	public void append(String key,long timestamp,byte[] data) throws IOException {
+
+		if ( data == null ) {
+			throw new IllegalArgumentException("data cannot be NULL");
+		}
+		appendRecord( TYPE_ENTRY , key , timestamp , data , null );
+	}
+
+	/**
+	 * Removes an entry.
+	 *
+	 * @param key
+	 * @throws IOException
+	 */
+	public void remove(String key) throws IOException {
+		if ( index.containsKey( key ) ) {
+			appendRecord( TYPE_TOMBSTONE , key , 0 , new byte[0] , null );
+		}
+	}
+
+	/**
+	 * Appends a record.
+	 *
+	 * @param expected if not <code>null</code> , the record is only
+	 * appended if the index still points to this location
+	 * @return <code>true</code> if the record was appended
+	 */
+	private boolean appendRecord(byte type,String key,long timestamp,byte[] data,Location expected) throws IOException {
+
+		if ( key == null ) {
+			throw new IllegalArgumentException("key cannot be NULL");
+		}
+
+		final byte[] keyBytes = key.getBytes( "US-ASCII" );
+		final int headerLength = headerLength( keyBytes.length );
+		final int checksum = checksum( data );
+
+		final ByteBuffer buffer = ByteBuffer.allocate( headerLength + data.length );
+		buffer.putInt( MAGIC );
+		buffer.put( type );
+		buffer.putShort( (short) keyBytes.length );
+		buffer.put( keyBytes );
+		buffer.putLong( timestamp );
+		buffer.putInt( data.length );
+		buffer.putInt( checksum );
+		buffer.put( data );
+		buffer.flip();
+
+		boolean rolled = false;
+		segmentLock.readLock().lock();
+		try {
+			synchronized( appendLock )
+			{
+				if ( expected != null && index.get( key ) != expected ) {
+					return false;
+				}
+
+				if ( activeSegment == null ||
+						( activeSegment.size > 0 && activeSegment.size + buffer.remaining() > maxSegmentSize ) )
+				{
+					rollSegment();
+					rolled = true;
+				}
+
+				final Segment segment = activeSegment;
+				final long offset = segment.size;
+				segment.write( offset , buffer );
+				segment.size = offset + headerLength + data.length;
+
+				if ( type == TYPE_ENTRY ) {
+					setLocation( key , new Location( segment , offset , headerLength + data.length ,
+							offset + headerLength , data.length , checksum , timestamp ) );
+				} else {
+					setLocation( key , null );
+				}
+			}
+		}
+		finally {
+			segmentLock.readLock().unlock();
+		}
+
+		if ( rolled ) {
+			scheduleCompaction();
+		}
+		return true;
+	}
+
+	// guarded-by: appendLock
+	private void rollSegment() throws IOException {
+
+		if ( activeSegment != null ) {
+			activeSegment.getChannel().force( false );
+			activeSegment.sealed = true;
+		}
+
+		final long id = segments.isEmpty() ? 1 : segments.get( segments.size() - 1 ).id + 1;
+		final File file = new File( directory , SEGMENT_PREFIX+String.format("%08d",id)+SEGMENT_SUFFIX );
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("rollSegment(): Starting new segment "+file.getAbsolutePath());
+		}
+
+		activeSegment = new Segment( id , file , 0 );
+		segments.add( activeSegment );
+	}
+
+	private static int checksum(byte[] data) {
+		final CRC32 crc = new CRC32();
+		crc.update( data );
+		return (int) crc.getValue();
+	}
+
+	private void scheduleCompaction() {
+
+		if ( ! compactionScheduled.compareAndSet( false , true ) ) {
+			return;
+		}
+
+		synchronized( appendLock )
+		{
+			if ( compactionExecutor == null ) {
+				compactionExecutor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						final Thread t = new Thread( r , "cache-log-compaction" );
+						t.setDaemon( true );
+						return t;
+					}
+				});
+			}
+
+			compactionExecutor.execute( new Runnable() {
+
+				@Override
+				public void run() {
+					compactionScheduled.set( false );
+					try {
+						compact();
+					}
+					catch (Exception e) {
+						log.error("run(): Compaction of "+directory.getAbsolutePath()+" failed",e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Compacts all sealed segments with
+	 * too little live data.
+	 *
+	 * This method is usually invoked by a background thread.
+	 *
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		synchronized( compactionLock ) {
+			internalCompact();
+		}
+	}
+
+	// guarded-by: compactionLock
+	private void internalCompact() throws IOException {
+
+		final List<Segment> candidates = new ArrayList<Segment>();
+		synchronized( appendLock ) {
+			for ( Segment s : segments ) {
+				if ( s.sealed && s.getLiveRatio() < COMPACTION_THRESHOLD ) {
+					candidates.add( s );
+				}
+			}
+		}
+
+		for ( Segment segment : candidates ) {
+			compact( segment );
+		}
+	}
+
+	// guarded-by: compactionLock
+	private void compact(Segment segment) throws IOException {
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("compact(): Compacting segment "+segment+" ("+
+					Math.round( segment.getLiveRatio() * 100.0d )+" % live data)");
+		}
+
+		final boolean hasOlderSegments;
+		synchronized( appendLock ) {
+			hasOlderSegments = segments.indexOf( segment ) > 0;
+		}
+
+		// copy live records to the active segment
+		for ( Map.Entry<String,Location> entry : index.entrySet() ) {
+			final Location location = entry.getValue();
+			if ( location.segment != segment ) {
+				continue;
+			}
+
+			final byte[] data;
+			segmentLock.readLock().lock();
+			try {
+				data = segment.read( location.dataOffset , location.dataLength );
+			} finally {
+				segmentLock.readLock().unlock();
+			}
+
+			appendRecord( TYPE_ENTRY , entry.getKey() , location.timestamp , data , location );
+		}
+
+		/*
+		 * Tombstones need to be kept as long as older
+		 * segments might contain records for the same key.
+		 * Records appended after the scan will always be found
+		 * in newer segments so they're never shadowed by
+		 * a copied tombstone.
+		 */
+		if ( hasOlderSegments ) {
+			for ( String key : readTombstones( segment ) ) {
+				if ( ! index.containsKey( key ) ) {
+					appendRecord( TYPE_TOMBSTONE , key , 0 , new byte[0] , null );
+				}
+			}
+		}
+
+		// make sure copied data is on disk before deleting the old segment
+		synchronized( appendLock ) {
+			if ( activeSegment != null ) {
+				activeSegment.getChannel().force( false );
+			}
+		}
+
+		segmentLock.writeLock().lock();
+		try {
+			synchronized( appendLock ) {
+				segments.remove( segment );
+			}
+			segment.close();
+			if ( ! segment.file.delete() ) {
+				log.error("compact(): Failed to delete segment "+segment.file.getAbsolutePath());
+			}
+		}
+		finally {
+			segmentLock.writeLock().unlock();
+		}
+	}
+
+	private List<String> readTombstones(Segment segment) throws IOException {
+
+		final List<String> result = new ArrayList<String>();
+		final DataInputStream in =
+			new DataInputStream( new BufferedInputStream( new FileInputStream( segment.file ) , 64*1024 ) );
+		try {
+			long offset = 0;
+			while ( offset < segment.size ) {
+				in.readInt(); // magic
+				final byte type = in.readByte();
+				final byte[] key = new byte[ in.readShort() ];
+				in.readFully( key );
+				in.readLong(); // timestamp
+				final int dataLength = in.readInt();
+				in.readInt(); // checksum
+				in.skipBytes( dataLength );
+				if ( type == TYPE_TOMBSTONE ) {
+					result.add( new String( key , "US-ASCII" ) );
+				}
+				offset += headerLength( key.length ) + dataLength;
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Flushes all data to disk and closes all files.
+	 *
+	 * Stops the background compaction. The log may still
+	 * be used after this method returned , files
+	 * will be re-opened as needed.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+
+		final ExecutorService executor;
+		synchronized( appendLock ) {
+			executor = compactionExecutor;
+			compactionExecutor = null;
+		}
+
+		if ( executor != null ) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination( 30 , TimeUnit.SECONDS );
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		segmentLock.writeLock().lock();
+		try {
+			synchronized( appendLock ) {
+				if ( activeSegment != null ) {
+					activeSegment.getChannel().force( false );
+				}
+				for ( Segment s : segments ) {
+					s.close();
+				}
+			}
+		} finally {
+			segmentLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of segment files.
+	 *
+	 * @return
+	 */
+	int getSegmentCount() {
+		synchronized( appendLock ) {
+			return segments.size();
+		}
+	}
+}
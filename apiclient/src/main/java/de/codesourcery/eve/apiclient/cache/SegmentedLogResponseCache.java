@@ -0,0 +1,214 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.datamodel.APIQuery;
+import de.codesourcery.eve.apiclient.utils.ICipherProvider;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Filesystem cache that stores all entries in
+ * a few append-only segment files instead of
+ * using one file per entry.
+ *
+ * <pre>
+ * Entries are still serialized using the
+ * format written by {@link #writeCacheEntry(XMLStreamWriter, String, InternalAPIResponse)}
+ * (and optionally encrypted), they're just stored in a
+ * {@link SegmentedEntryLog} instead of individual files. Entries
+ * that are not found in the log are looked up in the
+ * file-per-entry storage used by {@link FilesystemResponseCache}
+ * so existing caches keep working.
+ * </pre>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see FilesystemCacheProvider#OPTION_STORAGE
+ */
+public class SegmentedLogResponseCache extends FilesystemResponseCache {
+
+	private static final Logger log = Logger.getLogger(SegmentedLogResponseCache.class);
+
+	/**
+	 * Default max. size of a segment file (4 MB).
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Config option: Max. size of a segment file in bytes. Only
+	 * evaluated when the cache is created.
+	 *
+	 * Possible values: Long value.
+	 */
+	public static final String OPTION_SEGMENT_SIZE = "logcache.segment_size";
+
+	private final SegmentedEntryLog entryLog;
+
+	public SegmentedLogResponseCache(File cacheDirectory, ICipherProvider provider,
+			ISystemClock systemClock) throws IOException, XMLStreamException
+	{
+		this( cacheDirectory , provider , systemClock , DEFAULT_SEGMENT_SIZE );
+	}
+
+	/**
+	 * Create instance.
+	 *
+	 * @param cacheDirectory directory to store segment files in
+	 * @param provider <code>Cipher</code> provider to be used
+	 * for encrypting/decrypting the stored data, may be <code>null</code> (=no
+	 * encryption).
+	 * @param systemClock
+	 * @param maxSegmentSize max. size of a segment file in bytes
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public SegmentedLogResponseCache(File cacheDirectory, ICipherProvider provider,
+			ISystemClock systemClock,long maxSegmentSize) throws IOException, XMLStreamException
+	{
+		super( cacheDirectory , provider , systemClock );
+		this.entryLog = new SegmentedEntryLog( cacheDirectory , maxSegmentSize );
+	}
+
+	@Override
+	protected InternalAPIResponse loadFromBackingStore(APIQuery query)
+	{
+		final String key = query.getHashString();
+
+		byte[] data = null;
+		try {
+			data = entryLog.read( key );
+		}
+		catch (IOException e) {
+			log.error("loadFromBackingStore(): Discarding unreadable cache entry "+key,e);
+			discard( key );
+		}
+
+		if ( data == null ) {
+			// entry might still be stored in a file created by FilesystemResponseCache
+			return super.loadFromBackingStore( query );
+		}
+
+		if ( log.isTraceEnabled() ) {
+			log.trace("loadFromBackingStore(): [ 2ND LEVEL CACHE HIT ] "+key);
+		}
+
+		try {
+			final CacheEntry entry =
+				readCacheEntry( createDecompressingStream( 
+						createDecryptingStream( new ByteArrayInputStream( data ) ) ) , "log entry "+key );
+			put( query , entry.response );
+			return entry.response;
+		}
+		catch (Exception e) {
+			log.error("loadFromBackingStore(): Discarding corrupted cache entry "+key,e);
+			discard( key );
+		}
+		return null;
+	}
+
+	private void discard(String key) {
+		try {
+			entryLog.remove( key );
+		}
+		catch (IOException e) {
+			log.error("discard(): Failed to remove cache entry "+key,e);
+		}
+	}
+
+	@Override
+	protected void cacheEntryReplaced(APIQuery query)
+	{
+		if ( log.isTraceEnabled()) {
+			log.trace("cacheEntryReplaced(): Removing stale cache entry "+query.getHashString());
+		}
+		discard( query.getHashString() );
+		super.cacheEntryReplaced( query );
+	}
+
+	@Override
+	protected boolean persistCacheEntry(String apiQueryHashKey, InternalAPIResponse response) throws XMLStreamException
+	{
+		final long timestamp =
+			response.getServerTime() != null ? response.getServerTime().getServerTime().getTime() : 0;
+
+		if ( entryLog.getTimestamp( apiQueryHashKey ) >= timestamp ) {
+			if ( log.isTraceEnabled() ) {
+				log.trace("persistCacheEntry(): Found existing log entry for "+apiQueryHashKey);
+			}
+			return false;
+		}
+
+		try {
+			entryLog.append( apiQueryHashKey , timestamp , serialize( apiQueryHashKey , response ) );
+		}
+		catch (IOException e) {
+			log.error("persistCacheEntry(): Failed to store cache entry "+apiQueryHashKey,e);
+			return false;
+		}
+		return true;
+	}
+
+	private byte[] serialize(String apiQueryHashKey,InternalAPIResponse response) throws XMLStreamException, IOException {
+
+		final ByteArrayOutputStream bytes =
+			new ByteArrayOutputStream( response.getPayloadSize() + 512 );
+
+		final OutputStream out = createCompressingStream( createEncryptingStream( bytes ) );
+		try {
+			final XMLStreamWriter writer =
+				XMLOutputFactory.newInstance().createXMLStreamWriter( out , FILE_ENCODING );
+			try {
+				writer.writeStartDocument(FILE_ENCODING ,"1.0");
+				writeCacheEntry( writer , apiQueryHashKey , response );
+				writer.flush();
+			} finally {
+				writer.close();
+			}
+		} finally {
+			out.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	@Override
+	protected void shutdownHook()
+	{
+		super.shutdownHook();
+		try {
+			entryLog.close();
+		}
+		catch (IOException e) {
+			log.error("shutdownHook(): Failed to close cache log",e);
+		}
+	}
+
+	// unit-testing only
+	SegmentedEntryLog getEntryLog() {
+		return entryLog;
+	}
+}
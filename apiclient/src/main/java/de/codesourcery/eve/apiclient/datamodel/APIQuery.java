@@ -18,9 +18,7 @@ package de.codesourcery.eve.apiclient.datamodel;
 import java.net.URI;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 
 import de.codesourcery.eve.apiclient.cache.InMemoryResponseCache;
@@ -32,39 +30,104 @@ import de.codesourcery.eve.apiclient.cache.InMemoryResponseCache;
  * This class is used by the {@link InMemoryResponseCache} to
  * implement caching support. Proper <code>equals()</code>
  * / <code>hashCode()</code> implementations are <b>mandatory</b>.
+ * 
+ * The SHA-1 digest of the request is kept as two longs (the first 128 bits)
+ * plus an int (the remaining 32 bits) so instances are cheap to
+ * create , compare and hash. The hex string returned by {@link #getHashString()}
+ * (used for naming on-disk cache entries) is only created
+ * when actually needed.
  * </pre>
  * @author tobias.gierke@code-sourcery.de
  */
-public class APIQuery {
+public final class APIQuery {
 	
 	private static final char[] HEX = { '0' , '1' , '2', '3' , '4','5','6','7','8','9',
 		'a' , 'b' , 'c' , 'd' , 'e' , 'f' };
 
-	private final String hashCode;
+	private static final int DIGEST_LENGTH = 20;
 	
-	private static final String toString(byte[] data) {
-		final StringBuilder result =
-			new StringBuilder();
+	private static final ThreadLocal<DigestHelper> DIGEST = new ThreadLocal<DigestHelper>() {
+		@Override
+		protected DigestHelper initialValue() {
+			return new DigestHelper();
+		}
+	};
+	
+	private final long hi;
+	private final long lo;
+	private final int tail;
+	private final int hashCode;
+	
+	// created lazily , racy single-check is fine since Strings are immutable
+	private String hashString;
+	
+	/**
+	 * Per-thread SHA-1 digest and scratch buffer.
+	 */
+	private static final class DigestHelper {
+		
+		private final MessageDigest digest;
+		private byte[] buffer = new byte[128];
 		
-		for ( byte b : data ) {
-			result.append( HEX[ ( b & 0xf0 ) >> 4 ] );
-			result.append( HEX[ b & 0xf ] );
+		public DigestHelper() {
+			try {
+				digest = MessageDigest.getInstance("SHA1");
+			} 
+			catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		public void update(String s) {
+			
+			final int len = s.length();
+			if ( buffer.length < len ) {
+				buffer = new byte[ Math.max( len , buffer.length * 2 ) ];
+			}
+			
+			for ( int i = 0 ; i < len ; i++ ) {
+				final char c = s.charAt( i );
+				if ( c >= 0x80 ) {
+					// not plain ASCII , need to use the platform's encoding
+					digest.update( buffer , 0 , i );
+					digest.update( s.substring( i ).getBytes() );
+					return;
+				}
+				buffer[i] = (byte) c;
+			}
+			digest.update( buffer , 0 , len );
+		}
+		
+		public byte[] digest() {
+			return digest.digest();
 		}
-		return result.toString();
 	}
 	
 	@Override
 	public String toString() {
-		return "APIQuery[ hashCode="+hashCode+" ]";
+		return "APIQuery[ hashCode="+getHashString()+" ]";
 	}
 	
 	/**
 	 * Internal use only.
 	 * 
-	 * @param hashCode
+	 * @param hashCode hash string as returned by {@link #getHashString()}
 	 */
 	public APIQuery(String hashCode) {
-		this.hashCode = hashCode;
+		
+		if ( hashCode == null || hashCode.length() != DIGEST_LENGTH * 2 ) {
+			throw new IllegalArgumentException("Invalid hash string: "+hashCode);
+		}
+		
+		final byte[] data = new byte[ DIGEST_LENGTH ];
+		for ( int i = 0 ; i < DIGEST_LENGTH ; i++ ) {
+			data[i] = (byte) ( ( hexValue( hashCode , 2*i ) << 4 ) | hexValue( hashCode , 2*i+1 ) );
+		}
+		
+		this.hi = readLong( data , 0 );
+		this.lo = readLong( data , 8 );
+		this.tail = readInt( data , 16 );
+		this.hashCode = calcHashCode();
 	}
 	
 	/**
@@ -88,43 +151,91 @@ public class APIQuery {
 			throw new IllegalArgumentException("params cannot be NULL");
 		}
 		
-		final MessageDigest digest;
-		try {
-			digest =
-				MessageDigest.getInstance("SHA1");
-		} 
-		catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
-		}
+		final DigestHelper digest = DIGEST.get();
 		
-		digest.update( baseURI.resolve( relativeURI ).toString().getBytes() );
+		digest.update( baseURI.resolve( relativeURI ).toString() );
 		
 		// need to sort key since java.lang.Map has no fixed iteration order
-		final List<String> sortedKeys = new ArrayList<String>( params.keySet() );
-		Collections.sort( sortedKeys );
-		
+		final String[] sortedKeys = params.keySet().toArray( new String[ params.size() ] );
+		Arrays.sort( sortedKeys );
 		
 		for ( String key : sortedKeys ) {
-			digest.update( key.getBytes() );
-			digest.update( params.get( key ).toString().getBytes() );
+			digest.update( key );
+			digest.update( params.get( key ).toString() );
 		}
 		
-		this.hashCode = toString( digest.digest() );
+		final byte[] data = digest.digest();
+		this.hi = readLong( data , 0 );
+		this.lo = readLong( data , 8 );
+		this.tail = readInt( data , 16 );
+		this.hashCode = calcHashCode();
+	}
+	
+	private int calcHashCode() {
+		// digest bits are evenly distributed anyway
+		return (int) ( hi ^ ( hi >>> 32 ) );
+	}
+	
+	private static int hexValue(String s,int index) {
+		final int value = Character.digit( s.charAt( index ) , 16 );
+		if ( value == -1 ) {
+			throw new IllegalArgumentException("Invalid hash string: "+s);
+		}
+		return value;
+	}
+	
+	private static long readLong(byte[] data,int offset) {
+		return ( (long) readInt( data , offset ) << 32 ) | ( readInt( data , offset + 4 ) & 0xffffffffL );
+	}
+	
+	private static int readInt(byte[] data,int offset) {
+		return ( ( data[offset] & 0xff ) << 24 ) |
+			   ( ( data[offset+1] & 0xff ) << 16 ) |
+			   ( ( data[offset+2] & 0xff ) << 8 ) |
+			     ( data[offset+3] & 0xff );
 	}
 	
+	private static void appendHex(char[] out,int offset,long value,int bytes) {
+		for ( int i = bytes*2 - 1 ; i >= 0 ; i-- ) {
+			out[ offset + i ] = HEX[ (int) ( value & 0xf ) ];
+			value >>>= 4;
+		}
+	}
+	
+	/**
+	 * Returns the query's hash as a hex string.
+	 * 
+	 * @return 40 character hex string , suitable for
+	 * use as a file name
+	 */
 	public String getHashString() {
-		return hashCode;
+		String result = hashString;
+		if ( result == null ) {
+			final char[] chars = new char[ DIGEST_LENGTH * 2 ];
+			appendHex( chars , 0 , hi , 8 );
+			appendHex( chars , 16 , lo , 8 );
+			appendHex( chars , 32 , tail , 4 );
+			result = new String( chars );
+			hashString = result;
+		}
+		return result;
 	}
 	
 	@Override
 	public boolean equals(Object obj) {
-		return (obj instanceof APIQuery ) &&
-				this.hashCode.equals( ((APIQuery) obj).hashCode );
+		if ( obj == this ) {
+			return true;
+		}
+		if ( ! (obj instanceof APIQuery ) ) {
+			return false;
+		}
+		final APIQuery other = (APIQuery) obj;
+		return this.hi == other.hi && this.lo == other.lo && this.tail == other.tail;
 	}
 	
 	@Override
 	public int hashCode() {
-		return hashCode.hashCode();
+		return hashCode;
 	}
 	
 }
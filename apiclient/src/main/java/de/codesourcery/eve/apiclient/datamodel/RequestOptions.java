@@ -19,6 +19,7 @@ import de.codesourcery.eve.apiclient.IAPIClient;
 import de.codesourcery.eve.apiclient.IErrorHandler;
 import de.codesourcery.eve.apiclient.IResponseParserInvoker;
 import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.RefreshAheadScheduler;
 import de.codesourcery.eve.apiclient.exceptions.ResponseNotCachedException;
 
 /**
@@ -39,6 +40,14 @@ public class RequestOptions
     public static final RequestOptions DEFAULT =
             new RequestOptions( DataRetrievalStrategy.DEFAULT, true, null );
 
+    /**
+     * Like {@link #DEFAULT} but asks the client to keep the response fresh
+     * in the background.
+     * 
+     * @see #isKeepFresh()
+     */
+    public static final RequestOptions KEEP_FRESH = DEFAULT.withKeepFresh( true );
+
     /**
      * Controls cache handling for API server requests.
      * 
@@ -98,6 +107,7 @@ public class RequestOptions
     private final IErrorHandler errorHandler;
     private final boolean isResponseCacheable;
     private final boolean isBypassInvoker;
+    private final boolean isKeepFresh;
 
     /**
      * (returns altered instance!) Sets whether the request should bypass any
@@ -111,7 +121,21 @@ public class RequestOptions
     public RequestOptions withBypassInvoker(boolean yesNo)
     {
         return new RequestOptions( this.retrievalStrategy, this.isResponseCacheable,
-                yesNo, errorHandler );
+                yesNo, errorHandler, isKeepFresh );
+    }
+
+    /**
+     * (returns altered instance!) Sets whether the response should be
+     * refreshed in the background when it expires.
+     * 
+     * @param yesNo
+     * @return
+     * @see #isKeepFresh()
+     */
+    public RequestOptions withKeepFresh(boolean yesNo)
+    {
+        return new RequestOptions( this.retrievalStrategy, this.isResponseCacheable,
+                this.isBypassInvoker, errorHandler, yesNo );
     }
 
     /**
@@ -129,7 +153,7 @@ public class RequestOptions
     {
         return "RequestOptions[ data_retrieval_strategy = " + retrievalStrategy
                 + " , response_cacheable = " + isResponseCacheable + " , error_handler="
-                + errorHandler + " ]";
+                + errorHandler + " , keep_fresh=" + isKeepFresh + " ]";
     }
 
     /**
@@ -187,6 +211,13 @@ public class RequestOptions
     public RequestOptions(DataRetrievalStrategy retrievalStrategy,
             boolean isResponseCacheable, boolean isBypassInvoker,
             IErrorHandler errorHandler) {
+        this( retrievalStrategy, isResponseCacheable, isBypassInvoker, errorHandler,
+                false );
+    }
+
+    private RequestOptions(DataRetrievalStrategy retrievalStrategy,
+            boolean isResponseCacheable, boolean isBypassInvoker,
+            IErrorHandler errorHandler, boolean isKeepFresh) {
         if ( retrievalStrategy == null )
         {
             throw new IllegalArgumentException( "data retrieval strategy cannot be NULL" );
@@ -195,6 +226,7 @@ public class RequestOptions
         this.isResponseCacheable = isResponseCacheable;
         this.errorHandler = errorHandler;
         this.isBypassInvoker = isBypassInvoker;
+        this.isKeepFresh = isKeepFresh;
     }
 
     /**
@@ -213,6 +245,20 @@ public class RequestOptions
         return isBypassInvoker;
     }
 
+    /**
+     * Returns whether the client should re-fetch the response in the
+     * background when it expires , so that later requests are served from
+     * the cache.
+     * 
+     * Only has an effect if the client has a {@link RefreshAheadScheduler}.
+     * 
+     * @return
+     */
+    public boolean isKeepFresh()
+    {
+        return isKeepFresh;
+    }
+
     /**
      * Create request options.
      * 
@@ -0,0 +1,523 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.log4j.Logger;
+
+/**
+ * {@link IHttpTransport} backed by Apache HttpClient.
+ *
+ * <pre>
+ * - keep-alive connections are pooled , with a limit on the total
+ *   number of connections and on the number of connections per route (host)
+ * - connections idle for longer than {@link #setMaxIdleMillis(long)}
+ *   are closed (checked while sending requests , no background thread involved)
+ * - requests ask for gzip-compressed responses , compressed bodies are
+ *   decompressed while they're being read
+ * - connect / read timeouts
+ *
+ * All settings may be changed at any time , they apply to
+ * requests sent afterwards.
+ * </pre>
+ *
+ * This class is thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class DefaultHttpTransport implements IHttpTransport
+{
+    private static final Logger LOG = Logger.getLogger( DefaultHttpTransport.class );
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 30;
+
+    /**
+     * Default max. number of connections per host , HttpClient's own default
+     * (2) would serialize concurrent requests to the same server.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+
+    /**
+     * Default socket read timeout , generous enough for large responses from
+     * slow servers.
+     */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60 * 1000;
+
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 30 * 1000;
+
+    // pooled connections are checked before reuse after being idle for this long
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2 * 1000;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+
+    private final HttpTransportMetrics metrics = new HttpTransportMetrics();
+
+    private volatile RequestConfig requestConfig;
+    private volatile boolean compressionEnabled = true;
+    private volatile long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+
+    private final AtomicLong lastIdleCheck = new AtomicLong( System.currentTimeMillis() );
+
+    /**
+     * Create instance using the JVM's default SSL settings.
+     */
+    public DefaultHttpTransport() {
+        this( SSLContexts.createDefault() );
+    }
+
+    /**
+     * Create instance.
+     *
+     * @param sslContext
+     *            SSL context to use for HTTPS connections
+     */
+    public DefaultHttpTransport(SSLContext sslContext) {
+
+        if ( sslContext == null )
+        {
+            throw new IllegalArgumentException( "sslContext cannot be NULL" );
+        }
+
+        final Registry<ConnectionSocketFactory> registry =
+                RegistryBuilder.<ConnectionSocketFactory> create().register( "http",
+                    PlainConnectionSocketFactory.getSocketFactory() ).register( "https",
+                    new SSLConnectionSocketFactory( sslContext ) ).build();
+
+        connectionManager = new PoolingHttpClientConnectionManager( registry );
+        connectionManager.setMaxTotal( DEFAULT_MAX_CONNECTIONS );
+        connectionManager.setDefaultMaxPerRoute( DEFAULT_MAX_CONNECTIONS_PER_ROUTE );
+        connectionManager.setValidateAfterInactivity( VALIDATE_AFTER_INACTIVITY_MILLIS );
+
+        requestConfig = createRequestConfig( DEFAULT_CONNECT_TIMEOUT_MILLIS,
+            DEFAULT_READ_TIMEOUT_MILLIS );
+
+        // compression is handled by this class so it can be switched on/off
+        // at runtime and counted
+        client =
+                HttpClients.custom().setConnectionManager( connectionManager )
+                        .disableContentCompression().build();
+    }
+
+    private static RequestConfig createRequestConfig(int connectTimeoutMillis,
+            int readTimeoutMillis)
+    {
+        return RequestConfig.custom().setConnectTimeout( connectTimeoutMillis )
+                .setConnectionRequestTimeout( connectTimeoutMillis ).setSocketTimeout(
+                    readTimeoutMillis ).build();
+    }
+
+    /**
+     * Sets the max. number of connections (over all hosts).
+     *
+     * @param maxConnections
+     */
+    public void setMaxConnections(int maxConnections)
+    {
+        if ( maxConnections < 1 )
+        {
+            throw new IllegalArgumentException( "max. connections must be >= 1" );
+        }
+        connectionManager.setMaxTotal( maxConnections );
+    }
+
+    public int getMaxConnections()
+    {
+        return connectionManager.getMaxTotal();
+    }
+
+    /**
+     * Sets the max. number of connections to the same host.
+     *
+     * @param maxConnections
+     */
+    public void setMaxConnectionsPerRoute(int maxConnections)
+    {
+        if ( maxConnections < 1 )
+        {
+            throw new IllegalArgumentException( "max. connections must be >= 1" );
+        }
+        connectionManager.setDefaultMaxPerRoute( maxConnections );
+    }
+
+    public int getMaxConnectionsPerRoute()
+    {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    /**
+     * Sets the timeout for establishing a connection (and for waiting for a
+     * pooled connection to become available).
+     *
+     * @param millis
+     *            timeout in milliseconds , <code>0</code> means no timeout
+     */
+    public void setConnectTimeoutMillis(int millis)
+    {
+        if ( millis < 0 )
+        {
+            throw new IllegalArgumentException( "timeout must be >= 0" );
+        }
+        requestConfig = createRequestConfig( millis, requestConfig.getSocketTimeout() );
+    }
+
+    public int getConnectTimeoutMillis()
+    {
+        return requestConfig.getConnectTimeout();
+    }
+
+    /**
+     * Sets the max. time to wait for data while reading a response.
+     *
+     * @param millis
+     *            timeout in milliseconds , <code>0</code> means no timeout
+     */
+    public void setReadTimeoutMillis(int millis)
+    {
+        if ( millis < 0 )
+        {
+            throw new IllegalArgumentException( "timeout must be >= 0" );
+        }
+        requestConfig = createRequestConfig( requestConfig.getConnectTimeout(), millis );
+    }
+
+    public int getReadTimeoutMillis()
+    {
+        return requestConfig.getSocketTimeout();
+    }
+
+    /**
+     * Sets how long pooled connections may stay idle before they get closed.
+     *
+     * @param millis
+     */
+    public void setMaxIdleMillis(long millis)
+    {
+        if ( millis < 1 )
+        {
+            throw new IllegalArgumentException( "max. idle time must be >= 1" );
+        }
+        this.maxIdleMillis = millis;
+    }
+
+    public long getMaxIdleMillis()
+    {
+        return maxIdleMillis;
+    }
+
+    /**
+     * Enable/disable requesting gzip-compressed responses.
+     *
+     * @param enabled
+     */
+    public void setCompressionEnabled(boolean enabled)
+    {
+        this.compressionEnabled = enabled;
+    }
+
+    public boolean isCompressionEnabled()
+    {
+        return compressionEnabled;
+    }
+
+    @Override
+    public HttpTransportMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of connections currently in use.
+     *
+     * @return
+     */
+    public int getLeasedConnectionCount()
+    {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     * Returns the number of idle , pooled connections.
+     *
+     * @return
+     */
+    public int getAvailableConnectionCount()
+    {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    @Override
+    public <T> T get(URI uri, IResponseBodyHandler<T> handler) throws IOException
+    {
+        if ( uri == null )
+        {
+            throw new IllegalArgumentException( "uri cannot be NULL" );
+        }
+        return execute( new HttpGet( uri ), handler );
+    }
+
+    @Override
+    public <T> T post(URI uri, Map<String, Object> formParams,
+            IResponseBodyHandler<T> handler) throws IOException
+    {
+        if ( uri == null )
+        {
+            throw new IllegalArgumentException( "uri cannot be NULL" );
+        }
+        if ( formParams == null )
+        {
+            throw new IllegalArgumentException( "formParams cannot be NULL" );
+        }
+
+        final List<NameValuePair> pairs = new ArrayList<NameValuePair>( formParams.size() );
+        for (Map.Entry<String, Object> entry : formParams.entrySet())
+        {
+            pairs.add( new BasicNameValuePair( entry.getKey(), entry.getValue().toString() ) );
+        }
+
+        final HttpPost request = new HttpPost( uri );
+        request.setEntity( new UrlEncodedFormEntity( pairs ) );
+        return execute( request, handler );
+    }
+
+    private <T> T execute(HttpRequestBase request, final IResponseBodyHandler<T> handler)
+            throws IOException
+    {
+        if ( handler == null )
+        {
+            throw new IllegalArgumentException( "handler cannot be NULL" );
+        }
+
+        closeIdleConnections();
+
+        request.setConfig( requestConfig );
+        if ( compressionEnabled )
+        {
+            request.setHeader( "Accept-Encoding", "gzip" );
+        }
+
+        final HttpClientContext context = HttpClientContext.create();
+
+        metrics.recordRequest();
+        boolean success = false;
+        try
+        {
+            final T result = client.execute( request, new ResponseHandler<T>() {
+
+                @Override
+                public T handleResponse(HttpResponse response) throws IOException
+                {
+                    recordConnection( context );
+
+                    // same checks as BasicResponseHandler
+                    final StatusLine status = response.getStatusLine();
+                    if ( status.getStatusCode() >= 300 )
+                    {
+                        throw new HttpResponseException( status.getStatusCode(), status
+                                .getReasonPhrase() );
+                    }
+
+                    final HttpEntity entity = response.getEntity();
+                    if ( entity == null )
+                    {
+                        throw new ClientProtocolException( "Server response has no body" );
+                    }
+
+                    final InputStream in = openStream( entity );
+                    try
+                    {
+                        return handler.handleResponseBody( in );
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+            }, context );
+            success = true;
+            return result;
+        }
+        finally
+        {
+            if ( ! success )
+            {
+                metrics.recordFailure();
+            }
+        }
+    }
+
+    private void recordConnection(HttpClientContext context)
+    {
+        final HttpConnection connection = context.getConnection();
+        if ( connection == null )
+        {
+            return;
+        }
+        try
+        {
+            // the request we just sent is already counted
+            metrics.recordConnection( connection.getMetrics().getRequestCount() > 1 );
+        }
+        catch (RuntimeException e)
+        {
+            // connection already released
+            LOG.debug( "recordConnection(): Unable to get connection metrics", e );
+        }
+    }
+
+    private InputStream openStream(HttpEntity entity) throws IOException
+    {
+        final InputStream in = new CountingInputStream( entity.getContent() );
+        if ( isGzipEncoded( entity ) )
+        {
+            metrics.recordCompressedResponse();
+            return new GZIPInputStream( in );
+        }
+        return in;
+    }
+
+    private static boolean isGzipEncoded(HttpEntity entity)
+    {
+        final Header encoding = entity.getContentEncoding();
+        if ( encoding == null )
+        {
+            return false;
+        }
+        for (HeaderElement element : encoding.getElements())
+        {
+            if ( "gzip".equalsIgnoreCase( element.getName() )
+                    || "x-gzip".equalsIgnoreCase( element.getName() ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final class CountingInputStream extends FilterInputStream
+    {
+        public CountingInputStream(InputStream in) {
+            super( in );
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final int result = super.read();
+            if ( result != -1 )
+            {
+                metrics.recordBytesReceived( 1 );
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            final int result = super.read( b, off, len );
+            if ( result > 0 )
+            {
+                metrics.recordBytesReceived( result );
+            }
+            return result;
+        }
+    }
+
+    private void closeIdleConnections()
+    {
+        final long maxIdle = this.maxIdleMillis;
+        final long now = System.currentTimeMillis();
+        final long last = lastIdleCheck.get();
+
+        if ( now - last < maxIdle / 2 || ! lastIdleCheck.compareAndSet( last, now ) )
+        {
+            return;
+        }
+
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections( maxIdle, TimeUnit.MILLISECONDS );
+
+        if ( LOG.isDebugEnabled() )
+        {
+            final PoolStats stats = connectionManager.getTotalStats();
+            LOG.debug( "closeIdleConnections(): leased=" + stats.getLeased() + " , available="
+                    + stats.getAvailable() + " , pending=" + stats.getPending() + " , "
+                    + metrics );
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        LOG.debug( "shutdown(): Closing all connections." );
+        try
+        {
+            client.close();
+        }
+        catch (IOException e)
+        {
+            LOG.error( "shutdown(): Failed to close HTTP client", e );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DefaultHttpTransport[ max. connections=" + getMaxConnections()
+                + " , per route=" + getMaxConnectionsPerRoute() + " , " + metrics + " ]";
+    }
+}
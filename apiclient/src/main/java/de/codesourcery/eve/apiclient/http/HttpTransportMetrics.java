@@ -0,0 +1,143 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters maintained by a {@link IHttpTransport}.
+ *
+ * This class is thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class HttpTransportMetrics
+{
+    private final AtomicLong requests = new AtomicLong( 0 );
+    private final AtomicLong failedRequests = new AtomicLong( 0 );
+    private final AtomicLong newConnections = new AtomicLong( 0 );
+    private final AtomicLong reusedConnections = new AtomicLong( 0 );
+    private final AtomicLong compressedResponses = new AtomicLong( 0 );
+    private final AtomicLong bytesReceived = new AtomicLong( 0 );
+
+    public void recordRequest()
+    {
+        requests.incrementAndGet();
+    }
+
+    public void recordFailure()
+    {
+        failedRequests.incrementAndGet();
+    }
+
+    /**
+     * Records which connection a request was sent over.
+     *
+     * @param reused
+     *            <code>true</code> if the connection was taken from the pool ,
+     *            <code>false</code> if it was newly opened for this request
+     */
+    public void recordConnection(boolean reused)
+    {
+        if ( reused )
+        {
+            reusedConnections.incrementAndGet();
+        }
+        else
+        {
+            newConnections.incrementAndGet();
+        }
+    }
+
+    public void recordCompressedResponse()
+    {
+        compressedResponses.incrementAndGet();
+    }
+
+    /**
+     * Records response body bytes as received over the wire (before
+     * decompression).
+     *
+     * @param bytes
+     */
+    public void recordBytesReceived(long bytes)
+    {
+        bytesReceived.addAndGet( bytes );
+    }
+
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    public long getFailedRequestCount()
+    {
+        return failedRequests.get();
+    }
+
+    public long getNewConnectionCount()
+    {
+        return newConnections.get();
+    }
+
+    public long getReusedConnectionCount()
+    {
+        return reusedConnections.get();
+    }
+
+    /**
+     * Returns the fraction of requests sent over a pooled (kept-alive)
+     * connection.
+     *
+     * @return 0...1 , <code>0</code> if no requests were sent yet
+     */
+    public double getConnectionReuseRatio()
+    {
+        final long reused = reusedConnections.get();
+        final long total = reused + newConnections.get();
+        return total == 0 ? 0 : reused / (double) total;
+    }
+
+    public long getCompressedResponseCount()
+    {
+        return compressedResponses.get();
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived.get();
+    }
+
+    public void reset()
+    {
+        requests.set( 0 );
+        failedRequests.set( 0 );
+        newConnections.set( 0 );
+        reusedConnections.set( 0 );
+        compressedResponses.set( 0 );
+        bytesReceived.set( 0 );
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "requests=%d , failed=%d , new connections=%d , reused connections=%d ("
+                + "%.1f %%) , compressed responses=%d , bytes received=%d", getRequestCount(),
+            getFailedRequestCount(), getNewConnectionCount(), getReusedConnectionCount(),
+            getConnectionReuseRatio() * 100.0d, getCompressedResponseCount(),
+            getBytesReceived() );
+    }
+}
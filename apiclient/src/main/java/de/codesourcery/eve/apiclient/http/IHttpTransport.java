@@ -0,0 +1,96 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Sends HTTP requests.
+ *
+ * <pre>
+ * Implementations take care of connection handling (pooling , keep-alive ,
+ * timeouts) and transfer encoding , response bodies are always handed to
+ * the {@link IResponseBodyHandler} decoded.
+ *
+ * Responses with a HTTP status code >= 300 are reported by throwing a
+ * {@link org.apache.http.client.HttpResponseException}.
+ * </pre>
+ *
+ * Implementations must be thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see DefaultHttpTransport
+ */
+public interface IHttpTransport
+{
+    /**
+     * Consumes a HTTP response body.
+     *
+     * @author tobias.gierke@code-sourcery.de
+     */
+    public interface IResponseBodyHandler<T>
+    {
+        /**
+         * Handle response body.
+         *
+         * @param body
+         *            the response body , only valid until this method returns
+         * @return
+         * @throws IOException
+         */
+        public T handleResponseBody(InputStream body) throws IOException;
+    }
+
+    /**
+     * Sends a GET request.
+     *
+     * @param uri
+     *            full URI , including query parameters
+     * @param handler
+     * @return the handler's result
+     * @throws org.apache.http.client.HttpResponseException
+     *             if the server returned a HTTP status code >= 300
+     * @throws IOException
+     */
+    public <T> T get(URI uri, IResponseBodyHandler<T> handler) throws IOException;
+
+    /**
+     * Sends a POST request with form-encoded parameters.
+     *
+     * @param uri
+     * @param formParams
+     *            request parameters , values are converted using
+     *            <code>toString()</code>
+     * @param handler
+     * @return the handler's result
+     * @throws org.apache.http.client.HttpResponseException
+     *             if the server returned a HTTP status code >= 300
+     * @throws IOException
+     */
+    public <T> T post(URI uri, Map<String, Object> formParams,
+            IResponseBodyHandler<T> handler) throws IOException;
+
+    public HttpTransportMetrics getMetrics();
+
+    /**
+     * Closes all connections and releases any resources held by this
+     * transport.
+     */
+    public void shutdown();
+}
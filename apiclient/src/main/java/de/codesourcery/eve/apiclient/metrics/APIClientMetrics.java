@@ -0,0 +1,445 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Metrics collected by an API client.
+ *
+ * <pre>
+ * Holds per-endpoint timers (network , parsing , cache lookup) and
+ * counters (cache hits/misses per tier , retries , errors , payload bytes).
+ *
+ * {@link #start()} registers this instance and all endpoints
+ * as JMX MBeans (domain {@link #JMX_DOMAIN}) and starts
+ * logging a report every {@link #setLogDumpIntervalMillis(long)} milliseconds.
+ * </pre>
+ *
+ * This class is thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see de.codesourcery.eve.apiclient.AbstractHttpAPIClient#getMetrics()
+ */
+public final class APIClientMetrics implements APIClientMetricsMBean
+{
+    private static final Logger LOG = Logger.getLogger( APIClientMetrics.class );
+
+    public static final String JMX_DOMAIN = "de.codesourcery.eve.apiclient";
+
+    public static final long DEFAULT_LOG_DUMP_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    private final String name;
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints =
+            new ConcurrentHashMap<String, EndpointMetrics>();
+
+    private final AtomicLong coalescedRequests = new AtomicLong( 0 );
+
+    private final Object LOCK = new Object();
+
+    // guarded-by: LOCK
+    private boolean isStarted;
+
+    // guarded-by: LOCK
+    private final List<ObjectName> registeredBeans = new ArrayList<ObjectName>();
+
+    // guarded-by: LOCK
+    private ScheduledExecutorService logDumpExecutor;
+
+    // guarded-by: LOCK
+    private ScheduledFuture<?> logDumpTask;
+
+    // guarded-by: LOCK
+    private long logDumpIntervalMillis = DEFAULT_LOG_DUMP_INTERVAL_MILLIS;
+
+    /**
+     * Create instance.
+     *
+     * @param name
+     *            name used to tell apart MBeans of different clients
+     */
+    public APIClientMetrics(String name) {
+        if ( name == null || name.trim().length() == 0 )
+        {
+            throw new IllegalArgumentException( "name cannot be blank / NULL" );
+        }
+        this.name = name;
+    }
+
+    /**
+     * Returns the metrics for an endpoint , creating them
+     * if necessary.
+     *
+     * @param endpoint
+     *            the endpoint's URI path
+     * @return
+     */
+    public EndpointMetrics getEndpoint(String endpoint)
+    {
+        EndpointMetrics result = endpoints.get( endpoint );
+        if ( result == null )
+        {
+            final EndpointMetrics newMetrics = new EndpointMetrics( endpoint );
+            result = endpoints.putIfAbsent( endpoint, newMetrics );
+            if ( result == null )
+            {
+                result = newMetrics;
+                synchronized (LOCK)
+                {
+                    if ( isStarted )
+                    {
+                        registerMBean( newMetrics, createEndpointName( endpoint ) );
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public void recordCoalescedRequest()
+    {
+        coalescedRequests.incrementAndGet();
+    }
+
+    /**
+     * Registers the MBeans and starts the periodic log dump.
+     */
+    public void start()
+    {
+        synchronized (LOCK)
+        {
+            if ( isStarted )
+            {
+                return;
+            }
+            isStarted = true;
+
+            registerMBean( this, createName( "type=APIClient" ) );
+            for (EndpointMetrics m : endpoints.values())
+            {
+                registerMBean( m, createEndpointName( m.getEndpoint() ) );
+            }
+            scheduleLogDump();
+        }
+    }
+
+    /**
+     * Unregisters the MBeans and stops the periodic log dump.
+     */
+    public void stop()
+    {
+        synchronized (LOCK)
+        {
+            if ( ! isStarted )
+            {
+                return;
+            }
+            isStarted = false;
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName name : registeredBeans)
+            {
+                try
+                {
+                    server.unregisterMBean( name );
+                }
+                catch (Exception e)
+                {
+                    LOG.error( "stop(): Failed to unregister MBean " + name, e );
+                }
+            }
+            registeredBeans.clear();
+
+            if ( logDumpExecutor != null )
+            {
+                logDumpExecutor.shutdownNow();
+                logDumpExecutor = null;
+                logDumpTask = null;
+            }
+        }
+    }
+
+    // guarded-by: LOCK
+    private void registerMBean(Object bean, ObjectName name)
+    {
+        if ( name == null )
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean( bean, name );
+            registeredBeans.add( name );
+        }
+        catch (Exception e)
+        {
+            LOG.error( "registerMBean(): Failed to register MBean " + name, e );
+        }
+    }
+
+    private ObjectName createEndpointName(String endpoint)
+    {
+        return createName( "type=Endpoint,endpoint=" + ObjectName.quote( endpoint ) );
+    }
+
+    private ObjectName createName(String properties)
+    {
+        try
+        {
+            return new ObjectName( JMX_DOMAIN + ":client=" + ObjectName.quote( name ) + ","
+                    + properties );
+        }
+        catch (Exception e)
+        {
+            LOG.error( "createName(): Invalid MBean name " + properties, e );
+            return null;
+        }
+    }
+
+    // guarded-by: LOCK
+    private void scheduleLogDump()
+    {
+        if ( logDumpTask != null )
+        {
+            logDumpTask.cancel( false );
+            logDumpTask = null;
+        }
+
+        if ( ! isStarted || logDumpIntervalMillis <= 0 )
+        {
+            return;
+        }
+
+        if ( logDumpExecutor == null )
+        {
+            logDumpExecutor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    final Thread t = new Thread( r, "api-metrics-dump" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            } );
+        }
+
+        logDumpTask = logDumpExecutor.scheduleAtFixedRate( new Runnable() {
+
+            @Override
+            public void run()
+            {
+                if ( LOG.isInfoEnabled() )
+                {
+                    LOG.info( "API client metrics:\n" + dump() );
+                }
+            }
+        }, logDumpIntervalMillis, logDumpIntervalMillis, TimeUnit.MILLISECONDS );
+    }
+
+    @Override
+    public long getLogDumpIntervalMillis()
+    {
+        synchronized (LOCK)
+        {
+            return logDumpIntervalMillis;
+        }
+    }
+
+    /**
+     * Sets the interval for logging a metrics report.
+     *
+     * @param intervalMillis
+     *            interval in milliseconds , <code>0</code> disables logging
+     */
+    @Override
+    public void setLogDumpIntervalMillis(long intervalMillis)
+    {
+        if ( intervalMillis < 0 )
+        {
+            throw new IllegalArgumentException( "interval must be >= 0" );
+        }
+        synchronized (LOCK)
+        {
+            this.logDumpIntervalMillis = intervalMillis;
+            scheduleLogDump();
+        }
+    }
+
+    @Override
+    public long getServerRequestCount()
+    {
+        long result = 0;
+        for (EndpointMetrics m : endpoints.values())
+        {
+            result += m.getRequestCount();
+        }
+        return result;
+    }
+
+    @Override
+    public long getCoalescedRequestCount()
+    {
+        return coalescedRequests.get();
+    }
+
+    @Override
+    public long getResponseCacheHits()
+    {
+        long result = 0;
+        for (EndpointMetrics m : endpoints.values())
+        {
+            result += m.getResponseCacheHits();
+        }
+        return result;
+    }
+
+    @Override
+    public long getResponseCacheMisses()
+    {
+        long result = 0;
+        for (EndpointMetrics m : endpoints.values())
+        {
+            result += m.getResponseCacheMisses();
+        }
+        return result;
+    }
+
+    @Override
+    public double getResponseCacheHitRatio()
+    {
+        return EndpointMetrics.ratio( getResponseCacheHits(), getResponseCacheMisses() );
+    }
+
+    @Override
+    public long getParsedCacheHits()
+    {
+        long result = 0;
+        for (EndpointMetrics m : endpoints.values())
+        {
+            result += m.getParsedCacheHits();
+        }
+        return result;
+    }
+
+    @Override
+    public long getParsedCacheMisses()
+    {
+        long result = 0;
+        for (EndpointMetrics m : endpoints.values())
+        {
+            result += m.getParsedCacheMisses();
+        }
+        return result;
+    }
+
+    @Override
+    public double getParsedCacheHitRatio()
+    {
+        return EndpointMetrics.ratio( getParsedCacheHits(), getParsedCacheMisses() );
+    }
+
+    @Override
+    public long getRetryCount()
+    {
+        long result = 0;
+        for (EndpointMetrics m : endpoints.values())
+        {
+            result += m.getRetryCount();
+        }
+        return result;
+    }
+
+    @Override
+    public long getErrorCount()
+    {
+        long result = 0;
+        for (EndpointMetrics m : endpoints.values())
+        {
+            result += m.getErrorCount();
+        }
+        return result;
+    }
+
+    @Override
+    public long getPayloadBytes()
+    {
+        long result = 0;
+        for (EndpointMetrics m : endpoints.values())
+        {
+            result += m.getPayloadBytes();
+        }
+        return result;
+    }
+
+    @Override
+    public String[] getEndpoints()
+    {
+        final List<String> result = new ArrayList<String>( endpoints.keySet() );
+        Collections.sort( result );
+        return result.toArray( new String[result.size()] );
+    }
+
+    @Override
+    public String dump()
+    {
+        final StringBuilder result = new StringBuilder();
+        result.append( "client=" ).append( name ).append( " , server_requests=" ).append(
+            getServerRequestCount() ).append( " , coalesced_requests=" ).append(
+            getCoalescedRequestCount() ).append( " , errors=" ).append( getErrorCount() )
+                .append( " , retries=" ).append( getRetryCount() ).append(
+                    " , payload_bytes=" ).append( getPayloadBytes() );
+        result.append( String.format( " , response_cache_hit_ratio=%.2f , parsed_cache_hit_ratio=%.2f",
+            getResponseCacheHitRatio(), getParsedCacheHitRatio() ) );
+
+        for (String endpoint : getEndpoints())
+        {
+            final EndpointMetrics m = endpoints.get( endpoint );
+            if ( m != null )
+            {
+                result.append( "\n  " ).append( m );
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void reset()
+    {
+        coalescedRequests.set( 0 );
+        for (EndpointMetrics m : endpoints.values())
+        {
+            m.reset();
+        }
+    }
+}
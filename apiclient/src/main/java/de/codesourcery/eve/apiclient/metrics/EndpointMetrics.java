@@ -0,0 +1,268 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics for a single API endpoint (relative URI).
+ *
+ * This class is thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see APIClientMetrics#getEndpoint(String)
+ */
+public final class EndpointMetrics implements EndpointMetricsMBean
+{
+    private final String endpoint;
+
+    private final LatencyHistogram networkTime = new LatencyHistogram();
+    private final LatencyHistogram parseTime = new LatencyHistogram();
+    private final LatencyHistogram cacheLookupTime = new LatencyHistogram();
+
+    private final AtomicLong requests = new AtomicLong( 0 );
+    private final AtomicLong responseCacheHits = new AtomicLong( 0 );
+    private final AtomicLong responseCacheMisses = new AtomicLong( 0 );
+    private final AtomicLong parsedCacheHits = new AtomicLong( 0 );
+    private final AtomicLong parsedCacheMisses = new AtomicLong( 0 );
+    private final AtomicLong retries = new AtomicLong( 0 );
+    private final AtomicLong errors = new AtomicLong( 0 );
+    private final AtomicLong payloadBytes = new AtomicLong( 0 );
+
+    EndpointMetrics(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Records a request sent to the server.
+     *
+     * @param nanos
+     *            time spent waiting for the response
+     * @param payloadSize
+     *            size of the response in bytes
+     */
+    public void recordNetworkTime(long nanos, long payloadSize)
+    {
+        requests.incrementAndGet();
+        networkTime.record( nanos );
+        payloadBytes.addAndGet( payloadSize );
+    }
+
+    public void recordParseTime(long nanos)
+    {
+        parseTime.record( nanos );
+    }
+
+    public void recordCacheLookup(long nanos, boolean hit)
+    {
+        cacheLookupTime.record( nanos );
+        if ( hit )
+        {
+            responseCacheHits.incrementAndGet();
+        }
+        else
+        {
+            responseCacheMisses.incrementAndGet();
+        }
+    }
+
+    public void recordParsedCacheLookup(boolean hit)
+    {
+        if ( hit )
+        {
+            parsedCacheHits.incrementAndGet();
+        }
+        else
+        {
+            parsedCacheMisses.incrementAndGet();
+        }
+    }
+
+    public void recordRetry()
+    {
+        retries.incrementAndGet();
+    }
+
+    public void recordError()
+    {
+        errors.incrementAndGet();
+    }
+
+    public LatencyHistogram getNetworkTime()
+    {
+        return networkTime;
+    }
+
+    public LatencyHistogram getParseTime()
+    {
+        return parseTime;
+    }
+
+    public LatencyHistogram getCacheLookupTime()
+    {
+        return cacheLookupTime;
+    }
+
+    @Override
+    public String getEndpoint()
+    {
+        return endpoint;
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    @Override
+    public long getResponseCacheHits()
+    {
+        return responseCacheHits.get();
+    }
+
+    @Override
+    public long getResponseCacheMisses()
+    {
+        return responseCacheMisses.get();
+    }
+
+    @Override
+    public double getResponseCacheHitRatio()
+    {
+        return ratio( responseCacheHits.get(), responseCacheMisses.get() );
+    }
+
+    static double ratio(long hits, long misses)
+    {
+        final long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    @Override
+    public long getParsedCacheHits()
+    {
+        return parsedCacheHits.get();
+    }
+
+    @Override
+    public long getParsedCacheMisses()
+    {
+        return parsedCacheMisses.get();
+    }
+
+    @Override
+    public long getRetryCount()
+    {
+        return retries.get();
+    }
+
+    @Override
+    public long getErrorCount()
+    {
+        return errors.get();
+    }
+
+    @Override
+    public long getPayloadBytes()
+    {
+        return payloadBytes.get();
+    }
+
+    @Override
+    public double getMeanNetworkMillis()
+    {
+        return networkTime.getMeanMillis();
+    }
+
+    @Override
+    public double getP95NetworkMillis()
+    {
+        return networkTime.getPercentileMillis( 95 );
+    }
+
+    @Override
+    public double getMaxNetworkMillis()
+    {
+        return networkTime.getMaxMillis();
+    }
+
+    @Override
+    public double getMeanParseMillis()
+    {
+        return parseTime.getMeanMillis();
+    }
+
+    @Override
+    public double getP95ParseMillis()
+    {
+        return parseTime.getPercentileMillis( 95 );
+    }
+
+    @Override
+    public double getMaxParseMillis()
+    {
+        return parseTime.getMaxMillis();
+    }
+
+    @Override
+    public double getMeanCacheLookupMillis()
+    {
+        return cacheLookupTime.getMeanMillis();
+    }
+
+    @Override
+    public double getP95CacheLookupMillis()
+    {
+        return cacheLookupTime.getPercentileMillis( 95 );
+    }
+
+    @Override
+    public void reset()
+    {
+        networkTime.reset();
+        parseTime.reset();
+        cacheLookupTime.reset();
+        requests.set( 0 );
+        responseCacheHits.set( 0 );
+        responseCacheMisses.set( 0 );
+        parsedCacheHits.set( 0 );
+        parsedCacheMisses.set( 0 );
+        retries.set( 0 );
+        errors.set( 0 );
+        payloadBytes.set( 0 );
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder result = new StringBuilder();
+        result.append( endpoint ).append( ": requests=" ).append( getRequestCount() )
+                .append( " , errors=" ).append( getErrorCount() ).append( " , retries=" )
+                .append( getRetryCount() ).append( " , payload_bytes=" ).append(
+                    getPayloadBytes() );
+        result.append( String.format( " , response_cache_hit_ratio=%.2f (%d/%d)",
+            getResponseCacheHitRatio(), getResponseCacheHits(), getResponseCacheHits()
+                    + getResponseCacheMisses() ) );
+        result.append( String.format( " , parsed_cache_hit_ratio=%.2f (%d/%d)", ratio(
+            getParsedCacheHits(), getParsedCacheMisses() ), getParsedCacheHits(),
+            getParsedCacheHits() + getParsedCacheMisses() ) );
+        result.append( "\n    network     : " ).append( networkTime );
+        result.append( "\n    parse       : " ).append( parseTime );
+        result.append( "\n    cache lookup: " ).append( cacheLookupTime );
+        return result.toString();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.metrics;
+
+/**
+ * JMX view of {@link EndpointMetrics}.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public interface EndpointMetricsMBean
+{
+    public String getEndpoint();
+
+    public long getRequestCount();
+
+    public long getResponseCacheHits();
+
+    public long getResponseCacheMisses();
+
+    public double getResponseCacheHitRatio();
+
+    public long getParsedCacheHits();
+
+    public long getParsedCacheMisses();
+
+    public long getRetryCount();
+
+    public long getErrorCount();
+
+    public long getPayloadBytes();
+
+    public double getMeanNetworkMillis();
+
+    public double getP95NetworkMillis();
+
+    public double getMaxNetworkMillis();
+
+    public double getMeanParseMillis();
+
+    public double getP95ParseMillis();
+
+    public double getMaxParseMillis();
+
+    public double getMeanCacheLookupMillis();
+
+    public double getP95CacheLookupMillis();
+
+    public void reset();
+}
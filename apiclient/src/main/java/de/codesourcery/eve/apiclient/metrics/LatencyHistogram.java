@@ -0,0 +1,171 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with exponential
+ * (power-of-two microseconds) buckets.
+ *
+ * <pre>
+ * Bucket <code>i</code> counts latencies up to 2^i microseconds , the last bucket
+ * counts everything above ~67 seconds. Percentiles are estimated
+ * using the upper bound of the bucket they fall into , so they're
+ * accurate to within a factor of two.
+ * </pre>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class LatencyHistogram
+{
+    private static final int BUCKET_COUNT = 28;
+
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_COUNT );
+    private final AtomicLong count = new AtomicLong( 0 );
+    private final AtomicLong totalMicros = new AtomicLong( 0 );
+    private final AtomicLong maxMicros = new AtomicLong( 0 );
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *            latency in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        final long micros = Math.max( 0, nanos / 1000 );
+
+        buckets.incrementAndGet( bucketIndex( micros ) );
+        count.incrementAndGet();
+        totalMicros.addAndGet( micros );
+
+        long max;
+        do
+        {
+            max = maxMicros.get();
+        }
+        while ( micros > max && ! maxMicros.compareAndSet( max, micros ) );
+    }
+
+    private static int bucketIndex(long micros)
+    {
+        if ( micros <= 1 )
+        {
+            return 0;
+        }
+        // ceil(log2(micros))
+        final int index = 64 - Long.numberOfLeadingZeros( micros - 1 );
+        return Math.min( index, BUCKET_COUNT - 1 );
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean latency.
+     *
+     * @return mean latency in milliseconds , <code>0</code> if nothing was
+     *         recorded yet
+     */
+    public double getMeanMillis()
+    {
+        final long n = count.get();
+        return n == 0 ? 0 : totalMicros.get() / (double) n / 1000.0d;
+    }
+
+    public double getMaxMillis()
+    {
+        return maxMicros.get() / 1000.0d;
+    }
+
+    /**
+     * Returns the (estimated) total time spent.
+     *
+     * @return
+     */
+    public double getTotalMillis()
+    {
+        return totalMicros.get() / 1000.0d;
+    }
+
+    /**
+     * Estimates a percentile.
+     *
+     * @param percentile
+     *            percentile (0...100)
+     * @return latency in milliseconds , <code>0</code> if nothing was recorded
+     *         yet
+     */
+    public double getPercentileMillis(double percentile)
+    {
+        if ( percentile < 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "percentile must be 0...100" );
+        }
+
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            snapshot[i] = buckets.get( i );
+            total += snapshot[i];
+        }
+
+        if ( total == 0 )
+        {
+            return 0;
+        }
+
+        final long threshold = Math.max( 1, (long) Math.ceil( total * percentile / 100.0d ) );
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += snapshot[i];
+            if ( seen >= threshold )
+            {
+                if ( i == BUCKET_COUNT - 1 )
+                {
+                    return getMaxMillis();
+                }
+                return Math.min( ( 1L << i ) / 1000.0d, getMaxMillis() );
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            buckets.set( i, 0 );
+        }
+        count.set( 0 );
+        totalMicros.set( 0 );
+        maxMicros.set( 0 );
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "count=%d , mean=%.2f ms , p50=%.2f ms , p95=%.2f ms , p99=%.2f ms , max=%.2f ms",
+            getCount(), getMeanMillis(), getPercentileMillis( 50 ),
+            getPercentileMillis( 95 ), getPercentileMillis( 99 ), getMaxMillis() );
+    }
+}
@@ -16,6 +16,7 @@
 package de.codesourcery.eve.apiclient.parsers;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.DateFormat;
@@ -43,9 +44,11 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.InternalAPIResponse.PayloadInputStream;
 import de.codesourcery.eve.apiclient.datamodel.APIError;
 import de.codesourcery.eve.apiclient.exceptions.APIErrorException;
 import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
+import de.codesourcery.eve.apiclient.utils.PayloadCapturingInputStream;
 import de.codesourcery.eve.apiclient.utils.XMLParseHelper;
 import de.codesourcery.eve.skills.utils.EveDate;
 import de.codesourcery.eve.skills.utils.ISystemClock;
@@ -74,7 +77,8 @@ import de.codesourcery.eve.skills.utils.ISystemClock;
  * reaaaally sloooow (because the whole <code>Document</code> is
  * evaluated each time) so I suggest
  * using something else (DOM API or StaX come to mind)
- * if the parser is used a lot.
+ * if the parser is used a lot. Parsers for large responses
+ * should extend {@link AbstractStreamingResponseParser} instead.
  * </pre>
  * @author tobias.gierke@code-sourcery.de
  */
@@ -527,19 +531,89 @@ public abstract class AbstractResponseParser<T> extends XMLParseHelper implement
 
 	public final InternalAPIResponse parse(Date responseTimestamp , String xml) throws UnparseableResponseException,APIErrorException  {
 
+		if ( xml == null ) {
+			throw new IllegalArgumentException("xml cannot be NULL");
+		}
+		
+		try {
+			return parse( responseTimestamp , 
+					new PayloadInputStream( xml.getBytes( InternalAPIResponse.PAYLOAD_CHARSET ) ) );
+		} 
+		catch (IOException e) {
+			// should never happen, we're reading a byte array....
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public final InternalAPIResponse parse(Date responseTimestamp , InputStream in) throws IOException,UnparseableResponseException,APIErrorException  {
+
 		log.debug("parse(): Parsing response xml...");
 
 		if (responseParsed) {
 			throw new IllegalStateException("response is already responseParsed ?");
 		}
 
+		final byte[] payload;
+		if ( in instanceof PayloadInputStream ) {
+			// payload already is in memory, no need to copy it
+			parseResponse( in );
+			payload = ((PayloadInputStream) in).getBuffer();
+		} 
+		else 
+		{
+			final PayloadCapturingInputStream capturingStream =
+				new PayloadCapturingInputStream( in );
+			parseResponse( capturingStream );
+			payload = capturingStream.drain();
+		}
+
+		responseParsed = true;
+
+		log.debug("parse(): Parsing finished.");
+
+		return new InternalAPIResponse( payload , responseTimestamp , this );
+	}
+
+	/**
+	 * Parses the response XML.
+	 *
+	 * <pre>
+	 * The default implementation builds a DOM tree,
+	 * parses the common data using {@link #parseCommonData(Document)}
+	 * and then invokes {@link #parseHook(Document)}.
+	 * 
+	 * Subclasses that use a different parsing strategy need to
+	 * call {@link #commonDataParsed(APIError)} as soon as 
+	 * the common data is available.
+	 * </pre>
+	 * @param in stream to read the XML from , implementations
+	 * must not assume they're able to read the whole stream
+	 * @throws IOException
+	 * @throws UnparseableResponseException
+	 * @throws APIErrorException
+	 * @see AbstractStreamingResponseParser
+	 */
+	protected void parseResponse(InputStream in) throws IOException,UnparseableResponseException,APIErrorException {
+
 		final Document doc =
-			parseXML( xml );
+			parseXML( in );
+
+		log.debug("parseResponse(): Parsing common data");
 
-		log.debug("parse(): Parsing common data");
+		commonDataParsed( parseCommonData(doc) );
 
-		final APIError error = 
-			parseCommonData(doc);
+		log.debug("parseResponse(): Running subclassing hook");
+		parseHook(doc);
+	}
+
+	/**
+	 * Marks the response's common data (API version , server time etc.)
+	 * as being parsed.
+	 * 
+	 * @param error API error returned by the server or <code>null</code>
+	 * @throws APIErrorException if <code>error</code> is not <code>null</code>
+	 */
+	protected final void commonDataParsed(APIError error) throws APIErrorException {
 
 		if ( error != null ) {
 			log.error("parse(): Server returned error "+error);
@@ -547,15 +621,44 @@ public abstract class AbstractResponseParser<T> extends XMLParseHelper implement
 		}
 
 		commonDataParsed = true;
+	}
 
-		log.debug("parse(): Running subclassing hook");
-		parseHook(doc);
+	/**
+	 * Restores this parser's state from a previously
+	 * parsed (cached) result.
+	 *
+	 * Subclasses that want to take part in
+	 * result caching need to implement {@link ICacheableResponseParser}.
+	 *
+	 * @param response
+	 * @param apiVersion
+	 * @param result
+	 * @see ICacheableResponseParser
+	 */
+	@SuppressWarnings("unchecked")
+	public final void restoreFromCache(InternalAPIResponse response,int apiVersion,T result) {
 
-		responseParsed = true;
+		if (responseParsed) {
+			throw new IllegalStateException("response is already responseParsed ?");
+		}
 
-		log.debug("parse(): Parsing finished.");
+		if ( result == null ) {
+			throw new IllegalArgumentException("result cannot be NULL");
+		}
 
-		return new InternalAPIResponse( xml , responseTimestamp , this );		
+		if ( ! ( this instanceof ICacheableResponseParser<?> ) ) {
+			throw new UnsupportedOperationException("Parser "+getClass().getName()+" does not support result caching");
+		}
+
+		this.error = null;
+		this.apiVersion = apiVersion;
+		this.serverTime = response.getServerTime();
+		this.cachedUntilServerTime = response.getCachedUntilServerTime();
+		commonDataParsed = true;
+
+		( (ICacheableResponseParser<T>) this ).restoreResult( result );
+
+		responseParsed = true;
 	}
 
 	/**
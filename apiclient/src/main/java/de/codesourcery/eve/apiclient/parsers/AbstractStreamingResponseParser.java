@@ -0,0 +1,348 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.parsers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+
+import de.codesourcery.eve.apiclient.datamodel.APIError;
+import de.codesourcery.eve.apiclient.exceptions.APIErrorException;
+import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Abstract base-class for API parsers that process the
+ * response XML in a single pass using StAX instead of
+ * building a DOM tree and evaluating XPath expressions.
+ *
+ * <pre>
+ * The common data (API version, server time , errors) is parsed
+ * by this class , rows are handed to the subclass
+ * as they're encountered:
+ *
+ * {@link #rowSetStarted(RowSet)}
+ *   {@link #rowStarted(RowSet, Row)}
+ *     (nested rowsets)
+ *   {@link #rowFinished(RowSet, Row)}
+ * {@link #rowSetFinished(RowSet)}
+ * ...
+ * {@link #resultParsed()}
+ *
+ * Rows are <b>not</b> collected in their {@link RowSet} (the rowset will
+ * always be empty) and a {@link Row} is only valid until the
+ * matching {@link #rowFinished(RowSet, Row)} call returns, subclasses
+ * must copy any data they need.
+ *
+ * Elements below {@literal <result/>} that are neither
+ * rowsets nor rows are skipped.
+ *
+ * Note that {@link #getCachedUntilServerTime()} will return <code>null</code>
+ * while rows are being processed since the {@literal <cachedUntil/>} element
+ * comes after the {@literal <result/>} element.
+ * </pre>
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public abstract class AbstractStreamingResponseParser<T> extends AbstractResponseParser<T> {
+
+	private static final Logger log = Logger.getLogger(AbstractStreamingResponseParser.class);
+
+	private static final XMLInputFactory INPUT_FACTORY;
+
+	static {
+		INPUT_FACTORY = XMLInputFactory.newInstance();
+		INPUT_FACTORY.setProperty( XMLInputFactory.IS_COALESCING , Boolean.TRUE );
+		INPUT_FACTORY.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE , Boolean.FALSE );
+		INPUT_FACTORY.setProperty( XMLInputFactory.SUPPORT_DTD , Boolean.FALSE );
+	}
+
+	public AbstractStreamingResponseParser(ISystemClock clock) {
+		super(clock);
+	}
+
+	@Override
+	protected final void parseResponse(InputStream in) throws IOException, UnparseableResponseException, APIErrorException {
+
+		try {
+			final XMLStreamReader reader;
+			synchronized( INPUT_FACTORY ) {
+				reader = INPUT_FACTORY.createXMLStreamReader( in );
+			}
+
+			try {
+				parseDocument( reader );
+			} finally {
+				reader.close();
+			}
+		}
+		catch (XMLStreamException e) {
+			if ( e.getNestedException() instanceof IOException ) {
+				throw (IOException) e.getNestedException();
+			}
+			throw new UnparseableResponseException("Failed to parse response XML",e);
+		}
+		catch(NumberFormatException e) {
+			throw new UnparseableResponseException("Response XML contains invalid number",e);
+		}
+	}
+
+	private void parseDocument(XMLStreamReader reader) throws XMLStreamException {
+
+		boolean apiVersionSeen = false;
+		boolean resultSeen = false;
+
+		while ( reader.hasNext() ) {
+
+			if ( reader.next() != XMLStreamConstants.START_ELEMENT ) {
+				continue;
+			}
+
+			final String name = reader.getLocalName();
+			if ( "eveapi".equals( name ) ) {
+				apiVersion = Integer.parseInt( getAttribute( reader , "version" , true ) );
+				apiVersionSeen = true;
+			} else if ( "currentTime".equals( name ) ) {
+				serverTime = parseDate( reader.getElementText() );
+			} else if ( "cachedUntil".equals( name ) ) {
+				cachedUntilServerTime = parseDate( reader.getElementText() );
+			} else if ( "error".equals( name ) ) {
+				final int code = Integer.parseInt( getAttribute( reader , "code" , true ) );
+				error = new APIError( code , reader.getElementText() );
+			}
+			else if ( "result".equals( name ) )
+			{
+				if ( error == null ) {
+					assertHeaderParsed( apiVersionSeen );
+					commonDataParsed( null );
+					parseResult( reader );
+					resultSeen = true;
+				}
+			}
+		}
+
+		if ( error != null ) {
+			commonDataParsed( error ); // throws APIErrorException
+		}
+
+		assertHeaderParsed( apiVersionSeen );
+
+		if ( cachedUntilServerTime == null ) {
+			throw new UnparseableResponseException("Response lacks <cachedUntil> element");
+		}
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("parseDocument(): Received API version="+apiVersion+
+					" , server time="+this.serverTime+
+					" , cached_until="+this.cachedUntilServerTime);
+		}
+
+		if ( ! resultSeen ) {
+			commonDataParsed( null );
+		}
+		resultParsed();
+	}
+
+	private void assertHeaderParsed(boolean apiVersionSeen) {
+		if ( ! apiVersionSeen ) {
+			throw new UnparseableResponseException("Response lacks <eveapi> element");
+		}
+		if ( serverTime == null ) {
+			throw new UnparseableResponseException("Response lacks <currentTime> element");
+		}
+	}
+
+	private void parseResult(XMLStreamReader reader) throws XMLStreamException {
+
+		final Stack<RowSet> rowSets = new Stack<RowSet>();
+		final Stack<Row> rows = new Stack<Row>();
+		final Map<RowSet,Map<String,String>> rowData =
+			new HashMap<RowSet, Map<String,String>>();
+
+		while ( reader.hasNext() ) {
+
+			final int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT )
+			{
+				final String name = reader.getLocalName();
+				if ( "rowset".equals( name ) ) {
+					final RowSet rowSet = createRowSet( reader );
+					rowSets.push( rowSet );
+					rowData.put( rowSet , new HashMap<String,String>() );
+					rowSetStarted( rowSet );
+				}
+				else if ( "row".equals( name ) )
+				{
+					if ( rowSets.isEmpty() ) {
+						throw new UnparseableResponseException("Invalid response XML , found <row> outside of <rowset>");
+					}
+
+					final RowSet rowSet = rowSets.peek();
+
+					// re-use map , rows are only valid during callbacks
+					final Map<String,String> data = rowData.get( rowSet );
+					data.clear();
+					for ( String column : rowSet.getColumnNames() ) {
+						final String value = reader.getAttributeValue( null , column );
+						if ( value != null ) {
+							data.put( column , value );
+						}
+					}
+
+					final Row row = new Row( rowSet , data );
+					rows.push( row );
+					rowStarted( rowSet , row );
+				} else {
+					skipElement( reader );
+				}
+			}
+			else if ( event == XMLStreamConstants.END_ELEMENT )
+			{
+				final String name = reader.getLocalName();
+				if ( "row".equals( name ) ) {
+					rowFinished( rowSets.peek() , rows.pop() );
+				} else if ( "rowset".equals( name ) ) {
+					final RowSet rowSet = rowSets.pop();
+					rowData.remove( rowSet );
+					rowSetFinished( rowSet );
+				} else if ( "result".equals( name ) ) {
+					return;
+				}
+			}
+		}
+		throw new UnparseableResponseException("Premature end of response XML , unterminated <result> element");
+	}
+
+	private RowSet createRowSet(XMLStreamReader reader) {
+
+		/*
+		 * Unlike AbstractResponseParser#parseRowSet() a missing columns
+		 * attribute is not treated as an error here since all rowsets
+		 * of a response are seen , not just the ones the subclass is
+		 * interested in. Accessing a column of such a row will fail anyway.
+		 */
+		final Set<String> columns = new HashSet<String>();
+		final String sColumns = getAttribute( reader , "columns" , false );
+		if ( sColumns != null ) {
+			for ( String col : sColumns.split(",") ) {
+				if ( ! StringUtils.isBlank( col ) ) {
+					columns.add( col.trim() );
+				}
+			}
+		}
+
+		return new RowSet( getAttribute( reader , "name" , true ) ,
+				getAttribute( reader , "key" , false ) , columns );
+	}
+
+	/**
+	 * Skips the current element (including all children).
+	 *
+	 * @param reader reader positioned on a START_ELEMENT event
+	 * @throws XMLStreamException
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while ( depth > 0 && reader.hasNext() ) {
+			final int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				depth++;
+			} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+				depth--;
+			}
+		}
+	}
+
+	private static String getAttribute(XMLStreamReader reader,String name,boolean isRequired) {
+		final String value = reader.getAttributeValue( null , name );
+		if ( isRequired && StringUtils.isBlank( value ) ) {
+			throw new UnparseableResponseException("Element <"+reader.getLocalName()+
+					"> lacks required attribute '"+name+"'");
+		}
+		return value;
+	}
+
+	/**
+	 * Invoked when a {@literal <rowset/>} element is encountered.
+	 *
+	 * @param rowSet the (always empty) rowset
+	 */
+	protected void rowSetStarted(RowSet rowSet) {
+	}
+
+	/**
+	 * Invoked for each {@literal <row/>} element , before
+	 * any nested rowsets are processed.
+	 *
+	 * @param rowSet the rowset this row belongs to
+	 * @param row the row , only valid until {@link #rowFinished(RowSet, Row)} returns
+	 * @throws UnparseableResponseException
+	 */
+	protected abstract void rowStarted(RowSet rowSet,Row row) throws UnparseableResponseException;
+
+	/**
+	 * Invoked after a {@literal <row/>} element (including
+	 * any nested rowsets) has been processed.
+	 *
+	 * @param rowSet
+	 * @param row
+	 */
+	protected void rowFinished(RowSet rowSet,Row row) {
+	}
+
+	/**
+	 * Invoked after all rows of a rowset have been processed.
+	 *
+	 * @param rowSet
+	 */
+	protected void rowSetFinished(RowSet rowSet) {
+	}
+
+	/**
+	 * Invoked after the whole response has been
+	 * parsed successfully.
+	 *
+	 * Subclasses should check that all
+	 * mandatory data was present and
+	 * publish their result here.
+	 *
+	 * @throws UnparseableResponseException
+	 */
+	protected void resultParsed() throws UnparseableResponseException {
+	}
+
+	/**
+	 * Never invoked , streaming parsers do not
+	 * operate on a DOM tree.
+	 */
+	@Override
+	final void parseHook(Document document) throws UnparseableResponseException {
+		throw new UnsupportedOperationException("parseHook() is not supported by streaming parsers");
+	}
+}
@@ -18,17 +18,12 @@ package de.codesourcery.eve.apiclient.parsers;
 import static de.codesourcery.eve.skills.db.datamodel.SolarSystem.*;
 
 import java.net.URI;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import de.codesourcery.eve.apiclient.IAPIClient;
 import de.codesourcery.eve.apiclient.datamodel.APIResponse;
@@ -44,7 +39,8 @@ import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
 import de.codesourcery.eve.skills.db.datamodel.Station;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
-public class AssetListParser extends AbstractResponseParser<AssetList>
+public class AssetListParser extends AbstractStreamingResponseParser<AssetList> implements
+        ICacheableResponseParser<AssetList>
 {
     private static final Logger log = Logger.getLogger( AssetListParser.class );
 
@@ -52,6 +48,10 @@ public class AssetListParser extends AbstractResponseParser<AssetList>
 
     private AssetList result = new AssetList();
 
+    // asset lists / assets of the rowsets / rows currently being parsed
+    private final Stack<AssetList> currentLists = new Stack<AssetList>();
+    private final Stack<Asset> currentAssets = new Stack<Asset>();
+
     private final IStaticDataModel provider;
     private final CharacterID characterId;
     private final IAPIClient apiClient;
@@ -172,78 +172,6 @@ public class AssetListParser extends AbstractResponseParser<AssetList>
      * typeID="597" quantity="1" flag="4" singleton="0" /> </rowset> </result>
      */
 
-    private static final class ElementIterator implements Iterator<Element>
-    {
-
-        private int index = 0;
-        private final NodeList children;
-
-        private Element currentElement = null;
-
-        public ElementIterator(Element e) {
-            this.children = e.getChildNodes();
-            currentElement = findNextElement();
-        }
-
-        private Element findNextElement()
-        {
-            final int len = children.getLength();
-            for (int i = index; i < len; i++)
-            {
-                final Node n = children.item( i );
-                if ( n.getNodeType() == Node.ELEMENT_NODE )
-                {
-                    index = i + 1;
-                    return (Element) n;
-                }
-            }
-            return null;
-        }
-
-        @Override
-        public boolean hasNext()
-        {
-            return currentElement != null;
-        }
-
-        @Override
-        public Element next()
-        {
-
-            if ( currentElement == null )
-            {
-                throw new NoSuchElementException();
-            }
-
-            final Element result = currentElement;
-            currentElement = findNextElement();
-            return result;
-        }
-
-        @Override
-        public void remove()
-        {
-            throw new UnsupportedOperationException( "remove()" );
-        }
-
-    }
-
-    @Override
-    void parseHook(Document document) throws UnparseableResponseException
-    {
-
-        final Element resultNode = getResultElement( document );
-
-        final Element rowsetNode = getChild( resultNode, "rowset" );
-
-        for (ElementIterator it = new ElementIterator( rowsetNode ); it.hasNext();)
-        {
-            final Element n = it.next();
-            parseElement( n, result );
-        }
-
-    }
-
     /*
      * <result> <rowset name="assets" key="itemID"
      * columns="itemID,locationID,typeID,quantity,flag,singleton"> <row
@@ -252,40 +180,46 @@ public class AssetListParser extends AbstractResponseParser<AssetList>
      * columns="itemID,typeID,quantity,flag,singleton"> <row itemID="150354741"
      * typeID="24593" quantity="400" flag="5" singleton="0" /> </rowset> </row>
      */
-    private void parseElement(Element rowOrRowsetNode, AssetList parent)
+    @Override
+    protected void rowSetStarted(RowSet rowSet)
     {
-
-        if ( "rowset".equals( rowOrRowsetNode.getNodeName() ) )
-        {
-
-            for (ElementIterator it = new ElementIterator( rowOrRowsetNode ); it
-                    .hasNext();)
-            {
-                final Element n = it.next();
-                parseElement( n, parent );
-            }
-
-        }
-        else if ( "row".equals( rowOrRowsetNode.getNodeName() ) )
+        if ( currentAssets.isEmpty() )
         {
-            parent.add( parseRow( rowOrRowsetNode ) );
+            currentLists.push( result );
         }
         else
         {
-            throw new UnparseableResponseException( "Unexpected tag "
-                    + rowOrRowsetNode.getNodeName() + " below <result>" );
+            currentLists.push( currentAssets.peek().getContents() );
         }
+    }
 
+    @Override
+    protected void rowStarted(RowSet rowSet, Row row) throws UnparseableResponseException
+    {
+        currentAssets.push( parseRow( row ) );
     }
 
-    private Asset parseRow(Element rowNode)
+    @Override
+    protected void rowFinished(RowSet rowSet, Row row)
     {
+        // add asset only after all of its contents have been parsed
+        final Asset asset = currentAssets.pop();
+        currentLists.peek().add( asset );
+    }
 
-        final Asset result =
-                new Asset( characterId, getLongAttributeValue( rowNode, "itemID" ) );
+    @Override
+    protected void rowSetFinished(RowSet rowSet)
+    {
+        currentLists.pop();
+    }
+
+    private Asset parseRow(Row row)
+    {
+
+        final Asset result = new Asset( characterId, row.getLong( "itemID" ) );
 
         // resolve location
-        final long locationId = getLongAttributeValue( rowNode, "locationID", false );
+        final long locationId = row.getLong( "locationID", false );
         if ( locationId > 0 )
         { // check first: it's ok if the provider is not set!
 
@@ -314,26 +248,20 @@ public class AssetListParser extends AbstractResponseParser<AssetList>
         }
 
         // parse flags
-        result.setFlags( EveFlags.fromTypeId( getIntAttributeValue( rowNode, "flag" ) ) );
+        result.setFlags( EveFlags.fromTypeId( row.getInt( "flag" ) ) );
 
         // resolve type
-        final long typeId = getLongAttributeValue( rowNode, "typeID" );
+        final long typeId = row.getLong( "typeID" );
         if ( provider != null )
         { // check first: it's ok if the provider is not set!
             result.setType( provider.getInventoryType( typeId ) );
         }
 
         // quantity
-        result.setQuantity( getIntAttributeValue( rowNode, "quantity" ) );
+        result.setQuantity( row.getInt( "quantity" ) );
 
         // singleton
-        result.setIsPackaged( getIntAttributeValue( rowNode, "singleton", false ) == 0 );
-
-        for (ElementIterator it = new ElementIterator( rowNode ); it.hasNext();)
-        {
-            final Element node = it.next();
-            parseElement( node, result.getContents() );
-        }
+        result.setIsPackaged( row.getInt( "singleton", false ) == 0 );
 
         return result;
     }
@@ -355,6 +283,25 @@ public class AssetListParser extends AbstractResponseParser<AssetList>
     public void reset()
     {
         result = new AssetList();
+        currentLists.clear();
+        currentAssets.clear();
+    }
+
+    @Override
+    public void restoreResult(AssetList cached)
+    {
+        result = cached;
+    }
+
+    @Override
+    public AssetList copyResult(AssetList list)
+    {
+        final AssetList copy = new AssetList();
+        for (Asset a : list)
+        {
+            copy.add( a );
+        }
+        return copy;
     }
 
 }
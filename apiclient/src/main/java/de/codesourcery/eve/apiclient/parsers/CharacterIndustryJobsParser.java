@@ -20,7 +20,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
 
 import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
 import de.codesourcery.eve.skills.datamodel.AssetList;
@@ -32,7 +31,7 @@ import de.codesourcery.eve.skills.db.datamodel.Activity;
 import de.codesourcery.eve.skills.db.datamodel.Station;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
-public class CharacterIndustryJobsParser extends AbstractResponseParser<Collection<IndustryJob>> {
+public class CharacterIndustryJobsParser extends AbstractStreamingResponseParser<Collection<IndustryJob>> {
 
 	public static final Logger log = Logger
 			.getLogger(CharacterIndustryJobsParser.class);
@@ -42,6 +41,7 @@ public class CharacterIndustryJobsParser extends AbstractResponseParser<Collecti
 	private final Collection<IndustryJob> result = new ArrayList<IndustryJob>();
 	private final IStaticDataModel dataModel;
 	private final AssetList assets;
+	private boolean jobsSeen;
 	
 	public CharacterIndustryJobsParser(AssetList assets, IStaticDataModel model,ISystemClock clock) {
 		super( clock );
@@ -80,56 +80,69 @@ public class CharacterIndustryJobsParser extends AbstractResponseParser<Collecti
 	 
 	 */
 	@Override
-	void parseHook(Document document) throws UnparseableResponseException {
+	protected void rowSetStarted(RowSet rowSet) {
+		if ( "jobs".equals( rowSet.getName() ) ) {
+			jobsSeen = true;
+		}
+	}
+
+	@Override
+	protected void rowStarted(RowSet rowSet, Row row) throws UnparseableResponseException {
 		
-		final RowSet rowSet = parseRowSet( "jobs" , document );
+		if ( ! "jobs".equals( rowSet.getName() ) ) {
+			return;
+		}
+
+		final IndustryJob job = new IndustryJob();
 		
-		for ( Row row : rowSet ) {
-	
-			final IndustryJob job = new IndustryJob();
-			
-			job.setActivity( Activity.fromTypeId( row.getInt( "activityID" )  ) );
-			job.setAssemblyLineId( row.getLong("assemblyLineID" ) );
-			job.setBeginProductionTime( row.getDate( "beginProductionTime" ) );
-			job.setCompletedStatus( CompletedStatus.fromTypeId( row.getInt( "completedStatus"  ) ) );
-			job.setCompleted( row.getInt( "completed" ) != 0 );
-			job.setContainerId( row.getLong("containerID" ) );
-			final long blueprintId = row.getLong( "installedItemTypeID" );
-			
-			try {
-				job.setInstalledBlueprint( this.dataModel.getBlueprint( dataModel.getInventoryType( blueprintId ) ) );
-			} 
-			catch(Exception e) {
-				log.error("parseHook(): Discarding job with unknown blueprint type ID "+blueprintId);
-				continue;
-			}
-			
-			/*
+		job.setActivity( Activity.fromTypeId( row.getInt( "activityID" )  ) );
+		job.setAssemblyLineId( row.getLong("assemblyLineID" ) );
+		job.setBeginProductionTime( row.getDate( "beginProductionTime" ) );
+		job.setCompletedStatus( CompletedStatus.fromTypeId( row.getInt( "completedStatus"  ) ) );
+		job.setCompleted( row.getInt( "completed" ) != 0 );
+		job.setContainerId( row.getLong("containerID" ) );
+		final long blueprintId = row.getLong( "installedItemTypeID" );
+		
+		try {
+			job.setInstalledBlueprint( this.dataModel.getBlueprint( dataModel.getInventoryType( blueprintId ) ) );
+		} 
+		catch(Exception e) {
+			log.error("rowStarted(): Discarding job with unknown blueprint type ID "+blueprintId);
+			return;
+		}
+		
+		/*
 If the container is a station (see containerTypeID, below), 
 this is the stationID in the staStations table. 
 For a POS module, this is its itemID (see also the Corporation Asset List API page). 			 
-			 */
-			final long locationId =
-				row.getLong( "containerID" );
-			
-			try {
-				final Station station = dataModel.getStation( locationId );
-				job.setLocation( station );
-			} 
-			catch(Exception e) {
-				log.error("parseHook(): Failed to find location for container ID "+locationId);
-				job.setLocation( ILocation.UNKNOWN_LOCATION );
-			}
-			
-			job.setInstalledItemMaterialLevel( row.getInt( "installedItemMaterialLevel" ) );
-			job.setInstalledItemProductivityLevel( row.getInt( "installedItemProductivityLevel" ) );
-			job.setJobId( row.getLong("jobID" ) );
-			job.setLicensedProductionRuns( row.getInt("licensedProductionRuns" ) );
-			job.setRuns( row.getInt("runs" ) );
-			job.setEndProductionTime( row.getDate( "endProductionTime" ) );
-			
-			// add parsed job to result
-			result.add( job );
+		 */
+		final long locationId =
+			row.getLong( "containerID" );
+		
+		try {
+			final Station station = dataModel.getStation( locationId );
+			job.setLocation( station );
+		} 
+		catch(Exception e) {
+			log.error("rowStarted(): Failed to find location for container ID "+locationId);
+			job.setLocation( ILocation.UNKNOWN_LOCATION );
+		}
+		
+		job.setInstalledItemMaterialLevel( row.getInt( "installedItemMaterialLevel" ) );
+		job.setInstalledItemProductivityLevel( row.getInt( "installedItemProductivityLevel" ) );
+		job.setJobId( row.getLong("jobID" ) );
+		job.setLicensedProductionRuns( row.getInt("licensedProductionRuns" ) );
+		job.setRuns( row.getInt("runs" ) );
+		job.setEndProductionTime( row.getDate( "endProductionTime" ) );
+		
+		// add parsed job to result
+		result.add( job );
+	}
+
+	@Override
+	protected void resultParsed() throws UnparseableResponseException {
+		if ( ! jobsSeen ) {
+			throw new UnparseableResponseException("Response lacks expected rowset with name 'jobs'");
 		}
 	}
 
@@ -147,6 +160,7 @@ For a POS module, this is its itemID (see also the Corporation Asset List API pa
 	@Override
 	public void reset() {
 		result.clear();
+		jobsSeen = false;
 	}
 
 }
@@ -36,7 +36,7 @@ import de.codesourcery.eve.skills.db.datamodel.Corporation;
 import de.codesourcery.eve.skills.db.datamodel.Skill;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
-public class CharacterSheetParser extends AbstractResponseParser<ICharacter> {
+public class CharacterSheetParser extends AbstractResponseParser<ICharacter> implements ICacheableResponseParser<ICharacter> {
 
 	private static final Logger log = Logger
 			.getLogger(CharacterSheetParser.class);
@@ -237,4 +237,14 @@ public class CharacterSheetParser extends AbstractResponseParser<ICharacter> {
 		character = new de.codesourcery.eve.skills.datamodel.Character();
 	}
 
+	@Override
+	public void restoreResult(ICharacter cached) {
+		character = (de.codesourcery.eve.skills.datamodel.Character) cached;
+	}
+
+	@Override
+	public ICharacter copyResult(ICharacter result) {
+		return result.cloneCharacter();
+	}
+
 }
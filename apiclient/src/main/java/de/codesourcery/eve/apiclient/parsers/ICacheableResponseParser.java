@@ -0,0 +1,79 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.parsers;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.cache.ParsedResponseCache;
+
+/**
+ * A response parser whose results may be kept
+ * in a {@link ParsedResponseCache}.
+ *
+ * <pre>
+ * Only parsers whose result depends on nothing but the
+ * response XML (and the static data model) should implement
+ * this interface.
+ *
+ * {@link AbstractResponseParser} already provides an implementation
+ * of {@link #restoreFromCache(InternalAPIResponse, int, Object)},
+ * subclasses only need to implement {@link #restoreResult(Object)}
+ * and {@link #copyResult(Object)}.
+ *
+ * Cached results are shared with every caller that 
+ * receives a copy (see {@link #copyResult(Object)}) , results 
+ * and their elements must be treated as read-only.
+ * </pre>
+ * @author tobias.gierke@code-sourcery.de
+ */
+public interface ICacheableResponseParser<T> extends IResponseParser<T>
+{
+	/**
+	 * Restores this parser's state from a previously parsed result
+	 * instead of parsing XML.
+	 *
+	 * After this method returns , the parser
+	 * behaves as if {@link #parse(java.util.Date, String)} had been
+	 * successfully invoked with the response's XML.
+	 *
+	 * @param response the response the result was parsed from
+	 * @param apiVersion the API version as returned by the server
+	 * @param result the result, never <code>null</code>
+	 */
+	public void restoreFromCache(InternalAPIResponse response,int apiVersion,T result);
+
+	/**
+	 * Sets the result returned by {@link #getResult()} , invoked
+	 * by {@link #restoreFromCache(InternalAPIResponse, int, Object)}
+	 * after the common data has been restored.
+	 *
+	 * @param result the result, never <code>null</code>
+	 */
+	public void restoreResult(T result);
+
+	/**
+	 * Creates a shallow copy of a result returned by this parser.
+	 *
+	 * Used to make sure callers cannot add or remove elements
+	 * of results held in the cache. Elements are <b>not</b> copied ,
+	 * they are shared between the cache and all callers
+	 * and must not be modified.
+	 *
+	 * @param result
+	 * @return copy of the result (may be the same instance if the
+	 * result is immutable)
+	 */
+	public T copyResult(T result);
+}
@@ -15,6 +15,8 @@
  */
 package de.codesourcery.eve.apiclient.parsers;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Date;
 
@@ -57,6 +59,21 @@ public interface IResponseParser<T> {
 	 */
 	public InternalAPIResponse parse(Date responseTimestamp , String xml) throws UnparseableResponseException;
 	
+	/**
+	 * Parse XML straight from a stream.
+	 * 
+	 * The stream is read until EOF but not closed , the
+	 * returned response holds all bytes read.
+	 * 
+	 * @param responseTimestamp Time when this response was received (LOCAL time)
+	 * @param in stream to read the XML from
+	 * @throws IOException if reading from the stream failed
+	 * @throws UnparseableResponseException
+	 * @throws IllegalStateException if a call to this
+	 * method already returned successfully.
+	 */
+	public InternalAPIResponse parse(Date responseTimestamp , InputStream in) throws IOException,UnparseableResponseException;
+	
 	/**
 	 * Returns the API's XML version as returned
 	 * from the server.
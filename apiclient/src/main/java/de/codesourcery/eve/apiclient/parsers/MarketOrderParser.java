@@ -19,8 +19,6 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.w3c.dom.Document;
-
 import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
 import de.codesourcery.eve.skills.datamodel.CharacterID;
 import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
@@ -29,12 +27,14 @@ import de.codesourcery.eve.skills.datamodel.MarketOrder.OrderState;
 import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
-public class MarketOrderParser extends AbstractResponseParser<List<MarketOrder>>
+public class MarketOrderParser extends AbstractStreamingResponseParser<List<MarketOrder>> implements
+	ICacheableResponseParser<List<MarketOrder>>
 {
 
 	public static final URI uri = toURI("/char/MarketOrders.xml.aspx");
 	
 	private List<MarketOrder> result;
+	private List<MarketOrder> tmpResult;
 	private final IStaticDataModel dataModel;
 	
 	public MarketOrderParser(IStaticDataModel dataModel,ISystemClock clock) {
@@ -69,36 +69,51 @@ volEntered,volRemaining,minVolume,orderState,typeID,range,accountKey,duration,es
 	 */
 	
 	@Override
-	void parseHook(Document document) throws UnparseableResponseException
+	protected void rowSetStarted(RowSet rowSet)
 	{
-	
-		final List<MarketOrder> tmpResult = 
-			new ArrayList<MarketOrder>();
-		
-		for ( Row row : parseRowSet("orders" , document ) ) {
-			final MarketOrder order = new MarketOrder();
-			
-			order.setOrderID( row.getLong("orderID" ) );
-			order.setCharacterID( new CharacterID( row.get("charID" ) ) );
-			order.setStation( dataModel.getStation( row.getLong("stationID") ) );
-			order.setVolumeEntered( row.getLong("volEntered" ) );
-			order.setVolumeRemaining( row.getLong("volRemaining" ) );
-			order.setMinVolume( row.getLong("minVolume" ) );
-			order.setState( OrderState.fromTypeId( row.getInt("orderState" ) ) );
-			order.setItemType( dataModel.getInventoryType( row.getLong("typeID" ) ) );
-			order.setRange( row.getInt("range" ) );
-			order.setAccountKey( row.getInt("accountKey" ) );
-			order.setDurationInDays( row.getInt("duration" ) );
-			order.setMoneyInEscrow( row.getISKAmount( "escrow" ) );
-			order.setPrice( row.getISKAmount( "price") );
-			
-			final int isBid = row.getInt( "bid" );
-			order.setType( isBid == 0 ? Type.SELL : Type.BUY );
-			order.setIssueDate( row.getDate("issued" ) );
-			
-			tmpResult.add( order );
+		if ( "orders".equals( rowSet.getName() ) ) {
+			tmpResult = new ArrayList<MarketOrder>();
+		}
+	}
+
+	@Override
+	protected void rowStarted(RowSet rowSet, Row row) throws UnparseableResponseException
+	{
+		if ( ! "orders".equals( rowSet.getName() ) ) {
+			return;
+		}
+
+		final MarketOrder order = new MarketOrder();
+
+		order.setOrderID( row.getLong("orderID" ) );
+		order.setCharacterID( new CharacterID( row.get("charID" ) ) );
+		order.setStation( dataModel.getStation( row.getLong("stationID") ) );
+		order.setVolumeEntered( row.getLong("volEntered" ) );
+		order.setVolumeRemaining( row.getLong("volRemaining" ) );
+		order.setMinVolume( row.getLong("minVolume" ) );
+		order.setState( OrderState.fromTypeId( row.getInt("orderState" ) ) );
+		order.setItemType( dataModel.getInventoryType( row.getLong("typeID" ) ) );
+		order.setRange( row.getInt("range" ) );
+		order.setAccountKey( row.getInt("accountKey" ) );
+		order.setDurationInDays( row.getInt("duration" ) );
+		order.setMoneyInEscrow( row.getISKAmount( "escrow" ) );
+		order.setPrice( row.getISKAmount( "price") );
+
+		final int isBid = row.getInt( "bid" );
+		order.setType( isBid == 0 ? Type.SELL : Type.BUY );
+		order.setIssueDate( row.getDate("issued" ) );
+
+		tmpResult.add( order );
+	}
+
+	@Override
+	protected void resultParsed() throws UnparseableResponseException
+	{
+		if ( tmpResult == null ) {
+			throw new UnparseableResponseException("Response lacks expected rowset with name 'orders'");
 		}
 		this.result = tmpResult;
+		this.tmpResult = null;
 	}
 
 	@Override
@@ -118,6 +133,19 @@ volEntered,volRemaining,minVolume,orderState,typeID,range,accountKey,duration,es
 	public void reset()
 	{
 		result = null;
+		tmpResult = null;
+	}
+
+	@Override
+	public void restoreResult(List<MarketOrder> cached)
+	{
+		result = cached;
+	}
+
+	@Override
+	public List<MarketOrder> copyResult(List<MarketOrder> list)
+	{
+		return new ArrayList<MarketOrder>( list );
 	}
 
 }
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.parsers;
+
+import java.net.URI;
+
+import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Parser used when re-fetching responses
+ * for the cache in the background.
+ *
+ * Only parses the common data (server time , cached until , errors) ,
+ * rows are skipped while streaming through the response. The response is parsed by the real parser when it
+ * gets read from the cache.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ * @see de.codesourcery.eve.apiclient.RefreshAheadScheduler
+ */
+public class RefreshResponseParser extends AbstractStreamingResponseParser<Void> {
+
+	private final URI relativeURI;
+
+	public RefreshResponseParser(ISystemClock clock,URI relativeURI) {
+		super(clock);
+		if ( relativeURI == null ) {
+			throw new IllegalArgumentException("relativeURI cannot be NULL");
+		}
+		this.relativeURI = relativeURI;
+	}
+
+	@Override
+	public URI getRelativeURI() {
+		return relativeURI;
+	}
+
+	@Override
+	protected void rowStarted(RowSet rowSet, Row row) throws UnparseableResponseException {
+		// nothing to do
+	}
+
+	@Override
+	public Void getResult() throws IllegalStateException {
+		assertResponseParsed();
+		return null;
+	}
+
+	@Override
+	public void reset() {
+	}
+}
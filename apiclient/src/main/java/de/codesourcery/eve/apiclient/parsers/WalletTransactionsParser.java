@@ -19,8 +19,6 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.w3c.dom.Document;
-
 import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
 import de.codesourcery.eve.skills.datamodel.CharacterID;
 import de.codesourcery.eve.skills.datamodel.CorporationId;
@@ -32,13 +30,15 @@ import de.codesourcery.eve.skills.utils.ISKAmount;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
 public class WalletTransactionsParser extends
-		AbstractResponseParser<List<MarketTransaction>>
+		AbstractStreamingResponseParser<List<MarketTransaction>> implements
+		ICacheableResponseParser<List<MarketTransaction>>
 {
 
 	public static final URI uri = toURI("/char/WalletTransactions.xml.aspx");
 
 	private final IStaticDataModel dataModel;
 	private List<MarketTransaction> result;
+	private List<MarketTransaction> tmpResult;
 	
 	
 	public WalletTransactionsParser(IStaticDataModel dataModel , ISystemClock clock) {
@@ -81,83 +81,96 @@ public class WalletTransactionsParser extends
 	 
 	 */
 	@Override
-	void parseHook(Document document) throws UnparseableResponseException
+	protected void rowSetStarted(RowSet rowSet)
 	{
+		if ( "transactions".equals( rowSet.getName() ) ) {
+			tmpResult = new ArrayList<MarketTransaction>();
+		}
+	}
 
-		final List<MarketTransaction> tmpResult = new ArrayList<MarketTransaction>();
-		for ( Row r : parseRowSet("transactions", document ) ) 
-		{
-			final MarketTransaction t = 
-				new MarketTransaction();
-			
-			t.setTransactionDate( r.getDate("transactionDateTime" ) );
-			t.setTransactionId( r.getLong("transactionID" ) );
-			t.setQuantity( r.getInt("quantity" ) );
-			if ( r.hasColumn("clientName" ) ) {
-				t.setClientName( r.get("clientName" ) );
-			} else {
-				t.setClientName( "<unknown>" );
+	@Override
+	protected void rowStarted(RowSet rowSet, Row r) throws UnparseableResponseException
+	{
+		if ( ! "transactions".equals( rowSet.getName() ) ) {
+			return;
+		}
+
+		final MarketTransaction t = 
+			new MarketTransaction();
+		
+		t.setTransactionDate( r.getDate("transactionDateTime" ) );
+		t.setTransactionId( r.getLong("transactionID" ) );
+		t.setQuantity( r.getInt("quantity" ) );
+		if ( r.hasColumn("clientName" ) ) {
+			t.setClientName( r.get("clientName" ) );
+		}
+		t.setItemType( dataModel.getInventoryType( r.getLong("typeID" ) ) );
+		t.setPrice( new ISKAmount( r.getISKAmount("price" ) ) );
+		
+		final long clientId = r.getLong("clientID");
+		final String clientType = 
+			r.get("transactionFor");
+		
+		final IClientId id = new IClientId() {
+
+			@Override
+			public CharacterID asCharacterId()
+			{
+				return new CharacterID( Long.toString( clientId ) );
+			}
+
+			@Override
+			public CorporationId asCorporationId()
+			{
+				return new CorporationId( clientId );
 			}
-			t.setItemType( dataModel.getInventoryType( r.getLong("typeID" ) ) );
-			t.setPrice( new ISKAmount( r.getISKAmount("price" ) ) );
-			
-			final long clientId = r.getLong("clientID");
-			final String clientType = 
-				r.get("transactionFor");
-			
-			final IClientId id = new IClientId() {
-
-				@Override
-				public CharacterID asCharacterId()
-				{
-					return new CharacterID( Long.toString( clientId ) );
-				}
-
-				@Override
-				public CorporationId asCorporationId()
-				{
-					return new CorporationId( clientId );
-				}
-
-				@Override
-				public boolean isCharacterId()
-				{
-					return true;
-				}
-
-				@Override
-				public boolean isCorporationId()
-				{
-					return true;
-				}
-			};
-			t.setClientId( id );
-			
-			if ( "personal".equalsIgnoreCase( clientType ) ) {
-				t.setCorporateTransaction(false);
-			} 
-			else if ( "corporation".equalsIgnoreCase( clientType ) ) {
-				t.setCorporateTransaction(true);
-			} else {
-				throw new UnparseableResponseException("Unknown client type >"+clientType+"<");
+
+			@Override
+			public boolean isCharacterId()
+			{
+				return true;
 			}
-			t.setStation( dataModel.getStation( r.getLong("stationID" ) ) );
-			
-			final String transactionType=
-				r.get("transactionType");
-			
-			if ( "buy".equalsIgnoreCase( transactionType ) ) {
-				t.setOrderType(Type.BUY);
-			} else if ( "sell".equalsIgnoreCase( transactionType ) ) {
-				t.setOrderType(Type.SELL);
-			} else {
-				throw new UnparseableResponseException("Unknown transaction type >"+transactionType+"<");
+
+			@Override
+			public boolean isCorporationId()
+			{
+				return true;
 			}
-			
-			tmpResult.add( t );
+		};
+		t.setClientId( id );
+		
+		if ( "personal".equalsIgnoreCase( clientType ) ) {
+			t.setCorporateTransaction(false);
+		} 
+		else if ( "corporation".equalsIgnoreCase( clientType ) ) {
+			t.setCorporateTransaction(true);
+		} else {
+			throw new UnparseableResponseException("Unknown client type >"+clientType+"<");
 		}
+		t.setStation( dataModel.getStation( r.getLong("stationID" ) ) );
 		
+		final String transactionType=
+			r.get("transactionType");
+		
+		if ( "buy".equalsIgnoreCase( transactionType ) ) {
+			t.setOrderType(Type.BUY);
+		} else if ( "sell".equalsIgnoreCase( transactionType ) ) {
+			t.setOrderType(Type.SELL);
+		} else {
+			throw new UnparseableResponseException("Unknown transaction type >"+transactionType+"<");
+		}
+		
+		tmpResult.add( t );
+	}
+
+	@Override
+	protected void resultParsed() throws UnparseableResponseException
+	{
+		if ( tmpResult == null ) {
+			throw new UnparseableResponseException("Response lacks expected rowset with name 'transactions'");
+		}
 		result = tmpResult;
+		tmpResult = null;
 	}
 
 	@Override
@@ -177,6 +190,19 @@ public class WalletTransactionsParser extends
 	public void reset()
 	{
 		result = null;
+		tmpResult = null;
+	}
+
+	@Override
+	public void restoreResult(List<MarketTransaction> cached)
+	{
+		result = cached;
+	}
+
+	@Override
+	public List<MarketTransaction> copyResult(List<MarketTransaction> list)
+	{
+		return new ArrayList<MarketTransaction>( list );
 	}
 
 	/*
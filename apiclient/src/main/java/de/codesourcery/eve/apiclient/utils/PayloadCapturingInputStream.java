@@ -0,0 +1,161 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Input stream that keeps a copy of
+ * all bytes read through it.
+ * 
+ * <pre>
+ * Used to feed a HTTP response body directly to a parser while
+ * keeping the raw bytes for caching , without ever
+ * materializing the response as a <code>String</code>.
+ * 
+ * {@link #close()} does <b>not</b> close the wrapped stream (XML parsers
+ * tend to close their input) , the wrapped stream's owner is responsible for that.
+ * 
+ * Not thread-safe.
+ * </pre>
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class PayloadCapturingInputStream extends FilterInputStream {
+
+	private static final int DEFAULT_CAPACITY = 8 * 1024;
+	
+	private byte[] buffer;
+	private int count;
+	
+	private boolean closed = false;
+	
+	public PayloadCapturingInputStream(InputStream in) {
+		this( in , DEFAULT_CAPACITY );
+	}
+	
+	/**
+	 * Create instance.
+	 * 
+	 * @param in the stream to read from
+	 * @param expectedSize expected number of bytes (for example
+	 * from a HTTP <code>Content-Length</code> header) , used to size the initial buffer
+	 */
+	public PayloadCapturingInputStream(InputStream in,int expectedSize) {
+		super(in);
+		if ( in == null ) {
+			throw new IllegalArgumentException("input stream cannot be NULL");
+		}
+		this.buffer = new byte[ expectedSize > 0 ? expectedSize : DEFAULT_CAPACITY ];
+	}
+	
+	private void assertNotClosed() throws IOException {
+		if ( closed ) {
+			throw new IOException("Stream closed");
+		}
+	}
+	
+	private void ensureCapacity(int len) {
+		if ( count + len > buffer.length ) {
+			buffer = Arrays.copyOf( buffer , Math.max( buffer.length * 2 , count + len ) );
+		}
+	}
+	
+	private void capture(byte[] data,int offset,int len) {
+		ensureCapacity( len );
+		System.arraycopy( data , offset , buffer , count , len );
+		count += len;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		assertNotClosed();
+		final int result = super.read();
+		if ( result != -1 ) {
+			ensureCapacity( 1 );
+			buffer[ count++ ] = (byte) result;
+		}
+		return result;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		assertNotClosed();
+		final int result = super.read(b, off, len);
+		if ( result > 0 ) {
+			capture( b , off , result );
+		}
+		return result;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		// skipped bytes still need to be captured
+		final int len = (int) Math.min( n , DEFAULT_CAPACITY );
+		final int read = read( new byte[ len ] , 0 , len );
+		return read > 0 ? read : 0;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+	
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+	
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+	
+	@Override
+	public void close() throws IOException {
+		closed = true;
+	}
+	
+	/**
+	 * Reads any bytes not consumed yet from the
+	 * wrapped stream and returns everything read.
+	 * 
+	 * @return all bytes read from the wrapped stream
+	 * @throws IOException
+	 */
+	public byte[] drain() throws IOException {
+		final byte[] tmp = new byte[ 4096 ];
+		int len;
+		while ( ( len = in.read( tmp ) ) > 0 ) {
+			capture( tmp , 0 , len );
+		}
+		return getCapturedBytes();
+	}
+	
+	/**
+	 * Returns the bytes read so far.
+	 * 
+	 * @return
+	 */
+	public byte[] getCapturedBytes() {
+		return buffer.length == count ? buffer : Arrays.copyOf( buffer , count );
+	}
+	
+	public int getCapturedByteCount() {
+		return count;
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses / decompresses cached response payloads
+ * using raw Deflate.
+ * 
+ * <pre>
+ * EVE API responses are very repetitive XML and usually shrink to 
+ * 5-10% of their original size. The fastest compression level is used 
+ * since payloads get compressed once per server request while 
+ * decompression speed does not depend on the level.
+ * 
+ * Callers need to keep track of the uncompressed size themselves,
+ * there's no framing.
+ * 
+ * This class is thread-safe.
+ * </pre>
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class PayloadCompression {
+
+	// Deflater/Inflater instances hold native memory , 
+	// re-use them instead of creating new ones for every payload
+	private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater( Deflater.BEST_SPEED , true );
+		}
+	};
+	
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater( true );
+		}
+	};
+	
+	private PayloadCompression() {
+	}
+	
+	/**
+	 * Compresses data.
+	 * 
+	 * @param data
+	 * @return compressed data
+	 */
+	public static byte[] compress(byte[] data) {
+		
+		if ( data == null ) {
+			throw new IllegalArgumentException("data cannot be NULL");
+		}
+		
+		final Deflater deflater = DEFLATER.get();
+		try {
+			deflater.setInput( data );
+			deflater.finish();
+			
+			byte[] buffer = new byte[ Math.max( 64 , data.length / 8 ) ];
+			int len = 0;
+			while ( ! deflater.finished() ) {
+				if ( len == buffer.length ) {
+					buffer = Arrays.copyOf( buffer , buffer.length * 2 );
+				}
+				len += deflater.deflate( buffer , len , buffer.length - len );
+			}
+			return Arrays.copyOf( buffer , len );
+		} 
+		finally {
+			deflater.reset();
+		}
+	}
+	
+	/**
+	 * Decompresses data created by {@link #compress(byte[])}.
+	 * 
+	 * @param compressed
+	 * @param uncompressedSize size of the original data
+	 * @return
+	 * @throws IllegalArgumentException if the data is corrupted or 
+	 * does not decompress to <code>uncompressedSize</code> bytes
+	 */
+	public static byte[] decompress(byte[] compressed,int uncompressedSize) {
+
+		if ( compressed == null ) {
+			throw new IllegalArgumentException("compressed data cannot be NULL");
+		}
+		
+		final Inflater inflater = INFLATER.get();
+		try {
+			inflater.setInput( compressed );
+
+			final byte[] result = new byte[ uncompressedSize ];
+			int len = 0;
+			while ( len < uncompressedSize ) 
+			{
+				final int inflated = inflater.inflate( result , len , uncompressedSize - len );
+				if ( inflated == 0 && ( inflater.finished() || inflater.needsInput() ) ) {
+					break;
+				}
+				len += inflated;
+			}
+			
+			if ( len != uncompressedSize ) {
+				throw new IllegalArgumentException("Corrupted data , expected "+
+						uncompressedSize+" bytes but got "+len);
+			}
+			return result;
+		} 
+		catch (DataFormatException e) {
+			throw new IllegalArgumentException("Corrupted data",e);
+		}
+		finally {
+			inflater.reset();
+		}
+	}
+}
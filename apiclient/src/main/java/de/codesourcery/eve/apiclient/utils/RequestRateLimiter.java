@@ -0,0 +1,136 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+/**
+ * Token-bucket rate limiter.
+ *
+ * <pre>
+ * The bucket holds up to <code>burstSize</code> tokens and
+ * is refilled with <code>requestsPerSecond</code> tokens per second. Each
+ * request takes one token , callers block while the bucket is empty.
+ * </pre>
+ *
+ * This class is thread-safe.
+ *
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class RequestRateLimiter
+{
+    private static final long NANOS_PER_SECOND = 1000L * 1000L * 1000L;
+
+    private final double requestsPerSecond;
+    private final int burstSize;
+
+    // guarded-by: this
+    private double availableTokens;
+
+    // guarded-by: this
+    private long lastRefill;
+
+    /**
+     * Create instance.
+     *
+     * @param requestsPerSecond
+     *            max. number of requests per second (long-term average)
+     * @param burstSize
+     *            max. number of requests that may be sent without waiting
+     */
+    public RequestRateLimiter(double requestsPerSecond, int burstSize) {
+        if ( requestsPerSecond <= 0 )
+        {
+            throw new IllegalArgumentException( "requests per second must be > 0" );
+        }
+        if ( burstSize < 1 )
+        {
+            throw new IllegalArgumentException( "burst size must be >= 1" );
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.burstSize = burstSize;
+        this.availableTokens = burstSize;
+        this.lastRefill = currentTimeNanos();
+    }
+
+    /**
+     * Takes a token , blocking until one becomes available.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException
+    {
+        while ( ! tryAcquire() )
+        {
+            final long waitNanos =
+                    (long) ( ( 1.0d - availableTokens ) * NANOS_PER_SECOND / requestsPerSecond );
+
+            final long millis = Math.max( 1, waitNanos / ( 1000 * 1000 ) );
+            wait( millis );
+        }
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return <code>true</code> if a token was taken , <code>false</code> if the
+     *         caller needs to wait
+     */
+    public synchronized boolean tryAcquire()
+    {
+        refill();
+        if ( availableTokens >= 1.0d )
+        {
+            availableTokens -= 1.0d;
+            return true;
+        }
+        return false;
+    }
+
+    // guarded-by: this
+    private void refill()
+    {
+        final long now = currentTimeNanos();
+        final long elapsed = now - lastRefill;
+        if ( elapsed > 0 )
+        {
+            availableTokens =
+                    Math.min( burstSize, availableTokens + elapsed * requestsPerSecond
+                            / NANOS_PER_SECOND );
+            lastRefill = now;
+        }
+    }
+
+    protected long currentTimeNanos()
+    {
+        return System.nanoTime();
+    }
+
+    public double getRequestsPerSecond()
+    {
+        return requestsPerSecond;
+    }
+
+    public int getBurstSize()
+    {
+        return burstSize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RequestRateLimiter[ requests_per_second=" + requestsPerSecond
+                + " , burst=" + burstSize + " ]";
+    }
+}
@@ -15,6 +15,8 @@
  */
 package de.codesourcery.eve.apiclient.utils;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Date;
 import java.util.concurrent.atomic.AtomicReference;
@@ -23,6 +25,7 @@ import javax.swing.SwingUtilities;
 
 import de.codesourcery.eve.apiclient.IResponseParserInvoker;
 import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.InternalAPIResponse.PayloadInputStream;
 import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
 import de.codesourcery.eve.apiclient.parsers.IResponseParser;
 
@@ -72,5 +75,57 @@ public class SwingEDTParserInvoker implements IResponseParserInvoker
 		
 		return result.get();
 	}
+	
+	/**
+	 * Reads the whole stream on the calling thread (so the 
+	 * EDT never blocks on network I/O) and then parses the 
+	 * in-memory copy on the EDT.
+	 */
+	@Override
+	public <T> InternalAPIResponse runParser(final IResponseParser<T> parser,
+			final Date responseTimestamp, InputStream in) throws IOException,UnparseableResponseException
+	{
+		if ( SwingUtilities.isEventDispatchThread() ) {
+			return parser.parse(responseTimestamp, in);
+		}
+		
+		final PayloadInputStream payload;
+		if ( in instanceof PayloadInputStream ) {
+			payload = (PayloadInputStream) in;
+		} else {
+			payload = new PayloadInputStream( new PayloadCapturingInputStream( in ).drain() );
+		}
+		
+		final AtomicReference<InternalAPIResponse> result =
+			new AtomicReference<InternalAPIResponse>( null );
+		try 
+		{
+			SwingUtilities.invokeAndWait( new Runnable() {
+
+				@Override
+				public void run()
+				{
+					try {
+						result.set( parser.parse( responseTimestamp , payload ) );
+					} 
+					catch (IOException e) {
+						// should never happen, we're reading a byte array....
+						throw new RuntimeException(e);
+					}
+				}} );
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (InvocationTargetException e) {
+			final Throwable targetException = e.getTargetException();
+			if ( targetException instanceof RuntimeException ) {
+				throw (RuntimeException) targetException;
+			}
+			throw new RuntimeException("Failed to invoke parser "+parser,e);
+		}
+		
+		return result.get();
+	}
 
 }
@@ -0,0 +1,538 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import org.springframework.dao.DataRetrievalFailureException;
+
+import de.codesourcery.eve.apiclient.IResponseParserInvoker;
+import de.codesourcery.eve.skills.datamodel.Blueprint;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.datamodel.ItemWithQuantity;
+import de.codesourcery.eve.skills.datamodel.SkillTree;
+import de.codesourcery.eve.skills.db.datamodel.Activity;
+import de.codesourcery.eve.skills.db.datamodel.AssemblyLine;
+import de.codesourcery.eve.skills.db.datamodel.Constellation;
+import de.codesourcery.eve.skills.db.datamodel.Faction;
+import de.codesourcery.eve.skills.db.datamodel.InventoryCategory;
+import de.codesourcery.eve.skills.db.datamodel.InventoryGroup;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.ItemWithAttributes;
+import de.codesourcery.eve.skills.db.datamodel.MarketGroup;
+import de.codesourcery.eve.skills.db.datamodel.NPCCorporation;
+import de.codesourcery.eve.skills.db.datamodel.Race;
+import de.codesourcery.eve.skills.db.datamodel.Region;
+import de.codesourcery.eve.skills.db.datamodel.SolarSystem;
+import de.codesourcery.eve.skills.db.datamodel.Station;
+
+/**
+ * Thread-safe view of a static data model that is
+ * confined to a single thread (the Swing Event Dispatch Thread by default).
+ * 
+ * <pre>
+ * The Hibernate-backed data model keeps one session per thread and 
+ * hands out lazy-loading proxies , so it must only ever be used from
+ * one thread. This class makes it safe to run response parsers on worker threads
+ * (see {@link WorkerThreadParserInvoker}):
+ * 
+ * - every call to the wrapped model is executed on the confinement thread
+ * - entities looked up by ID (the lookups done by the response parsers) are 
+ *   remembered , so once an entity has been resolved worker threads
+ *   get it without waiting for the confinement thread
+ * 
+ * Entities are returned just like the wrapped model returned them , callers
+ * running on other threads should only store references to them.
+ * </pre>
+ * 
+ * This class is thread-safe.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see WorkerThreadParserInvoker
+ * @see IResponseParserInvoker
+ */
+public class ThreadConfinedStaticDataModel implements IStaticDataModel
+{
+	private final IStaticDataModel delegate;
+
+	private final ConcurrentMap<Long,SolarSystem> solarSystems = new ConcurrentHashMap<Long, SolarSystem>();
+	private final ConcurrentMap<Long,Race> races = new ConcurrentHashMap<Long, Race>();
+	private final ConcurrentMap<Long,Constellation> constellations = new ConcurrentHashMap<Long, Constellation>();
+	private final ConcurrentMap<Long,Faction> factions = new ConcurrentHashMap<Long, Faction>();
+	private final ConcurrentMap<Long,Station> stations = new ConcurrentHashMap<Long, Station>();
+	private final ConcurrentMap<Long,InventoryGroup> inventoryGroups = new ConcurrentHashMap<Long, InventoryGroup>();
+	private final ConcurrentMap<Long,InventoryType> inventoryTypes = new ConcurrentHashMap<Long, InventoryType>();
+	private final ConcurrentMap<Long,InventoryCategory> inventoryCategories = new ConcurrentHashMap<Long, InventoryCategory>();
+	private final ConcurrentMap<Long,Region> regions = new ConcurrentHashMap<Long, Region>();
+	private final ConcurrentMap<Long,NPCCorporation> npcCorporations = new ConcurrentHashMap<Long, NPCCorporation>();
+
+	private final AtomicReference<SkillTree> skillTree = new AtomicReference<SkillTree>();
+
+	private final AtomicLong handOffCount = new AtomicLong(0);
+
+	/**
+	 * A call to the wrapped data model.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	protected abstract class Query<T> {
+		public abstract T run();
+	}
+
+	public ThreadConfinedStaticDataModel(IStaticDataModel delegate) {
+		if ( delegate == null ) {
+			throw new IllegalArgumentException("delegate cannot be NULL");
+		}
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Check whether the current thread is
+	 * the thread the wrapped model is confined to.
+	 * 
+	 * @return
+	 */
+	protected boolean isConfinementThread() {
+		return SwingUtilities.isEventDispatchThread();
+	}
+
+	/**
+	 * Runs a query on the confinement thread , waiting
+	 * for it to finish.
+	 * 
+	 * Only invoked when NOT called from the confinement thread.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	protected <T> T runOnConfinementThread(final Query<T> query) 
+	{
+		final AtomicReference<T> result = new AtomicReference<T>();
+		try {
+			SwingUtilities.invokeAndWait( new Runnable() {
+
+				@Override
+				public void run() {
+					result.set( query.run() );
+				}
+			} );
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for static data lookup",e);
+		}
+		catch (InvocationTargetException e) {
+			final Throwable targetException = e.getTargetException();
+			if ( targetException instanceof RuntimeException ) {
+				throw (RuntimeException) targetException;
+			}
+			throw new RuntimeException("Static data lookup failed",targetException);
+		}
+		return result.get();
+	}
+
+	private <T> T confined(Query<T> query) {
+		if ( isConfinementThread() ) {
+			return query.run();
+		}
+		handOffCount.incrementAndGet();
+		return runOnConfinementThread( query );
+	}
+
+	private <T> T lookup(ConcurrentMap<Long,T> cache,Long id,Query<T> query) {
+
+		if ( id == null ) {
+			return confined( query );
+		}
+
+		T result = cache.get( id );
+		if ( result == null ) {
+			result = confined( query );
+			if ( result != null ) {
+				final T existing = cache.putIfAbsent( id , result );
+				if ( existing != null ) {
+					result = existing;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns how often a thread had to wait
+	 * for the confinement thread.
+	 * 
+	 * @return
+	 */
+	public long getHandOffCount() {
+		return handOffCount.get();
+	}
+
+	/**
+	 * Forgets all entities looked up so far.
+	 */
+	public void clearCache() {
+		solarSystems.clear();
+		races.clear();
+		constellations.clear();
+		factions.clear();
+		stations.clear();
+		inventoryGroups.clear();
+		inventoryTypes.clear();
+		inventoryCategories.clear();
+		regions.clear();
+		npcCorporations.clear();
+		skillTree.set( null );
+	}
+
+	public IStaticDataModel getDelegate() {
+		return delegate;
+	}
+
+	// ======================= lookups by ID =======================
+
+	@Override
+	public SolarSystem getSolarSystem(final Long id) {
+		return lookup( solarSystems , id , new Query<SolarSystem>() {
+			public SolarSystem run() { return delegate.getSolarSystem( id ); }
+		} );
+	}
+
+	@Override
+	public Race getRace(final Long id) {
+		return lookup( races , id , new Query<Race>() {
+			public Race run() { return delegate.getRace( id ); }
+		} );
+	}
+
+	@Override
+	public Constellation getConstellation(final Long id) {
+		return lookup( constellations , id , new Query<Constellation>() {
+			public Constellation run() { return delegate.getConstellation( id ); }
+		} );
+	}
+
+	@Override
+	public Faction getFaction(final Long id) {
+		return lookup( factions , id , new Query<Faction>() {
+			public Faction run() { return delegate.getFaction( id ); }
+		} );
+	}
+
+	@Override
+	public Station getStation(final Long id) {
+		return lookup( stations , id , new Query<Station>() {
+			public Station run() { return delegate.getStation( id ); }
+		} );
+	}
+
+	@Override
+	public InventoryGroup getInventoryGroup(final Long id) {
+		return lookup( inventoryGroups , id , new Query<InventoryGroup>() {
+			public InventoryGroup run() { return delegate.getInventoryGroup( id ); }
+		} );
+	}
+
+	@Override
+	public InventoryType getInventoryType(final Long id) {
+		return lookup( inventoryTypes , id , new Query<InventoryType>() {
+			public InventoryType run() { return delegate.getInventoryType( id ); }
+		} );
+	}
+
+	@Override
+	public InventoryCategory getInventoryCategory(final Long id) {
+		return lookup( inventoryCategories , id , new Query<InventoryCategory>() {
+			public InventoryCategory run() { return delegate.getInventoryCategory( id ); }
+		} );
+	}
+
+	@Override
+	public Region getRegion(final long regionId) {
+		return lookup( regions , regionId , new Query<Region>() {
+			public Region run() { return delegate.getRegion( regionId ); }
+		} );
+	}
+
+	@Override
+	public NPCCorporation getNPCCorporation(final long id) {
+		return lookup( npcCorporations , id , new Query<NPCCorporation>() {
+			public NPCCorporation run() { return delegate.getNPCCorporation( id ); }
+		} );
+	}
+
+	@Override
+	public SkillTree getSkillTree() {
+		SkillTree result = skillTree.get();
+		if ( result == null ) {
+			result = confined( new Query<SkillTree>() {
+				public SkillTree run() { return delegate.getSkillTree(); }
+			} );
+			if ( result != null && ! skillTree.compareAndSet( null , result ) ) {
+				result = skillTree.get();
+			}
+		}
+		return result;
+	}
+
+	// ======================= other queries =======================
+
+	@Override
+	public Collection<SolarSystem> getAllSolarSystems() {
+		return confined( new Query<Collection<SolarSystem>>() {
+			public Collection<SolarSystem> run() { return delegate.getAllSolarSystems(); }
+		} );
+	}
+
+	@Override
+	public ItemWithAttributes getItem(final InventoryType type) {
+		return confined( new Query<ItemWithAttributes>() {
+			public ItemWithAttributes run() { return delegate.getItem( type ); }
+		} );
+	}
+
+	@Override
+	public Collection<Race> getRaces() {
+		return confined( new Query<Collection<Race>>() {
+			public Collection<Race> run() { return delegate.getRaces(); }
+		} );
+	}
+
+	@Override
+	public Collection<Constellation> getAllConstellations() {
+		return confined( new Query<Collection<Constellation>>() {
+			public Collection<Constellation> run() { return delegate.getAllConstellations(); }
+		} );
+	}
+
+	@Override
+	public Collection<Faction> getAllFactions() {
+		return confined( new Query<Collection<Faction>>() {
+			public Collection<Faction> run() { return delegate.getAllFactions(); }
+		} );
+	}
+
+	@Override
+	public List<Region> getAllRegions() {
+		return confined( new Query<List<Region>>() {
+			public List<Region> run() { return delegate.getAllRegions(); }
+		} );
+	}
+
+	@Override
+	public Collection<Station> getAllStations() {
+		return confined( new Query<Collection<Station>>() {
+			public Collection<Station> run() { return delegate.getAllStations(); }
+		} );
+	}
+
+	@Override
+	public List<InventoryGroup> getInventoryGroups(final InventoryCategory category) {
+		return confined( new Query<List<InventoryGroup>>() {
+			public List<InventoryGroup> run() { return delegate.getInventoryGroups( category ); }
+		} );
+	}
+
+	@Override
+	public List<InventoryType> getInventoryTypesByName(final String name, final boolean marketOnly) {
+		return confined( new Query<List<InventoryType>>() {
+			public List<InventoryType> run() { return delegate.getInventoryTypesByName( name , marketOnly ); }
+		} );
+	}
+
+	@Override
+	public InventoryType getInventoryTypeByName(final String name) {
+		return confined( new Query<InventoryType>() {
+			public InventoryType run() { return delegate.getInventoryTypeByName( name ); }
+		} );
+	}
+
+	@Override
+	public List<InventoryType> getInventoryTypes(final InventoryGroup group) {
+		return confined( new Query<List<InventoryType>>() {
+			public List<InventoryType> run() { return delegate.getInventoryTypes( group ); }
+		} );
+	}
+
+	@Override
+	public List<InventoryType> getInventoryTypes() {
+		return confined( new Query<List<InventoryType>>() {
+			public List<InventoryType> run() { return delegate.getInventoryTypes(); }
+		} );
+	}
+
+	@Override
+	public List<InventoryType> getInventoryTypes(final MarketGroup group) {
+		return confined( new Query<List<InventoryType>>() {
+			public List<InventoryType> run() { return delegate.getInventoryTypes( group ); }
+		} );
+	}
+
+	@Override
+	public List<InventoryType> getInventoryTypes(final MarketGroup group, final String itemNamePattern) {
+		return confined( new Query<List<InventoryType>>() {
+			public List<InventoryType> run() { return delegate.getInventoryTypes( group , itemNamePattern ); }
+		} );
+	}
+
+	@Override
+	public List<InventoryType> getInventoryTypesWithBlueprints(final MarketGroup group) {
+		return confined( new Query<List<InventoryType>>() {
+			public List<InventoryType> run() { return delegate.getInventoryTypesWithBlueprints( group ); }
+		} );
+	}
+
+	@Override
+	public List<InventoryType> getInventoryTypesWithBlueprints(final MarketGroup group, final String itemNamePattern) {
+		return confined( new Query<List<InventoryType>>() {
+			public List<InventoryType> run() { return delegate.getInventoryTypesWithBlueprints( group , itemNamePattern ); }
+		} );
+	}
+
+	@Override
+	public List<InventoryCategory> getInventoryCategories() {
+		return confined( new Query<List<InventoryCategory>>() {
+			public List<InventoryCategory> run() { return delegate.getInventoryCategories(); }
+		} );
+	}
+
+	@Override
+	public List<MarketGroup> getMarketGroups() {
+		return confined( new Query<List<MarketGroup>>() {
+			public List<MarketGroup> run() { return delegate.getMarketGroups(); }
+		} );
+	}
+
+	@Override
+	public List<MarketGroup> getLeafMarketGroups() {
+		return confined( new Query<List<MarketGroup>>() {
+			public List<MarketGroup> run() { return delegate.getLeafMarketGroups(); }
+		} );
+	}
+
+	@Override
+	public List<InventoryGroup> getBlueprintProductGroups() {
+		return confined( new Query<List<InventoryGroup>>() {
+			public List<InventoryGroup> run() { return delegate.getBlueprintProductGroups(); }
+		} );
+	}
+
+	@Override
+	public List<Blueprint> getBlueprintsByProductGroup(final InventoryGroup group) {
+		return confined( new Query<List<Blueprint>>() {
+			public List<Blueprint> run() { return delegate.getBlueprintsByProductGroup( group ); }
+		} );
+	}
+
+	@Override
+	public List<Blueprint> getBlueprintsByProductName(final String name) {
+		return confined( new Query<List<Blueprint>>() {
+			public List<Blueprint> run() { return delegate.getBlueprintsByProductName( name ); }
+		} );
+	}
+
+	@Override
+	public Blueprint getBlueprintByProduct(final InventoryType type) {
+		return confined( new Query<Blueprint>() {
+			public Blueprint run() { return delegate.getBlueprintByProduct( type ); }
+		} );
+	}
+
+	@Override
+	public Blueprint getBlueprint(final InventoryType blueprint) {
+		return confined( new Query<Blueprint>() {
+			public Blueprint run() { return delegate.getBlueprint( blueprint ); }
+		} );
+	}
+
+	@Override
+	public List<Blueprint> getTech2Variations(final Blueprint blueprint) {
+		return confined( new Query<List<Blueprint>>() {
+			public List<Blueprint> run() { return delegate.getTech2Variations( blueprint ); }
+		} );
+	}
+
+	@Override
+	public Blueprint getBlueprintByName(final String name) throws DataRetrievalFailureException {
+		return confined( new Query<Blueprint>() {
+			public Blueprint run() { return delegate.getBlueprintByName( name ); }
+		} );
+	}
+
+	@Override
+	public Blueprint getTech1Variation(final Blueprint tech2Blueprint) throws DataRetrievalFailureException {
+		return confined( new Query<Blueprint>() {
+			public Blueprint run() { return delegate.getTech1Variation( tech2Blueprint ); }
+		} );
+	}
+
+	@Override
+	public List<AssemblyLine> getAssemblyLines(final Region region, final Activity activity) {
+		return confined( new Query<List<AssemblyLine>>() {
+			public List<AssemblyLine> run() { return delegate.getAssemblyLines( region , activity ); }
+		} );
+	}
+
+	@Override
+	public List<AssemblyLine> getAssemblyLines(final SolarSystem system, final Activity activity) {
+		return confined( new Query<List<AssemblyLine>>() {
+			public List<AssemblyLine> run() { return delegate.getAssemblyLines( system , activity ); }
+		} );
+	}
+
+	@Override
+	public List<AssemblyLine> getAssemblyLines(final Station station, final Activity activity) {
+		return confined( new Query<List<AssemblyLine>>() {
+			public List<AssemblyLine> run() { return delegate.getAssemblyLines( station , activity ); }
+		} );
+	}
+
+	@Override
+	public List<SolarSystem> getSolarSystemsFor(final Region region, final Activity activity) {
+		return confined( new Query<List<SolarSystem>>() {
+			public List<SolarSystem> run() { return delegate.getSolarSystemsFor( region , activity ); }
+		} );
+	}
+
+	@Override
+	public List<Station> getStationsFor(final Region region, final SolarSystem solarSystem, final Activity selectedActivity) {
+		return confined( new Query<List<Station>>() {
+			public List<Station> run() { return delegate.getStationsFor( region , solarSystem , selectedActivity ); }
+		} );
+	}
+
+	@Override
+	public List<Station> getStationsFor(final Region region, final Activity activity) {
+		return confined( new Query<List<Station>>() {
+			public List<Station> run() { return delegate.getStationsFor( region , activity ); }
+		} );
+	}
+
+	@Override
+	public List<ItemWithQuantity> getRefiningOutcome(final InventoryType item) {
+		return confined( new Query<List<ItemWithQuantity>>() {
+			public List<ItemWithQuantity> run() { return delegate.getRefiningOutcome( item ); }
+		} );
+	}
+}
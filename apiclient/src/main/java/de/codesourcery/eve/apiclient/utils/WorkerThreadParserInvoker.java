@@ -0,0 +1,79 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.apiclient.IResponseParserInvoker;
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
+import de.codesourcery.eve.apiclient.parsers.IResponseParser;
+
+/**
+ * <code>IResponseParserInvoker</code> that runs 
+ * {@link IResponseParser#parse(Date, String)} on the worker
+ * thread that sent the request.
+ * 
+ * <pre>
+ * Replaces {@link SwingEDTParserInvoker} , which blocks the Swing Event Dispatch Thread 
+ * while large responses get parsed. Parsers must be given a 
+ * {@link ThreadConfinedStaticDataModel} so that static data lookups 
+ * still only touch the data model on the Event Dispatch Thread. Results
+ * should be handed to the EDT by the caller once the request finished.
+ * 
+ * Parsing a response on the Event Dispatch Thread itself still works but
+ * logs a warning (once) since it freezes the UI.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see ThreadConfinedStaticDataModel
+ */
+public class WorkerThreadParserInvoker implements IResponseParserInvoker
+{
+	private static final Logger log = Logger.getLogger(WorkerThreadParserInvoker.class);
+
+	private final AtomicBoolean edtWarningLogged = new AtomicBoolean(false);
+
+	@Override
+	public <T> InternalAPIResponse runParser(IResponseParser<T> parser,
+			Date responseTimestamp, String xml) throws UnparseableResponseException
+	{
+		checkThread();
+		return parser.parse( responseTimestamp , xml );
+	}
+	
+	@Override
+	public <T> InternalAPIResponse runParser(IResponseParser<T> parser,
+			Date responseTimestamp, InputStream in) throws IOException,UnparseableResponseException
+	{
+		checkThread();
+		return parser.parse( responseTimestamp , in );
+	}
+	
+	private void checkThread() {
+		if ( SwingUtilities.isEventDispatchThread() && edtWarningLogged.compareAndSet( false , true ) ) {
+			log.warn("runParser(): Parsing response on the Event Dispatch Thread , " +
+					"API requests should be sent from a worker thread.", new Exception("stack trace") );
+		}
+	}
+}
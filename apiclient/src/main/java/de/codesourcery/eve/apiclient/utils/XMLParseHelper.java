@@ -17,6 +17,7 @@ package de.codesourcery.eve.apiclient.utils;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.AbstractList;
 import java.util.ArrayList;
@@ -357,6 +358,17 @@ public abstract class XMLParseHelper {
 
 	public static Document parseXML(String xml) throws UnparseableResponseException  {
 
+		try {
+			return parseXML( new ByteArrayInputStream(xml.getBytes()) );
+		}
+		catch (IOException e) {
+			// should never happen, we're reading a byte array....
+			throw new RuntimeException(e);
+		}		
+	}
+	
+	public static Document parseXML(InputStream in) throws IOException,UnparseableResponseException  {
+
 		final DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
 		final DocumentBuilder docBuilder;
 		try {
@@ -368,16 +380,11 @@ public abstract class XMLParseHelper {
 		}
 
 		try {
-			return docBuilder.parse(new ByteArrayInputStream(xml.getBytes()));
+			return docBuilder.parse( in );
 		} catch (SAXException e) {
 			throw new UnparseableResponseException(
 					"Received invalid XML from server", e);
 		}
-		catch (IOException e) {
-			// should never happen, we're reading a byte array....
-			throw new RuntimeException(e);
-		}		
-
 	}
 
 	public static String getAttributeValue(Element element, String attr) {
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+import de.codesourcery.eve.apiclient.AsyncAPIClient.ICharacterRequest;
+import de.codesourcery.eve.apiclient.datamodel.APIKey;
+import de.codesourcery.eve.apiclient.datamodel.APIKey.KeyRole;
+import de.codesourcery.eve.apiclient.datamodel.APIResponse;
+import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.apiclient.exceptions.APIUnavailableException;
+import de.codesourcery.eve.skills.datamodel.Character;
+import de.codesourcery.eve.skills.datamodel.CharacterID;
+import de.codesourcery.eve.skills.datamodel.ICharacter;
+import de.codesourcery.eve.skills.utils.MockSystemClock;
+
+public class AsyncAPIClientTest extends TestCase {
+
+	private IAPIClient client;
+	private AsyncAPIClient asyncClient;
+
+	private static final class Credentials implements ICredentialsProvider {
+
+		private final long userId;
+
+		public Credentials(long userId) {
+			this.userId = userId;
+		}
+
+		@Override
+		public APIKey getKeyForRole(KeyRole role) {
+			return null;
+		}
+
+		@Override
+		public long getUserId() {
+			return userId;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		client = createMock( IAPIClient.class );
+		replay( client );
+		asyncClient = new AsyncAPIClient( client , 2 );
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		asyncClient.shutdown();
+		super.tearDown();
+	}
+
+	private static <T> APIResponse<T> createResponse(T payload) {
+		return new APIResponse<T>( new InternalAPIResponse( "<xml/>" , null , null , null ) , 
+				payload , new MockSystemClock() );
+	}
+
+	public void testSubmit() throws Exception {
+
+		final Future<APIResponse<String>> result = asyncClient.submit( new Callable<APIResponse<String>>() {
+
+			@Override
+			public APIResponse<String> call() {
+				return createResponse( "result" );
+			}
+		} );
+
+		assertEquals( "result" , result.get( 10 , TimeUnit.SECONDS ).getPayload() );
+	}
+
+	public void testSubmitForAll() throws Exception {
+
+		final List<Long> userIds = new Vector<Long>();
+		final ICharacterRequest<String> request = new ICharacterRequest<String>() {
+
+			@Override
+			public APIResponse<String> execute(IAPIClient apiClient, ICharacter character, 
+					ICredentialsProvider credentials, RequestOptions options) 
+			{
+				assertSame( client , apiClient );
+				userIds.add( credentials.getUserId() );
+				return createResponse( character.getName() );
+			}
+		};
+
+		final Map<ICredentialsProvider,Collection<ICharacter>> characters = 
+			new LinkedHashMap<ICredentialsProvider,Collection<ICharacter>>();
+		characters.put( new Credentials( 1 ) , Arrays.<ICharacter>asList( 
+				new Character( "char1" , new CharacterID( "1" ) ) , 
+				new Character( "char2" , new CharacterID( "2" ) ) ) );
+		characters.put( new Credentials( 2 ) , Arrays.<ICharacter>asList( 
+				new Character( "char3" , new CharacterID( "3" ) ) ) );
+
+		final Map<CharacterID,Future<APIResponse<String>>> result = 
+			asyncClient.submitForAll( characters , request , RequestOptions.DEFAULT );
+
+		assertEquals( Arrays.asList( new CharacterID( "1" ) , new CharacterID( "2" ) , new CharacterID( "3" ) ) , 
+				Arrays.asList( result.keySet().toArray() ) );
+		assertEquals( "char1" , result.get( new CharacterID( "1" ) ).get( 10 , TimeUnit.SECONDS ).getPayload() );
+		assertEquals( "char2" , result.get( new CharacterID( "2" ) ).get( 10 , TimeUnit.SECONDS ).getPayload() );
+		assertEquals( "char3" , result.get( new CharacterID( "3" ) ).get( 10 , TimeUnit.SECONDS ).getPayload() );
+
+		assertEquals( 3 , userIds.size() );
+		assertEquals( 2 , Collections.frequency( userIds , 1L ) );
+	}
+
+	public void testFailureIsPropagated() throws Exception {
+
+		final APIUnavailableException error = new APIUnavailableException("server down");
+		final Future<APIResponse<String>> result = asyncClient.submit( new Callable<APIResponse<String>>() {
+
+			@Override
+			public APIResponse<String> call() {
+				throw error;
+			}
+		} );
+
+		try {
+			result.get( 10 , TimeUnit.SECONDS );
+			fail("Should have failed");
+		} 
+		catch(ExecutionException e) {
+			assertSame( error , e.getCause() );
+		}
+	}
+
+	public void testQueuedRequestCanBeCancelled() throws Exception {
+
+		final AsyncAPIClient singleThreaded = new AsyncAPIClient( client , 1 );
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			final Future<APIResponse<String>> blocking = singleThreaded.submit( new Callable<APIResponse<String>>() {
+
+				@Override
+				public APIResponse<String> call() throws Exception {
+					started.countDown();
+					release.await();
+					return createResponse( "first" );
+				}
+			} );
+
+			final AtomicBoolean executed = new AtomicBoolean(false);
+			final Future<APIResponse<String>> queued = singleThreaded.submit( new Callable<APIResponse<String>>() {
+
+				@Override
+				public APIResponse<String> call() {
+					executed.set( true );
+					return createResponse( "second" );
+				}
+			} );
+
+			assertTrue( started.await( 10 , TimeUnit.SECONDS ) );
+			assertEquals( 1 , singleThreaded.getQueuedRequestCount() );
+
+			assertTrue( queued.cancel( false ) );
+			release.countDown();
+
+			assertEquals( "first" , blocking.get( 10 , TimeUnit.SECONDS ).getPayload() );
+			try {
+				queued.get();
+				fail("Should have been cancelled");
+			} 
+			catch(CancellationException e) {
+				// ok
+			}
+			assertFalse( executed.get() );
+		} finally {
+			singleThreaded.shutdown();
+		}
+	}
+}
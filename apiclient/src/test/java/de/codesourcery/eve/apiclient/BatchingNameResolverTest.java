@@ -0,0 +1,184 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient;
+
+import static org.easymock.EasyMock.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.easymock.IAnswer;
+
+import de.codesourcery.eve.apiclient.IAPIClient.EntityType;
+import de.codesourcery.eve.apiclient.cache.PersistentNameStore;
+import de.codesourcery.eve.apiclient.datamodel.APIResponse;
+import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.apiclient.exceptions.APIUnavailableException;
+import de.codesourcery.eve.skills.utils.MockSystemClock;
+
+public class BatchingNameResolverTest extends TestCase {
+
+	private File file;
+	private IAPIClient client;
+	private final List<List<String>> requests = 
+		Collections.synchronizedList( new ArrayList<List<String>>() );
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("names", ".txt");
+		file.delete();
+		requests.clear();
+
+		client = createMock( IAPIClient.class );
+		expect( client.resolveNames( aryEq( new EntityType[] { EntityType.CHARACTER } ) , 
+				(String[]) anyObject() , (RequestOptions) anyObject() ) ).andAnswer( new IAnswer<APIResponse<Map<String,String>>>() {
+
+			@Override
+			public APIResponse<Map<String, String>> answer() throws Throwable
+			{
+				final String[] ids = (String[]) getCurrentArguments()[1];
+				requests.add( Arrays.asList( ids ) );
+
+				final Map<String,String> result = new HashMap<String, String>();
+				for ( String id : ids ) {
+					result.put( id , id.startsWith("-") ? null : "name-"+id );
+				}
+				return new APIResponse<Map<String,String>>( 
+						new InternalAPIResponse( "<xml/>" , null , null , null ) , result , new MockSystemClock() );
+			}
+		}).anyTimes();
+		replay( client );
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	public void testConcurrentLookupsAreBatched() throws Exception {
+
+		final BatchingNameResolver resolver = new BatchingNameResolver( client , file );
+		resolver.setBatchWindowMillis( 200 );
+
+		final List<Future<String>> futures = new ArrayList<Future<String>>();
+		for ( int i = 0 ; i < 10 ; i++ ) {
+			futures.add( resolver.requestName( EntityType.CHARACTER , Integer.toString( i ) ) );
+		}
+		// duplicate
+		futures.add( resolver.requestName( EntityType.CHARACTER , "3" ) );
+
+		for ( int i = 0 ; i < 10 ; i++ ) {
+			assertEquals( "name-"+i , futures.get( i ).get() );
+		}
+		assertEquals( "name-3" , futures.get( 10 ).get() );
+
+		assertEquals( 1 , requests.size() );
+		assertEquals( 10 , requests.get(0).size() );
+		resolver.dispose();
+	}
+
+	public void testBatchesAreSplitAtRequestLimit() throws Exception {
+
+		final BatchingNameResolver resolver = new BatchingNameResolver( client , file );
+		resolver.setBatchWindowMillis( 10 );
+		resolver.setMaxIdsPerRequest( 4 );
+
+		final List<String> ids = new ArrayList<String>();
+		for ( int i = 0 ; i < 10 ; i++ ) {
+			ids.add( Integer.toString( i ) );
+		}
+
+		final Map<String,String> names = resolver.resolveNames( EntityType.CHARACTER , ids );
+		assertEquals( 10 , names.size() );
+		assertEquals( "name-9" , names.get( "9" ) );
+
+		assertEquals( 3 , requests.size() );
+		for ( List<String> request : requests ) {
+			assertTrue( request.size() <= 4 );
+		}
+		resolver.dispose();
+	}
+
+	public void testResolvedNamesArePersisted() throws Exception {
+
+		BatchingNameResolver resolver = new BatchingNameResolver( client , file );
+		resolver.setBatchWindowMillis( 0 );
+		assertEquals( "name-42" , resolver.resolveName( EntityType.CHARACTER , "42" ) );
+		assertNull( resolver.resolveName( EntityType.CHARACTER , "-1" ) );
+		resolver.dispose();
+
+		requests.clear();
+		resolver = new BatchingNameResolver( client , new PersistentNameStore( file ) );
+		assertEquals( "name-42" , resolver.getCachedName( "42" ) );
+		assertEquals( "name-42" , resolver.resolveName( EntityType.CHARACTER , "42" ) );
+		assertTrue( requests.isEmpty() );
+
+		// unresolvable IDs are looked up again
+		assertNull( resolver.resolveName( EntityType.CHARACTER , "-1" ) );
+		assertEquals( 1 , requests.size() );
+		resolver.dispose();
+	}
+
+	public void testAPIErrorsArePropagated() throws Exception {
+
+		final IAPIClient failingClient = createMock( IAPIClient.class );
+		expect( failingClient.resolveNames( (EntityType[]) anyObject() , 
+				(String[]) anyObject() , (RequestOptions) anyObject() ) ).andThrow( new APIUnavailableException("down") );
+		replay( failingClient );
+
+		final BatchingNameResolver resolver = new BatchingNameResolver( failingClient , file );
+		resolver.setBatchWindowMillis( 0 );
+		try {
+			resolver.resolveName( EntityType.CHARACTER , "42" );
+			fail("Should've failed");
+		} catch(APIUnavailableException e) {
+			// ok
+		}
+		assertNull( resolver.getCachedName( "42" ) );
+		resolver.dispose();
+	}
+
+	public void testErrorsDoNotLeaveLookupsPending() throws Exception {
+
+		final IAPIClient failingClient = createMock( IAPIClient.class );
+		expect( failingClient.resolveNames( (EntityType[]) anyObject() , 
+				(String[]) anyObject() , (RequestOptions) anyObject() ) ).andThrow( new OutOfMemoryError("test") );
+		replay( failingClient );
+
+		final BatchingNameResolver resolver = new BatchingNameResolver( failingClient , file );
+		resolver.setBatchWindowMillis( 0 );
+		final Future<String> future = resolver.requestName( EntityType.CHARACTER , "42" );
+		try {
+			future.get( 10 , TimeUnit.SECONDS );
+			fail("Should've failed");
+		} catch(ExecutionException e) {
+			assertTrue( e.getCause() instanceof OutOfMemoryError );
+		}
+		resolver.dispose();
+	}
+}
@@ -20,6 +20,7 @@ import static org.easymock.classextension.EasyMock.*;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Method;
@@ -29,6 +30,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.AssertionFailedError;
 
@@ -372,4 +375,112 @@ public class FilesystemResponseCacheTest extends AbstractCacheTest {
 		assertNotNull( cached );
 		assertEquals( response2.getPayload() , cached.getPayload() );			
 	}	
+	
+	private static int readFirstByte(File file) throws IOException {
+		final FileInputStream in = new FileInputStream( file );
+		try {
+			return in.read();
+		} finally {
+			in.close();
+		}
+	}
+	
+	public void testEntriesAreCompressedOnDisk() throws Exception {
+		
+		final Properties properties = new Properties();
+		properties.setProperty( FilesystemResponseCache.OPTION_WRITE_IMMEDIATELY , "true" );
+		cache.setCacheOptions( properties );
+		
+		final APIQuery query = createQuery( "/server/test.xml" );
+		final InternalAPIResponse response = createMockResponse( 64*1024 );
+		
+		cache.put( query , response );
+		
+		final File file = cache.getFilenameForEntry( query );
+		assertEquals( 0x1f , readFirstByte( file ) ); // GZIP magic
+		assertTrue( file.length() < response.getPayloadSize() );
+		
+		final InternalAPIResponse cached = 
+			new FilesystemResponseCache( tmpDir , systemClock ).get( query );
+		assertNotNull( cached );
+		assertEquals( response.getPayload() , cached.getPayload() );
+	}
+	
+	public void testReadsUncompressedEntries() throws Exception {
+		
+		final Properties properties = new Properties();
+		properties.setProperty( FilesystemResponseCache.OPTION_WRITE_IMMEDIATELY , "true" );
+		properties.setProperty( FilesystemResponseCache.OPTION_COMPRESS , "false" );
+		cache.setCacheOptions( properties );
+		
+		final APIQuery query = createQuery( "/server/test.xml" );
+		final InternalAPIResponse response = createMockResponse( 1024 );
+		
+		cache.put( query , response );
+		
+		assertEquals( '<' , readFirstByte( cache.getFilenameForEntry( query ) ) );
+		
+		final InternalAPIResponse cached = 
+			new FilesystemResponseCache( tmpDir , systemClock ).get( query );
+		assertNotNull( cached );
+		assertEquals( response.getPayload() , cached.getPayload() );
+	}
+	
+	public void testConcurrentWritesDoNotCorruptEntry() throws Exception {
+		
+		final Properties properties = new Properties();
+		properties.setProperty( FilesystemResponseCache.OPTION_WRITE_IMMEDIATELY , "true" );
+		cache.setCacheOptions( properties );
+		
+		final APIQuery query = createQuery( "/server/test.xml" );
+		final Date now = new Date();
+		
+		final int threadCount = 8;
+		final int writesPerThread = 25;
+		
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Thread[] threads = new Thread[ threadCount ];
+		for ( int i = 0 ; i < threadCount ; i++ ) {
+			final int threadNo = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run()
+				{
+					try {
+						start.await();
+						for ( int j = 0 ; j < writesPerThread ; j++ ) {
+							final int version = j * threadCount + threadNo;
+							final EveDate serverTime = 
+								EveDate.fromServerTime( new Date( now.getTime() - 24*60*60*1000 + version * 1000 ) , systemClock );
+							final InternalAPIResponse response = 
+								new InternalAPIResponse( "payload_"+version , now , serverTime , 
+										serverTime.addMilliseconds( 48*60*60*1000 ) );
+							cache.put( query , response );
+							cache.evict( query );
+						}
+					} 
+					catch(Throwable t) {
+						failure.compareAndSet( null , t );
+					}
+				}
+			};
+			threads[i].start();
+		}
+		
+		start.countDown();
+		for ( Thread t : threads ) {
+			t.join();
+		}
+		
+		assertNull( failure.get() );
+		
+		// no leftover temporary files
+		assertEquals( 1 , tmpDir.list().length );
+		
+		final InternalAPIResponse cached = 
+			new FilesystemResponseCache( tmpDir , systemClock ).get( query );
+		assertNotNull( cached );
+		assertTrue( cached.getPayload().startsWith( "payload_" ) );
+	}
 }
@@ -19,9 +19,15 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.classextension.EasyMock.*;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
 
 import de.codesourcery.eve.apiclient.InternalAPIResponse;
 import de.codesourcery.eve.apiclient.datamodel.APIQuery;
@@ -82,7 +88,7 @@ public class InMemoryResponseCacheTest extends AbstractCacheTest {
 		assertNull( cache.get( query2 ) );
 		
 		assertSame( response1 , cache.get( query1 ) );
-		assertEquals( 2*PAYLOAD.length() , cache.getSize() );
+		assertEquals( PAYLOAD.length() , cache.getSize() );
 	}
 	
 	public void testCacheHit() throws Exception {
@@ -118,7 +124,7 @@ public class InMemoryResponseCacheTest extends AbstractCacheTest {
 		
 		assertSame( response1 , cache.get( query1 ) );
 		assertSame( response2 , cache.get( query2 ) );
-		assertEquals( 2*2*PAYLOAD.length() , cache.getSize() );
+		assertEquals( 2*PAYLOAD.length() , cache.getSize() );
 	}
 	
 	public void testEvict() throws Exception {
@@ -138,7 +144,7 @@ public class InMemoryResponseCacheTest extends AbstractCacheTest {
 		cache.put( query , response );
 		
 		assertSame( response , cache.get( query ) );
-		assertEquals( 2*PAYLOAD.length() , cache.getSize() );
+		assertEquals( PAYLOAD.length() , cache.getSize() );
 		
 		System.out.println( query.getHashString()+" <<< evicted");
 		cache.evict( query );
@@ -168,7 +174,7 @@ public class InMemoryResponseCacheTest extends AbstractCacheTest {
 		cache.put( query , response );
 		
 		assertSame( response , cache.get( query ) );
-		assertEquals( 2*PAYLOAD.length() , cache.getSize() );
+		assertEquals( PAYLOAD.length() , cache.getSize() );
 		
 		cache.clear();
 		
@@ -176,4 +182,155 @@ public class InMemoryResponseCacheTest extends AbstractCacheTest {
 		assertEquals( 0 , cache.getSize() );
 	}		
 
+
+	private InternalAPIResponse createResponse(int payloadBytes,String cachedUntil) throws Exception {
+		return new InternalAPIResponse( StringUtils.repeat( "x" , payloadBytes ) , new Date() , 
+				new EveDate( systemClock ) , createEveDate( cachedUntil ) );
+	}
+	
+	public void testLargePayloadsAreStoredCompressed() throws Exception {
+		
+		final APIQuery query = createQuery( "/large" , new HashMap<String,Object>() );
+		final InternalAPIResponse response = createResponse( 100*1024 , "2100-01-01 00:00:00" );
+		
+		cache.put( query , response );
+		
+		final InternalAPIResponse cached = cache.get( query );
+		assertTrue( cached.isCompressed() );
+		assertEquals( response.getPayload() , cached.getPayload() );
+		assertEquals( 100*1024 , cached.getUncompressedPayloadSize() );
+		assertEquals( cached.getPayloadSize() , cache.getSize() );
+		assertTrue( cache.getSize() < 1024 );
+	}
+	
+	public void testCompressionCanBeDisabled() throws Exception {
+		
+		final APIQuery query = createQuery( "/large" , new HashMap<String,Object>() );
+		final InternalAPIResponse response = createResponse( 100*1024 , "2100-01-01 00:00:00" );
+		
+		cache.setCompressionThreshold( -1 );
+		cache.put( query , response );
+		
+		assertSame( response , cache.get( query ) );
+		assertEquals( 100*1024 , cache.getSize() );
+	}
+	
+	public void testStaleEntriesAreEvictedFirst() throws Exception {
+		
+		// eviction depends on entry sizes , use uncompressed payloads
+		cache.setCompressionThreshold( -1 );
+		
+		// default cache size is 250 KB , each entry takes 100 KB
+		final APIQuery fresh = createQuery( "/fresh" , new HashMap<String,Object>() );
+		final APIQuery stale = createQuery( "/stale" , new HashMap<String,Object>() );
+		final APIQuery other = createQuery( "/other" , new HashMap<String,Object>() );
+		
+		cache.put( fresh , createResponse( 100*1024 , "2100-01-01 00:00:00" ) );
+		cache.put( stale , createResponse( 100*1024 , "2000-01-01 00:00:00" ) );
+		
+		// keep 'stale' the most recently used one
+		assertNotNull( cache.get( stale ) );
+		
+		cache.put( other , createResponse( 100*1024 , "2100-01-01 00:00:00" ) );
+		
+		assertNotNull( cache.get( fresh ) );
+		assertNull( cache.get( stale ) );
+		assertNotNull( cache.get( other ) );
+		assertEquals( 2 * 100 * 1024 , cache.getSize() );
+	}
+	
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		
+		final APIQuery query1 = createQuery( "/query1" , new HashMap<String,Object>() );
+		final APIQuery query2 = createQuery( "/query2" , new HashMap<String,Object>() );
+		final APIQuery query3 = createQuery( "/query3" , new HashMap<String,Object>() );
+		
+		cache.setCompressionThreshold( -1 );
+		
+		cache.put( query1 , createResponse( 100*1024 , "2100-01-01 00:00:00" ) );
+		cache.put( query2 , createResponse( 100*1024 , "2100-01-01 00:00:00" ) );
+		
+		assertNotNull( cache.get( query1 ) );
+		
+		cache.put( query3 , createResponse( 100*1024 , "2100-01-01 00:00:00" ) );
+		
+		assertNotNull( cache.get( query1 ) );
+		assertNull( cache.get( query2 ) );
+		assertNotNull( cache.get( query3 ) );
+	}
+	
+	public void testLargerEntryIsEvictedFirst() throws Exception {
+		
+		final APIQuery large = createQuery( "/large" , new HashMap<String,Object>() );
+		final APIQuery small1 = createQuery( "/small1" , new HashMap<String,Object>() );
+		final APIQuery small2 = createQuery( "/small2" , new HashMap<String,Object>() );
+		
+		cache.setCompressionThreshold( -1 );
+		
+		cache.put( small1 , createResponse( 20*1024 , "2100-01-01 00:00:00" ) );
+		cache.put( large , createResponse( 200*1024 , "2100-01-01 00:00:00" ) );
+		cache.put( small2 , createResponse( 60*1024 , "2100-01-01 00:00:00" ) );
+		
+		assertNull( cache.get( large ) );
+		assertNotNull( cache.get( small1 ) );
+		assertNotNull( cache.get( small2 ) );
+	}
+	
+	public void testConcurrentMissesLoadOnlyOnce() throws Exception {
+		
+		final APIQuery query = createQuery( "/just/a/test" , new HashMap<String,Object>() );
+		final InternalAPIResponse response = createResponse( 10 , "2100-01-01 00:00:00" );
+		
+		final AtomicInteger loadCount = new AtomicInteger(0);
+		final CountDownLatch loadStarted = new CountDownLatch(1);
+		final CountDownLatch finishLoad = new CountDownLatch(1);
+		
+		cache = new InMemoryResponseCache() {
+			@Override
+			protected InternalAPIResponse loadFromBackingStore(APIQuery q)
+			{
+				loadCount.incrementAndGet();
+				loadStarted.countDown();
+				try {
+					finishLoad.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				put( q , response );
+				return response;
+			}
+		};
+		
+		final List<InternalAPIResponse> results = new ArrayList<InternalAPIResponse>();
+		final List<Thread> threads = new ArrayList<Thread>();
+		for ( int i = 0 ; i < 5 ; i++ ) {
+			final Thread t = new Thread() {
+				@Override
+				public void run()
+				{
+					final InternalAPIResponse result = cache.get( query );
+					synchronized( results ) {
+						results.add( result );
+					}
+				}
+			};
+			threads.add( t );
+			t.start();
+		}
+		
+		loadStarted.await();
+		Thread.sleep( 100 );
+		finishLoad.countDown();
+		
+		for ( Thread t : threads ) {
+			t.join();
+		}
+		
+		assertEquals( 1 , loadCount.get() );
+		assertEquals( 5 , results.size() );
+		for ( InternalAPIResponse r : results ) {
+			assertSame( response , r );
+		}
+	}
+
 }
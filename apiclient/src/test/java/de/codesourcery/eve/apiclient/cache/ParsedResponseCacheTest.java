@@ -0,0 +1,122 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.cache;
+
+import static org.easymock.classextension.EasyMock.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.datamodel.APIQuery;
+import de.codesourcery.eve.apiclient.parsers.MarketOrderParser;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.datamodel.MarketOrder;
+import de.codesourcery.eve.skills.utils.EveDate;
+
+public class ParsedResponseCacheTest extends AbstractCacheTest {
+
+	private ParsedResponseCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		cache = new ParsedResponseCache( systemClock );
+	}
+
+	private InternalAPIResponse createResponse(Date timestamp,String cachedUntil) throws Exception {
+		return new InternalAPIResponse( "<xml/>" , timestamp , new EveDate( systemClock ) ,
+				createEveDate( cachedUntil ) );
+	}
+
+	private MarketOrderParser createParser(InternalAPIResponse response,List<MarketOrder> result) {
+		final MarketOrderParser parser = createParser();
+		parser.restoreFromCache( response , 2 , result );
+		return parser;
+	}
+
+	private MarketOrderParser createParser() {
+		// data model is never touched when restoring from cache
+		final IStaticDataModel dataModel = createMock( IStaticDataModel.class );
+		replay( dataModel );
+		return new MarketOrderParser( dataModel , systemClock );
+	}
+
+	public void testCacheHitReturnsCopy() throws Exception {
+
+		final APIQuery query = createQuery( "/just/a/test" , new HashMap<String,Object>() );
+		final InternalAPIResponse response = createResponse( new Date() , "2100-01-01 00:00:00" );
+
+		final List<MarketOrder> orders = new ArrayList<MarketOrder>();
+		orders.add( new MarketOrder() );
+
+		cache.put( query , response , createParser( response , orders ) );
+		assertEquals( 1 , cache.size() );
+
+		final MarketOrderParser parser = createParser();
+		assertTrue( cache.restore( query , response , parser ) );
+
+		assertEquals( orders , parser.getResult() );
+		assertNotSame( orders , parser.getResult() );
+		assertEquals( 2 , parser.getAPIVersion() );
+		assertEquals( response.getCachedUntilServerTime() , parser.getCachedUntilServerTime() );
+	}
+
+	public void testDifferentResponseIsCacheMiss() throws Exception {
+
+		final APIQuery query = createQuery( "/just/a/test" , new HashMap<String,Object>() );
+		final InternalAPIResponse response1 = createResponse( createDate("2009-01-01 00:00:00") , "2100-01-01 00:00:00" );
+		final InternalAPIResponse response2 = createResponse( createDate("2009-01-02 00:00:00") , "2100-01-01 00:00:00" );
+
+		cache.put( query , response1 , createParser( response1 , new ArrayList<MarketOrder>() ) );
+
+		assertFalse( cache.restore( query , response2 , createParser() ) );
+		assertEquals( 0 , cache.size() );
+	}
+
+	public void testExpiredEntriesArePurged() throws Exception {
+
+		final APIQuery query1 = createQuery( "/just/a/test1" , new HashMap<String,Object>() );
+		final APIQuery query2 = createQuery( "/just/a/test2" , new HashMap<String,Object>() );
+
+		final InternalAPIResponse expired = createResponse( new Date() , "2000-01-01 00:00:00" );
+		final InternalAPIResponse current = createResponse( new Date() , "2100-01-01 00:00:00" );
+
+		cache.put( query1 , expired , createParser( expired , new ArrayList<MarketOrder>() ) );
+		cache.put( query2 , current , createParser( current , new ArrayList<MarketOrder>() ) );
+
+		assertEquals( 1 , cache.size() );
+		assertFalse( cache.restore( query1 , expired , createParser() ) );
+		assertTrue( cache.restore( query2 , current , createParser() ) );
+	}
+
+	public void testMaxEntries() throws Exception {
+
+		cache.setMaxEntries( 2 );
+
+		final InternalAPIResponse response = createResponse( new Date() , "2100-01-01 00:00:00" );
+		for ( int i = 0 ; i < 5 ; i++ ) {
+			final APIQuery query = createQuery( "/just/a/test"+i , new HashMap<String,Object>() );
+			cache.put( query , response , createParser( response , new ArrayList<MarketOrder>() ) );
+		}
+		assertEquals( 2 , cache.size() );
+
+		cache.setMaxEntries( 0 );
+		assertEquals( 0 , cache.size() );
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.cache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class PersistentNameStoreTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = File.createTempFile("names", ".txt");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	private static Map<String,String> names(String... idsAndNames) {
+		final Map<String,String> result = new HashMap<String, String>();
+		for ( int i = 0 ; i < idsAndNames.length ; i+=2 ) {
+			result.put( idsAndNames[i] , idsAndNames[i+1] );
+		}
+		return result;
+	}
+
+	public void testNamesSurviveRestart() throws Exception {
+
+		PersistentNameStore store = new PersistentNameStore( file );
+		store.putAll( names( "1" , "CCP Garthagk" , "2" , "Name\twith\ttabs" , "3" , "G\u00fcnther" ) );
+		store.close();
+
+		store = new PersistentNameStore( file );
+		assertEquals( 3 , store.size() );
+		assertEquals( "CCP Garthagk" , store.get( "1" ) );
+		assertEquals( "Name\twith\ttabs" , store.get( "2" ) );
+		assertEquals( "G\u00fcnther" , store.get( "3" ) );
+		assertNull( store.get( "4" ) );
+		store.close();
+	}
+
+	public void testLeastRecentlyUsedNamesAreDiscarded() throws Exception {
+
+		final PersistentNameStore store = new PersistentNameStore( file , 2 );
+		store.putAll( names( "1" , "one" ) );
+		store.putAll( names( "2" , "two" ) );
+		assertEquals( "one" , store.get( "1" ) );
+
+		store.putAll( names( "3" , "three" ) );
+
+		assertEquals( 2 , store.size() );
+		assertEquals( "one" , store.get( "1" ) );
+		assertNull( store.get( "2" ) );
+		assertEquals( "three" , store.get( "3" ) );
+		store.close();
+	}
+
+	public void testCompact() throws Exception {
+
+		PersistentNameStore store = new PersistentNameStore( file , 2 );
+		store.putAll( names( "1" , "one" ) );
+		store.putAll( names( "2" , "two" ) );
+		store.putAll( names( "3" , "three" ) );
+		store.compact();
+		store.close();
+
+		store = new PersistentNameStore( file );
+		assertEquals( 2 , store.size() );
+		assertNull( store.get( "1" ) );
+		assertEquals( "two" , store.get( "2" ) );
+		assertEquals( "three" , store.get( "3" ) );
+		store.close();
+	}
+}
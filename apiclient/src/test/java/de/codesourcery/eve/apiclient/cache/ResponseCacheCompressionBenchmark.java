@@ -0,0 +1,120 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.datamodel.APIQuery;
+import de.codesourcery.eve.apiclient.utils.ParserInvokerBenchmark;
+
+/**
+ * Compares memory per cached entry and cache hit latency 
+ * of the in-memory response cache with and
+ * without payload compression.
+ * 
+ * <pre>
+ * Uses the load-test fixtures and a generated asset list. Hit latency
+ * includes reading the whole payload , like the API client does
+ * before handing a cached response to a parser.
+ * 
+ * Arguments (all optional): [entries per fixture] [asset count]
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class ResponseCacheCompressionBenchmark {
+
+	private static final int HIT_ITERATIONS = 20000;
+
+	public static void main(String[] args) throws Exception {
+
+		final int entryCount = args.length > 0 ? Integer.parseInt( args[0] ) : 100;
+		final int assetCount = args.length > 1 ? Integer.parseInt( args[1] ) : 2000;
+
+		final Map<String,String> fixtures = new LinkedHashMap<String, String>();
+		fixtures.put( "SkillInTraining.xml" , loadFixture( "SkillInTraining.xml" ) );
+		fixtures.put( "CharacterName.xml" , loadFixture( "CharacterName.xml" ) );
+		fixtures.put( "AssetList ("+assetCount+" assets)" , ParserInvokerBenchmark.createAssetList( assetCount , 500 ) );
+
+		System.out.println("Entries per fixture: "+entryCount);
+		for ( Map.Entry<String,String> fixture : fixtures.entrySet() ) {
+			// warm-up
+			run( null , fixture.getValue() , entryCount , -1 );
+			run( null , fixture.getValue() , entryCount , 0 );
+
+			run( fixture.getKey()+" , uncompressed" , fixture.getValue() , entryCount , -1 );
+			run( fixture.getKey()+" , compressed" , fixture.getValue() , entryCount , 0 );
+		}
+	}
+
+	private static String loadFixture(String name) throws IOException {
+		final InputStream in = 
+			ResponseCacheCompressionBenchmark.class.getResourceAsStream( "/de/codesourcery/eve/apiclient/loadtest/"+name );
+		if ( in == null ) {
+			throw new IOException("Unable to find fixture "+name);
+		}
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[ 1024 ];
+			int len;
+			while ( ( len = in.read( buffer ) ) > 0 ) {
+				out.write( buffer , 0 , len );
+			}
+			return out.toString( "UTF-8" );
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void run(String name,String xml,int entryCount,int compressionThreshold) throws Exception {
+
+		final InMemoryResponseCache cache = new InMemoryResponseCache( Integer.MAX_VALUE );
+		cache.setCompressionThreshold( compressionThreshold );
+
+		final APIQuery[] queries = new APIQuery[ entryCount ];
+		for ( int i = 0 ; i < entryCount ; i++ ) {
+			final Map<String,Object> params = new HashMap<String, Object>();
+			params.put( "characterID" , Integer.toString( i ) );
+			queries[i] = new APIQuery( new URI("http://localhost") , "/char/Test.xml.aspx" , params );
+			cache.put( queries[i] , new InternalAPIResponse( xml , new Date() , null , null ) );
+		}
+
+		final byte[] buffer = new byte[ 8192 ];
+		long bytesRead = 0;
+		final long start = System.nanoTime();
+		for ( int i = 0 ; i < HIT_ITERATIONS ; i++ ) {
+			final InputStream in = cache.get( queries[ i % entryCount ] ).getPayloadStream();
+			int len;
+			while ( ( len = in.read( buffer ) ) > 0 ) {
+				bytesRead += len;
+			}
+		}
+		final double hitMicros = ( System.nanoTime() - start ) / 1000.0d / HIT_ITERATIONS;
+
+		if ( name != null ) {
+			System.out.println( String.format("%-45s: payload %7d bytes , %7d bytes/entry , hit latency %8.2f us (%d bytes read)" ,
+					name , xml.length() , cache.getSize() / entryCount , hitMicros , bytesRead ) );
+		}
+	}
+}
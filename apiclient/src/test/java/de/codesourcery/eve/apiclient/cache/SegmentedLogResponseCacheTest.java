@@ -0,0 +1,177 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.datamodel.APIQuery;
+import de.codesourcery.eve.skills.utils.EveDate;
+
+public class SegmentedLogResponseCacheTest extends AbstractCacheTest {
+
+	private File tmpDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		final File tmpFile = File.createTempFile("logcachetest","dir");
+		tmpFile.delete();
+		if ( ! tmpFile.mkdir() ) {
+			throw new IOException("Unable to create tmp dir "+tmpFile);
+		}
+		this.tmpDir = tmpFile;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		if ( tmpDir != null ) {
+			for ( File f : tmpDir.listFiles() ) {
+				f.delete();
+			}
+			tmpDir.delete();
+		}
+	}
+
+	private SegmentedLogResponseCache createCache() throws Exception {
+		return new SegmentedLogResponseCache( tmpDir , null , systemClock , 1024 );
+	}
+
+	private InternalAPIResponse createResponse(String payload,String serverTime) throws Exception {
+		final EveDate time = createEveDate( serverTime );
+		return new InternalAPIResponse( payload , new Date() , time , time.addMilliseconds( 60*60*1000 ) );
+	}
+
+	private static byte[] bytes(String s) throws IOException {
+		return s.getBytes("US-ASCII");
+	}
+
+	private int countSegmentFiles() {
+		int result = 0;
+		for ( String name : tmpDir.list() ) {
+			if ( name.endsWith(".log") ) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	public void testEntriesSurviveRestart() throws Exception {
+
+		final APIQuery query = createQuery( "/just/a/test" , new HashMap<String,Object>() );
+		final InternalAPIResponse response = createResponse( "<payload/>" , "2009-01-01 10:00:00" );
+
+		SegmentedLogResponseCache cache = createCache();
+		cache.put( query , response );
+		cache.shutdown();
+
+		assertEquals( 1 , countSegmentFiles() );
+
+		cache = createCache();
+		final InternalAPIResponse loaded = cache.get( query );
+		assertNotNull( loaded );
+		assertEquals( "<payload/>" , loaded.getPayload() );
+		assertEquals( response.getServerTime() , loaded.getServerTime() );
+		assertEquals( response.getCachedUntilServerTime() , loaded.getCachedUntilServerTime() );
+		cache.shutdown();
+	}
+
+	public void testStaleEntryIsNotPersisted() throws Exception {
+
+		final APIQuery query = createQuery( "/just/a/test" , new HashMap<String,Object>() );
+
+		final SegmentedLogResponseCache cache = createCache();
+		assertTrue( cache.persistCacheEntry( query.getHashString() , createResponse( "new" , "2009-01-02 10:00:00" ) ) );
+		assertFalse( cache.persistCacheEntry( query.getHashString() , createResponse( "old" , "2009-01-01 10:00:00" ) ) );
+
+		assertEquals( "new" , cache.get( query ).getPayload() );
+		cache.shutdown();
+	}
+
+	public void testRemovedEntriesStayRemoved() throws Exception {
+
+		SegmentedEntryLog log = new SegmentedEntryLog( tmpDir , 1024 );
+		log.append( "key1" , 1 , bytes("data1") );
+		log.append( "key2" , 1 , bytes("data2") );
+		log.remove( "key1" );
+		log.close();
+
+		log = new SegmentedEntryLog( tmpDir , 1024 );
+		assertNull( log.read( "key1" ) );
+		assertEquals( "data2" , new String( log.read( "key2" ) , "US-ASCII" ) );
+		assertEquals( 1 , log.size() );
+		log.close();
+	}
+
+	public void testCompaction() throws Exception {
+
+		final SegmentedEntryLog log = new SegmentedEntryLog( tmpDir , 1024 );
+
+		final byte[] data = new byte[ 300 ];
+		for ( int i = 0 ; i < 20 ; i++ ) {
+			log.append( "key" , i , data );
+		}
+		log.append( "other" , 1 , bytes("other") );
+
+		// background compaction may already have run ,
+		// just make sure everything has been processed
+		log.compact();
+
+		// only the active segment holds live data
+		assertEquals( 1 , log.getSegmentCount() );
+		assertEquals( 1 , countSegmentFiles() );
+		assertEquals( 19 , log.getTimestamp( "key" ) );
+		assertEquals( "other" , new String( log.read( "other" ) , "US-ASCII" ) );
+		log.close();
+
+		final SegmentedEntryLog reopened = new SegmentedEntryLog( tmpDir , 1024 );
+		assertEquals( 2 , reopened.size() );
+		assertEquals( 19 , reopened.getTimestamp( "key" ) );
+		assertEquals( data.length , reopened.read( "key" ).length );
+		reopened.close();
+	}
+
+	public void testTruncatedRecordIsDiscarded() throws Exception {
+
+		SegmentedEntryLog log = new SegmentedEntryLog( tmpDir , 1024 );
+		log.append( "key1" , 1 , bytes("data1") );
+		log.close();
+
+		// simulate partially written record
+		final File segment = tmpDir.listFiles()[0];
+		final long size = segment.length();
+		final FileOutputStream out = new FileOutputStream( segment , true );
+		try {
+			out.write( new byte[] { (byte) 0xCA , (byte) 0xC4 , 0x01 } );
+		} finally {
+			out.close();
+		}
+
+		log = new SegmentedEntryLog( tmpDir , 1024 );
+		assertEquals( "data1" , new String( log.read( "key1" ) , "US-ASCII" ) );
+		assertEquals( size , segment.length() );
+
+		log.append( "key2" , 1 , bytes("data2") );
+		assertEquals( "data2" , new String( log.read( "key2" ) , "US-ASCII" ) );
+		log.close();
+	}
+}
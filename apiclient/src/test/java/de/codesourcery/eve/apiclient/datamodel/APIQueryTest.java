@@ -0,0 +1,119 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.datamodel;
+
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class APIQueryTest extends TestCase {
+
+	private static final URI BASE_URI = URI.create( "http://api.eve-online.com" );
+	
+	private static Map<String,Object> params(String... keyValues) {
+		final Map<String,Object> result = new LinkedHashMap<String, Object>();
+		for ( int i = 0 ; i < keyValues.length ; i+=2 ) {
+			result.put( keyValues[i] , keyValues[i+1] );
+		}
+		return result;
+	}
+	
+	private static String sha1(String... parts) throws Exception {
+		final MessageDigest digest = MessageDigest.getInstance("SHA1");
+		for ( String part : parts ) {
+			digest.update( part.getBytes() );
+		}
+		final StringBuilder result = new StringBuilder();
+		for ( byte b : digest.digest() ) {
+			result.append( String.format( "%02x" , b & 0xff ) );
+		}
+		return result.toString();
+	}
+	
+	public void testHashStringIsSHA1OfSortedParams() throws Exception {
+		
+		final APIQuery query = 
+			new APIQuery( BASE_URI , "/char/AssetList.xml.aspx" , params( "userID" , "42" , "apiKey" , "secret" ) );
+		
+		final String expected = 
+			sha1( "http://api.eve-online.com/char/AssetList.xml.aspx" , "apiKey" , "secret" , "userID" , "42" );
+		
+		assertEquals( expected , query.getHashString() );
+	}
+	
+	public void testNonASCIIParams() throws Exception {
+		
+		final APIQuery query = 
+			new APIQuery( BASE_URI , "/eve/CharacterID.xml.aspx" , params( "names" , "abc\u00e4\u00f6\u00fc" ) );
+		
+		assertEquals( sha1( "http://api.eve-online.com/eve/CharacterID.xml.aspx" , "names" , "abc\u00e4\u00f6\u00fc" ) , 
+				query.getHashString() );
+	}
+	
+	public void testEqualsIgnoresParamOrder() {
+		
+		final APIQuery query1 = 
+			new APIQuery( BASE_URI , "/char/AssetList.xml.aspx" , params( "userID" , "42" , "characterID" , "1" ) );
+		
+		final APIQuery query2 = 
+			new APIQuery( BASE_URI , "/char/AssetList.xml.aspx" , params( "characterID" , "1" , "userID" , "42" ) );
+		
+		final APIQuery query3 = 
+			new APIQuery( BASE_URI , "/char/AssetList.xml.aspx" , params( "characterID" , "2" , "userID" , "42" ) );
+		
+		assertEquals( query1 , query2 );
+		assertEquals( query1.hashCode() , query2.hashCode() );
+		assertFalse( query1.equals( query3 ) );
+		
+		final Map<APIQuery,String> map = new HashMap<APIQuery, String>();
+		map.put( query1 , "value" );
+		assertEquals( "value" , map.get( query2 ) );
+		assertNull( map.get( query3 ) );
+	}
+	
+	public void testRestoreFromHashString() {
+		
+		final APIQuery query = 
+			new APIQuery( BASE_URI , "/char/AssetList.xml.aspx" , params( "userID" , "42" ) );
+		
+		final APIQuery restored = new APIQuery( query.getHashString() );
+		
+		assertEquals( query , restored );
+		assertEquals( query.hashCode() , restored.hashCode() );
+		assertEquals( query.getHashString() , restored.getHashString() );
+	}
+	
+	public void testInvalidHashString() {
+		
+		try {
+			new APIQuery( "abc" );
+			fail("Should have failed");
+		} catch(IllegalArgumentException e) {
+			// ok
+		}
+		
+		try {
+			new APIQuery( "zz00000000000000000000000000000000000000" );
+			fail("Should have failed");
+		} catch(IllegalArgumentException e) {
+			// ok
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.http.client.HttpResponseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class DefaultHttpTransportTest extends TestCase {
+
+	private static final String BODY = "<eveapi>some response</eveapi>";
+	
+	private HttpServer server;
+	private DefaultHttpTransport transport;
+	
+	private volatile String lastAcceptEncoding;
+	private volatile String lastRequestBody;
+	
+	private final IHttpTransport.IResponseBodyHandler<String> TO_STRING = 
+		new IHttpTransport.IResponseBodyHandler<String>() {
+
+		@Override
+		public String handleResponseBody(InputStream body) throws IOException {
+			return new String( readFully( body ) , "UTF-8" );
+		}
+	};
+	
+	private static byte[] readFully(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1024];
+		int len;
+		while ( ( len = in.read( buffer ) ) > 0 ) {
+			out.write( buffer , 0 , len );
+		}
+		return out.toByteArray();
+	}
+	
+	@Override
+	protected void setUp() throws Exception {
+		
+		server = HttpServer.create( new InetSocketAddress( "127.0.0.1" , 0 ) , 0 );
+		server.createContext( "/" , new HttpHandler() {
+			
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				
+				lastAcceptEncoding = exchange.getRequestHeaders().getFirst( "Accept-Encoding" );
+				lastRequestBody = new String( readFully( exchange.getRequestBody() ) , "UTF-8" );
+				
+				if ( exchange.getRequestURI().getPath().startsWith( "/missing" ) ) {
+					exchange.sendResponseHeaders( 404 , -1 );
+					exchange.close();
+					return;
+				}
+				
+				byte[] data = BODY.getBytes( "UTF-8" );
+				if ( lastAcceptEncoding != null && lastAcceptEncoding.contains( "gzip" ) ) 
+				{
+					final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+					final GZIPOutputStream gzip = new GZIPOutputStream( compressed );
+					gzip.write( data );
+					gzip.close();
+					data = compressed.toByteArray();
+					exchange.getResponseHeaders().set( "Content-Encoding" , "gzip" );
+				}
+				exchange.sendResponseHeaders( 200 , data.length );
+				final OutputStream out = exchange.getResponseBody();
+				out.write( data );
+				out.close();
+			}
+		});
+		server.start();
+		
+		transport = new DefaultHttpTransport();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		transport.shutdown();
+		server.stop( 0 );
+	}
+	
+	private URI uri(String path) {
+		return URI.create( "http://127.0.0.1:"+server.getAddress().getPort()+path );
+	}
+	
+	public void testGzipResponseIsDecompressed() throws Exception {
+		
+		assertEquals( BODY , transport.get( uri( "/test" ) , TO_STRING ) );
+		assertEquals( "gzip" , lastAcceptEncoding );
+		assertEquals( 1 , transport.getMetrics().getCompressedResponseCount() );
+		assertTrue( transport.getMetrics().getBytesReceived() > 0 );
+	}
+	
+	public void testCompressionDisabled() throws Exception {
+		
+		transport.setCompressionEnabled( false );
+		
+		assertEquals( BODY , transport.get( uri( "/test" ) , TO_STRING ) );
+		assertNull( lastAcceptEncoding );
+		assertEquals( 0 , transport.getMetrics().getCompressedResponseCount() );
+		assertEquals( BODY.length() , transport.getMetrics().getBytesReceived() );
+	}
+	
+	public void testConnectionsAreReused() throws Exception {
+		
+		for ( int i = 0 ; i < 3 ; i++ ) {
+			assertEquals( BODY , transport.get( uri( "/test" ) , TO_STRING ) );
+		}
+		
+		final HttpTransportMetrics metrics = transport.getMetrics();
+		assertEquals( 3 , metrics.getRequestCount() );
+		assertEquals( 1 , metrics.getNewConnectionCount() );
+		assertEquals( 2 , metrics.getReusedConnectionCount() );
+		assertEquals( 1 , transport.getAvailableConnectionCount() );
+		assertEquals( 0 , transport.getLeasedConnectionCount() );
+	}
+	
+	public void testPostSendsFormParameters() throws Exception {
+		
+		final Map<String,Object> params = new HashMap<String, Object>();
+		params.put( "characterID" , 42 );
+		
+		assertEquals( BODY , transport.post( uri( "/test" ) , params , TO_STRING ) );
+		assertEquals( "characterID=42" , lastRequestBody );
+	}
+	
+	public void testErrorStatus() throws Exception {
+		
+		try {
+			transport.get( uri( "/missing" ) , TO_STRING );
+			fail("Should have failed");
+		} catch(HttpResponseException e) {
+			assertEquals( 404 , e.getStatusCode() );
+		}
+		assertEquals( 1 , transport.getMetrics().getFailedRequestCount() );
+		
+		// connection is still usable
+		assertEquals( BODY , transport.get( uri( "/test" ) , TO_STRING ) );
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * {@link IHttpTransport} that serves canned responses from memory.
+ * 
+ * <pre>
+ * Responses are looked up by the request's full URI , requests
+ * for unknown URIs fail with HTTP status 404. All requests are
+ * recorded so tests can check what was sent.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class InMemoryHttpTransport implements IHttpTransport {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final HttpTransportMetrics metrics = new HttpTransportMetrics();
+	
+	// guarded-by: responses
+	private final Map<URI,CannedResponse> responses = new HashMap<URI, CannedResponse>();
+	
+	// guarded-by: requests
+	private final List<Request> requests = new ArrayList<Request>();
+	
+	private volatile boolean isShutdown;
+	
+	private static final class CannedResponse {
+		
+		public final int statusCode;
+		public final byte[] body;
+		
+		public CannedResponse(int statusCode, byte[] body) {
+			this.statusCode = statusCode;
+			this.body = body;
+		}
+	}
+	
+	/**
+	 * A request received by this transport.
+	 */
+	public static final class Request {
+		
+		public final String method;
+		public final URI uri;
+		public final Map<String,Object> params;
+		
+		public Request(String method, URI uri, Map<String, Object> params) {
+			this.method = method;
+			this.uri = uri;
+			this.params = params;
+		}
+		
+		@Override
+		public String toString() {
+			return method+" "+uri+" "+params;
+		}
+	}
+	
+	public void addResponse(URI uri,String body) {
+		addResponse( uri , 200 , body.getBytes( UTF8 ) );
+	}
+	
+	public void addError(URI uri,int statusCode) {
+		addResponse( uri , statusCode , new byte[0] );
+	}
+	
+	public void addResponse(URI uri,int statusCode,byte[] body) {
+		synchronized( responses ) {
+			responses.put( uri , new CannedResponse( statusCode , body ) );
+		}
+	}
+	
+	public List<Request> getRequests() {
+		synchronized( requests ) {
+			return new ArrayList<Request>( requests );
+		}
+	}
+	
+	public boolean isShutdown() {
+		return isShutdown;
+	}
+	
+	@Override
+	public <T> T get(URI uri, IResponseBodyHandler<T> handler) throws IOException {
+		return execute( new Request( "GET" , uri , new HashMap<String, Object>() ) , handler );
+	}
+
+	@Override
+	public <T> T post(URI uri, Map<String, Object> formParams,IResponseBodyHandler<T> handler) throws IOException {
+		return execute( new Request( "POST" , uri , new HashMap<String, Object>( formParams ) ) , handler );
+	}
+	
+	private <T> T execute(Request request,IResponseBodyHandler<T> handler) throws IOException {
+		
+		if ( isShutdown ) {
+			throw new IllegalStateException("Transport already shut down");
+		}
+		
+		synchronized( requests ) {
+			requests.add( request );
+		}
+		metrics.recordRequest();
+		
+		final CannedResponse response;
+		synchronized( responses ) {
+			response = responses.get( request.uri );
+		}
+		
+		if ( response == null || response.statusCode >= 300 ) {
+			metrics.recordFailure();
+			if ( response == null ) {
+				throw new HttpResponseException( 404 , "Not found: "+request.uri );
+			}
+			throw new HttpResponseException( response.statusCode , "Canned error" );
+		}
+		
+		metrics.recordConnection( true );
+		metrics.recordBytesReceived( response.body.length );
+		return handler.handleResponseBody( new ByteArrayInputStream( response.body ) );
+	}
+
+	@Override
+	public HttpTransportMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public void shutdown() {
+		isShutdown = true;
+	}
+}
@@ -0,0 +1,367 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.apiclient.AsyncAPIClient;
+import de.codesourcery.eve.apiclient.AsyncAPIClient.ICharacterRequest;
+import de.codesourcery.eve.apiclient.HttpAPIClient;
+import de.codesourcery.eve.apiclient.IAPIClient;
+import de.codesourcery.eve.apiclient.ICredentialsProvider;
+import de.codesourcery.eve.apiclient.datamodel.APIKey;
+import de.codesourcery.eve.apiclient.datamodel.Credentials;
+import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.apiclient.metrics.LatencyHistogram;
+import de.codesourcery.eve.apiclient.utils.RequestRateLimiter;
+import de.codesourcery.eve.skills.datamodel.Character;
+import de.codesourcery.eve.skills.datamodel.CharacterID;
+import de.codesourcery.eve.skills.datamodel.ICharacter;
+
+/**
+ * Runs a number of simulated characters concurrently 
+ * through an {@link IAPIClient}.
+ * 
+ * <pre>
+ * Each simulated character runs on its own thread and sends 
+ * all configured requests <code>iterations</code> times , using its own character ID and
+ * credentials (so responses are cached per character , just like
+ * with the real API).
+ * 
+ * Reports throughput , latency percentiles and the number of bytes
+ * allocated by the character threads (if the JVM supports measuring this).
+ * 
+ * Use {@link #main(String[])} to run against a {@link StubAPIServer}
+ * from the command line.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class APILoadDriver {
+
+	private static final Logger log = Logger.getLogger(APILoadDriver.class);
+
+	private int characterCount = 10;
+	private int iterations = 10;
+	private long thinkTimeMillis = 0;
+	private RequestOptions requestOptions = RequestOptions.DEFAULT;
+	private final List<ICharacterRequest<?>> requests = new ArrayList<ICharacterRequest<?>>();
+
+	/**
+	 * Result of a load test run.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static final class Result {
+
+		private final long requestCount;
+		private final long errorCount;
+		private final long elapsedMillis;
+		private final long allocatedBytes;
+		private final LatencyHistogram latency;
+
+		protected Result(long requestCount, long errorCount, long elapsedMillis,
+				long allocatedBytes, LatencyHistogram latency) 
+		{
+			this.requestCount = requestCount;
+			this.errorCount = errorCount;
+			this.elapsedMillis = elapsedMillis;
+			this.allocatedBytes = allocatedBytes;
+			this.latency = latency;
+		}
+
+		public long getRequestCount() {
+			return requestCount;
+		}
+
+		public long getErrorCount() {
+			return errorCount;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * Returns requests per second.
+		 * @return
+		 */
+		public double getThroughput() {
+			return elapsedMillis == 0 ? 0 : requestCount * 1000.0d / elapsedMillis;
+		}
+
+		public double getP50Millis() {
+			return latency.getPercentileMillis( 50 );
+		}
+
+		public double getP99Millis() {
+			return latency.getPercentileMillis( 99 );
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 * Returns the number of bytes allocated by
+		 * the character threads.
+		 * 
+		 * @return bytes or <code>-1</code> if the JVM
+		 * does not support measuring allocations
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Returns the allocation rate.
+		 * 
+		 * @return MB/s or <code>-1</code> if the JVM
+		 * does not support measuring allocations
+		 */
+		public double getAllocationRate() {
+			if ( allocatedBytes < 0 ) {
+				return -1;
+			}
+			return elapsedMillis == 0 ? 0 : ( allocatedBytes / ( 1024.0d * 1024.0d ) ) * 1000.0d / elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format( "requests=%d , errors=%d , elapsed=%d ms , throughput=%.1f req/s , " +
+					"p50=%.2f ms , p99=%.2f ms , allocated=%d bytes , allocation_rate=%.2f MB/s",
+					requestCount , errorCount , elapsedMillis , getThroughput() , getP50Millis() ,
+					getP99Millis() , allocatedBytes , getAllocationRate() );
+		}
+	}
+
+	public APILoadDriver() {
+		requests.add( AsyncAPIClient.SKILL_IN_TRAINING );
+	}
+
+	/**
+	 * Sets the number of concurrent simulated characters.
+	 * 
+	 * @param characterCount
+	 */
+	public void setCharacterCount(int characterCount) {
+		if ( characterCount < 1 ) {
+			throw new IllegalArgumentException("character count must be >= 1");
+		}
+		this.characterCount = characterCount;
+	}
+
+	/**
+	 * Sets how often each simulated character
+	 * sends the configured requests.
+	 * 
+	 * @param iterations
+	 */
+	public void setIterations(int iterations) {
+		if ( iterations < 1 ) {
+			throw new IllegalArgumentException("iterations must be >= 1");
+		}
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Sets the time each simulated character waits
+	 * between two requests.
+	 * 
+	 * @param thinkTimeMillis
+	 */
+	public void setThinkTimeMillis(long thinkTimeMillis) {
+		if ( thinkTimeMillis < 0 ) {
+			throw new IllegalArgumentException("think time must be >= 0");
+		}
+		this.thinkTimeMillis = thinkTimeMillis;
+	}
+
+	public void setRequestOptions(RequestOptions requestOptions) {
+		if ( requestOptions == null ) {
+			throw new IllegalArgumentException("request options cannot be NULL");
+		}
+		this.requestOptions = requestOptions;
+	}
+
+	/**
+	 * Sets the requests each simulated character sends.
+	 * 
+	 * Requests must be served by the API server , see 
+	 * {@link StubAPIServer#addFixture(String, String)}.
+	 * 
+	 * @param requests
+	 */
+	public void setRequests(ICharacterRequest<?>... requests) {
+		if ( requests == null || requests.length == 0 ) {
+			throw new IllegalArgumentException("requests cannot be NULL/empty");
+		}
+		this.requests.clear();
+		this.requests.addAll( Arrays.asList( requests ) );
+	}
+
+	/**
+	 * Runs the load test.
+	 * 
+	 * @param client
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Result run(final IAPIClient client) throws InterruptedException {
+
+		if ( client == null ) {
+			throw new IllegalArgumentException("client cannot be NULL");
+		}
+
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		final boolean measureAllocations = isAllocationMeasurementSupported( threadBean );
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong requestCount = new AtomicLong(0);
+		final AtomicLong errorCount = new AtomicLong(0);
+		final AtomicLong allocatedBytes = new AtomicLong(0);
+
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch( characterCount );
+
+		for ( int i = 0 ; i < characterCount ; i++ ) {
+
+			final ICharacter character = new Character( "Character #"+i , new CharacterID( Integer.toString( 1000 + i ) ) );
+			final ICredentialsProvider credentials = new Credentials( 1000 + i ,
+					APIKey.createFullAccessKey( "deadbeefdeadbeefdeadbeefdeadbeefdeadbeefdeadbeef" ) );
+
+			final Thread thread = new Thread( "load-character-"+i ) {
+
+				@Override
+				public void run() {
+					try {
+						startSignal.await();
+
+						final long allocatedAtStart = measureAllocations ? allocatedBytes( threadBean ) : 0;
+						for ( int iteration = 0 ; iteration < iterations ; iteration++ ) {
+							for ( ICharacterRequest<?> request : requests ) {
+								final long start = System.nanoTime();
+								try {
+									request.execute( client , character , credentials , requestOptions );
+								} catch(Exception e) {
+									errorCount.incrementAndGet();
+									if ( log.isDebugEnabled() ) {
+										log.debug("run(): Request failed: "+e.getMessage() );
+									}
+								}
+								latency.record( System.nanoTime() - start );
+								requestCount.incrementAndGet();
+
+								if ( thinkTimeMillis > 0 ) {
+									TimeUnit.MILLISECONDS.sleep( thinkTimeMillis );
+								}
+							}
+						}
+						if ( measureAllocations ) {
+							allocatedBytes.addAndGet( allocatedBytes( threadBean ) - allocatedAtStart );
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						finished.countDown();
+					}
+				}
+			};
+			thread.setDaemon( true );
+			thread.start();
+		}
+
+		final long start = System.currentTimeMillis();
+		startSignal.countDown();
+		finished.await();
+		final long elapsed = System.currentTimeMillis() - start;
+
+		return new Result( requestCount.get() , errorCount.get() , elapsed ,
+				measureAllocations ? allocatedBytes.get() : -1 , latency );
+	}
+
+	private static boolean isAllocationMeasurementSupported(ThreadMXBean bean) {
+		if ( ! ( bean instanceof com.sun.management.ThreadMXBean ) ) {
+			return false;
+		}
+		final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		if ( ! sunBean.isThreadAllocatedMemorySupported() ) {
+			return false;
+		}
+		if ( ! sunBean.isThreadAllocatedMemoryEnabled() ) {
+			sunBean.setThreadAllocatedMemoryEnabled( true );
+		}
+		return true;
+	}
+
+	private static long allocatedBytes(ThreadMXBean bean) {
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	/**
+	 * Runs a load test against a {@link StubAPIServer}.
+	 * 
+	 * <pre>
+	 * Arguments (all optional): 
+	 * 
+	 * [characters] [iterations] [min latency millis] [max latency millis] [cachedUntil seconds] [error rate]
+	 * </pre>
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		final int characters = args.length > 0 ? Integer.parseInt( args[0] ) : 50;
+		final int iterations = args.length > 1 ? Integer.parseInt( args[1] ) : 20;
+		final long minLatency = args.length > 2 ? Long.parseLong( args[2] ) : 20;
+		final long maxLatency = args.length > 3 ? Long.parseLong( args[3] ) : 100;
+		final int cachedUntil = args.length > 4 ? Integer.parseInt( args[4] ) : -60;
+		final double errorRate = args.length > 5 ? Double.parseDouble( args[5] ) : 0;
+
+		final StubAPIServer server = new StubAPIServer( characters ).addDefaultFixtures();
+		server.setLatency( minLatency , maxLatency );
+		server.setCachedUntilSeconds( cachedUntil );
+		server.setHttpErrorRate( errorRate );
+		server.start();
+
+		final HttpAPIClient client = new HttpAPIClient( server.getBaseURI() );
+		client.setRateLimiter( new RequestRateLimiter( 100000 , 100000 ) );
+		client.setMaxConcurrentRequestsPerHost( characters );
+		try {
+			final APILoadDriver driver = new APILoadDriver();
+			driver.setCharacterCount( characters );
+			driver.setIterations( iterations );
+
+			final Result result = driver.run( client );
+
+			System.out.println( result );
+			System.out.println( "Server requests: "+server.getRequestCount() );
+			System.out.println( client.getMetrics().dump() );
+		} finally {
+			client.dispose();
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.loadtest;
+
+import junit.framework.TestCase;
+import de.codesourcery.eve.apiclient.HttpAPIClient;
+import de.codesourcery.eve.apiclient.parsers.SkillInTrainingParser;
+import de.codesourcery.eve.apiclient.utils.RequestRateLimiter;
+
+public class APILoadDriverTest extends TestCase {
+
+	private static final String PATH = SkillInTrainingParser.URI.getPath();
+
+	private StubAPIServer server;
+	private HttpAPIClient client;
+	private APILoadDriver driver;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		server = new StubAPIServer().addDefaultFixtures();
+		server.setLatency( 0 , 5 );
+		server.start();
+
+		client = new HttpAPIClient( server.getBaseURI() );
+		client.setRateLimiter( new RequestRateLimiter( 10000 , 10000 ) );
+
+		driver = new APILoadDriver();
+		driver.setCharacterCount( 5 );
+		driver.setIterations( 4 );
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		client.dispose();
+		server.stop();
+		super.tearDown();
+	}
+
+	public void testCachedResponsesAreServedLocally() throws Exception {
+
+		server.setCachedUntilSeconds( 3600 );
+
+		final APILoadDriver.Result result = driver.run( client );
+
+		assertEquals( 20 , result.getRequestCount() );
+		assertEquals( 0 , result.getErrorCount() );
+		assertEquals( 5 , server.getRequestCount() );
+		assertEquals( 5 , server.getRequestCount( PATH ) );
+		assertEquals( 5 , client.getServerRequestCount() );
+
+		assertTrue( result.getThroughput() > 0 );
+		assertTrue( result.getP50Millis() <= result.getP99Millis() );
+	}
+
+	public void testExpiredResponsesAreFetchedAgain() throws Exception {
+
+		server.setCachedUntilSeconds( -60 );
+
+		final APILoadDriver.Result result = driver.run( client );
+
+		assertEquals( 20 , result.getRequestCount() );
+		assertEquals( 0 , result.getErrorCount() );
+		assertEquals( 20 , server.getRequestCount() );
+	}
+
+	public void testErrorsAreReported() throws Exception {
+
+		server.setHttpErrorRate( 1.0d );
+
+		final APILoadDriver.Result result = driver.run( client );
+
+		assertEquals( 20 , result.getRequestCount() );
+		assertEquals( 20 , result.getErrorCount() );
+		assertEquals( server.getRequestCount() , server.getFailureCount() );
+	}
+
+	public void testAPIErrorsAreReported() throws Exception {
+
+		server.setAPIErrorRate( 1.0d );
+
+		final APILoadDriver.Result result = driver.run( client );
+
+		assertEquals( 20 , result.getErrorCount() );
+		assertTrue( server.getFailureCount() > 0 );
+	}
+}
@@ -0,0 +1,410 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.codesourcery.eve.apiclient.parsers.ResolveNamesParser;
+import de.codesourcery.eve.apiclient.parsers.SkillInTrainingParser;
+import de.codesourcery.eve.skills.utils.DateHelper;
+
+/**
+ * Local stand-in for the EVE Online(tm) API server.
+ * 
+ * <pre>
+ * Serves canned XML responses (fixtures) by request path , the request parameters
+ * are ignored. The <code>currentTime</code> and <code>cachedUntil</code> nodes of each
+ * fixture are rewritten relative to the current time , so responses
+ * expire as configured by {@link #setCachedUntilSeconds(int)}.
+ * 
+ * Latency and failures (HTTP errors as well as EVE API error responses) can be
+ * injected at random.
+ * 
+ * {@literal
+ * final StubAPIServer server = new StubAPIServer().addDefaultFixtures();
+ * server.setLatency( 50 , 200 );
+ * server.start();
+ * 
+ * final HttpAPIClient client = new HttpAPIClient( server.getBaseURI() );
+ * }
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see APILoadDriver
+ */
+public class StubAPIServer {
+
+	private static final Logger log = Logger.getLogger(StubAPIServer.class);
+
+	private static final Pattern CURRENT_TIME = Pattern.compile("<currentTime>[^<]*</currentTime>");
+	private static final Pattern CACHED_UNTIL = Pattern.compile("<cachedUntil>[^<]*</cachedUntil>");
+
+	private final ConcurrentMap<String,String> fixtures = new ConcurrentHashMap<String,String>();
+	private final ConcurrentMap<String,AtomicLong> requestCounts = new ConcurrentHashMap<String,AtomicLong>();
+
+	private final AtomicLong requestCount = new AtomicLong(0);
+	private final AtomicLong failureCount = new AtomicLong(0);
+
+	private final Random random = new Random();
+
+	private volatile long minLatencyMillis;
+	private volatile long maxLatencyMillis;
+	private volatile double httpErrorRate;
+	private volatile double apiErrorRate;
+	private volatile int cachedUntilSeconds = 15 * 60;
+
+	private final int threadCount;
+
+	// guarded-by: this
+	private HttpServer server;
+	// guarded-by: this
+	private ExecutorService executor;
+
+	public StubAPIServer() {
+		this( 20 );
+	}
+
+	/**
+	 * Create instance.
+	 * 
+	 * @param threadCount number of threads serving requests
+	 */
+	public StubAPIServer(int threadCount) {
+		if ( threadCount < 1 ) {
+			throw new IllegalArgumentException("thread count must be >= 1");
+		}
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Registers the fixtures from
+	 * <code>src/test/resources/de/codesourcery/eve/apiclient/loadtest</code>.
+	 * 
+	 * @return this instance
+	 * @throws IOException
+	 */
+	public StubAPIServer addDefaultFixtures() throws IOException {
+		addFixtureFromClasspath( SkillInTrainingParser.URI.getPath() , "SkillInTraining.xml" );
+		addFixtureFromClasspath( ResolveNamesParser.URI.getPath() , "CharacterName.xml" );
+		return this;
+	}
+
+	/**
+	 * Registers a fixture.
+	 * 
+	 * @param path request path , e.g. <code>/char/SkillInTraining.xml.aspx</code>
+	 * @param xml the response to serve
+	 * @return this instance
+	 */
+	public StubAPIServer addFixture(String path,String xml) {
+		if ( path == null ) {
+			throw new IllegalArgumentException("path cannot be NULL");
+		}
+		if ( xml == null ) {
+			throw new IllegalArgumentException("xml cannot be NULL");
+		}
+		fixtures.put( path , xml );
+		return this;
+	}
+
+	/**
+	 * Registers a fixture loaded from the classpath.
+	 * 
+	 * @param path request path
+	 * @param resource classpath resource , relative to this class
+	 * @return this instance
+	 * @throws IOException
+	 */
+	public StubAPIServer addFixtureFromClasspath(String path,String resource) throws IOException {
+
+		final InputStream in = getClass().getResourceAsStream( resource );
+		if ( in == null ) {
+			throw new IOException("Unable to find fixture "+resource);
+		}
+
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int len;
+			while ( ( len = in.read( buffer ) ) > 0 ) {
+				out.write( buffer , 0 , len );
+			}
+			return addFixture( path , new String( out.toByteArray() , "UTF-8" ) );
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Sets the (uniformly distributed) latency
+	 * added to each request.
+	 * 
+	 * @param minMillis
+	 * @param maxMillis
+	 */
+	public void setLatency(long minMillis,long maxMillis) {
+		if ( minMillis < 0 || maxMillis < minMillis ) {
+			throw new IllegalArgumentException("Invalid latency range "+minMillis+" - "+maxMillis);
+		}
+		this.minLatencyMillis = minMillis;
+		this.maxLatencyMillis = maxMillis;
+	}
+
+	/**
+	 * Sets the fraction of requests that
+	 * fail with a HTTP 500 error.
+	 * 
+	 * @param rate 0...1
+	 */
+	public void setHttpErrorRate(double rate) {
+		this.httpErrorRate = checkRate( rate );
+	}
+
+	/**
+	 * Sets the fraction of requests that
+	 * get answered with an EVE API error response.
+	 * 
+	 * @param rate 0...1
+	 */
+	public void setAPIErrorRate(double rate) {
+		this.apiErrorRate = checkRate( rate );
+	}
+
+	private static double checkRate(double rate) {
+		if ( rate < 0 || rate > 1 ) {
+			throw new IllegalArgumentException("rate must be 0...1");
+		}
+		return rate;
+	}
+
+	/**
+	 * Sets how long responses may be cached
+	 * by the client.
+	 * 
+	 * @param seconds seconds after the current time , negative values
+	 * yield responses that are already expired (the API reports times with 
+	 * a resolution of one second)
+	 */
+	public void setCachedUntilSeconds(int seconds) {
+		this.cachedUntilSeconds = seconds;
+	}
+
+	public synchronized void start() throws IOException {
+
+		if ( server != null ) {
+			throw new IllegalStateException("Server already started");
+		}
+
+		executor = Executors.newFixedThreadPool( threadCount );
+		server = HttpServer.create( new InetSocketAddress( InetAddress.getByName("127.0.0.1") , 0 ) , 100 );
+		server.setExecutor( executor );
+		server.createContext( "/" , new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					handleRequest( exchange );
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("start(): Listening on "+getBaseURI() );
+		}
+	}
+
+	public synchronized void stop() {
+		if ( server != null ) {
+			server.stop( 0 );
+			executor.shutdownNow();
+			server = null;
+			executor = null;
+		}
+	}
+
+	/**
+	 * Returns the URI to use as the API client's base URI.
+	 * 
+	 * @return
+	 * @throws IllegalStateException if the server is not running
+	 */
+	public synchronized URI getBaseURI() {
+		if ( server == null ) {
+			throw new IllegalStateException("Server not started");
+		}
+		try {
+			return new URI( "http://127.0.0.1:"+server.getAddress().getPort() );
+		} catch (URISyntaxException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	public long getRequestCount(String path) {
+		final AtomicLong count = requestCounts.get( path );
+		return count != null ? count.get() : 0;
+	}
+
+	/**
+	 * Returns the number of requests that were answered
+	 * with an (injected) error.
+	 * 
+	 * @return
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	private void handleRequest(HttpExchange exchange) throws IOException {
+
+		// consume request body
+		final InputStream in = exchange.getRequestBody();
+		try {
+			while ( in.read() != -1 ) ;
+		} finally {
+			in.close();
+		}
+
+		final String path = exchange.getRequestURI().getPath();
+
+		requestCount.incrementAndGet();
+		AtomicLong count = requestCounts.get( path );
+		if ( count == null ) {
+			final AtomicLong newCount = new AtomicLong(0);
+			count = requestCounts.putIfAbsent( path , newCount );
+			if ( count == null ) {
+				count = newCount;
+			}
+		}
+		count.incrementAndGet();
+
+		sleep( randomLatency() );
+
+		final String fixture = fixtures.get( path );
+		if ( fixture == null ) {
+			log.warn("handleRequest(): No fixture for "+path);
+			sendResponse( exchange , 404 , "Not found: "+path );
+			return;
+		}
+
+		if ( chance( httpErrorRate ) ) {
+			failureCount.incrementAndGet();
+			sendResponse( exchange , 500 , "Internal server error" );
+			return;
+		}
+
+		final Date now = new Date();
+		final Date cachedUntil = new Date( now.getTime() + cachedUntilSeconds * 1000L );
+
+		final String xml;
+		if ( chance( apiErrorRate ) ) {
+			failureCount.incrementAndGet();
+			xml = "<?xml version='1.0' encoding='UTF-8'?>\n<eveapi version=\"2\">\n"+
+			"  <currentTime>"+formatServerTime( now )+"</currentTime>\n"+
+			"  <error code=\"520\">Unexpected failure accessing database.</error>\n"+
+			"  <cachedUntil>"+formatServerTime( cachedUntil )+"</cachedUntil>\n"+
+			"</eveapi>";
+		} else {
+			xml = replace( CACHED_UNTIL , replace( CURRENT_TIME , fixture , "<currentTime>"+formatServerTime( now )+"</currentTime>" ) ,
+					"<cachedUntil>"+formatServerTime( cachedUntil )+"</cachedUntil>" );
+		}
+
+		exchange.getResponseHeaders().set( "Content-Type" , "text/xml; charset=UTF-8" );
+		sendResponse( exchange , 200 , xml );
+	}
+
+	private static String replace(Pattern pattern,String input,String replacement) {
+		return pattern.matcher( input ).replaceFirst( Matcher.quoteReplacement( replacement ) );
+	}
+
+	private static String formatServerTime(Date date) {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		format.setTimeZone( DateHelper.SERVER_TIMEZONE );
+		return format.format( date );
+	}
+
+	private static void sendResponse(HttpExchange exchange,int status,String body) throws IOException {
+		final byte[] data = body.getBytes("UTF-8");
+		exchange.sendResponseHeaders( status , data.length );
+		final OutputStream out = exchange.getResponseBody();
+		try {
+			out.write( data );
+		} finally {
+			out.close();
+		}
+	}
+
+	private boolean chance(double rate) {
+		if ( rate <= 0 ) {
+			return false;
+		}
+		synchronized( random ) {
+			return random.nextDouble() < rate;
+		}
+	}
+
+	private long randomLatency() {
+		final long min = minLatencyMillis;
+		final long max = maxLatencyMillis;
+		if ( max <= min ) {
+			return min;
+		}
+		synchronized( random ) {
+			return min + (long) ( random.nextDouble() * ( max - min ) );
+		}
+	}
+
+	private static void sleep(long millis) {
+		if ( millis <= 0 ) {
+			return;
+		}
+		try {
+			TimeUnit.MILLISECONDS.sleep( millis );
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
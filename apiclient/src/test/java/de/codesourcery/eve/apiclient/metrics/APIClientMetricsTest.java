@@ -0,0 +1,139 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class APIClientMetricsTest extends TestCase {
+
+	private static final long MILLIS = 1000L * 1000L;
+
+	public void testEmptyHistogram() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals( 0 , histogram.getCount() );
+		assertEquals( 0.0d , histogram.getMeanMillis() , 0.0001d );
+		assertEquals( 0.0d , histogram.getPercentileMillis( 99 ) , 0.0001d );
+	}
+
+	public void testHistogramPercentiles() {
+
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for ( int i = 0 ; i < 99 ; i++ ) {
+			histogram.record( 1 * MILLIS );
+		}
+		histogram.record( 1000 * MILLIS );
+
+		assertEquals( 100 , histogram.getCount() );
+		assertEquals( 10.99d , histogram.getMeanMillis() , 0.0001d );
+		assertEquals( 1000.0d , histogram.getMaxMillis() , 0.0001d );
+
+		// buckets are power-of-two microseconds , 1000 us falls into the 1024 us bucket
+		assertEquals( 1.024d , histogram.getPercentileMillis( 50 ) , 0.0001d );
+		assertEquals( 1.024d , histogram.getPercentileMillis( 99 ) , 0.0001d );
+		assertEquals( 1000.0d , histogram.getPercentileMillis( 100 ) , 0.0001d );
+
+		histogram.reset();
+		assertEquals( 0 , histogram.getCount() );
+		assertEquals( 0.0d , histogram.getMaxMillis() , 0.0001d );
+	}
+
+	public void testInvalidPercentile() {
+		try {
+			new LatencyHistogram().getPercentileMillis( 101 );
+			fail("Should have failed");
+		} catch(IllegalArgumentException e) {
+			// ok
+		}
+	}
+
+	public void testAggregation() {
+
+		final APIClientMetrics metrics = new APIClientMetrics("test");
+
+		final EndpointMetrics skills = metrics.getEndpoint( "/char/SkillQueue.xml.aspx" );
+		assertSame( skills , metrics.getEndpoint( "/char/SkillQueue.xml.aspx" ) );
+
+		final EndpointMetrics assets = metrics.getEndpoint( "/char/AssetList.xml.aspx" );
+
+		skills.recordCacheLookup( 10 , false );
+		skills.recordNetworkTime( 5 * MILLIS , 100 );
+		skills.recordParseTime( 1 * MILLIS );
+		skills.recordCacheLookup( 10 , true );
+		skills.recordParsedCacheLookup( true );
+
+		assets.recordCacheLookup( 10 , false );
+		assets.recordNetworkTime( 20 * MILLIS , 1000 );
+		assets.recordRetry();
+		assets.recordError();
+		assets.recordParsedCacheLookup( false );
+
+		metrics.recordCoalescedRequest();
+
+		assertEquals( 2 , metrics.getServerRequestCount() );
+		assertEquals( 1 , metrics.getCoalescedRequestCount() );
+		assertEquals( 1 , metrics.getResponseCacheHits() );
+		assertEquals( 2 , metrics.getResponseCacheMisses() );
+		assertEquals( 1 / 3.0d , metrics.getResponseCacheHitRatio() , 0.0001d );
+		assertEquals( 0.5d , metrics.getParsedCacheHitRatio() , 0.0001d );
+		assertEquals( 1 , metrics.getRetryCount() );
+		assertEquals( 1 , metrics.getErrorCount() );
+		assertEquals( 1100 , metrics.getPayloadBytes() );
+
+		final String[] endpoints = metrics.getEndpoints();
+		assertEquals( 2 , endpoints.length );
+		assertEquals( "/char/AssetList.xml.aspx" , endpoints[0] );
+		assertEquals( "/char/SkillQueue.xml.aspx" , endpoints[1] );
+
+		final String dump = metrics.dump();
+		assertTrue( dump , dump.contains( "/char/AssetList.xml.aspx" ) );
+		assertTrue( dump , dump.contains( "server_requests=2" ) );
+
+		metrics.reset();
+		assertEquals( 0 , metrics.getServerRequestCount() );
+		assertEquals( 0 , metrics.getCoalescedRequestCount() );
+		assertEquals( 0 , skills.getNetworkTime().getCount() );
+	}
+
+	public void testJMXRegistration() throws Exception {
+
+		final APIClientMetrics metrics = new APIClientMetrics("jmx-test");
+		metrics.getEndpoint( "/eve/CharacterID.xml.aspx" );
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName clientName =
+			new ObjectName( APIClientMetrics.JMX_DOMAIN+":client=\"jmx-test\",type=APIClient" );
+		final ObjectName pattern =
+			new ObjectName( APIClientMetrics.JMX_DOMAIN+":client=\"jmx-test\",*" );
+
+		metrics.start();
+		try {
+			assertTrue( server.isRegistered( clientName ) );
+			assertEquals( 2 , server.queryNames( pattern , null ).size() );
+
+			// endpoints created after start() get registered as well
+			metrics.getEndpoint( "/char/AssetList.xml.aspx" );
+			assertEquals( 3 , server.queryNames( pattern , null ).size() );
+		} finally {
+			metrics.stop();
+		}
+		assertTrue( server.queryNames( pattern , null ).isEmpty() );
+	}
+}
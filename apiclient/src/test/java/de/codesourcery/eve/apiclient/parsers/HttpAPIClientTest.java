@@ -18,6 +18,7 @@ package de.codesourcery.eve.apiclient.parsers;
 import static org.easymock.EasyMock.*;
 import static org.easymock.classextension.EasyMock.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -32,15 +33,22 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
 
 import junit.framework.TestCase;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.http.client.ClientProtocolException;
+import org.easymock.IAnswer;
 
 import de.codesourcery.eve.apiclient.HttpAPIClient;
 import de.codesourcery.eve.apiclient.ICredentialsProvider;
 import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.RefreshAheadScheduler;
 import de.codesourcery.eve.apiclient.cache.IResponseCache;
 import de.codesourcery.eve.apiclient.cache.IResponseCacheProvider;
 import de.codesourcery.eve.apiclient.cache.InMemoryResponseCache;
@@ -48,11 +56,17 @@ import de.codesourcery.eve.apiclient.datamodel.APIKey;
 import de.codesourcery.eve.apiclient.datamodel.APIQuery;
 import de.codesourcery.eve.apiclient.datamodel.APIResponse;
 import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.apiclient.datamodel.ServerStatus;
 import de.codesourcery.eve.apiclient.datamodel.APIKey.KeyRole;
 import de.codesourcery.eve.apiclient.datamodel.RequestOptions.DataRetrievalStrategy;
 import de.codesourcery.eve.apiclient.exceptions.APIException;
 import de.codesourcery.eve.apiclient.exceptions.APIUnavailableException;
 import de.codesourcery.eve.apiclient.exceptions.ResponseNotCachedException;
+import de.codesourcery.eve.apiclient.http.InMemoryHttpTransport;
+import de.codesourcery.eve.apiclient.utils.ThreadConfinedStaticDataModel;
+import de.codesourcery.eve.apiclient.utils.WorkerThreadParserInvoker;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
 import de.codesourcery.eve.skills.utils.EveDate;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
@@ -275,7 +289,7 @@ public class HttpAPIClientTest extends TestCase {
 		
 		final InternalAPIResponse cached = mockCache.get(  createQuery( testRelativeURI , params ) );
 		assertNotNull( cached );
-		assertSame( CURRENT_RESPONSE , cached.getPayload()  );
+		assertEquals( CURRENT_RESPONSE , cached.getPayload()  );
 		
 		verify( parser2 );
 		verify( provider );
@@ -650,6 +664,319 @@ public class HttpAPIClientTest extends TestCase {
 		assertFalse( response.isUpToDate( SYSTEM_CLOCK ) );
 		verify( parser2 );
 	}		
+	public void testConcurrentRequestsAreCoalesced() throws Exception {
+
+		SYSTEM_CLOCK.setTime("2009-05-06 11:12:13");
+
+		final URI testRelativeURI =
+			new URI("/just/a/test");		
+
+		final Map<String,Object> params =
+			new HashMap<String,Object>();
+		
+		// setup client
+		client.setDefaultRetrievalStrategy( DataRetrievalStrategy.FETCH_LATEST );
+		
+		client.setServerResponse( CURRENT_RESPONSE );
+		client.setExpectedURI( BASE_URI.resolve( testRelativeURI ) );
+		client.setExpectedParams( params );
+		
+		final CountDownLatch requestSent = new CountDownLatch(1);
+		final CountDownLatch releaseResponse = new CountDownLatch(1);
+		client.setLatches( requestSent , releaseResponse );
+		
+		// setup parsers
+		final AbstractResponseParser<String> parser1 =
+			createMockParser();
+
+		expect( parser1.getRelativeURI() ).andReturn( testRelativeURI ).anyTimes();
+		parser1.reset();
+		parser1.parseHook( isA( org.w3c.dom.Document.class ) );
+		expect( parser1.getResult() ).andReturn( CURRENT_RESPONSE ).once();
+		replay( parser1 );
+		
+		final AbstractResponseParser<String> parser2 =
+			createMockParser();
+
+		expect( parser2.getRelativeURI() ).andReturn( testRelativeURI ).anyTimes();
+		parser2.reset();
+		parser2.parseHook( isA( org.w3c.dom.Document.class ) );
+		expect( parser2.getResult() ).andReturn( CURRENT_RESPONSE ).once();
+		replay( parser2 );
+		
+		// run test
+		final AtomicReference<APIResponse<String>> response1 = new AtomicReference<APIResponse<String>>();
+		final AtomicReference<APIResponse<String>> response2 = new AtomicReference<APIResponse<String>>();
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+		
+		final Thread t1 = sendRequestAsync( parser1 , params , response1 , failure );
+		assertTrue( requestSent.await( 10 , TimeUnit.SECONDS ) );
+		
+		final Thread t2 = sendRequestAsync( parser2 , params , response2 , failure );
+		
+		final long deadline = System.currentTimeMillis() + 10*1000;
+		while ( client.getCoalescedRequestCount() == 0 && System.currentTimeMillis() < deadline ) {
+			Thread.sleep( 10 );
+		}
+		releaseResponse.countDown();
+		
+		t1.join( 10*1000 );
+		t2.join( 10*1000 );
+		
+		assertNull( failure.get() );
+		assertNotNull( response1.get() );
+		assertNotNull( response2.get() );
+		assertEquals( CURRENT_RESPONSE , response1.get().getPayload() );
+		assertEquals( CURRENT_RESPONSE , response2.get().getPayload() );
+		
+		assertEquals( 1 , client.getServerRequestCount() );
+		assertEquals( 1 , client.getCoalescedRequestCount() );
+		assertEquals( 1 , client.getSentRequestCount() );
+		
+		verify( parser1 );
+		verify( parser2 );
+	}
+	
+	public void testRefreshAhead() throws Exception {
+
+		SYSTEM_CLOCK.setTime("2009-05-06 11:12:13");
+
+		final URI testRelativeURI =
+			new URI("/just/a/test");		
+
+		final Map<String,Object> params =
+			new HashMap<String,Object>();
+		
+		final IResponseCacheProvider provider =
+			createMock(IResponseCacheProvider.class );
+		expect( provider.getCache( BASE_URI ) ).andReturn( new InMemoryResponseCache() ).anyTimes();
+		replay( provider );
+		
+		client.setCacheProvider( provider );
+		client.setDefaultRetrievalStrategy( DataRetrievalStrategy.FETCH_LATEST );
+		
+		client.setServerResponse( STALE_RESPONSE ); // expired right away
+		client.setExpectedURI( BASE_URI.resolve( testRelativeURI ) );
+		client.setExpectedParams( params );
+		
+		final AbstractResponseParser<String> parser =
+			createMockParser();
+
+		expect( parser.getRelativeURI() ).andReturn( testRelativeURI ).anyTimes();
+		parser.reset();
+		parser.parseHook( isA( org.w3c.dom.Document.class ) );
+		expect( parser.getResult() ).andReturn( STALE_RESPONSE ).once();
+		replay( parser );
+		
+		final RefreshAheadScheduler scheduler = new RefreshAheadScheduler( client , 1 );
+		scheduler.setMinReads( 1 );
+		scheduler.setRefreshDelayMillis( 0 );
+		scheduler.setMaxRefreshesPerHour( 60 ); // burst of 1 refresh
+		scheduler.start();
+		
+		try {
+			client.sendRequest2( null , parser , params , KeyRole.NONE_REQUIRED , RequestOptions.DEFAULT );
+			
+			final long deadline = System.currentTimeMillis() + 10*1000;
+			while ( scheduler.getPostponedRefreshCount() == 0 && System.currentTimeMillis() < deadline ) {
+				Thread.sleep( 10 );
+			}
+			
+			assertEquals( 1 , scheduler.getTrackedQueryCount() );
+			assertEquals( 1 , scheduler.getRefreshCount() );
+			assertTrue( scheduler.getPostponedRefreshCount() > 0 );
+			assertEquals( 2 , client.getSentRequestCount() );
+		} finally {
+			scheduler.shutdown();
+		}
+		verify( parser );
+	}
+	
+	public void testIdlePinnedQueriesAreNoLongerRefreshed() throws Exception {
+
+		SYSTEM_CLOCK.setTime("2009-05-06 11:12:13");
+
+		final URI testRelativeURI =
+			new URI("/just/a/test");		
+
+		final Map<String,Object> params =
+			new HashMap<String,Object>();
+		
+		final IResponseCacheProvider provider =
+			createMock(IResponseCacheProvider.class );
+		expect( provider.getCache( BASE_URI ) ).andReturn( new InMemoryResponseCache() ).anyTimes();
+		replay( provider );
+		
+		client.setCacheProvider( provider );
+		client.setDefaultRetrievalStrategy( DataRetrievalStrategy.FETCH_LATEST );
+		
+		client.setServerResponse( STALE_RESPONSE ); // expired right away
+		client.setExpectedURI( BASE_URI.resolve( testRelativeURI ) );
+		client.setExpectedParams( params );
+		
+		final AbstractResponseParser<String> parser =
+			createMockParser();
+
+		expect( parser.getRelativeURI() ).andReturn( testRelativeURI ).anyTimes();
+		parser.reset();
+		parser.parseHook( isA( org.w3c.dom.Document.class ) );
+		expect( parser.getResult() ).andReturn( STALE_RESPONSE ).once();
+		replay( parser );
+		
+		final RefreshAheadScheduler scheduler = new RefreshAheadScheduler( client , 1 );
+		scheduler.setRefreshDelayMillis( 500 );
+		scheduler.setMaxRefreshesPerHour( 0 );
+		scheduler.setMaxPinnedIdleMillis( 60*60*1000 );
+		scheduler.start();
+		
+		try {
+			client.sendRequest2( null , parser , params , KeyRole.NONE_REQUIRED , RequestOptions.KEEP_FRESH );
+			assertEquals( 1 , scheduler.getTrackedQueryCount() );
+			
+			// nobody read the query for two hours
+			SYSTEM_CLOCK.setTime("2009-05-06 13:12:14");
+			
+			final long deadline = System.currentTimeMillis() + 10*1000;
+			while ( scheduler.getTrackedQueryCount() > 0 && System.currentTimeMillis() < deadline ) {
+				Thread.sleep( 10 );
+			}
+			
+			assertEquals( 0 , scheduler.getTrackedQueryCount() );
+			assertEquals( 0 , scheduler.getRefreshCount() );
+			assertEquals( 1 , client.getSentRequestCount() );
+		} finally {
+			scheduler.shutdown();
+		}
+		verify( parser );
+	}
+	
+	private Thread sendRequestAsync(final AbstractResponseParser<String> parser,
+			final Map<String,Object> params,
+			final AtomicReference<APIResponse<String>> result,
+			final AtomicReference<IOException> failure) 
+	{
+		final Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					result.set( client.sendRequest2( 
+							null , 
+							parser , 
+							params , 
+							KeyRole.NONE_REQUIRED , 
+							RequestOptions.DEFAULT ) );
+				} catch (IOException e) {
+					failure.set( e );
+				}
+			}
+		};
+		t.setDaemon( true );
+		t.start();
+		return t;
+	}
+	
+	public void testRequestFromEDTWhileWorkerParses() throws Exception {
+
+		SYSTEM_CLOCK.setTime("2009-05-06 11:12:13");
+
+		final URI workerURI = new URI("/worker/request");
+		final URI edtURI = new URI("/edt/request");
+		final Map<String,Object> params = new HashMap<String,Object>();
+
+		final CountDownLatch workerRequestSent = new CountDownLatch(1);
+		final CountDownLatch edtRequestPending = new CountDownLatch(1);
+
+		final InMemoryHttpTransport transport = new InMemoryHttpTransport() {
+
+			@Override
+			public <T> T post(URI uri, Map<String, Object> formParams,IResponseBodyHandler<T> handler) throws IOException 
+			{
+				if ( uri.equals( BASE_URI.resolve( workerURI ) ) ) {
+					workerRequestSent.countDown();
+					try {
+						// make the EDT send its request while the worker is still busy
+						assertTrue( edtRequestPending.await( 10 , TimeUnit.SECONDS ) );
+					} catch (InterruptedException e) {
+						throw new IOException( e );
+					}
+				}
+				return super.post( uri , formParams , handler );
+			}
+		};
+		transport.addResponse( BASE_URI.resolve( workerURI ) , CURRENT_RESPONSE );
+		transport.addResponse( BASE_URI.resolve( edtURI ) , CURRENT_RESPONSE );
+
+		final IStaticDataModel delegate = createMock( IStaticDataModel.class );
+		expect( delegate.getInventoryType( isA( Long.class ) ) ).andAnswer( new IAnswer<InventoryType>() {
+
+			@Override
+			public InventoryType answer() throws Throwable {
+				assertTrue( SwingUtilities.isEventDispatchThread() );
+				final InventoryType type = new InventoryType();
+				type.setTypeId( (Long) getCurrentArguments()[0] );
+				return type;
+			}
+		} ).times( 2 );
+		replay( delegate );
+
+		final ThreadConfinedStaticDataModel dataModel = new ThreadConfinedStaticDataModel( delegate );
+
+		client.useHttpTransport();
+		client.setHttpTransport( transport );
+		client.setResponseParserInvoker( new WorkerThreadParserInvoker() );
+		client.setMaxConcurrentRequestsPerHost( 1 );
+
+		final AtomicReference<APIResponse<InventoryType>> workerResponse = 
+			new AtomicReference<APIResponse<InventoryType>>();
+		final AtomicReference<APIResponse<InventoryType>> edtResponse = 
+			new AtomicReference<APIResponse<InventoryType>>();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch edtDone = new CountDownLatch(1);
+
+		SwingUtilities.invokeLater( new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					assertTrue( workerRequestSent.await( 10 , TimeUnit.SECONDS ) );
+					edtRequestPending.countDown();
+					edtResponse.set( client.sendRequest2( null , 
+							new InventoryTypeParser( SYSTEM_CLOCK , edtURI , dataModel , 43L ) , 
+							params , KeyRole.NONE_REQUIRED , RequestOptions.DEFAULT ) );
+				} catch (Throwable t) {
+					failure.set( t );
+				} finally {
+					edtDone.countDown();
+				}
+			}
+		} );
+
+		final Thread worker = new Thread() {
+			@Override
+			public void run() {
+				try {
+					workerResponse.set( client.sendRequest2( null , 
+							new InventoryTypeParser( SYSTEM_CLOCK , workerURI , dataModel , 42L ) , 
+							params , KeyRole.NONE_REQUIRED , RequestOptions.DEFAULT ) );
+				} catch (Throwable t) {
+					failure.set( t );
+				}
+			}
+		};
+		worker.setDaemon( true );
+		worker.start();
+
+		assertTrue( "EDT request deadlocked" , edtDone.await( 10 , TimeUnit.SECONDS ) );
+		worker.join( 10*1000 );
+		assertFalse( "Worker request deadlocked" , worker.isAlive() );
+
+		assertNull( failure.get() );
+		assertEquals( Long.valueOf( 42 ) , workerResponse.get().getPayload().getTypeId() );
+		assertEquals( Long.valueOf( 43 ) , edtResponse.get().getPayload().getTypeId() );
+		assertEquals( 2 , transport.getRequests().size() );
+		verify( delegate );
+	}
+
 	// ======================= test setup helper methods ==================================
 	
 	private static URI toURI(String s) {
@@ -660,6 +987,34 @@ public class HttpAPIClientTest extends TestCase {
 		}
 	}
 
+	public void testRequestsAreSentThroughTransport() throws Exception {
+		
+		final InMemoryHttpTransport transport = new InMemoryHttpTransport();
+		transport.addResponse( BASE_URI.resolve( "/server/ServerStatus.xml.aspx" ) , 
+				"<?xml version='1.0' encoding='utf-8'?>\n" + 
+				"<eveapi version=\"2\">\n" + 
+				"  <currentTime>2009-06-01 13:39:37</currentTime>\n" + 
+				"  <result><serverOpen>True</serverOpen><onlinePlayers>31235</onlinePlayers></result>\n" + 
+				"  <cachedUntil>2009-06-01 13:42:37</cachedUntil>\n" + 
+				"</eveapi>" );
+		
+		final HttpAPIClient realClient = new HttpAPIClient( BASE_URI );
+		realClient.setHttpTransport( transport );
+		try {
+			final APIResponse<ServerStatus> response = 
+				realClient.getServerStatus( RequestOptions.DEFAULT );
+			
+			assertTrue( response.getPayload().isServerOpen() );
+			assertEquals( 31235 , response.getPayload().getPlayerCount() );
+			
+			assertEquals( 1 , transport.getRequests().size() );
+			assertEquals( "POST" , transport.getRequests().get(0).method );
+		} finally {
+			realClient.dispose();
+		}
+		assertTrue( transport.isShutdown() );
+	}
+	
 	@Override
 	protected void setUp() throws Exception {
 		super.setUp();
@@ -779,17 +1134,72 @@ public class HttpAPIClientTest extends TestCase {
 	
 	// ======================== Test classes ==================================
 
+	/**
+	 * Looks up an inventory type once the response has been parsed.
+	 */
+	private static final class InventoryTypeParser extends AbstractStreamingResponseParser<InventoryType> {
+
+		private final URI relativeURI;
+		private final IStaticDataModel dataModel;
+		private final Long typeId;
+		private InventoryType result;
+
+		public InventoryTypeParser(ISystemClock clock,URI relativeURI,IStaticDataModel dataModel,Long typeId) {
+			super(clock);
+			this.relativeURI = relativeURI;
+			this.dataModel = dataModel;
+			this.typeId = typeId;
+		}
+
+		@Override
+		public URI getRelativeURI() {
+			return relativeURI;
+		}
+
+		@Override
+		protected void rowStarted(RowSet rowSet, Row row) {
+		}
+
+		@Override
+		protected void resultParsed() {
+			result = dataModel.getInventoryType( typeId );
+		}
+
+		@Override
+		public InventoryType getResult() throws IllegalStateException {
+			assertResponseParsed();
+			return result;
+		}
+
+		@Override
+		public void reset() {
+			result = null;
+		}
+	}
+
 	public final class TestClient extends HttpAPIClient {
 
 		private URI expectedURI;
 		private Map<String,Object> expectedParams;
 		private String serverResponse;
 		private IOException serverError;
+		private CountDownLatch requestSent;
+		private CountDownLatch releaseResponse;
+		private volatile int sentRequestCount;
+		private boolean useHttpTransport;
 
 		public TestClient(URI baseURI) {
 			super( baseURI );
 		}
 
+		/**
+		 * Send requests through the HTTP transport
+		 * instead of returning canned responses.
+		 */
+		public void useHttpTransport() {
+			this.useHttpTransport = true;
+		}
+
 		public void setExpectedURI(URI expectedURI) {
 			this.expectedURI = expectedURI;
 		}
@@ -799,17 +1209,31 @@ public class HttpAPIClientTest extends TestCase {
 		}
 
 		@Override
-		protected String sendRequestToServer(URI uri,
-				Map<String, Object> requestParams)
+		protected <T> T sendRequestToServer(URI uri,
+				Map<String, Object> requestParams,IResponseBodyHandler<T> bodyHandler)
 		throws ClientProtocolException, IOException 
 		{
+			if ( useHttpTransport ) {
+				return super.sendRequestToServer( uri , requestParams , bodyHandler );
+			}
 			assertEquals( expectedURI , uri );
 			assertEquals( this.expectedParams , requestParams );
 			
+			sentRequestCount++;
+			if ( requestSent != null ) {
+				requestSent.countDown();
+				try {
+					releaseResponse.await();
+				} catch (InterruptedException e) {
+					throw new IOException( e );
+				}
+			}
+			
 			if ( serverError != null ) {
 				throw serverError;
 			}
-			return serverResponse;
+			return bodyHandler.handleResponseBody( 
+					new ByteArrayInputStream( serverResponse.getBytes( "UTF-8" ) ) );
 		}
 
 		@Override
@@ -817,6 +1241,15 @@ public class HttpAPIClientTest extends TestCase {
 			return  SYSTEM_CLOCK;
 		}
 		
+		public void setLatches(CountDownLatch requestSent,CountDownLatch releaseResponse) {
+			this.requestSent = requestSent;
+			this.releaseResponse = releaseResponse;
+		}
+		
+		public int getSentRequestCount() {
+			return sentRequestCount;
+		}
+		
 		public void setServerResponse(IOException ex) {
 			this.serverError = ex;
 		}
@@ -854,7 +1287,7 @@ public class HttpAPIClientTest extends TestCase {
 	
 	public static final class MockClock implements ISystemClock {
 
-		private Date currentTime = new Date();
+		private volatile Date currentTime = new Date();
 		private final TimeZone timeZone;
 		public MockClock() {
 			timeZone = TimeZone.getTimeZone("GMT+1");
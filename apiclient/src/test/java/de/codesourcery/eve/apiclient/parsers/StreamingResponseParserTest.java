@@ -0,0 +1,143 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.parsers;
+
+import static org.easymock.classextension.EasyMock.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.exceptions.APIErrorException;
+import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+
+public class StreamingResponseParserTest extends AbstractParserTest
+{
+
+	private static final String ERROR_XML = "<eveapi version=\"2\">\n" +
+			"<currentTime>2008-02-04 13:28:18</currentTime>\n" +
+			"<error code=\"105\">Invalid characterID.</error>\n" +
+			"<cachedUntil>2008-02-04 14:28:18</cachedUntil>\n" +
+			"</eveapi>";
+
+	private static final String EMPTY_XML = "<eveapi version=\"2\">\n" +
+			"<currentTime>2008-02-04 13:28:18</currentTime>\n" +
+			"<result>\n" +
+			"<rowset name=\"orders\" key=\"orderID\" columns=\"orderID,charID\" />\n" +
+			"<someElement><nested>value</nested></someElement>\n" +
+			"</result>\n" +
+			"<cachedUntil>2008-02-04 14:28:18</cachedUntil>\n" +
+			"</eveapi>";
+
+	private static final String NO_ROWSET_XML = "<eveapi version=\"2\">\n" +
+			"<currentTime>2008-02-04 13:28:18</currentTime>\n" +
+			"<result/>\n" +
+			"<cachedUntil>2008-02-04 14:28:18</cachedUntil>\n" +
+			"</eveapi>";
+
+	private MarketOrderParser createParser() {
+		final IStaticDataModel dataModel = createMock( IStaticDataModel.class );
+		replay( dataModel );
+		return new MarketOrderParser( dataModel , systemClock() );
+	}
+
+	public void testParseCommonData() {
+
+		final MarketOrderParser parser = createParser();
+		parser.parse( new Date() , EMPTY_XML );
+
+		assertEquals( 2 , parser.getAPIVersion() );
+		assertNull( parser.getError() );
+		assertEquals( createDate("2008-02-04 13:28:18") , parser.getServerTime() );
+		assertEquals( createDate("2008-02-04 14:28:18") , parser.getCachedUntilServerTime() );
+		assertTrue( parser.getResult().isEmpty() );
+	}
+
+	public void testAPIError() {
+
+		final MarketOrderParser parser = createParser();
+		try {
+			parser.parse( new Date() , ERROR_XML );
+			fail("Should've failed");
+		} catch(APIErrorException e) {
+			assertEquals( 105 , e.getError().getErrorCode() );
+			assertEquals( "Invalid characterID." , e.getError().getErrorMessage() );
+		}
+	}
+
+	public void testMissingRowSet() {
+
+		final MarketOrderParser parser = createParser();
+		try {
+			parser.parse( new Date() , NO_ROWSET_XML );
+			fail("Should've failed");
+		} catch(UnparseableResponseException e) {
+			// ok
+		}
+	}
+
+	public void testMalformedXML() {
+
+		final MarketOrderParser parser = createParser();
+		try {
+			parser.parse( new Date() , "<eveapi version=\"2\"><currentTime>" );
+			fail("Should've failed");
+		} catch(UnparseableResponseException e) {
+			// ok
+		}
+	}
+
+	public void testParseFromStreamKeepsRawBytes() throws Exception {
+
+		final byte[] xml = ( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
+				EMPTY_XML.replace( "value" , "G\u00fcnther" ) ).getBytes( "UTF-8" );
+
+		// hand out a few bytes at a time like a network stream would
+		final InputStream in = new FilterInputStream( new ByteArrayInputStream( xml ) ) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min( len , 7 ) );
+			}
+		};
+
+		final MarketOrderParser parser = createParser();
+		final InternalAPIResponse response = parser.parse( new Date() , in );
+
+		assertEquals( createDate("2008-02-04 13:28:18") , parser.getServerTime() );
+		assertTrue( parser.getResult().isEmpty() );
+
+		assertTrue( Arrays.equals( xml , response.getPayloadBytes() ) );
+		assertEquals( xml.length , response.getPayloadSize() );
+		assertEquals( new String( xml , "UTF-8" ) , response.getPayload() );
+	}
+
+	public void testReparseFromPayloadStream() throws Exception {
+
+		final InternalAPIResponse response = createParser().parse( new Date() , EMPTY_XML );
+
+		final MarketOrderParser parser = createParser();
+		final InternalAPIResponse reparsed = parser.parse( new Date() , response.getPayloadStream() );
+
+		assertEquals( createDate("2008-02-04 14:28:18") , parser.getCachedUntilServerTime() );
+		assertEquals( EMPTY_XML , reparsed.getPayload() );
+		assertEquals( EMPTY_XML.length() , reparsed.getPayloadSize() );
+	}
+}
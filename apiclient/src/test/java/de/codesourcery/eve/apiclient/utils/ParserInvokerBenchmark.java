@@ -0,0 +1,214 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import static org.easymock.EasyMock.*;
+
+import java.awt.EventQueue;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.easymock.IAnswer;
+
+import de.codesourcery.eve.apiclient.IResponseParserInvoker;
+import de.codesourcery.eve.apiclient.parsers.AssetListParser;
+import de.codesourcery.eve.skills.datamodel.CharacterID;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.Station;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Measures how long the Swing Event Dispatch Thread is blocked
+ * while a large asset list gets parsed by a worker thread.
+ * 
+ * <pre>
+ * Compares {@link SwingEDTParserInvoker} (parsing on the EDT) against 
+ * {@link WorkerThreadParserInvoker} with a {@link ThreadConfinedStaticDataModel} 
+ * (parsing on the worker , only static data lookups on the EDT). 
+ * 
+ * Static data lookups are simulated with a fixed delay. A probe thread
+ * posts an event to the EDT every millisecond and records how late
+ * it got processed.
+ * 
+ * Arguments (all optional): [asset count] [distinct item types] [lookup micros]
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class ParserInvokerBenchmark {
+
+	private static final ISystemClock CLOCK = new ISystemClock() {
+
+		@Override
+		public long getCurrentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		public TimeZone getLocalTimezone() {
+			return TimeZone.getDefault();
+		}
+	};
+
+	/**
+	 * Measures EDT responsiveness.
+	 */
+	private static final class EDTProbe extends Thread {
+
+		private volatile boolean terminate;
+		private final AtomicLong maxLagMicros = new AtomicLong(0);
+		private final AtomicLong totalLagMicros = new AtomicLong(0);
+
+		public EDTProbe() {
+			super("edt-probe");
+			setDaemon( true );
+		}
+
+		@Override
+		public void run() {
+			while ( ! terminate ) {
+				final long posted = System.nanoTime();
+				try {
+					EventQueue.invokeAndWait( new Runnable() {
+
+						@Override
+						public void run() {
+							final long lagMicros = ( System.nanoTime() - posted ) / 1000;
+							totalLagMicros.addAndGet( lagMicros );
+							if ( lagMicros > maxLagMicros.get() ) {
+								maxLagMicros.set( lagMicros );
+							}
+						}
+					});
+					TimeUnit.MILLISECONDS.sleep( 1 );
+				} catch (Exception e) {
+					return;
+				}
+			}
+		}
+
+		public void terminate() throws InterruptedException {
+			terminate = true;
+			join();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		final int assetCount = args.length > 0 ? Integer.parseInt( args[0] ) : 20000;
+		final int typeCount = args.length > 1 ? Integer.parseInt( args[1] ) : 500;
+		final long lookupMicros = args.length > 2 ? Long.parseLong( args[2] ) : 50;
+
+		final String xml = createAssetList( assetCount , typeCount );
+
+		System.out.println("Assets: "+assetCount+" , distinct types: "+typeCount+" , lookup time: "+lookupMicros+" us");
+
+		// warm-up
+		run( "warm-up" , new WorkerThreadParserInvoker() , createDataModel( 0 ) , xml );
+
+		run( "EDT invoker" , new SwingEDTParserInvoker() , createDataModel( lookupMicros ) , xml );
+
+		final ThreadConfinedStaticDataModel confined = new ThreadConfinedStaticDataModel( createDataModel( lookupMicros ) );
+		run( "worker invoker (cold)" , new WorkerThreadParserInvoker() , confined , xml );
+		run( "worker invoker (warm)" , new WorkerThreadParserInvoker() , confined , xml );
+
+		System.exit(0);
+	}
+
+	private static void run(String name,final IResponseParserInvoker invoker,
+			IStaticDataModel dataModel,final String xml) throws Exception 
+	{
+		final AssetListParser parser = 
+			new AssetListParser( new CharacterID("1") , dataModel , null , CLOCK );
+
+		final EDTProbe probe = new EDTProbe();
+		probe.start();
+
+		final long start = System.nanoTime();
+		final Thread worker = new Thread("worker") {
+			@Override
+			public void run() {
+				invoker.runParser( parser , new Date() , xml );
+			}
+		};
+		worker.start();
+		worker.join();
+		final long elapsedMillis = ( System.nanoTime() - start ) / ( 1000 * 1000 );
+
+		probe.terminate();
+
+		System.out.println( String.format("%-25s: parse time %5d ms , max. EDT stall %7.2f ms , total EDT lag %7.2f ms , assets: %d" ,
+				name , elapsedMillis , probe.maxLagMicros.get() / 1000.0d , probe.totalLagMicros.get() / 1000.0d , 
+				parser.getResult().size() ) );
+	}
+
+	private static IStaticDataModel createDataModel(final long lookupMicros) {
+
+		final IStaticDataModel model = createNiceMock( IStaticDataModel.class );
+
+		expect( model.getInventoryType( anyLong() ) ).andStubAnswer( new IAnswer<InventoryType>() {
+
+			@Override
+			public InventoryType answer() throws Throwable {
+				simulateLookup( lookupMicros );
+				final InventoryType type = new InventoryType();
+				type.setTypeId( (Long) getCurrentArguments()[0] );
+				return type;
+			}
+		} );
+
+		expect( model.getStation( anyLong() ) ).andStubAnswer( new IAnswer<Station>() {
+
+			@Override
+			public Station answer() throws Throwable {
+				simulateLookup( lookupMicros );
+				final Station station = new Station();
+				station.setID( (Long) getCurrentArguments()[0] );
+				return station;
+			}
+		} );
+
+		replay( model );
+		return model;
+	}
+
+	private static void simulateLookup(long micros) {
+		final long end = System.nanoTime() + micros * 1000;
+		while ( System.nanoTime() < end ) {
+			// busy wait , sleep() is far too coarse
+		}
+	}
+
+	public static String createAssetList(int assetCount,int typeCount) {
+
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version='1.0' encoding='UTF-8'?>\n<eveapi version=\"2\">\n");
+		xml.append("  <currentTime>2009-03-18 13:19:43</currentTime>\n  <result>\n");
+		xml.append("    <rowset name=\"assets\" key=\"itemID\" columns=\"itemID,locationID,typeID,quantity,flag,singleton\">\n");
+		for ( int i = 0 ; i < assetCount ; i++ ) {
+			xml.append("      <row itemID=\"").append( 150000000 + i )
+				.append("\" locationID=\"").append( 60001000 + ( i % 100 ) )
+				.append("\" typeID=\"").append( 1000 + ( i % typeCount ) )
+				.append("\" quantity=\"").append( 1 + i % 1000 )
+				.append("\" flag=\"4\" singleton=\"0\" />\n");
+		}
+		xml.append("    </rowset>\n  </result>\n  <cachedUntil>2009-03-18 14:19:43</cachedUntil>\n</eveapi>");
+		return xml.toString();
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PayloadCapturingInputStreamTest extends TestCase {
+
+	private static byte[] createData(int size) {
+		final byte[] result = new byte[ size ];
+		for ( int i = 0 ; i < size ; i++ ) {
+			result[i] = (byte) i;
+		}
+		return result;
+	}
+
+	public void testCapturesEverythingRead() throws Exception {
+
+		final byte[] data = createData( 100 );
+		final PayloadCapturingInputStream in =
+			new PayloadCapturingInputStream( new ByteArrayInputStream( data ) , 16 );
+
+		assertEquals( 0 , in.read() );
+		final byte[] buffer = new byte[ 50 ];
+		assertEquals( 50 , in.read( buffer ) );
+		assertEquals( 10 , in.skip( 10 ) );
+
+		assertEquals( 61 , in.getCapturedByteCount() );
+		assertTrue( Arrays.equals( Arrays.copyOf( data , 61 ) , in.getCapturedBytes() ) );
+	}
+
+	public void testDrainReadsRemainder() throws Exception {
+
+		final byte[] data = createData( 20000 );
+		final PayloadCapturingInputStream in =
+			new PayloadCapturingInputStream( new ByteArrayInputStream( data ) );
+
+		in.read( new byte[ 100 ] );
+		in.close();
+
+		assertTrue( Arrays.equals( data , in.drain() ) );
+	}
+
+	public void testReadAfterCloseFails() throws Exception {
+
+		final PayloadCapturingInputStream in =
+			new PayloadCapturingInputStream( new ByteArrayInputStream( createData( 10 ) ) );
+
+		in.close();
+		try {
+			in.read();
+			fail("Should've failed");
+		} catch(IOException e) {
+			// ok
+		}
+	}
+}
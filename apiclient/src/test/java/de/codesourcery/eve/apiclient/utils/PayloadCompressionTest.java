@@ -0,0 +1,61 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PayloadCompressionTest extends TestCase {
+
+	public void testRoundTrip() {
+
+		final byte[] data = new byte[ 100*1024 ];
+		for ( int i = 0 ; i < data.length ; i++ ) {
+			data[i] = (byte) ( 'a' + ( i % 26 ) );
+		}
+
+		final byte[] compressed = PayloadCompression.compress( data );
+		assertTrue( compressed.length < data.length / 10 );
+		assertTrue( Arrays.equals( data , PayloadCompression.decompress( compressed , data.length ) ) );
+	}
+
+	public void testIncompressibleData() {
+
+		final byte[] data = new byte[ 1000 ];
+		new Random( 42 ).nextBytes( data );
+
+		final byte[] compressed = PayloadCompression.compress( data );
+		assertTrue( Arrays.equals( data , PayloadCompression.decompress( compressed , data.length ) ) );
+	}
+
+	public void testEmptyData() {
+		final byte[] compressed = PayloadCompression.compress( new byte[0] );
+		assertEquals( 0 , PayloadCompression.decompress( compressed , 0 ).length );
+	}
+
+	public void testWrongSizeFails() {
+
+		final byte[] compressed = PayloadCompression.compress( new byte[ 100 ] );
+		try {
+			PayloadCompression.decompress( compressed , 101 );
+			fail("Should've failed");
+		} catch(IllegalArgumentException e) {
+			// ok
+		}
+	}
+}
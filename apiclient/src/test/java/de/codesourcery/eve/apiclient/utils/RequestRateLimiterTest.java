@@ -0,0 +1,86 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import junit.framework.TestCase;
+
+public class RequestRateLimiterTest extends TestCase {
+
+	private static final long MILLIS = 1000L * 1000L;
+
+	private static final class MockLimiter extends RequestRateLimiter {
+
+		private long now;
+
+		public MockLimiter(double requestsPerSecond, int burstSize) {
+			super(requestsPerSecond, burstSize);
+		}
+
+		public void advance(long millis) {
+			now += millis * MILLIS;
+		}
+
+		@Override
+		protected long currentTimeNanos() {
+			return now;
+		}
+	}
+
+	public void testBurst() {
+
+		final MockLimiter limiter = new MockLimiter( 10 , 3 );
+
+		assertTrue( limiter.tryAcquire() );
+		assertTrue( limiter.tryAcquire() );
+		assertTrue( limiter.tryAcquire() );
+		assertFalse( limiter.tryAcquire() );
+	}
+
+	public void testRefill() {
+
+		final MockLimiter limiter = new MockLimiter( 10 , 2 );
+
+		assertTrue( limiter.tryAcquire() );
+		assertTrue( limiter.tryAcquire() );
+		assertFalse( limiter.tryAcquire() );
+
+		limiter.advance( 50 );
+		assertFalse( limiter.tryAcquire() );
+
+		limiter.advance( 50 );
+		assertTrue( limiter.tryAcquire() );
+		assertFalse( limiter.tryAcquire() );
+
+		// bucket never holds more than burst size tokens
+		limiter.advance( 10 * 1000 );
+		assertTrue( limiter.tryAcquire() );
+		assertTrue( limiter.tryAcquire() );
+		assertFalse( limiter.tryAcquire() );
+	}
+
+	public void testAcquireBlocksUntilTokenAvailable() throws Exception {
+
+		final RequestRateLimiter limiter = new RequestRateLimiter( 20 , 1 );
+
+		limiter.acquire();
+
+		final long start = System.currentTimeMillis();
+		limiter.acquire();
+		final long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue( "Waited only "+elapsed+" ms" , elapsed >= 40 );
+	}
+}
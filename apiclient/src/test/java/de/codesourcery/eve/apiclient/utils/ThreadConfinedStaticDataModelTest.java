@@ -0,0 +1,184 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.apiclient.utils;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import junit.framework.TestCase;
+
+import org.easymock.IAnswer;
+
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+
+public class ThreadConfinedStaticDataModelTest extends TestCase {
+
+	private static final String CONFINEMENT_THREAD = "confinement-thread";
+
+	private ExecutorService confinementThread;
+	private IStaticDataModel delegate;
+	private ThreadConfinedStaticDataModel model;
+
+	private final class TestModel extends ThreadConfinedStaticDataModel {
+
+		public TestModel(IStaticDataModel delegate) {
+			super(delegate);
+		}
+
+		@Override
+		protected boolean isConfinementThread() {
+			return CONFINEMENT_THREAD.equals( Thread.currentThread().getName() );
+		}
+
+		@Override
+		protected <T> T runOnConfinementThread(final Query<T> query) {
+			try {
+				return confinementThread.submit( new Callable<T>() {
+
+					@Override
+					public T call() throws Exception {
+						return query.run();
+					}
+				} ).get();
+			} catch (ExecutionException e) {
+				throw (RuntimeException) e.getCause();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static final IAnswer<InventoryType> CREATE_TYPE = new IAnswer<InventoryType>() {
+
+		@Override
+		public InventoryType answer() throws Throwable {
+			assertEquals( CONFINEMENT_THREAD , Thread.currentThread().getName() );
+			final InventoryType type = new InventoryType();
+			type.setTypeId( (Long) getCurrentArguments()[0] );
+			return type;
+		}
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		confinementThread = Executors.newSingleThreadExecutor( new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread( r , CONFINEMENT_THREAD );
+			}
+		} );
+		delegate = createMock( IStaticDataModel.class );
+		model = new TestModel( delegate );
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		confinementThread.shutdownNow();
+		super.tearDown();
+	}
+
+	public void testLookupRunsOnConfinementThread() {
+
+		expect( delegate.getInventoryType( 42L ) ).andAnswer( CREATE_TYPE ).once();
+		replay( delegate );
+
+		final InventoryType type = model.getInventoryType( 42L );
+		assertNotNull( type );
+		assertEquals( Long.valueOf( 42 ) , type.getTypeId() );
+		assertEquals( 1 , model.getHandOffCount() );
+
+		verify( delegate );
+	}
+
+	public void testResolvedEntitiesAreRemembered() {
+
+		expect( delegate.getInventoryType( 42L ) ).andAnswer( CREATE_TYPE ).once();
+		expect( delegate.getInventoryType( 43L ) ).andAnswer( CREATE_TYPE ).once();
+		replay( delegate );
+
+		final InventoryType type = model.getInventoryType( 42L );
+		assertSame( type , model.getInventoryType( 42L ) );
+		assertNotSame( type , model.getInventoryType( 43L ) );
+		assertSame( type , model.getInventoryType( 42L ) );
+
+		assertEquals( 2 , model.getHandOffCount() );
+		verify( delegate );
+	}
+
+	public void testMissingEntitiesAreNotRemembered() {
+
+		expect( delegate.getInventoryType( 42L ) ).andReturn( null ).times( 2 );
+		replay( delegate );
+
+		assertNull( model.getInventoryType( 42L ) );
+		assertNull( model.getInventoryType( 42L ) );
+
+		verify( delegate );
+	}
+
+	public void testClearCache() {
+
+		expect( delegate.getInventoryType( 42L ) ).andAnswer( CREATE_TYPE ).times( 2 );
+		replay( delegate );
+
+		model.getInventoryType( 42L );
+		model.clearCache();
+		model.getInventoryType( 42L );
+
+		verify( delegate );
+	}
+
+	public void testExceptionsArePropagated() {
+
+		final RuntimeException ex = new RuntimeException("lookup failed");
+		expect( delegate.getInventoryType( 42L ) ).andThrow( ex );
+		replay( delegate );
+
+		try {
+			model.getInventoryType( 42L );
+			fail("Should have failed");
+		} catch(RuntimeException e) {
+			assertSame( ex , e );
+		}
+		verify( delegate );
+	}
+
+	public void testNoHandOffOnConfinementThread() throws Exception {
+
+		expect( delegate.getInventoryType( 42L ) ).andAnswer( CREATE_TYPE ).once();
+		replay( delegate );
+
+		final InventoryType type = confinementThread.submit( new Callable<InventoryType>() {
+
+			@Override
+			public InventoryType call() throws Exception {
+				return model.getInventoryType( 42L );
+			}
+		} ).get();
+
+		assertNotNull( type );
+		assertEquals( 0 , model.getHandOffCount() );
+		verify( delegate );
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.benchmarks;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.eve.apiclient.datamodel.APIQuery;
+
+/**
+ * Measures building the cache key ({@link APIQuery}) for a request
+ * and using it for lookups.
+ * 
+ * <pre>
+ * Every request the API client sends (and every cache lookup) 
+ * creates a new query , so hashing shows up in 
+ * both the network and the cache hit path.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class APIQueryBenchmark {
+
+	private static final URI BASE_URI = URI.create( "http://api.eve-online.com" );
+	
+	private static final String RELATIVE_URI = "/char/AssetList.xml.aspx";
+	
+	/**
+	 * Number of request parameters.
+	 */
+	@Param({"1","3","6"})
+	public int paramCount;
+	
+	private Map<String,Object> params;
+	private final Map<APIQuery,String> lookupMap = new HashMap<APIQuery, String>();
+	private APIQuery query;
+	private APIQuery sameQuery;
+	
+	@Setup
+	public void setUp() {
+		params = new HashMap<String, Object>();
+		params.put( "characterID" , "150337897" );
+		if ( paramCount > 1 ) {
+			params.put( "userID" , 123456 );
+			params.put( "apiKey" , "A8F4E9D32C8B4A1F9E1D5C6B7A8F9E0D1C2B3A4F5E6D7C8B9A0F1E2D3C4B5A6" );
+		}
+		for ( int i = 3 ; i < paramCount ; i++ ) {
+			params.put( "param"+i , Integer.toString( i * 4711 ) );
+		}
+		query = new APIQuery( BASE_URI , RELATIVE_URI , params );
+		sameQuery = new APIQuery( BASE_URI , RELATIVE_URI , params );
+		lookupMap.put( query , "value" );
+	}
+	
+	@Benchmark
+	public APIQuery create() {
+		return new APIQuery( BASE_URI , RELATIVE_URI , params );
+	}
+	
+	@Benchmark
+	public String createAndLookup() {
+		return lookupMap.get( new APIQuery( BASE_URI , RELATIVE_URI , params ) );
+	}
+	
+	@Benchmark
+	public int hashCodeAndEquals() {
+		return query.hashCode() + ( query.equals( sameQuery ) ? 1 : 0 );
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks.
+ * 
+ * <pre>
+ * Accepts the usual JMH command-line options (for example a regular expression
+ * selecting the benchmarks to run) but always enables the GC profiler so
+ * allocation rates (bytes / operation) are reported alongside throughput.
+ * 
+ * Unless told otherwise , results are also written to <code>jmh-result.json</code> 
+ * in the current directory.
+ * 
+ * mvn -Pbenchmarks package
+ * java -jar benchmarks/target/benchmarks.jar [JMH options]
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class BenchmarkRunner {
+
+	public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+	
+	public static void main(String[] args) throws Exception {
+		
+		final CommandLineOptions cmdLine = new CommandLineOptions( args );
+		
+		final ChainedOptionsBuilder options = new OptionsBuilder()
+			.parent( cmdLine )
+			.addProfiler( GCProfiler.class );
+		
+		if ( ! cmdLine.getResult().hasValue() ) {
+			options.result( DEFAULT_RESULT_FILE );
+		}
+		if ( ! cmdLine.getResultFormat().hasValue() ) {
+			options.resultFormat( ResultFormatType.JSON );
+		}
+		
+		new Runner( options.build() ).run();
+	}
+}
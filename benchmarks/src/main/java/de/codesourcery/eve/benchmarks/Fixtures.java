@@ -0,0 +1,280 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.TimeZone;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.parsers.SkillTreeParser;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.datamodel.SkillTree;
+import de.codesourcery.eve.skills.db.datamodel.EveName;
+import de.codesourcery.eve.skills.db.datamodel.Faction;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.NPCCorporation;
+import de.codesourcery.eve.skills.db.datamodel.SolarSystem;
+import de.codesourcery.eve.skills.db.datamodel.Station;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * XML fixtures and stubs shared by the benchmarks.
+ * 
+ * <pre>
+ * The fixtures are copies of the responses used by the apiclient
+ * parser tests. Larger payloads are generated by repeating
+ * the rows of the first rowset (see {@link FixtureSize}).
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class Fixtures {
+
+	private static final String FIXTURE_PATH = "/de/codesourcery/eve/benchmarks/fixtures/";
+	
+	public static final ISystemClock CLOCK = new ISystemClock() {
+
+		@Override
+		public long getCurrentTimeMillis() {
+			return System.currentTimeMillis();
+		}
+
+		@Override
+		public TimeZone getLocalTimezone() {
+			return TimeZone.getDefault();
+		}
+	};
+	
+	private static final Object LOCK = new Object();
+	
+	// guarded-by: LOCK
+	private static SkillTree skillTree;
+	
+	/**
+	 * Payload sizes.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public enum FixtureSize {
+		/**
+		 * Fixture as-is.
+		 */
+		SMALL(1),
+		/**
+		 * Rows repeated 10 times.
+		 */
+		MEDIUM(10),
+		/**
+		 * Rows repeated 100 times.
+		 */
+		LARGE(100);
+		
+		private final int factor;
+		
+		private FixtureSize(int factor) {
+			this.factor = factor;
+		}
+		
+		public int getFactor() {
+			return factor;
+		}
+	}
+	
+	private Fixtures() {
+	}
+	
+	/**
+	 * Loads a fixture.
+	 * 
+	 * @param name fixture file name , absolute classpath resources
+	 * (starting with a '/') are loaded as-is 
+	 * @return
+	 * @throws IOException
+	 */
+	public static String load(String name) throws IOException {
+		
+		final String path = name.startsWith("/") ? name : FIXTURE_PATH + name;
+		final InputStream in = Fixtures.class.getResourceAsStream( path );
+		if ( in == null ) {
+			throw new IOException("Unable to find fixture "+path);
+		}
+		
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[ 8192 ];
+			int len;
+			while ( ( len = in.read( buffer ) ) > 0 ) {
+				out.write( buffer , 0 , len );
+			}
+			return new String( out.toByteArray() , InternalAPIResponse.PAYLOAD_CHARSET );
+		} finally {
+			in.close();
+		}
+	}
+	
+	public static String load(String name,FixtureSize size) throws IOException {
+		return scale( load( name ) , size.getFactor() );
+	}
+	
+	/**
+	 * Repeats the rows of the first (outermost) rowset.
+	 * 
+	 * @param xml
+	 * @param factor
+	 * @return scaled XML , unaltered input if <code>factor</code> is
+	 * one or the XML contains no rowset
+	 */
+	public static String scale(String xml,int factor) {
+		
+		if ( factor < 1 ) {
+			throw new IllegalArgumentException("factor must be >= 1");
+		}
+		
+		final int start = xml.indexOf( "<rowset" );
+		if ( factor == 1 || start == -1 ) {
+			return xml;
+		}
+		
+		final int contentStart = xml.indexOf( '>' , start ) + 1;
+		if ( xml.charAt( contentStart - 2 ) == '/' ) {
+			return xml;
+		}
+		
+		// find matching end tag , rowsets may be nested
+		int depth = 1;
+		int pos = contentStart;
+		int contentEnd = -1;
+		while ( depth > 0 ) 
+		{
+			final int nextOpen = xml.indexOf( "<rowset" , pos );
+			final int nextClose = xml.indexOf( "</rowset>" , pos );
+			if ( nextClose == -1 ) {
+				throw new IllegalArgumentException("Unbalanced rowset in XML");
+			}
+			if ( nextOpen != -1 && nextOpen < nextClose ) {
+				final int tagEnd = xml.indexOf( '>' , nextOpen );
+				if ( xml.charAt( tagEnd - 1 ) != '/' ) { // ignore empty rowsets
+					depth++;
+				}
+				pos = tagEnd + 1;
+			} else {
+				depth--;
+				contentEnd = nextClose;
+				pos = nextClose + 1;
+			}
+		}
+		
+		final String rows = xml.substring( contentStart , contentEnd );
+		final StringBuilder result = 
+			new StringBuilder( xml.length() + rows.length() * ( factor - 1 ) );
+		
+		result.append( xml , 0 , contentStart );
+		for ( int i = 0 ; i < factor ; i++ ) {
+			result.append( rows );
+		}
+		result.append( xml , contentEnd , xml.length() );
+		return result.toString();
+	}
+	
+	/**
+	 * Returns the skill tree from the apiclient's <code>skills.xml</code>.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public static SkillTree getSkillTree() throws IOException {
+		synchronized( LOCK ) {
+			if ( skillTree == null ) {
+				final SkillTreeParser parser = new SkillTreeParser( CLOCK );
+				parser.parse( new Date() , load( "/skills.xml" ) );
+				skillTree = parser.getResult();
+			}
+			return skillTree;
+		}
+	}
+	
+	/**
+	 * Creates a static data model that answers
+	 * lookups by ID with new , transient entities.
+	 * 
+	 * All other methods return <code>null</code>.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public static IStaticDataModel createStaticDataModel() throws IOException {
+		
+		final SkillTree tree = getSkillTree();
+		
+		final InvocationHandler handler = new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable 
+			{
+				final String name = method.getName();
+				if ( "getSkillTree".equals( name ) ) {
+					return tree;
+				} 
+				
+				if ( args == null || args.length != 1 || ! ( args[0] instanceof Long ) ) {
+					if ( "toString".equals( name ) ) {
+						return "StubStaticDataModel";
+					}
+					return null;
+				}
+				
+				final Long id = (Long) args[0];
+				if ( "getInventoryType".equals( name ) ) {
+					final InventoryType result = new InventoryType();
+					result.setTypeId( id );
+					result.setName( "Type #"+id );
+					return result;
+				} 
+				if ( "getStation".equals( name ) ) {
+					final Station result = new Station();
+					result.setID( id );
+					result.setName( "Station #"+id );
+					return result;
+				} 
+				if ( "getSolarSystem".equals( name ) ) {
+					final SolarSystem result = new SolarSystem();
+					result.setID( id );
+					result.setSolarSystemName( "System #"+id );
+					return result;
+				}
+				if ( "getFaction".equals( name ) ) {
+					final Faction result = new Faction();
+					result.setID( id );
+					result.setName( "Faction #"+id );
+					return result;
+				}
+				if ( "getNPCCorporation".equals( name ) ) {
+					return new NPCCorporation( id , new EveName( id , "Corporation #"+id ) );
+				}
+				return null;
+			}
+		};
+		
+		return (IStaticDataModel) Proxy.newProxyInstance( Fixtures.class.getClassLoader() ,
+				new Class<?>[] { IStaticDataModel.class } , handler );
+	}
+}
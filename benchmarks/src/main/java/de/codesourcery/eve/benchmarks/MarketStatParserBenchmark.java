@@ -0,0 +1,126 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPathExpression;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import de.codesourcery.eve.apiclient.utils.XMLParseHelper;
+import de.codesourcery.eve.benchmarks.Fixtures.FixtureSize;
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Source;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.market.impl.MarketStatParser;
+import de.codesourcery.eve.skills.market.impl.MarketStatParser.IPriceInfoConsumer;
+
+/**
+ * Parses eve-central <code>marketstat</code> responses with the streaming
+ * {@link MarketStatParser} and the DOM / XPath approach it replaced.
+ * 
+ * <pre>
+ * Larger payloads are generated by repeating the
+ * <code>type</code> elements of the fixture.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarketStatParserBenchmark {
+
+	private static final String FIXTURE = "MarketStat.xml";
+	
+	@Param
+	public FixtureSize size;
+	
+	private String xml;
+	private final MarketStatParser parser = new MarketStatParser();
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		xml = scale( Fixtures.load( FIXTURE ) , size.getFactor() );
+	}
+	
+	private static String scale(String xml,int factor) {
+		final int start = xml.indexOf( '>' , xml.indexOf( "<marketstat" ) ) + 1;
+		final int end = xml.indexOf( "</marketstat>" );
+		
+		final String types = xml.substring( start , end );
+		final StringBuilder result = new StringBuilder( xml.length() + types.length() * ( factor - 1 ) );
+		result.append( xml , 0 , start );
+		for ( int i = 0 ; i < factor ; i++ ) {
+			result.append( types );
+		}
+		result.append( xml , end , xml.length() );
+		return result.toString();
+	}
+	
+	@Benchmark
+	public List<PriceInfo> streaming() {
+		final List<PriceInfo> result = new ArrayList<PriceInfo>();
+		parser.parse( xml , PriceInfo.Type.ANY , new IPriceInfoConsumer() {
+
+			@Override
+			public void priceInfoParsed(long itemTypeId, PriceInfo info) {
+				result.add( info );
+			}
+		} );
+		return result;
+	}
+	
+	@Benchmark
+	public List<PriceInfo> dom() {
+		final List<PriceInfo> result = new ArrayList<PriceInfo>();
+		final Document document = XMLParseHelper.parseXML( xml );
+		final XPathExpression typeNodes = XMLParseHelper.compileXPathExpression( "/evec_api/marketstat/type" );
+		for ( Element node : XMLParseHelper.selectElements( document , typeNodes ) ) {
+			XMLParseHelper.getLongAttributeValue( node , "id" );
+			result.add( parsePriceInfo( PriceInfo.Type.BUY , XMLParseHelper.getChild( node , "buy" ) ) );
+			result.add( parsePriceInfo( PriceInfo.Type.SELL , XMLParseHelper.getChild( node , "sell" ) ) );
+		}
+		return result;
+	}
+	
+	private static PriceInfo parsePriceInfo(PriceInfo.Type type,Element node) {
+		final PriceInfo result = new PriceInfo( type , (InventoryType) null , Source.EVE_CENTRAL );
+		result.setAveragePrice( MarketStatParser.parseISKValue( XMLParseHelper.getChildValue( node , "median" ) ) );
+		result.setMinPrice( MarketStatParser.parseISKValue( XMLParseHelper.getChildValue( node , "min" ) ) );
+		result.setMaxPrice( MarketStatParser.parseISKValue( XMLParseHelper.getChildValue( node , "max" ) ) );
+		return result;
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+
+import de.codesourcery.eve.apiclient.IAPIClient.EntityType;
+import de.codesourcery.eve.benchmarks.Fixtures.FixtureSize;
+import de.codesourcery.eve.apiclient.parsers.AssetListParser;
+import de.codesourcery.eve.apiclient.parsers.CharacterIndustryJobsParser;
+import de.codesourcery.eve.apiclient.parsers.CharacterSheetParser;
+import de.codesourcery.eve.apiclient.parsers.ConquerableStationsParser;
+import de.codesourcery.eve.apiclient.parsers.FactionStandingParser;
+import de.codesourcery.eve.apiclient.parsers.GetAvailableCharactersParser;
+import de.codesourcery.eve.apiclient.parsers.IResponseParser;
+import de.codesourcery.eve.apiclient.parsers.MarketOrderParser;
+import de.codesourcery.eve.apiclient.parsers.NPCCorpCharacterStandingParser;
+import de.codesourcery.eve.apiclient.parsers.RefreshResponseParser;
+import de.codesourcery.eve.apiclient.parsers.ResolveNamesParser;
+import de.codesourcery.eve.apiclient.parsers.ServerStatusParser;
+import de.codesourcery.eve.apiclient.parsers.SkillInTrainingParser;
+import de.codesourcery.eve.apiclient.parsers.SkillQueueParser;
+import de.codesourcery.eve.apiclient.parsers.SkillTreeParser;
+import de.codesourcery.eve.apiclient.parsers.TransactionTypeParser;
+import de.codesourcery.eve.apiclient.parsers.WalletTransactionsParser;
+import de.codesourcery.eve.skills.datamodel.AssetList;
+import de.codesourcery.eve.skills.datamodel.Character;
+import de.codesourcery.eve.skills.datamodel.CharacterID;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+
+/**
+ * One fixture per {@link IResponseParser} implementation , 
+ * along with a factory for the parser.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public enum ParserFixture {
+	
+	ASSET_LIST("AssetList.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new AssetListParser( new CharacterID("150337897") , dataModel , null , Fixtures.CLOCK );
+		}
+	},
+	CHARACTER_SHEET("CharacterSheet.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new CharacterSheetParser( dataModel , Fixtures.CLOCK );
+		}
+	},
+	CONQUERABLE_STATIONS("ConquerableStationList.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new ConquerableStationsParser( dataModel , Fixtures.CLOCK );
+		}
+	},
+	FACTION_STANDINGS("Standings.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new FactionStandingParser( new Character("benchmark") , dataModel , Fixtures.CLOCK );
+		}
+	},
+	NPC_CORP_STANDINGS("NPCStandings.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new NPCCorpCharacterStandingParser( new Character("benchmark") , dataModel , Fixtures.CLOCK );
+		}
+	},
+	AVAILABLE_CHARACTERS("Characters.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new GetAvailableCharactersParser( Fixtures.CLOCK );
+		}
+	},
+	INDUSTRY_JOBS("IndustryJobs.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new CharacterIndustryJobsParser( new AssetList() , dataModel , Fixtures.CLOCK );
+		}
+	},
+	MARKET_ORDERS("MarketOrders.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new MarketOrderParser( dataModel , Fixtures.CLOCK );
+		}
+	},
+	WALLET_TRANSACTIONS("WalletTransactions.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new WalletTransactionsParser( dataModel , Fixtures.CLOCK );
+		}
+	},
+	/**
+	 * Not scaled , the parser rejects duplicate IDs.
+	 */
+	RESOLVE_NAMES("CharacterName.xml",false) {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new ResolveNamesParser( new String[] { "42" , "797400947" } , 
+					Collections.singleton( EntityType.CHARACTER ) , Fixtures.CLOCK );
+		}
+	},
+	SERVER_STATUS("ServerStatus.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new ServerStatusParser( Fixtures.CLOCK );
+		}
+	},
+	SKILL_IN_TRAINING("SkillInTraining.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new SkillInTrainingParser( dataModel , Fixtures.CLOCK );
+		}
+	},
+	SKILL_QUEUE("SkillQueue.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) throws IOException {
+			return new SkillQueueParser( Fixtures.CLOCK , Fixtures.getSkillTree() );
+		}
+	},
+	/**
+	 * Not scaled , the real skill tree is large enough.
+	 */
+	SKILL_TREE("/skills.xml",false) {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new SkillTreeParser( Fixtures.CLOCK );
+		}
+	},
+	TRANSACTION_TYPES("RefTypes.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new TransactionTypeParser( Fixtures.CLOCK );
+		}
+	},
+	/**
+	 * Background refresh , only the common response
+	 * elements get parsed.
+	 */
+	REFRESH("AssetList.xml") {
+		@Override
+		public IResponseParser<?> createParser(IStaticDataModel dataModel) {
+			return new RefreshResponseParser( Fixtures.CLOCK , URI.create( "/char/AssetList.xml.aspx" ) );
+		}
+	};
+	
+	private final String fixture;
+	private final boolean scalable;
+	
+	private ParserFixture(String fixture) {
+		this( fixture , true );
+	}
+	
+	private ParserFixture(String fixture,boolean scalable) {
+		this.fixture = fixture;
+		this.scalable = scalable;
+	}
+	
+	/**
+	 * Returns the name of the XML fixture.
+	 * 
+	 * @see Fixtures#load(String)
+	 */
+	public String getFixture() {
+		return fixture;
+	}
+	
+	/**
+	 * Loads the XML fixture.
+	 * 
+	 * @param size payload size , ignored for fixtures 
+	 * that cannot be scaled up 
+	 * @return
+	 * @throws IOException
+	 */
+	public String loadXML(FixtureSize size) throws IOException {
+		return scalable ? Fixtures.load( fixture , size ) : Fixtures.load( fixture );
+	}
+	
+	public abstract IResponseParser<?> createParser(IStaticDataModel dataModel) throws IOException;
+}
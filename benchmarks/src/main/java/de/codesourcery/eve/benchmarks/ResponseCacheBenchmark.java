@@ -0,0 +1,188 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.cache.FilesystemResponseCache;
+import de.codesourcery.eve.apiclient.cache.InMemoryResponseCache;
+import de.codesourcery.eve.apiclient.datamodel.APIQuery;
+import de.codesourcery.eve.benchmarks.Fixtures.FixtureSize;
+import de.codesourcery.eve.skills.utils.EveDate;
+
+/**
+ * Concurrent get / put / purge on the response caches.
+ * 
+ * <pre>
+ * Readers , writers and a purging thread share one cache. The
+ * cache only has room for half of the queries used so writes 
+ * constantly evict entries (the filesystem cache writes every <code>put()</code> 
+ * to disk immediately and reloads evicted entries from there).
+ * Results are reported per operation and for the whole group.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseCacheBenchmark {
+
+	private static final int QUERY_COUNT = 1000;
+	
+	public enum CacheType {
+		MEMORY,
+		FILESYSTEM;
+	}
+	
+	@Param
+	public CacheType cacheType;
+	
+	@Param({"SMALL","LARGE"})
+	public FixtureSize size;
+	
+	private final APIQuery[] queries = new APIQuery[ QUERY_COUNT ];
+	private byte[] payload;
+	private InMemoryResponseCache cache;
+	private File cacheDirectory;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		
+		payload = Fixtures.load( ParserFixture.ASSET_LIST.getFixture() , size ).getBytes( InternalAPIResponse.PAYLOAD_CHARSET );
+		
+		final URI baseURI = URI.create( "http://api.eve-online.com" );
+		for ( int i = 0 ; i < QUERY_COUNT ; i++ ) {
+			final Map<String,Object> params = new HashMap<String, Object>();
+			params.put( "characterID" , Integer.toString( i ) );
+			queries[i] = new APIQuery( baseURI , "/char/AssetList.xml.aspx" , params );
+		}
+		
+		final Properties options = new Properties();
+		switch( cacheType ) {
+			case MEMORY:
+				cache = new InMemoryResponseCache();
+				break;
+			case FILESYSTEM:
+				cacheDirectory = File.createTempFile( "cachebenchmark" , "dir" );
+				if ( ! cacheDirectory.delete() || ! cacheDirectory.mkdir() ) {
+					throw new IOException("Unable to create temporary directory "+cacheDirectory);
+				}
+				cache = new FilesystemResponseCache( cacheDirectory , Fixtures.CLOCK );
+				options.setProperty( FilesystemResponseCache.OPTION_WRITE_IMMEDIATELY , "true" );
+				break;
+			default:
+				throw new RuntimeException("Unhandled cache type "+cacheType);
+		}
+		
+		// the cache size counts stored (possibly compressed) bytes
+		options.setProperty( InMemoryResponseCache.OPTION_MEM_CACHE_SIZE , 
+				Long.toString( (long) getStoredPayloadSize() * QUERY_COUNT / 2 ) );
+		cache.setCacheOptions( options );
+		
+		for ( APIQuery query : queries ) {
+			cache.put( query , createResponse() );
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		cache.shutdown();
+		if ( cacheDirectory != null ) {
+			delete( cacheDirectory );
+		}
+	}
+	
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if ( children != null ) {
+			for ( File child : children ) {
+				delete( child );
+			}
+		}
+		file.delete();
+	}
+	
+	private int getStoredPayloadSize() {
+		final InternalAPIResponse response = createResponse();
+		final int threshold = cache.getCompressionThreshold();
+		if ( threshold >= 0 && response.getPayloadSize() >= threshold ) {
+			return response.compress().getPayloadSize();
+		}
+		return response.getPayloadSize();
+	}
+	
+	private InternalAPIResponse createResponse() {
+		final EveDate now = EveDate.fromLocalTime( new Date() , Fixtures.CLOCK );
+		final EveDate cachedUntil = EveDate.fromLocalTime( System.currentTimeMillis() + 60 * 60 * 1000 , Fixtures.CLOCK );
+		return new InternalAPIResponse( payload , new Date() , now , cachedUntil );
+	}
+	
+	private APIQuery randomQuery() {
+		return queries[ ThreadLocalRandom.current().nextInt( QUERY_COUNT ) ];
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(6)
+	public Object get() {
+		final InternalAPIResponse response = cache.get( randomQuery() );
+		// cache hits decompress the payload , like the API client does
+		return response != null ? response.getPayloadBytes() : null;
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(2)
+	public void put() {
+		cache.put( randomQuery() , createResponse() );
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void purge() {
+		cache.purgeCache( false );
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.parsers.IResponseParser;
+import de.codesourcery.eve.benchmarks.Fixtures.FixtureSize;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+
+/**
+ * Parses API responses with every {@link IResponseParser} implementation.
+ * 
+ * <pre>
+ * A new parser is created for each invocation (like the API client does) and 
+ * fed the UTF-8 encoded payload as a stream , the same way 
+ * responses arrive from the network or the response cache.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see ParserFixture
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParserBenchmark {
+
+	@Param
+	public ParserFixture fixture;
+	
+	@Param
+	public FixtureSize size;
+	
+	private byte[] payload;
+	private IStaticDataModel dataModel;
+	private final Date timestamp = new Date();
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		payload = fixture.loadXML( size ).getBytes( InternalAPIResponse.PAYLOAD_CHARSET );
+		dataModel = Fixtures.createStaticDataModel();
+	}
+	
+	@Benchmark
+	public Object parse() throws Exception {
+		final IResponseParser<?> parser = fixture.createParser( dataModel );
+		parser.parse( timestamp , new ByteArrayInputStream( payload ) );
+		return parser.getResult();
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPathExpression;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.utils.XMLParseHelper;
+import de.codesourcery.eve.benchmarks.Fixtures.FixtureSize;
+
+/**
+ * Measures the DOM utilities used by the non-streaming parsers
+ * , using the asset list fixture.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see XMLParseHelper
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XMLParseHelperBenchmark {
+
+	private static final String ROWS_XPATH = "/eveapi/result/rowset/row";
+	
+	@Param
+	public FixtureSize size;
+	
+	private byte[] payload;
+	private Document document;
+	private Element rowSet;
+	private XPathExpression rowsExpression;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		payload = Fixtures.load( ParserFixture.ASSET_LIST.getFixture() , size ).getBytes( InternalAPIResponse.PAYLOAD_CHARSET );
+		document = XMLParseHelper.parseXML( new ByteArrayInputStream( payload ) );
+		rowsExpression = XMLParseHelper.compileXPathExpression( ROWS_XPATH );
+		rowSet = XMLParseHelper.getChild( XMLParseHelper.getChild( document.getDocumentElement() , "result" ) , "rowset" );
+	}
+	
+	@Benchmark
+	public Document parseXML() throws Exception {
+		return XMLParseHelper.parseXML( new ByteArrayInputStream( payload ) );
+	}
+	
+	@Benchmark
+	public XPathExpression compileXPathExpression() {
+		return XMLParseHelper.compileXPathExpression( ROWS_XPATH );
+	}
+	
+	@Benchmark
+	public long selectElements() {
+		long sum = 0;
+		for ( Element row : XMLParseHelper.selectElements( document , rowsExpression ) ) {
+			sum += XMLParseHelper.getLongAttributeValue( row , "itemID" );
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	public long getChildNodes() {
+		long sum = 0;
+		for ( Element row : XMLParseHelper.getChildNodes( rowSet , "row" ) ) {
+			sum += XMLParseHelper.getLongAttributeValue( row , "itemID" );
+			sum += XMLParseHelper.getIntAttributeValue( row , "quantity" );
+			sum += XMLParseHelper.getAttributeValue( row , "typeID" ).length();
+		}
+		return sum;
+	}
+}
@@ -17,11 +17,18 @@ package de.codesourcery.eve.skills.accountdata;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
+import de.codesourcery.eve.apiclient.AsyncAPIClient;
 import de.codesourcery.eve.apiclient.IAPIClient;
+import de.codesourcery.eve.apiclient.datamodel.APIResponse;
+import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.skills.datamodel.CharacterID;
 import de.codesourcery.eve.skills.datamodel.ICharacter;
 import de.codesourcery.eve.skills.datamodel.UserAccount;
 import de.codesourcery.eve.skills.exceptions.UserAccountStoreLockedException;
@@ -46,6 +53,9 @@ public abstract class AbstractUserAccountStore implements IUserAccountStore {
 	private volatile boolean isUnlocked;
 	private IAPIClient apiClient;
 	
+	// guarded-by: this
+	private AsyncAPIClient asyncClient;
+	
 	protected final void assertUnlocked() {
 		if ( isLocked() ) {
 			throw new UserAccountStoreLockedException();
@@ -57,13 +67,80 @@ public abstract class AbstractUserAccountStore implements IUserAccountStore {
 		if (client == null) {
 			throw new IllegalArgumentException("client cannot be NULL");
 		}
-		this.apiClient = client;
+		synchronized( this ) {
+			this.apiClient = client;
+			if ( asyncClient != null ) {
+				asyncClient.shutdown();
+				asyncClient = null;
+			}
+		}
 	} 
 	
-	protected IAPIClient getAPIClient() {
+	protected synchronized IAPIClient getAPIClient() {
 		return apiClient;
 	}
 	
+	protected synchronized AsyncAPIClient getAsyncAPIClient() {
+		if ( asyncClient == null ) {
+			asyncClient = new AsyncAPIClient( apiClient );
+		}
+		return asyncClient;
+	}
+	
+	@Override
+	public void reconcileAll() 
+	{
+		final Map<UserAccount,List<ICharacter>> characters = 
+			UserAccount.getCharactersByAccount( getAccounts() );
+		
+		log.info("reconcileAll(): Refreshing characters of "+characters.size()+" accounts");
+		
+		final Map<CharacterID,Future<APIResponse<ICharacter>>> responses =
+			getAsyncAPIClient().submitForAll( characters , AsyncAPIClient.CHARACTER , RequestOptions.KEEP_FRESH );
+		
+		Throwable lastError = null;
+		int failures = 0;
+		for ( Map.Entry<UserAccount,List<ICharacter>> entry : characters.entrySet() ) 
+		{
+			for ( ICharacter character : entry.getValue() ) 
+			{
+				final Future<APIResponse<ICharacter>> response = 
+					responses.get( character.getCharacterId() );
+				try {
+					reconcile( entry.getKey() , character , response.get().getPayload() );
+				} 
+				catch (InterruptedException e) {
+					for ( Future<APIResponse<ICharacter>> f : responses.values() ) {
+						f.cancel( true );
+					}
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while refreshing characters",e);
+				} 
+				catch (ExecutionException e) {
+					log.error("reconcileAll(): Failed to refresh character "+character.getCharacterId(),e.getCause());
+					lastError = e.getCause();
+					failures++;
+				}
+			}
+		}
+		
+		if ( lastError != null ) {
+			throw new RuntimeException("Failed to refresh "+failures+" characters: "+lastError.getMessage(),lastError);
+		}
+	}
+	
+	/**
+	 * Updates a character with data fetched from the API.
+	 * 
+	 * @param account
+	 * @param character
+	 * @param fromAPI
+	 */
+	protected void reconcile(UserAccount account,ICharacter character,ICharacter fromAPI) {
+		character.reconcile( fromAPI );
+		notifyCharacterEdited( account , character );
+	}
+	
 	@Override
 	public void addChangeLister(IUserAccountChangeListener l) {
 		if ( l == null) {
@@ -117,6 +194,12 @@ public abstract class AbstractUserAccountStore implements IUserAccountStore {
 		try {
 			closeHook();
 		} finally {
+			synchronized( this ) {
+				if ( asyncClient != null ) {
+					asyncClient.shutdown();
+					asyncClient = null;
+				}
+			}
 			lock();
 		}
 	}
@@ -112,7 +112,7 @@ public class FileUserAccountStore extends AbstractUserAccountStore {
 						getAPIClient().getCharacter( 
 							characterId , 
 							account , 
-							RequestOptions.DEFAULT
+							RequestOptions.KEEP_FRESH
 					);
 					
 					account.getCharacterByID( characterId ).reconcile( response.getPayload() );
@@ -122,6 +122,15 @@ public class FileUserAccountStore extends AbstractUserAccountStore {
 		}
 	}
 	
+	@Override
+	protected void reconcile(UserAccount account, ICharacter character, ICharacter fromAPI) 
+	{
+		synchronized( userAccounts ) {
+			character.reconcile( fromAPI );
+		}
+		notifyCharacterEdited( account , character );
+	}
+	
 	@Override
 	public UserAccount getAccountByUserId(long userId) {
 		
@@ -144,6 +144,15 @@ public interface IUserAccountStore {
 	 */
 	public void reconcile(CharacterID characterId);
 	
+	/**
+	 * Refreshes data for all characters of all user accounts 
+	 * from the API , sending requests concurrently.
+	 * 
+	 * @throws RuntimeException if refreshing any of the characters failed ,
+	 * all other characters are still refreshed
+	 */
+	public void reconcileAll();
+	
 	public void setAPIClient(IAPIClient client);
 	
 	/**
@@ -117,7 +117,7 @@ public class MemoryUserAccountStore extends AbstractUserAccountStore {
 				getAPIClient().getCharacter( 
 					characterId , 
 					owningAccount , 
-					RequestOptions.DEFAULT
+					RequestOptions.KEEP_FRESH
 			);
 				
 		final ICharacter character = owningAccount.getCharacterByID( characterId );
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.assets;
+
+import java.util.Collections;
+import java.util.List;
+
+import de.codesourcery.eve.skills.datamodel.Asset;
+import de.codesourcery.eve.skills.datamodel.AssetList;
+
+/**
+ * Differences between two successive asset list 
+ * snapshots of the same character.
+ * 
+ * Assets are matched by their item ID , nested
+ * assets (stored in containers/ships) are included.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see de.codesourcery.eve.skills.assets.impl.AssetDiffEngine
+ */
+public final class AssetDelta
+{
+	private final AssetList previous;
+	private final AssetList current;
+	
+	private final List<Asset> added;
+	private final List<Asset> removed;
+	private final List<Change> moved;
+	private final List<Change> quantityChanged;
+	
+	/**
+	 * An asset that is present in both snapshots.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static final class Change {
+		
+		private final Asset oldAsset;
+		private final Asset newAsset;
+		
+		public Change(Asset oldAsset, Asset newAsset) {
+			if ( oldAsset == null ) {
+				throw new IllegalArgumentException("oldAsset cannot be NULL");
+			}
+			if ( newAsset == null ) {
+				throw new IllegalArgumentException("newAsset cannot be NULL");
+			}
+			this.oldAsset = oldAsset;
+			this.newAsset = newAsset;
+		}
+		
+		public long getItemId() {
+			return newAsset.getItemId();
+		}
+		
+		/**
+		 * Returns the asset from the previous snapshot.
+		 */
+		public Asset getOldAsset() {
+			return oldAsset;
+		}
+		
+		/**
+		 * Returns the asset from the current snapshot.
+		 */
+		public Asset getNewAsset() {
+			return newAsset;
+		}
+		
+		@Override
+		public String toString() {
+			return "Change[ old="+oldAsset+" , new="+newAsset+" ]";
+		}
+	}
+	
+	public AssetDelta(AssetList previous,
+			AssetList current,
+			List<Asset> added,
+			List<Asset> removed,
+			List<Change> moved,
+			List<Change> quantityChanged) 
+	{
+		if ( current == null ) {
+			throw new IllegalArgumentException("current cannot be NULL");
+		}
+		this.previous = previous;
+		this.current = current;
+		this.added = Collections.unmodifiableList( added );
+		this.removed = Collections.unmodifiableList( removed );
+		this.moved = Collections.unmodifiableList( moved );
+		this.quantityChanged = Collections.unmodifiableList( quantityChanged );
+	}
+	
+	/**
+	 * Returns the previous snapshot.
+	 * 
+	 * @return previous snapshot , <code>null</code> if 
+	 * this is the first snapshot seen for a character (in which
+	 * case all assets are reported as being added)
+	 * @see #isInitialSnapshot()
+	 */
+	public AssetList getPrevious() {
+		return previous;
+	}
+	
+	public boolean isInitialSnapshot() {
+		return previous == null;
+	}
+	
+	/**
+	 * Returns the current snapshot.
+	 */
+	public AssetList getCurrent() {
+		return current;
+	}
+	
+	/**
+	 * Returns assets that are only part of 
+	 * the current snapshot.
+	 */
+	public List<Asset> getAdded() {
+		return added;
+	}
+	
+	/**
+	 * Returns assets that are only part of 
+	 * the previous snapshot.
+	 */
+	public List<Asset> getRemoved() {
+		return removed;
+	}
+	
+	/**
+	 * Returns assets whose location , container or
+	 * inventory flags changed.
+	 */
+	public List<Change> getMoved() {
+		return moved;
+	}
+	
+	/**
+	 * Returns assets whose quantity changed.
+	 * 
+	 * An asset may show up both here and in {@link #getMoved()}.
+	 */
+	public List<Change> getQuantityChanged() {
+		return quantityChanged;
+	}
+	
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && moved.isEmpty() && quantityChanged.isEmpty();
+	}
+	
+	@Override
+	public String toString() {
+		return "AssetDelta[ added="+added.size()+" , removed="+removed.size()+
+			" , moved="+moved.size()+" , quantity_changed="+quantityChanged.size()+" ]";
+	}
+}
@@ -30,6 +30,31 @@ public interface IAssetManager
 		
 	}
 	
+	/**
+	 * Asset change listener that gets told
+	 * what actually changed.
+	 * 
+	 * Listeners implementing this interface are registered
+	 * using {@link IAssetManager#addAssetChangeListener(IAssetChangeListener)}
+	 * like any other listener but only receive 
+	 * {@link #assetsChanged(ICharacter, AssetDelta)} calls ,
+	 * {@link IAssetChangeListener#assetsChanged(ICharacter)} is never invoked.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public interface IAssetDeltaListener extends IAssetChangeListener {
+		
+		/**
+		 * Invoked when the assets of a character changed.
+		 * 
+		 * @param character
+		 * @param delta changes compared to the last asset list that was
+		 * seen for this character. The first notification for 
+		 * a character reports all assets as being added.
+		 */
+		public void assetsChanged(ICharacter character,AssetDelta delta);
+	}
+	
 	/**
 	 * Returns the timestamp when assets where 
 	 * last reconciled with the server for a given character.
@@ -43,6 +68,19 @@ public interface IAssetManager
 	
 	public AssetList getAssets(ICharacter character);
 	
+	/**
+	 * Returns the assets of a character as they were 
+	 * last fetched from the server.
+	 * 
+	 * Never sends a request and never notifies listeners ,
+	 * may be called from any thread.
+	 * 
+	 * @param character
+	 * @return assets or <code>null</code> if the character's 
+	 * assets have not been fetched yet
+	 */
+	public AssetList getCachedAssets(ICharacter character);
+	
 	public AssetList getAssets(ICharacter character,ILocation location);
 	
 	public AssetList getAssets(ICharacter character,InventoryType item);
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.assets.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.skills.assets.AssetDelta;
+import de.codesourcery.eve.skills.assets.AssetDelta.Change;
+import de.codesourcery.eve.skills.datamodel.Asset;
+import de.codesourcery.eve.skills.datamodel.AssetList;
+
+/**
+ * Compares two asset list snapshots by item ID.
+ * 
+ * <pre>
+ * Runs in O(n) , each snapshot is traversed exactly once. Assets
+ * are considered to be 'moved' if their container , their (top-level) location
+ * or their inventory flags changed.
+ * </pre>
+ * 
+ * This class is thread-safe.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class AssetDiffEngine
+{
+	private static final Logger log = Logger.getLogger(AssetDiffEngine.class);
+	
+	/**
+	 * Compares two snapshots.
+	 * 
+	 * @param previous previous snapshot , may be <code>null</code> 
+	 * in which case all assets of the current snapshot are reported as being added
+	 * @param current
+	 * @return
+	 */
+	public AssetDelta diff(AssetList previous,AssetList current) 
+	{
+		if ( current == null ) {
+			throw new IllegalArgumentException("current cannot be NULL");
+		}
+		
+		final List<Asset> currentAssets = current.getAssets( true );
+		
+		if ( previous == null ) {
+			return new AssetDelta( null , current , currentAssets , new ArrayList<Asset>() ,
+					new ArrayList<Change>() , new ArrayList<Change>() );
+		}
+		
+		final long start = System.currentTimeMillis();
+		
+		final List<Asset> previousAssets = previous.getAssets( true );
+		final Map<Long,Asset> previousById = 
+			new HashMap<Long, Asset>( (int) ( previousAssets.size() / 0.75f ) + 1 );
+		
+		for ( Asset a : previousAssets ) {
+			previousById.put( a.getItemId() , a );
+		}
+		
+		final List<Asset> added = new ArrayList<Asset>();
+		final List<Change> moved = new ArrayList<Change>();
+		final List<Change> quantityChanged = new ArrayList<Change>();
+		
+		for ( Asset newAsset : currentAssets ) 
+		{
+			final Asset oldAsset = previousById.remove( newAsset.getItemId() );
+			if ( oldAsset == null ) {
+				added.add( newAsset );
+				continue;
+			}
+			
+			if ( isMoved( oldAsset , newAsset ) ) {
+				moved.add( new Change( oldAsset , newAsset ) );
+			}
+			
+			if ( oldAsset.getQuantity() != newAsset.getQuantity() ) {
+				quantityChanged.add( new Change( oldAsset , newAsset ) );
+			}
+		}
+		
+		// whatever is left was removed
+		final List<Asset> removed = new ArrayList<Asset>( previousById.values() );
+		
+		final AssetDelta result = 
+			new AssetDelta( previous , current , added , removed , moved , quantityChanged );
+		
+		if ( log.isDebugEnabled() ) {
+			log.debug("diff(): Compared "+previousAssets.size()+" with "+currentAssets.size()+
+					" assets in "+( System.currentTimeMillis() - start )+" ms: "+result);
+		}
+		return result;
+	}
+	
+	protected boolean isMoved(Asset oldAsset,Asset newAsset) 
+	{
+		if ( getContainerId( oldAsset ) != getContainerId( newAsset ) ) {
+			return true;
+		}
+		
+		if ( ! ObjectUtils.equals( oldAsset.getFlags() , newAsset.getFlags() ) ) {
+			return true;
+		}
+		
+		// nested assets inherit the location of their container 
+		if ( newAsset.getContainer() == null ) {
+			return ! oldAsset.hasSameLocationsAs( newAsset );
+		}
+		return false;
+	}
+	
+	private static long getContainerId(Asset asset) {
+		return asset.getContainer() != null ? asset.getContainer().getItemId() : 0;
+	}
+}
@@ -26,6 +26,7 @@ import de.codesourcery.eve.apiclient.IAPIClient;
 import de.codesourcery.eve.apiclient.datamodel.APIResponse;
 import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
 import de.codesourcery.eve.skills.accountdata.IUserAccountStore;
+import de.codesourcery.eve.skills.assets.AssetDelta;
 import de.codesourcery.eve.skills.assets.IAssetManager;
 import de.codesourcery.eve.skills.datamodel.AssetList;
 import de.codesourcery.eve.skills.datamodel.CharacterID;
@@ -43,6 +44,7 @@ public class DefaultAssetManager implements IAssetManager
 	
 	private IAPIClient apiClient;
 	private IUserAccountStore userAccountStore;
+	private final AssetDiffEngine diffEngine = new AssetDiffEngine();
 	
 	// guarded-by: listeners
 	private final List<IAssetChangeListener> listeners =
@@ -52,6 +54,10 @@ public class DefaultAssetManager implements IAssetManager
 	private final Map<CharacterID,EveDate> lastUpdateFromServer = 
 		new HashMap<CharacterID, EveDate>();
 	
+	// guarded-by: lastUpdateFromServer
+	private final Map<CharacterID,AssetList> lastSnapshot = 
+		new HashMap<CharacterID, AssetList>();
+	
 	public DefaultAssetManager() {
 	}
 	
@@ -66,9 +72,10 @@ public class DefaultAssetManager implements IAssetManager
 		final APIResponse<AssetList> assetList = 
 			apiClient.getAssetList( character.getCharacterId(),
 				account ,
-				RequestOptions.DEFAULT );
+				RequestOptions.KEEP_FRESH );
 		
 		boolean notifyListeners = false;
+		AssetList previousSnapshot = null;
 		if ( log.isDebugEnabled() ) {
 			log.debug("getAssets(): Assets of "+character+" fetched, checking last_update date");
 		}
@@ -84,6 +91,8 @@ public class DefaultAssetManager implements IAssetManager
 			if ( lastUpdate == null || lastUpdate.before( assetList.getResponseServerTime() ) ) 
 			{
 				lastUpdateFromServer.put( character.getCharacterId() , assetList.getResponseServerTime() );
+				previousSnapshot = 
+					lastSnapshot.put( character.getCharacterId() , assetList.getPayload() );
 				notifyListeners = true;
 			}
 		}
@@ -97,9 +106,18 @@ public class DefaultAssetManager implements IAssetManager
 			synchronized ( listeners ) {
 				copy = new ArrayList<IAssetChangeListener>( listeners );
 			}
+			
+			AssetDelta delta = null;
 			for ( IAssetChangeListener l : copy ) {
 				try {
-					l.assetsChanged( character );
+					if ( l instanceof IAssetDeltaListener ) {
+						if ( delta == null ) {
+							delta = diffEngine.diff( previousSnapshot , assetList.getPayload() );
+						}
+						( (IAssetDeltaListener) l ).assetsChanged( character , delta );
+					} else {
+						l.assetsChanged( character );
+					}
 				} catch(Exception e) {
 					log.error("getAssets(): Asset change listener failed",e);
 				}
@@ -108,6 +126,18 @@ public class DefaultAssetManager implements IAssetManager
 		return assetList.getPayload();
 	}
 
+	@Override
+	public AssetList getCachedAssets(ICharacter character)
+	{
+		if ( character == null ) {
+			throw new IllegalArgumentException("character cannot be NULL");
+		}
+		
+		synchronized(lastUpdateFromServer) {
+			return lastSnapshot.get( character.getCharacterId() );
+		}
+	}
+
 	@Override
 	public AssetList getAssets(ICharacter character, ILocation location)
 	{
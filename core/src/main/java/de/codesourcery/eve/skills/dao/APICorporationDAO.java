@@ -23,6 +23,7 @@ import org.apache.log4j.Logger;
 
 import de.codesourcery.eve.apiclient.IAPIClient;
 import de.codesourcery.eve.apiclient.IAPIClient.EntityType;
+import de.codesourcery.eve.apiclient.INameResolver;
 import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
 import de.codesourcery.eve.apiclient.exceptions.UnresolvableIDException;
 import de.codesourcery.eve.skills.datamodel.CorporationId;
@@ -37,6 +38,10 @@ import de.codesourcery.eve.skills.db.datamodel.Corporation;
  * can be enabled by calling {@link #setCacheEnabled(boolean)}.
  * Caching is DISABLED by default.
  * 
+ * IDs are resolved using an {@link INameResolver} (if set) , so
+ * lookups from different threads get batched and
+ * names survive restarts.
+ * 
  * @author tobias.gierke@code-sourcery.de
  */
 public class APICorporationDAO implements ICorporationDAO {
@@ -46,6 +51,8 @@ public class APICorporationDAO implements ICorporationDAO {
 	private final IAPIClient apiClient;
 
 	private volatile boolean isCacheEnabled = false;
+	
+	private volatile INameResolver nameResolver;
 
 	private final ConcurrentHashMap<Long,Corporation> cache =
 		new ConcurrentHashMap<Long, Corporation>();
@@ -110,13 +117,30 @@ public class APICorporationDAO implements ICorporationDAO {
 		} 
 	}
 
+	/**
+	 * Sets the name resolver to use.
+	 * 
+	 * @param nameResolver resolver or <code>null</code> to 
+	 * send a request to the API for each lookup
+	 */
+	public void setNameResolver(INameResolver nameResolver) {
+		this.nameResolver = nameResolver;
+	}
+	
 	public Corporation fetchFromAPI(Long id) throws UnresolvableIDException {
 
 		final String sId = Long.toString(id);
-		final Map<String, String> names = apiClient.resolveNames( TYPE, 
-				new String[] { sId }, RequestOptions.DEFAULT).getPayload();
+		
+		final INameResolver resolver = this.nameResolver;
+		final String corpName;
+		if ( resolver != null ) {
+			corpName = resolver.resolveName( EntityType.CORPORATION , sId );
+		} else {
+			final Map<String, String> names = apiClient.resolveNames( TYPE, 
+					new String[] { sId }, RequestOptions.DEFAULT).getPayload();
+			corpName = names.get(sId);
+		}
 
-		final String corpName = names.get(sId);
 		if ( corpName == null ) {
 			throw new UnresolvableIDException( sId , EntityType.CORPORATION );
 		}
@@ -18,6 +18,7 @@ package de.codesourcery.eve.skills.datamodel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -234,4 +235,26 @@ public class UserAccount implements ICredentialsProvider {
 		return this.characters.containsKey( charID );
 	}
 
+	/**
+	 * Returns the characters of some accounts , by account.
+	 * 
+	 * @param accounts
+	 * @return
+	 * @see de.codesourcery.eve.apiclient.AsyncAPIClient#submitForAll(Map, de.codesourcery.eve.apiclient.AsyncAPIClient.ICharacterRequest, de.codesourcery.eve.apiclient.datamodel.RequestOptions)
+	 */
+	public static Map<UserAccount,List<ICharacter>> getCharactersByAccount(Collection<UserAccount> accounts) {
+		
+		if (accounts == null) {
+			throw new IllegalArgumentException("accounts cannot be NULL");
+		}
+		
+		final Map<UserAccount,List<ICharacter>> result =
+			new LinkedHashMap<UserAccount, List<ICharacter>>();
+		
+		for ( UserAccount account : accounts ) {
+			result.put( account , account.getCharacters() );
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,369 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
+import de.codesourcery.eve.skills.db.dao.IInventoryTypeDAO;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.Region;
+import de.codesourcery.eve.skills.market.MarketFilter;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Price store that keeps the price history of each 
+ * region in a single column-oriented file.
+ * 
+ * <pre>
+ * Files are named &lt;base dir&gt;/&lt;region ID&gt;/prices.dat , see {@link PriceColumnFile}
+ * for the file format. Prices are loaded lazily (per item) using
+ * positional reads of the item's row range , {@link #persist()} only
+ * appends the items that have been changed since the last call and
+ * compacts files once most of their rows have been superseded.
+ * 
+ * The files are intentionally not memory-mapped: A mapping can't be
+ * released explicitly , so compacting (replacing) a file that is
+ * still mapped fails on some platforms.
+ * 
+ * Regions that have no column file yet but per-item CSV files 
+ * written by {@link FilePriceInfoStore} are imported automatically 
+ * when first accessed (the CSV files are left untouched).
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ * @see PriceInfoStoreMigration
+ */
+public class ColumnarPriceInfoStore extends InMemoryPriceInfoStore {
+
+	public static final Logger log = Logger.getLogger(ColumnarPriceInfoStore.class);
+
+	private static final String FILE_NAME = "prices.dat";
+
+	private File baseDir;
+
+	// guarded-by: files
+	private final Map<Region,PriceColumnFile> files = 
+		new HashMap<Region,PriceColumnFile>();
+
+	// written while holding lock on 'files' , read without locking
+	private final ConcurrentMap<Region,Set<Long>> loadedPrices = 
+		new ConcurrentHashMap<Region,Set<Long>>();
+
+	// guarded-by: modifiedItems
+	private final Map<Region,Set<Long>> modifiedItems = 
+		new HashMap<Region,Set<Long>>();
+
+	public ColumnarPriceInfoStore(ISystemClock clock) {
+		super(clock);
+	}
+
+	public void setBaseDir(File baseDir) {
+		if (baseDir == null) {
+			throw new IllegalArgumentException("baseDir cannot be NULL");
+		}
+		this.baseDir = baseDir;
+	}
+
+	static File getColumnFile(File baseDir,long regionId) {
+		return new File( new File( baseDir , Long.toString( regionId ) ) , FILE_NAME );
+	}
+
+	@Override
+	protected void persistHook() throws IOException {
+
+		final Map<Region,Set<Long>> modified;
+		synchronized( modifiedItems ) {
+			modified = new HashMap<Region,Set<Long>>( modifiedItems );
+			modifiedItems.clear();
+		}
+
+		try {
+			for ( Map.Entry<Region,Set<Long>> entry : modified.entrySet() ) {
+
+				final Region region = entry.getKey();
+
+				// price lists are immutable snapshots , concurrent 
+				// updates are picked up by the next persist() 
+				final Map<Long,List<PriceInfo>> data = new HashMap<Long,List<PriceInfo>>();
+				for ( Long itemId : entry.getValue() ) {
+					data.put( itemId , priceInfoCache.getPriceInfos( region , itemId ) );
+				}
+
+				if ( log.isDebugEnabled() ) {
+					log.debug("persistHook(): Persisting "+data.size()+" items in region "+region);
+				}
+
+				synchronized( files ) {
+					final PriceColumnFile file = getColumnFile( region );
+					file.append( data );
+					if ( file.needsCompaction() ) {
+						file.compact();
+					}
+				}
+			}
+		} 
+		catch(IOException e) {
+			// try again next time
+			for ( Map.Entry<Region,Set<Long>> entry : modified.entrySet() ) {
+				for ( Long itemId : entry.getValue() ) {
+					rememberModified( entry.getKey() , itemId );
+				}
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	protected void shutdownHook() {
+		try {
+			persistHook();
+		} 
+		catch(IOException e) {
+			throw new RuntimeException(e);
+		} 
+		finally {
+			synchronized( files ) {
+				for ( PriceColumnFile file : files.values() ) {
+					file.close();
+				}
+				files.clear();
+				loadedPrices.clear();
+			}
+			synchronized( modifiedItems ) {
+				modifiedItems.clear();
+			}
+		}
+	}
+
+	/**
+	 * Rewrites all column files so they only contain
+	 * the latest prices.
+	 * 
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		persist();
+		synchronized( files ) {
+			for ( PriceColumnFile file : files.values() ) {
+				file.compact();
+			}
+		}
+	}
+
+	@Override
+	public void save(PriceInfo info) {
+
+		if ( info == null ) {
+			throw new IllegalArgumentException("info cannot be NULL");
+		}
+
+		// load existing prices first or they would be overwritten
+		// on the next persist()
+		ensurePriceInfoLoaded( info.getRegion() , info.getItemType() );
+		super.save( info );
+		rememberModified( info.getRegion() , info.getItemType() );
+	}
+
+	@Override
+	public void save(Region region, InventoryType type, Collection<PriceInfo> infos) {
+
+		if ( region == null ) {
+			throw new IllegalArgumentException("region cannot be NULL");
+		}
+
+		if ( type == null ) {
+			throw new IllegalArgumentException("type cannot be NULL");
+		}
+
+		ensurePriceInfoLoaded( region , type );
+		super.save( region, type, infos );
+		rememberModified( region , type );
+	}
+
+	@Override
+	public void evict(PriceInfo info) {
+
+		if ( info == null ) {
+			throw new IllegalArgumentException("info cannot be NULL");
+		}
+
+		ensurePriceInfoLoaded( info.getRegion() , info.getItemType() );
+		super.evict( info );
+		rememberModified( info.getRegion() , info.getItemType() );
+	}
+
+	@Override
+	public List<PriceInfo> get(MarketFilter filter, InventoryType itemType) {
+
+		if ( filter == null ) {
+			throw new IllegalArgumentException("filter cannot be NULL");
+		}
+
+		if ( itemType == null ) {
+			throw new IllegalArgumentException("itemType cannot be NULL");
+		}
+
+		ensurePriceInfoLoaded( filter.getRegion() , itemType );
+		return super.get( filter , itemType );
+	}
+
+	@Override
+	public List<PriceInfo> getPriceHistory(Region region, Type type, InventoryType item) {
+		ensurePriceInfoLoaded( region , item );
+		return super.getPriceHistory( region, type, item );
+	}
+
+	@Override
+	public Map<Long,List<PriceInfo>> getLatestPriceInfos(Region region, Type kind,
+			Collection<InventoryType> items) 
+	{
+		for ( InventoryType item : items ) {
+			ensurePriceInfoLoaded( region , item );
+		}
+		return super.getLatestPriceInfos( region, kind, items );
+	}
+
+	@Override
+	public Map<Long,InventoryType> getAllKnownInventoryTypes(Region region,IInventoryTypeDAO dao) {
+
+		final Map<Long,InventoryType> result =
+			super.getAllKnownInventoryTypes( region , dao );
+
+		final Set<Long> available;
+		synchronized( files ) {
+			available = getColumnFile( region ).getTypeIds();
+			// skip items whose prices have been evicted but not persisted yet
+			final Set<Long> loaded = loadedPrices.get( region );
+			if ( loaded != null ) {
+				available.removeAll( loaded );
+			}
+		}
+
+		for ( Long id : available ) {
+			if ( ! result.containsKey( id ) ) {
+				result.put( id , dao.fetch( id ) );
+			}
+		}
+		return result;
+	}
+
+	private void ensurePriceInfoLoaded(Region region,InventoryType itemType) {
+
+		final Set<Long> loaded = loadedPrices.get( region );
+		if ( loaded != null && loaded.contains( itemType.getId() ) ) {
+			return;
+		}
+
+		synchronized( files ) {
+
+			Set<Long> itemIds = loadedPrices.get( region );
+			if ( itemIds == null ) {
+				itemIds = Collections.newSetFromMap( new ConcurrentHashMap<Long,Boolean>() );
+				loadedPrices.put( region , itemIds );
+			} else if ( itemIds.contains( itemType.getId() ) ) {
+				return;
+			}
+
+			if ( log.isDebugEnabled() ) {
+				log.debug("ensurePriceInfoLoaded(): Region = "+region+" , item = "+itemType );
+			}
+
+			final PriceColumnFile file = getColumnFile( region );
+			if ( file.contains( itemType.getId() ) ) {
+				try {
+					priceInfoCache.storePriceInfos( region , itemType , file.read( region , itemType , getSystemClock() ) );
+				} 
+				catch (IOException e) {
+					log.error("ensurePriceInfoLoaded(): Failed to read "+file.getFile().getAbsolutePath(),e);
+					throw new RuntimeException("Failed to read "+file.getFile().getAbsolutePath(),e);
+				}
+			}
+
+			// remember we've tried to load prices for this region and item
+			// anything that is not found afterwards must be really missing
+			// (not just because it hasn't been loaded from disk yet)
+			itemIds.add( itemType.getId() );
+		}
+	}
+
+	private void rememberModified(Region region,InventoryType itemType) {
+		rememberModified( region , itemType.getId() );
+	}
+
+	private void rememberModified(Region region,Long itemId) {
+		synchronized( modifiedItems ) {
+			Set<Long> itemIds = modifiedItems.get( region );
+			if ( itemIds == null ) {
+				itemIds = new HashSet<Long>();
+				modifiedItems.put( region , itemIds );
+			}
+			itemIds.add( itemId );
+		}
+	}
+
+	// caller must hold lock on 'files'
+	private PriceColumnFile getColumnFile(Region region) {
+
+		PriceColumnFile result = files.get( region );
+		if ( result != null ) {
+			return result;
+		}
+
+		final File file = getColumnFile( baseDir , region.getID() );
+		try {
+			result = new PriceColumnFile( file );
+			if ( ! result.exists() ) {
+				importLegacyFiles( region , result );
+			}
+		} 
+		catch (IOException e) {
+			log.error("getColumnFile(): Failed to open "+file.getAbsolutePath(),e);
+			throw new RuntimeException("Failed to open "+file.getAbsolutePath(),e);
+		}
+		files.put( region , result );
+		return result;
+	}
+
+	private void importLegacyFiles(Region region,PriceColumnFile target) throws IOException {
+
+		final File regionDir = target.getFile().getAbsoluteFile().getParentFile();
+		if ( ! regionDir.isDirectory() ) {
+			return;
+		}
+
+		final int count = 
+			PriceInfoStoreMigration.importRegion( regionDir , region , target , getSystemClock() );
+
+		if ( count > 0 ) {
+			log.info("importLegacyFiles(): Imported "+count+" prices from CSV files in "+
+					regionDir.getAbsolutePath());
+		}
+	}
+}
@@ -0,0 +1,450 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.exceptions.PriceInfoUnavailableException;
+import de.codesourcery.eve.skills.util.IStatusCallback.MessageType;
+import de.codesourcery.eve.skills.util.StatusCallbackHelper;
+
+/**
+ * Fetches prices for many items from eve-central
+ * using several smaller requests.
+ * 
+ * <pre>
+ * Items are split into chunks of {@link #setChunkSize(int)} items , up to 
+ * {@link #setMaxConcurrentRequests(int)} chunks are requested 
+ * concurrently. Responses are handed to a {@link IChunkHandler} 
+ * <b>on the thread that invoked {@link #fetch(IEveCentralClient, List, List, IChunkHandler)}</b>
+ * as soon as they arrive , so callers may safely pass 
+ * them on to the EDT even when called from the EDT.
+ * 
+ * A chunk that fails is retried (for its own items only) up to 
+ * {@link #setMaxRetries(int)} times after waiting {@link #setRetryDelayMillis(long)}
+ * milliseconds (times the number of failed attempts) , failing chunks 
+ * do not affect any of the other chunks.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class EveCentralBatchFetcher {
+
+	private static final Logger LOG = Logger.getLogger(EveCentralBatchFetcher.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 100;
+
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	public static final long DEFAULT_RETRY_DELAY_MILLIS = 500;
+
+	private final StatusCallbackHelper callbackHelper;
+
+	private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+	private volatile int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	private volatile long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+
+	// guarded-by: this
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Receives eve-central responses.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public interface IChunkHandler {
+
+		/**
+		 * Invoked for each chunk that was fetched successfully.
+		 * 
+		 * @param items the items that were requested
+		 * @param xmlResponse the response from eve-central
+		 * @throws PriceInfoUnavailableException aborts fetching any remaining chunks
+		 */
+		public void chunkReceived(List<InventoryType> items,String xmlResponse) throws PriceInfoUnavailableException;
+	}
+
+	private final class Chunk implements Callable<String> {
+
+		private final IEveCentralClient client;
+		private final List<InventoryType> items;
+		private final List<NameValuePair> params;
+		private int attempts;
+
+		public Chunk(IEveCentralClient client,List<InventoryType> items,List<NameValuePair> filterParams) 
+		{
+			this.client = client;
+			this.items = items;
+			this.params = new ArrayList<NameValuePair>( items.size() + filterParams.size() );
+			for ( InventoryType type : items ) {
+				params.add( new BasicNameValuePair("typeid" , type.getId().toString() ) );
+			}
+			params.addAll( filterParams );
+		}
+
+		@Override
+		public String call() throws Exception
+		{
+			if ( attempts > 1 ) {
+				// back off before retrying a failed request
+				Thread.sleep( retryDelayMillis * ( attempts - 1 ) );
+			}
+			return client.sendRequestToServer( params );
+		}
+
+		public boolean mayRetry() {
+			return attempts <= maxRetries;
+		}
+	}
+
+	/**
+	 * Create instance.
+	 * 
+	 * @param callbackHelper used to report progress
+	 */
+	public EveCentralBatchFetcher(StatusCallbackHelper callbackHelper) 
+	{
+		if ( callbackHelper == null ) {
+			throw new IllegalArgumentException("callbackHelper cannot be NULL");
+		}
+		this.callbackHelper = callbackHelper;
+	}
+
+	/**
+	 * Sets the max. number of items
+	 * queried with a single request.
+	 * 
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+		if ( chunkSize < 1 ) {
+			throw new IllegalArgumentException("chunk size must be >= 1");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the max. number of requests
+	 * that may be sent to eve-central concurrently.
+	 * 
+	 * @param maxConcurrentRequests
+	 */
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) 
+	{
+		if ( maxConcurrentRequests < 1 ) {
+			throw new IllegalArgumentException("max. concurrent requests must be >= 1");
+		}
+
+		synchronized( this ) {
+			this.maxConcurrentRequests = maxConcurrentRequests;
+			if ( executor != null ) {
+				if ( maxConcurrentRequests > executor.getMaximumPoolSize() ) {
+					executor.setMaximumPoolSize( maxConcurrentRequests );
+					executor.setCorePoolSize( maxConcurrentRequests );
+				} else {
+					executor.setCorePoolSize( maxConcurrentRequests );
+					executor.setMaximumPoolSize( maxConcurrentRequests );
+				}
+			}
+		}
+	}
+
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	/**
+	 * Sets how often a failed chunk 
+	 * gets retried.
+	 * 
+	 * @param maxRetries
+	 */
+	public void setMaxRetries(int maxRetries) {
+		if ( maxRetries < 0 ) {
+			throw new IllegalArgumentException("max. retries must be >= 0");
+		}
+		this.maxRetries = maxRetries;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Sets how long to wait before retrying
+	 * a failed chunk.
+	 * 
+	 * The delay grows linearly with the 
+	 * number of failed attempts.
+	 * 
+	 * @param retryDelayMillis
+	 */
+	public void setRetryDelayMillis(long retryDelayMillis) {
+		if ( retryDelayMillis < 0 ) {
+			throw new IllegalArgumentException("retry delay must be >= 0");
+		}
+		this.retryDelayMillis = retryDelayMillis;
+	}
+
+	public long getRetryDelayMillis() {
+		return retryDelayMillis;
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() 
+	{
+		if ( executor == null ) 
+		{
+			final AtomicInteger threadCount = new AtomicInteger(0);
+			executor = new ThreadPoolExecutor( maxConcurrentRequests , maxConcurrentRequests , 
+					60 , TimeUnit.SECONDS , new LinkedBlockingQueue<Runnable>() , new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread result = new Thread( r , "eve-central-fetcher-"+threadCount.incrementAndGet() );
+					result.setDaemon( true );
+					return result;
+				}
+			} );
+			executor.allowCoreThreadTimeOut( true );
+		}
+		return executor;
+	}
+
+	/**
+	 * Fetches prices for items.
+	 * 
+	 * <pre>
+	 * Returns after all chunks have been processed. Chunks that could not
+	 * be fetched are skipped , the last error is re-thrown after
+	 * all other chunks have been handled.
+	 * 
+	 * If the calling thread gets interrupted , all pending requests
+	 * are cancelled and a <code>RuntimeException</code> is thrown (with 
+	 * the thread's interrupted flag set).
+	 * </pre>
+	 * @param client the client used to send requests
+	 * @param filterParams additional request parameters (region , etc.) sent with every chunk
+	 * @param items items to fetch prices for
+	 * @param handler handler to pass responses to 
+	 * @throws PriceInfoUnavailableException if the chunk handler failed
+	 */
+	public void fetch(IEveCentralClient client,List<NameValuePair> filterParams,List<InventoryType> items,IChunkHandler handler) throws PriceInfoUnavailableException 
+	{
+		if ( client == null ) {
+			throw new IllegalArgumentException("client cannot be NULL");
+		}
+		if ( filterParams == null ) {
+			throw new IllegalArgumentException("filterParams cannot be NULL");
+		}
+		if ( items == null ) {
+			throw new IllegalArgumentException("items cannot be NULL");
+		}
+		if ( handler == null ) {
+			throw new IllegalArgumentException("handler cannot be NULL");
+		}
+
+		if ( items.isEmpty() ) {
+			return;
+		}
+
+		final List<Chunk> chunks = new ArrayList<Chunk>();
+		final int size = chunkSize;
+		for ( int i = 0 ; i < items.size() ; i+= size ) {
+			final List<InventoryType> subList = items.subList( i , Math.min( items.size() , i + size ) );
+			chunks.add( new Chunk( client , new ArrayList<InventoryType>( subList ) , filterParams ) );
+		}
+
+		if ( LOG.isDebugEnabled() ) {
+			LOG.debug("fetch(): Fetching prices for "+items.size()+" items using "+chunks.size()+" requests.");
+		}
+
+		if ( chunks.size() == 1 ) {
+			fetchInline( chunks.get(0) , items.size() , handler );
+		} else {
+			fetchConcurrently( chunks , items.size() , handler );
+		}
+	}
+
+	/*
+	 * No need to pass a single request
+	 * to another thread.
+	 */
+	private void fetchInline(Chunk chunk,int itemCount,IChunkHandler handler) throws PriceInfoUnavailableException 
+	{
+		while ( true ) 
+		{
+			chunk.attempts++;
+			final String response;
+			try {
+				response = chunk.call();
+			} 
+			catch(InterruptedException e) {
+				throw interrupted( itemCount );
+			}
+			catch(Exception e) 
+			{
+				if ( chunk.mayRetry() ) {
+					LOG.warn("fetchInline(): Request failed , retrying ("+e.getMessage()+")");
+					continue;
+				}
+				LOG.error("fetchInline(): Request for "+itemCount+" items failed , giving up",e);
+				callbackHelper.notifyStatusCallbacks( MessageType.ERROR , 
+						"Failed to fetch prices for "+itemCount+" of "+itemCount+" items from eve-central");
+				throw asRuntimeException( e );
+			}
+			handler.chunkReceived( chunk.items , response );
+			callbackHelper.notifyStatusCallbacks( MessageType.INFO , 
+					"Received prices for "+itemCount+" of "+itemCount+" items from eve-central");
+			return;
+		}
+	}
+
+	private void fetchConcurrently(List<Chunk> chunks,int itemCount,IChunkHandler handler) throws PriceInfoUnavailableException 
+	{
+		final CompletionService<String> completionService = 
+			new ExecutorCompletionService<String>( getExecutor() );
+
+		final Map<Future<String>,Chunk> inFlight = new HashMap<Future<String>,Chunk>();
+
+		final int maxInFlight = maxConcurrentRequests;
+		int nextChunk = 0;
+		int itemsReceived = 0;
+		int itemsFailed = 0;
+		RuntimeException lastError = null;
+
+		try 
+		{
+			while ( nextChunk < chunks.size() || ! inFlight.isEmpty() ) 
+			{
+				while ( inFlight.size() < maxInFlight && nextChunk < chunks.size() ) {
+					submit( completionService , chunks.get( nextChunk++ ) , inFlight );
+				}
+
+				final Future<String> future = completionService.take();
+				final Chunk chunk = inFlight.remove( future );
+
+				final String response;
+				try {
+					response = future.get();
+				} 
+				catch(ExecutionException e) 
+				{
+					if ( chunk.mayRetry() ) 
+					{
+						LOG.warn("fetchConcurrently(): Request for "+chunk.items.size()+" items failed , " +
+								"retrying ("+e.getCause().getMessage()+")");
+						submit( completionService , chunk , inFlight );
+					} 
+					else 
+					{
+						LOG.error("fetchConcurrently(): Request for "+chunk.items.size()+" items failed , giving up",e.getCause());
+						lastError = asRuntimeException( e.getCause() );
+						itemsFailed += chunk.items.size();
+						callbackHelper.notifyStatusCallbacks( MessageType.ERROR , 
+								"Failed to fetch prices for "+itemsFailed+" of "+itemCount+" items from eve-central");
+					}
+					continue;
+				}
+
+				handler.chunkReceived( chunk.items , response );
+
+				itemsReceived += chunk.items.size();
+				callbackHelper.notifyStatusCallbacks( MessageType.INFO , 
+						"Received prices for "+itemsReceived+" of "+itemCount+" items from eve-central");
+			}
+		} 
+		catch (InterruptedException e) {
+			throw interrupted( itemCount - itemsReceived );
+		}
+		finally 
+		{
+			for ( Future<String> future : inFlight.keySet() ) {
+				future.cancel( true );
+			}
+		}
+
+		if ( lastError != null ) {
+			throw lastError;
+		}
+	}
+
+	private static void submit(CompletionService<String> service , Chunk chunk, Map<Future<String>,Chunk> inFlight) 
+	{
+		chunk.attempts++;
+		inFlight.put( service.submit( chunk ) , chunk );
+	}
+
+	/*
+	 * Restores the interrupted flag and returns
+	 * the exception to throw.
+	 */
+	private static RuntimeException interrupted(int itemsNotFetched) 
+	{
+		Thread.currentThread().interrupt();
+		LOG.warn("fetch(): Interrupted , "+itemsNotFetched+" items have not been fetched.");
+		return new RuntimeException("Interrupted while fetching prices from eve-central , "+
+				itemsNotFetched+" items have not been fetched");
+	}
+
+	private static RuntimeException asRuntimeException(Throwable t) 
+	{
+		if ( t instanceof RuntimeException ) {
+			return (RuntimeException) t;
+		}
+		if ( t instanceof Error ) {
+			throw (Error) t;
+		}
+		return new RuntimeException( t );
+	}
+
+	/**
+	 * Stops all worker threads.
+	 */
+	public void dispose() 
+	{
+		synchronized( this ) {
+			if ( executor != null ) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+	}
+}
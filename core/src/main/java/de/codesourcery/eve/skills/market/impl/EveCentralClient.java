@@ -15,28 +15,22 @@
  */
 package de.codesourcery.eve.skills.market.impl;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.params.ConnManagerParams;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
 import org.apache.log4j.Logger;
 
+import de.codesourcery.eve.apiclient.http.DefaultHttpTransport;
+import de.codesourcery.eve.apiclient.http.IHttpTransport;
 import de.codesourcery.eve.skills.util.IStatusCallback;
 import de.codesourcery.eve.skills.util.StatusCallbackHelper;
 import de.codesourcery.eve.skills.util.IStatusCallback.MessageType;
@@ -49,6 +43,14 @@ public class EveCentralClient implements IEveCentralClient
 	// http://api.eve-central.com/api/marketstat
 	private static final URI MARKET_STATS_URI = URI.create( "api/marketstat" );
 
+	private static final Charset RESPONSE_CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Read timeout , price queries for many items 
+	 * may take eve-central quite some time to answer.
+	 */
+	public static final int READ_TIMEOUT_MILLIS = 120 * 1000;
+
 	private final ReentrantReadWriteLock readWriteLock = 
 		new ReentrantReadWriteLock();
 
@@ -59,9 +61,8 @@ public class EveCentralClient implements IEveCentralClient
 		new StatusCallbackHelper();
 
 	// guarded-by: readLock / writeLock
-	private HttpClient client;
+	private IHttpTransport transport;
 
-	private ThreadSafeClientConnManager connectionManager;
 	private URI serverURI = URI.create( "http://api.eve-central.com/" );
 
 	public void setServerURI(String serverURI) {
@@ -76,10 +77,10 @@ public class EveCentralClient implements IEveCentralClient
 		writeLock.lock();
 		try
 		{
-			if ( this.client != null ) 
+			if ( this.transport != null ) 
 			{
-				this.client.getConnectionManager().shutdown();
-				this.client = null;
+				this.transport.shutdown();
+				this.transport = null;
 			}
 		} finally {
 			writeLock.unlock();
@@ -87,46 +88,40 @@ public class EveCentralClient implements IEveCentralClient
 	}
 
 	/**
-	 * Must <b>only</b> be called while {@link #CLIENT_LOCK}
-	 * is being held.
+	 * Sets the transport used to talk to eve-central.
+	 * 
+	 * The transport gets shut down when this client
+	 * is disposed.
 	 * 
-	 * @return
+	 * @param transport
 	 */
-	protected ThreadSafeClientConnManager getConnectionManager() 
+	public void setHttpTransport(IHttpTransport transport) 
 	{
-
-		if ( connectionManager == null ) 
-		{
-			// Create and initialize HTTP parameters
-			final HttpParams params = new BasicHttpParams();
-			ConnManagerParams.setMaxTotalConnections(params, 30);
-
-			HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-
-			// Create and initialize scheme registry 
-			SchemeRegistry schemeRegistry = new SchemeRegistry();
-			schemeRegistry.register( new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-
-			// Create an HttpClient with the ThreadSafeClientConnManager.
-			// This connection manager must be used if more than one thread will
-			// be using the HttpClient.
-			connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+		if ( transport == null ) {
+			throw new IllegalArgumentException("transport cannot be NULL");
+		}
+		writeLock.lock();
+		try {
+			this.transport = transport;
+		} finally {
+			writeLock.unlock();
 		}
-		return connectionManager;
 	}
 
-	protected HttpClient createClient() {
-		return new DefaultHttpClient( getConnectionManager() , new BasicHttpParams() );
+	protected IHttpTransport createHttpTransport() {
+		final DefaultHttpTransport result = new DefaultHttpTransport();
+		result.setReadTimeoutMillis( READ_TIMEOUT_MILLIS );
+		return result;
 	}
 
-	protected final HttpClient getClient() 
+	protected final IHttpTransport getHttpTransport() 
 	{
 		writeLock.lock();
 		try {
-			if ( client == null ) {
-				client = createClient();
+			if ( transport == null ) {
+				transport = createHttpTransport();
 			}
-			return client;
+			return transport;
 		} finally {
 			writeLock.unlock();
 		}
@@ -180,20 +175,25 @@ public class EveCentralClient implements IEveCentralClient
 	{
 		log.info("sendRequestToServer(): Sending request to server, URI = "+fullURI);
 
-		final HttpClient theClient = getClient(); // getClient() calls writeLock.lock() !!!
+		final IHttpTransport theTransport = getHttpTransport(); // getHttpTransport() calls writeLock.lock() !!!
 
 		/*
-		 * Do NOT hold any lock while invoking getClient() , 
+		 * Do NOT hold any lock while invoking getHttpTransport() , 
 		 * the method tries to aquire to write lock.
 		 */
 		readLock.lock();
 		try 
 		{
-			final HttpGet request = new HttpGet( fullURI );
 			String result;
 			try {
-
-				result = theClient.execute( request , new BasicResponseHandler() );
+				result = theTransport.get( fullURI , new IHttpTransport.IResponseBodyHandler<String>() {
+
+					@Override
+					public String handleResponseBody(InputStream body) throws IOException
+					{
+						return readFully( body );
+					}
+				} );
 			} 
 			catch (Exception e) {
 				throw new RuntimeException(e);
@@ -209,6 +209,17 @@ public class EveCentralClient implements IEveCentralClient
 		}
 	}
 
+	private static String readFully(InputStream body) throws IOException {
+		final Reader reader = new InputStreamReader( body , RESPONSE_CHARSET );
+		final StringBuilder result = new StringBuilder();
+		final char[] buffer = new char[ 8192 ];
+		int len;
+		while ( ( len = reader.read( buffer ) ) > 0 ) {
+			result.append( buffer , 0 , len );
+		}
+		return result.toString();
+	}
+
 	@Override
 	public void addStatusCallback(IStatusCallback callback) {
 		callbackHelper.addStatusCallback(callback);
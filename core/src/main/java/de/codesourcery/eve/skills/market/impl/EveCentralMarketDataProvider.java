@@ -28,20 +28,18 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.SwingUtilities;
-import javax.xml.xpath.XPathExpression;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.DisposableBean;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
-import de.codesourcery.eve.apiclient.utils.XMLParseHelper;
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
 import de.codesourcery.eve.skills.datamodel.PriceInfo;
 import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
 import de.codesourcery.eve.skills.db.dao.IInventoryTypeDAO;
@@ -53,12 +51,15 @@ import de.codesourcery.eve.skills.market.IPriceInfoStore;
 import de.codesourcery.eve.skills.market.IPriceQueryCallback;
 import de.codesourcery.eve.skills.market.MarketFilter;
 import de.codesourcery.eve.skills.market.PriceInfoQueryResult;
+import de.codesourcery.eve.skills.market.impl.EveCentralBatchFetcher.IChunkHandler;
+import de.codesourcery.eve.skills.market.impl.MarketStatParser.IPriceInfoConsumer;
 import de.codesourcery.eve.skills.util.IStatusCallback;
 import de.codesourcery.eve.skills.util.Misc;
+import de.codesourcery.eve.skills.util.StatusCallbackHelper;
 import de.codesourcery.eve.skills.utils.EveDate;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
-public class EveCentralMarketDataProvider extends XMLParseHelper implements IMarketDataProvider , DisposableBean {
+public class EveCentralMarketDataProvider implements IMarketDataProvider , DisposableBean {
 
 	public static final Logger LOG = Logger.getLogger(EveCentralMarketDataProvider.class);
 
@@ -82,7 +83,20 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 	 * key = market filter
 	 * value = Map<Inventory time ID,Unix timestamp of last attempt to fetch price from eve central>
 	 */
-	private final Map<MarketFilter,Map<Long,Long>> unknownPrices = new HashMap<MarketFilter,Map<Long,Long>>(); 	
+	private final ConcurrentMap<MarketFilter,ConcurrentMap<Long,Long>> unknownPrices = 
+		new ConcurrentHashMap<MarketFilter,ConcurrentMap<Long,Long>>();
+
+	/*
+	 * Thread-safe data model , NULL if queries
+	 * need to run on the EDT
+	 */
+	private volatile IStaticDataModel staticDataModel;
+
+	private final StatusCallbackHelper callbackHelper = new StatusCallbackHelper();
+
+	private final EveCentralBatchFetcher batchFetcher = new EveCentralBatchFetcher( callbackHelper );
+
+	private final MarketStatParser marketStatParser = new MarketStatParser();
 
 	protected final class UPDATE_NONE_STRATEGY implements IUpdateStrategy {
 
@@ -371,10 +385,13 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 			LOG.debug("rememberPriceMissingOnEveCentral(): item "+type+" , filter "+filter);
 		}
 
-		Map<Long, Long> missingItemsById = unknownPrices.get( filter );
+		ConcurrentMap<Long, Long> missingItemsById = unknownPrices.get( filter );
 		if ( missingItemsById == null ) {
-			missingItemsById= new HashMap<Long, Long>();
-			unknownPrices.put( filter , missingItemsById );
+			final ConcurrentMap<Long, Long> newMap = new ConcurrentHashMap<Long, Long>();
+			missingItemsById = unknownPrices.putIfAbsent( filter , newMap );
+			if ( missingItemsById == null ) {
+				missingItemsById = newMap;
+			}
 		}
 		missingItemsById.put(type.getId() , System.currentTimeMillis() );
 	}
@@ -400,6 +417,46 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 		Misc.runOnEventThread( r );
 	}
 
+	/**
+	 * Sets the static data model used to resolve
+	 * regions and item types when running in thread-safe mode.
+	 * 
+	 * <pre>
+	 * By default , price queries are executed on the Swing Event Dispatch Thread
+	 * because the Hibernate session is confined to it. Setting a (thread-safe) data model 
+	 * , like {@link de.codesourcery.eve.apiclient.utils.ThreadConfinedStaticDataModel} , makes
+	 * queries run on the calling thread instead: cache checks , the HTTP request and
+	 * parsing the response happen on the caller's thread and only 
+	 * price queries to the user and change notifications are passed to the EDT.
+	 * </pre>
+	 * 
+	 * @param staticDataModel thread-safe data model or <code>null</code> to 
+	 * run queries on the EDT
+	 */
+	public void setStaticDataModel(IStaticDataModel staticDataModel) {
+		this.staticDataModel = staticDataModel;
+	}
+
+	/**
+	 * Check whether price queries may run 
+	 * on any thread.
+	 * 
+	 * @see #setStaticDataModel(IStaticDataModel)
+	 */
+	public boolean isThreadSafeMode() {
+		return staticDataModel != null;
+	}
+
+	private Region resolveRegion(Region region) {
+		final IStaticDataModel model = staticDataModel;
+		return model != null ? model.getRegion( region.getID() ) : region;
+	}
+
+	private InventoryType resolveInventoryType(InventoryType type) {
+		final IStaticDataModel model = staticDataModel;
+		return model != null ? model.getInventoryType( type.getId() ) : type;
+	}
+
 	@Override
 	public Map<InventoryType , PriceInfoQueryResult> getPriceInfos(
 			final MarketFilter filter, 
@@ -416,196 +473,235 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 			return Collections.emptyMap();
 		}
 
-		final AtomicReference<Map<InventoryType, PriceInfoQueryResult>> resultHolder =
-			new AtomicReference<Map<InventoryType, PriceInfoQueryResult>>(
-					new ConcurrentHashMap<InventoryType, PriceInfoQueryResult>() 
-			);
+		final boolean threadSafeMode = isThreadSafeMode();
+
+		final Map<InventoryType, PriceInfoQueryResult> result = 
+			new ConcurrentHashMap<InventoryType, PriceInfoQueryResult>();
 
 		final IUpdateStrategy updateStrategy = createUpdateStrategy( filter.getUpdateMode() , filter.getOrderType()  );
 
-		final Vector<NameValuePair> params = new Vector<NameValuePair>();
+		final List<InventoryType> itemsToFetch = new Vector<InventoryType>();
+
+		final Runnable cacheCheck = new Runnable() {
+
+			@Override
+			public void run()
+			{
+				checkCachedPrices( filter , updateStrategy , items , result , itemsToFetch );
+			}
+		};
+
+		if ( threadSafeMode ) {
+			cacheCheck.run();
+		} else {
+			/*
+			 * NEEDS to be run on the EDT since Hibernate
+			 * lazy-fetching might kick in and
+			 * the Hibernate session is confined to the EDT.
+			 */
+			runOnEDT( cacheCheck );
+		}
+
+		if ( itemsToFetch.isEmpty() || isOfflineMode() ) { // all entries served from cache
+			return result;
+		}
+
+		final List<NameValuePair> filterParams = new ArrayList<NameValuePair>();
+		addFilterToRequest( filterParams , filter );
 
 		/*
-		 * NEEDS to be run on the EDT since Hibernate
-		 * lazy-fetching might kick in and
-		 * the Hibernate session is confined to the EDT.
+		 * Query data from eve central , 
+		 * responses are merged as they arrive.
 		 */
-		runOnEDT(  new Runnable() {
+		batchFetcher.fetch( eveCentralClient , filterParams , itemsToFetch , new IChunkHandler() {
 
 			@Override
-			public void run()
+			public void chunkReceived(List<InventoryType> chunk, final String xmlResponse) throws PriceInfoUnavailableException
 			{
-				if ( LOG.isDebugEnabled() ) {
-					LOG.debug("getPriceInfos(): update_strategy = "+updateStrategy);
-				}
+				final InventoryType[] chunkItems = chunk.toArray( new InventoryType[ chunk.size() ] );
 
-				for ( InventoryType t : items ) {
+				final PriceCallable merge = new PriceCallable() {
 
-					// make sure we don't query over and over
-					// for prices that are unavailable anyway
-					if ( isPriceMissingOnEveCentral( filter , t ) ) 
+					public Map<InventoryType , PriceInfoQueryResult> call() throws PriceInfoUnavailableException 
 					{
-						if ( ! mayQueryAgainForMissingPrice( filter , t ) ) 
-						{
-							if ( LOG.isDebugEnabled() ) {
-								LOG.debug("getPriceInfos(): " +
-										"Price for "+t+" " +
-										"unavailable on eve-central , filter "+filter);
-							}
-							continue;
-						}
-
-						if ( LOG.isDebugEnabled() ) {
-							LOG.debug("getPriceInfos(): [ retrying ] " +
-									"Price for "+t+" " +
-									"unavailable on eve-central , filter "+filter);
-						}				
+						return mergeServerResponse( filter , callback , updateStrategy , chunkItems , result , xmlResponse );
 					}
+				};
+
+				if ( threadSafeMode ) {
+					merge.call();
+				} else {
+					/*
+					 * NEEDS to be run on the EDT since Hibernate
+					 * lazy-fetching might kick in and
+					 * the Hibernate session is confined to the EDT.
+					 */
+					runOnEventThread( merge );
+				}
+			}
+		} );
+		return result;
+	}
 
-					final PriceInfoQueryResult cached =  getCachedEntry( filter , t );
+	/**
+	 * Looks up cached prices and collects items that need to 
+	 * be queried from eve-central.
+	 */
+	private void checkCachedPrices(MarketFilter filter,IUpdateStrategy updateStrategy,InventoryType[] items,
+			Map<InventoryType, PriceInfoQueryResult> result,List<InventoryType> itemsToFetch) 
+	{
+		if ( LOG.isDebugEnabled() ) {
+			LOG.debug("getPriceInfos(): update_strategy = "+updateStrategy);
+		}
 
-					resultHolder.get().put( t , cached );
+		for ( InventoryType t : items ) {
 
+			// make sure we don't query over and over
+			// for prices that are unavailable anyway
+			if ( isPriceMissingOnEveCentral( filter , t ) ) 
+			{
+				if ( ! mayQueryAgainForMissingPrice( filter , t ) ) 
+				{
 					if ( LOG.isDebugEnabled() ) {
-
-						if ( cached.isEmpty() ) { 
-							LOG.debug("getPriceInfos(): [ NOT CACHED ] type = "+t.getId()+" , name = "+t.getName() );
-						} else {
-							LOG.debug("getPriceInfos(): [ CACHE HIT ] "+cached );
-						}
+						LOG.debug("getPriceInfos(): " +
+								"Price for "+t+" " +
+								"unavailable on eve-central , filter "+filter);
 					}
+					continue;
+				}
 
-					final boolean requiresUpdate;
-					switch ( filter.getOrderType() ) 
-					{
-						case BUY:
-							requiresUpdate=updateStrategy.requiresUpdate(t, cached.hasBuyPrice() ? cached.buyPrice() : null );
-							break;
-						case SELL:
-							requiresUpdate=updateStrategy.requiresUpdate(t, cached.hasSellPrice() ? cached.sellPrice() : null );
-							break;
-						case ANY:
-							requiresUpdate= ( updateStrategy.requiresUpdate(t, cached.hasBuyPrice()  ? cached.buyPrice() : null ) || 
-									          updateStrategy.requiresUpdate(t, cached.hasSellPrice() ? cached.sellPrice() : null ) );
-							break;
-						default:				
-							throw new RuntimeException("Unhandled switch/case: "+filter.getOrderType() );
-					}
+				if ( LOG.isDebugEnabled() ) {
+					LOG.debug("getPriceInfos(): [ retrying ] " +
+							"Price for "+t+" " +
+							"unavailable on eve-central , filter "+filter);
+				}				
+			}
 
-					if ( LOG.isDebugEnabled() ) {
-						LOG.debug("getPriceInfos(): [ "+updateStrategy+"] requires_update => "+requiresUpdate+" , type="+t.getName());
-					}
+			final PriceInfoQueryResult cached =  getCachedEntry( filter , t );
 
-					if ( requiresUpdate ) {
-						params.add( new BasicNameValuePair("typeid" , t.getId().toString() ) );
-					} 
+			result.put( t , cached );
+
+			if ( LOG.isDebugEnabled() ) {
+
+				if ( cached.isEmpty() ) { 
+					LOG.debug("getPriceInfos(): [ NOT CACHED ] type = "+t.getId()+" , name = "+t.getName() );
+				} else {
+					LOG.debug("getPriceInfos(): [ CACHE HIT ] "+cached );
 				}
 			}
-		} );		
 
-		if ( params.isEmpty() || isOfflineMode() ) { // all entries served from cache
-			return resultHolder.get();
+			final boolean requiresUpdate;
+			switch ( filter.getOrderType() ) 
+			{
+				case BUY:
+					requiresUpdate=updateStrategy.requiresUpdate(t, cached.hasBuyPrice() ? cached.buyPrice() : null );
+					break;
+				case SELL:
+					requiresUpdate=updateStrategy.requiresUpdate(t, cached.hasSellPrice() ? cached.sellPrice() : null );
+					break;
+				case ANY:
+					requiresUpdate= ( updateStrategy.requiresUpdate(t, cached.hasBuyPrice()  ? cached.buyPrice() : null ) || 
+							          updateStrategy.requiresUpdate(t, cached.hasSellPrice() ? cached.sellPrice() : null ) );
+					break;
+				default:				
+					throw new RuntimeException("Unhandled switch/case: "+filter.getOrderType() );
+			}
+
+			if ( LOG.isDebugEnabled() ) {
+				LOG.debug("getPriceInfos(): [ "+updateStrategy+"] requires_update => "+requiresUpdate+" , type="+t.getName());
+			}
+
+			if ( requiresUpdate ) {
+				itemsToFetch.add( t );
+			} 
 		}
+	}
 
-		addFilterToRequest( params , filter );
+	private Map<InventoryType , PriceInfoQueryResult> mergeServerResponse(MarketFilter filter,
+			IPriceQueryCallback callback,
+			IUpdateStrategy updateStrategy,
+			InventoryType[] items,
+			Map<InventoryType, PriceInfoQueryResult> realResult,
+			String xml) throws PriceInfoUnavailableException 
+	{
+		final Region region = resolveRegion( filter.getRegion() );
 
-		/*
-		 * Query data from eve central
-		 */
-		final String responseXmlFromServer = eveCentralClient.sendRequestToServer( params );
-		final AtomicReference<String> xml = new AtomicReference<String>(  responseXmlFromServer );
+		final Map<Long , List<PriceInfo>> result =  parsePriceInfo( filter , xml );
 
-		/*
-		 * NEEDS to be run on the EDT since Hibernate
-		 * lazy-fetching might kick in and
-		 * the Hibernate session is confined to the EDT.
-		 */
-		return runOnEventThread( new PriceCallable() {
+		// group prices by item types
 
-			public Map<InventoryType , PriceInfoQueryResult> call() throws PriceInfoUnavailableException 
+		List<PriceInfo> updated = new ArrayList<>();
+		try 
+		{
+			for ( InventoryType type : items ) 
 			{
-				final Map<InventoryType, PriceInfoQueryResult> realResult = resultHolder.get();
+				List<PriceInfo> info = result.get( type.getId() );
 
-				final Map<Long , List<PriceInfo>> result =  parsePriceInfo( filter , xml.get() );
+				if ( info == null || info.isEmpty() ) 
+				{ 
+					// failed to fetch data, query user 
+					rememberPriceMissingOnEveCentral( filter , type );
+					info = queryPriceFromUser(filter, callback, type );
+				}
 
-				// group prices by item types
+				forgetPriceMissingOnEveCentral(filter , type );
 
-				List<PriceInfo> updated = new ArrayList<>();
-				try 
+				for( PriceInfo dataFromServer : info ) 
 				{
-					for ( InventoryType type : items ) 
-					{
-						List<PriceInfo> info = result.get( type.getId() );
+					dataFromServer.setRegion( region );
+					dataFromServer.setTimestamp( new EveDate( systemClock) );
+					dataFromServer.setInventoryType( resolveInventoryType( type ) );
 
-						if ( info == null || info.isEmpty() ) 
-						{ 
-							// failed to fetch data, query user 
-							rememberPriceMissingOnEveCentral( filter , type );
-							info = queryPriceFromUser(filter, callback, type );
-						}
+					final PriceInfoQueryResult cachedResult = realResult.get( type );
 
-						forgetPriceMissingOnEveCentral(filter , type );
-
-						for( PriceInfo dataFromServer : info ) 
-						{
-							dataFromServer.setRegion( filter.getRegion() );
-							dataFromServer.setTimestamp( new EveDate( systemClock) );
-							dataFromServer.setInventoryType(type );
-
-							final PriceInfoQueryResult cachedResult = realResult.get( type );
-
-							if ( LOG.isDebugEnabled() ) {
-								LOG.debug("getPriceInfos(): from server: "+dataFromServer+" , cached="+cachedResult);
-							}
+					if ( LOG.isDebugEnabled() ) {
+						LOG.debug("getPriceInfos(): from server: "+dataFromServer+" , cached="+cachedResult);
+					}
 
-							PriceInfo existing;
-							switch( filter.getOrderType() ) 
-							{
-							case BUY:
-								existing = cachedResult.hasBuyPrice() ? cachedResult.buyPrice() : null;
-								if ( updateStrategy.requiresUpdate( type , existing ) ) {
-									LOG.debug("getPriceInfos(): merging buy price.");
-									realResult.put( type , cachedResult.merge( filter.getOrderType() , dataFromServer ) );
-									storeCacheEntry( dataFromServer );
-									updated.add( dataFromServer );
-								}
-								break;
-							case SELL:
-								existing = cachedResult.hasSellPrice() ? cachedResult.sellPrice() : null;
-								if ( updateStrategy.requiresUpdate( type , existing ) ) {
-									LOG.debug("getPriceInfos(): merging sell price.");
-									realResult.put( type , cachedResult.merge( filter.getOrderType() , dataFromServer ) );
-									storeCacheEntry( dataFromServer );
-									updated.add( dataFromServer );
-								}
-								break;		
-							case ANY:
-								existing = cachedResult.hasBuyPrice() ? cachedResult.buyPrice() : null;
-								if ( updateStrategy.requiresUpdate( type , existing ) ) {
-									LOG.debug("getPriceInfos(): merging buy price.");
-									realResult.put( type , cachedResult.merge( PriceInfo.Type.BUY , dataFromServer ) );
-									storeCacheEntry( dataFromServer );
-									updated.add( dataFromServer );
-								}
-								existing = cachedResult.hasSellPrice() ? cachedResult.sellPrice() : null;
-								if ( updateStrategy.requiresUpdate( type , existing ) ) {
-									LOG.debug("getPriceInfos(): merging sell price.");
-									realResult.put( type , cachedResult.merge( PriceInfo.Type.SELL , dataFromServer ) );
-									storeCacheEntry( dataFromServer );
-									updated.add( dataFromServer );
-								}						
-								break;
-							default:
-								throw new RuntimeException("Unhandled switch/case: "+filter.getOrderType());
-							}
-						} 
+					PriceInfo existing;
+					switch( filter.getOrderType() ) 
+					{
+					case BUY:
+						existing = cachedResult.hasBuyPrice() ? cachedResult.buyPrice() : null;
+						if ( updateStrategy.requiresUpdate( type , existing ) ) {
+							LOG.debug("getPriceInfos(): merging buy price.");
+							realResult.put( type , cachedResult.merge( filter.getOrderType() , dataFromServer ) );
+							storeCacheEntry( dataFromServer );
+							updated.add( dataFromServer );
+						}
+						break;
+					case SELL:
+						existing = cachedResult.hasSellPrice() ? cachedResult.sellPrice() : null;
+						if ( updateStrategy.requiresUpdate( type , existing ) ) {
+							LOG.debug("getPriceInfos(): merging sell price.");
+							realResult.put( type , cachedResult.merge( filter.getOrderType() , dataFromServer ) );
+							storeCacheEntry( dataFromServer );
+							updated.add( dataFromServer );
+						}
+						break;		
+					case ANY:
+						// buy and sell prices are returned as separate entries
+						if ( dataFromServer.hasType( PriceInfo.Type.BUY ) ) {
+							existing = cachedResult.hasBuyPrice() ? cachedResult.buyPrice() : null;
+						} else {
+							existing = cachedResult.hasSellPrice() ? cachedResult.sellPrice() : null;
+						}
+						if ( updateStrategy.requiresUpdate( type , existing ) ) {
+							LOG.debug("getPriceInfos(): merging "+dataFromServer.getPriceType()+" price.");
+							realResult.put( type , cachedResult.merge( dataFromServer.getPriceType() , dataFromServer ) );
+							storeCacheEntry( dataFromServer );
+							updated.add( dataFromServer );
+						}
+						break;
+					default:
+						throw new RuntimeException("Unhandled switch/case: "+filter.getOrderType());
 					}
-				} finally {
-					fireItemPriceChanged( updated );
-				}
-				return realResult;
+				} 
 			}
-		});
+		} finally {
+			fireItemPriceChanged( updated );
+		}
+		return realResult;
 	}
 
 	private interface PriceCallable {
@@ -655,10 +751,24 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 		return result.get();
 	}
 
-	private List<PriceInfo> queryPriceFromUser(MarketFilter filter,IPriceQueryCallback callback, InventoryType type) throws PriceInfoUnavailableException 
+	private List<PriceInfo> queryPriceFromUser(final MarketFilter filter,final IPriceQueryCallback callback, final InventoryType type) throws PriceInfoUnavailableException 
 	{
 		if ( callback != null ) {
-			return  callback.getPriceInfo( filter , "Please enter cost information:", type );
+			if ( ! isThreadSafeMode() || SwingUtilities.isEventDispatchThread() ) {
+				return  callback.getPriceInfo( filter , "Please enter cost information:", type );
+			}
+
+			// callbacks ask the user
+			final AtomicReference<List<PriceInfo>> result = new AtomicReference<List<PriceInfo>>();
+			runOnEventThread( new PriceCallable() {
+
+				@Override
+				public Map<InventoryType, PriceInfoQueryResult> call() throws PriceInfoUnavailableException {
+					result.set( callback.getPriceInfo( filter , "Please enter cost information:", type ) );
+					return null;
+				}
+			});
+			return result.get();
 		} 
 		LOG.error("getPriceInfos(): Unable to obtain price for item "+type.getId() );
 		throw new PriceInfoUnavailableException("Unable to obtain price" , type );
@@ -679,96 +789,33 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 			LOG.debug("parsePriceInfo(): filter = "+filter);
 		}
 
-		final Document document =  parseXML( xmlResponse );
-
-		final XPathExpression TYPE_NODES = super.compileXPathExpression( "/evec_api/marketstat/type");
-
 		final Map<Long,List<PriceInfo>> result = new HashMap<Long,List<PriceInfo>>();
 
-		for ( Element node : super.selectElements( document , TYPE_NODES ) ) 
-		{
-			final Long typeId = getLongAttributeValue(node , "id" );
+		marketStatParser.parse( xmlResponse , filter.getOrderType() , new IPriceInfoConsumer() {
 
-			Element itemNode;
-			switch( filter.getOrderType() ) {
-				case BUY:
-					itemNode = getChild( node , "buy" );
-					addToMap( result , parsePriceInfo( typeId , PriceInfo.Type.BUY, itemNode ) );
-					break;
-				case SELL:
-					itemNode = getChild( node , "sell" );
-					addToMap( result , parsePriceInfo( typeId , PriceInfo.Type.SELL , itemNode ) );
-					break;
-				case ANY:
-					itemNode = getChild( node , "buy" );
-					addToMap( result , parsePriceInfo( typeId , PriceInfo.Type.BUY , itemNode ) );
-					itemNode = getChild( node , "sell" );
-					addToMap( result , parsePriceInfo( typeId , PriceInfo.Type.SELL , itemNode ) );
-					break;
-				default:
-					throw new RuntimeException("Unhandled order type: "+filter.getOrderType() );
+			@Override
+			public void priceInfoParsed(long itemTypeId, PriceInfo info) {
+				addToMap( result , itemTypeId , info );
 			}
-		}
+		} );
 		return result;
 	}
 
-	protected static void addToMap(Map<Long,List<PriceInfo>> map , PriceInfoWithId info) 
+	protected static void addToMap(Map<Long,List<PriceInfo>> map , Long itemTypeId , PriceInfo info) 
 	{
 		if ( info.getAveragePrice() <= 0 ) {
 			return;
 		}
 
-		List<PriceInfo> existing = map.get( info.getTypeID() );
+		List<PriceInfo> existing = map.get( itemTypeId );
 
 		if ( existing == null ) {
 			existing = new ArrayList<PriceInfo>();
-			map.put( info.getTypeID() , existing );
+			map.put( itemTypeId , existing );
 		}
 		existing.add( info );
 	}
 
-	protected static class PriceInfoWithId extends PriceInfo {
-
-		private Long itemType;
-
-		protected PriceInfoWithId(Long itemType , Type infoType) {
-			super(infoType,Source.EVE_CENTRAL );
-			if ( itemType == null ) {
-				throw new IllegalArgumentException("itemType cannot be NULL");
-			}
-			this.itemType = itemType;
-		}
-
-		public Long getTypeID() {
-			return itemType;
-		}
-	}
-
-	private PriceInfoWithId parsePriceInfo(Long itemTypeId , PriceInfo.Type priceType , Element rootNode) {
-		/*
-<all>
-<volume>41337268582</volume>
-<avg>36.8872779152</avg>
-<max>11155.08</max>
-<min>0.3</min>
-<stddev>552.601683331</stddev>
-<median>4.15</median>
-</all>		 
-		 */
-
-		final PriceInfoWithId result = new PriceInfoWithId( itemTypeId , priceType );
-		result.setAveragePrice( parseISKValue( getChildValue( rootNode , "median" ) ) );
-		result.setMinPrice( parseISKValue( getChildValue( rootNode , "min" ) ) );
-		result.setMaxPrice( parseISKValue( getChildValue( rootNode , "max" ) ) );
-		return result;
-	}
-
-	protected long parseISKValue(String value) {
-
-		final Double dValue = Double.parseDouble( value );
-		return Math.round( dValue * 100.0f );
-	}
-
 	public void setPriceInfoStore(IPriceInfoStore priceInfoStore) {
 		this.priceInfoStore = priceInfoStore;
 	}
@@ -836,7 +883,7 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 		}
 	}	
 
-	protected void fireItemPriceChanged(Region region,Set<InventoryType> items ) 
+	protected void fireItemPriceChanged(final Region region,final Set<InventoryType> items ) 
 	{
 		LOG.debug("fireItemPriceChanged(): items = "+items );
 
@@ -845,8 +892,21 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 			cloned = new ArrayList<IPriceInfoChangeListener>( listeners );
 		}
 
-		for ( IPriceInfoChangeListener listener : cloned) {
-			listener.priceChanged( this , region , items );
+		final Runnable notification = new Runnable() {
+
+			@Override
+			public void run() {
+				for ( IPriceInfoChangeListener listener : cloned) {
+					listener.priceChanged( EveCentralMarketDataProvider.this , region , items );
+				}
+			}
+		};
+
+		if ( isThreadSafeMode() ) {
+			// listeners are UI components
+			Misc.runOnEventThreadLater( notification );
+		} else {
+			notification.run();
 		}
 	}
 
@@ -892,6 +952,51 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 	public void addStatusCallback(IStatusCallback callback)
 	{
 		this.eveCentralClient.addStatusCallback( callback );
+		this.callbackHelper.addStatusCallback( callback );
+	}
+
+	/**
+	 * Sets the max. number of items to query
+	 * with a single eve-central request.
+	 * 
+	 * @param chunkSize
+	 * @see EveCentralBatchFetcher
+	 */
+	public void setChunkSize(int chunkSize) {
+		batchFetcher.setChunkSize( chunkSize );
+	}
+
+	/**
+	 * Sets the max. number of concurrent requests 
+	 * to eve-central.
+	 * 
+	 * @param maxConcurrentRequests
+	 * @see EveCentralBatchFetcher
+	 */
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		batchFetcher.setMaxConcurrentRequests( maxConcurrentRequests );
+	}
+
+	/**
+	 * Sets how often a failed eve-central
+	 * request gets retried.
+	 * 
+	 * @param maxRetries
+	 * @see EveCentralBatchFetcher
+	 */
+	public void setMaxRetries(int maxRetries) {
+		batchFetcher.setMaxRetries( maxRetries );
+	}
+
+	/**
+	 * Sets how long to wait before retrying 
+	 * a failed eve-central request.
+	 * 
+	 * @param retryDelayMillis
+	 * @see EveCentralBatchFetcher
+	 */
+	public void setRetryDelayMillis(long retryDelayMillis) {
+		batchFetcher.setRetryDelayMillis( retryDelayMillis );
 	}
 
 	public void setEveCentralClient(IEveCentralClient client) {
@@ -910,6 +1015,7 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 		catch (IOException e) {
 			LOG.error("dispose(): Failed to persist price info store ?");
 		}
+		this.batchFetcher.dispose();
 		this.eveCentralClient.dispose();
 	}
 
@@ -917,6 +1023,7 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 	public void removeStatusCallback(IStatusCallback callback)
 	{
 		this.eveCentralClient.removeStatusCallback( callback );		
+		this.callbackHelper.removeStatusCallback( callback );
 	}
 
 	@Override
@@ -939,9 +1046,28 @@ public class EveCentralMarketDataProvider extends XMLParseHelper implements IMar
 	@Override
 	public void store(Collection<PriceInfo> info) 
 	{
+		// store prices per item so the price store updates each item only once
+		final Map<Region,Map<Long,List<PriceInfo>>> pricesByRegion = new HashMap<>();
 		for ( PriceInfo i : info ) {
-			store( i );
+			Map<Long,List<PriceInfo>> pricesByItem = pricesByRegion.get( i.getRegion() );
+			if ( pricesByItem == null ) {
+				pricesByItem = new HashMap<>();
+				pricesByRegion.put( i.getRegion() , pricesByItem );
+			}
+			List<PriceInfo> prices = pricesByItem.get( i.getItemType().getId() );
+			if ( prices == null ) {
+				prices = new ArrayList<>();
+				pricesByItem.put( i.getItemType().getId() , prices );
+			}
+			prices.add( i );
 		}
+
+		for ( Entry<Region,Map<Long,List<PriceInfo>>> regionEntry : pricesByRegion.entrySet() ) {
+			for ( List<PriceInfo> prices : regionEntry.getValue().values() ) {
+				this.priceInfoStore.save( regionEntry.getKey() , prices.get(0).getItemType() , prices );
+			}
+		}
+		fireItemPriceChanged( info );
 	}
 
 	@Override
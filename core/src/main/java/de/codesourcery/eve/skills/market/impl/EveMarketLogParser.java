@@ -19,6 +19,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -42,11 +43,15 @@ import de.codesourcery.eve.skills.utils.ISystemClock;
  * Parses CSV files generated by the Eve client
  * market export.
  * 
+ * Instances are not thread-safe , use one 
+ * parser per thread.
+ * 
  * @author tobias.gierke@code-sourcery.de
  */
 public class EveMarketLogParser {
 
-	private static final DateFormat DATE_FORMAT = 
+	// SimpleDateFormat is not thread-safe
+	private final DateFormat dateFormat = 
 		new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss.SSS");
 
 	private final ISystemClock clock;
@@ -90,12 +95,25 @@ public class EveMarketLogParser {
 	}
 	
 	public MarketLogFile parseFile(File file) throws IOException, ParseException {
+		return parse( new FileReader(file) , file.getAbsolutePath() );
+	}
+
+	/**
+	 * Parses a market log.
+	 * 
+	 * @param input market log contents , always gets closed
+	 * @param sourceName name of the market log , used in error messages
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public MarketLogFile parse(Reader input,String sourceName) throws IOException, ParseException {
 
 		InventoryType type=null;
 		Region region =null;
 
 		final BufferedReader reader =
-			new BufferedReader(new FileReader(file) );
+			new BufferedReader( input );
 
 		final List<MarketLogEntry> result = 
 			new ArrayList<MarketLogEntry>();
@@ -110,7 +128,7 @@ price,volRemaining,typeID,range,orderID   ,volEntered,minVolume ,  bid , issued
 				parseLine( reader );
 
 			if ( cols.length == 0 || ! "price".equalsIgnoreCase( cols[0] ) ) {
-				throw new ParseException("No or unparseable header column in file "+file.getAbsolutePath(),0);
+				throw new ParseException("No or unparseable header column in file "+sourceName,0);
 			}
 
 			final Map<String, Integer> columns  = 
@@ -168,7 +186,7 @@ price,volRemaining,typeID,range,orderID   ,volEntered,minVolume ,  bid , issued
 	protected static final int parseInt(String s) { return Integer.parseInt( s );	}
 	protected static final long parseLong(String s) { return Long.parseLong( s );	}
 	protected static final double parseDouble(String s ) { return Double.parseDouble( s.trim() ); }
-	protected static final Date parseDate(String s ) throws ParseException { return DATE_FORMAT.parse( s ); }
+	protected final Date parseDate(String s ) throws ParseException { return dateFormat.parse( s ); }
 
 
 }
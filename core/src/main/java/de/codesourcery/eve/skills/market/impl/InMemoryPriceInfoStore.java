@@ -17,7 +17,6 @@ package de.codesourcery.eve.skills.market.impl;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -32,6 +31,17 @@ import de.codesourcery.eve.skills.market.IPriceInfoStore;
 import de.codesourcery.eve.skills.market.MarketFilter;
 import de.codesourcery.eve.skills.utils.ISystemClock;
 
+/**
+ * Price store that keeps everything in memory.
+ * 
+ * <pre>
+ * Lookups and updates go straight to the (non-blocking) {@link PriceInfoCache} ,
+ * only {@link #persist()} and {@link #shutdown()} are serialized so 
+ * writing prices to disk never blocks readers.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
 public class InMemoryPriceInfoStore implements IPriceInfoStore {
 
 	public static final Logger log = Logger
@@ -42,7 +52,7 @@ public class InMemoryPriceInfoStore implements IPriceInfoStore {
 	private final ISystemClock systemClock;
 
 	@Override
-	public synchronized List<PriceInfo> get(MarketFilter filter, InventoryType itemType) {
+	public List<PriceInfo> get(MarketFilter filter, InventoryType itemType) {
 		return priceInfoCache.getLatestPriceInfos( filter , itemType );
 	}
 
@@ -59,7 +69,7 @@ public class InMemoryPriceInfoStore implements IPriceInfoStore {
 		this.systemClock = clock;
 	}
 	
-	public synchronized void evict(PriceInfo info) {
+	public void evict(PriceInfo info) {
 		priceInfoCache.evict( info );
 	}
 
@@ -88,7 +98,7 @@ public class InMemoryPriceInfoStore implements IPriceInfoStore {
 	}
 	
 	@Override
-	public synchronized void save(PriceInfo info) {
+	public void save(PriceInfo info) {
 		priceInfoCache.storePriceInfo( info );
 	}
 
@@ -118,13 +128,13 @@ public class InMemoryPriceInfoStore implements IPriceInfoStore {
 			return;
 		}
 		
-		final Iterator<PriceInfo> it = infos.iterator();
-		if ( ! it.next().getItemType().getId().equals( type.getId() ) ) {
+		final PriceInfo first = infos.iterator().next();
+		if ( ! first.getItemType().getId().equals( type.getId() ) ) {
 			throw new IllegalArgumentException("Item type mismatch");
 		}
 		
-		if ( ! it.next().getRegion().getID().equals( region.getID() ) ) {
-			throw new IllegalArgumentException("Item type mismatch");
+		if ( ! first.getRegion().getID().equals( region.getID() ) ) {
+			throw new IllegalArgumentException("Region mismatch");
 		}
 		
 		this.priceInfoCache.storePriceInfos( region, type, infos);
@@ -0,0 +1,679 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.market.IPriceInfoStore;
+import de.codesourcery.eve.skills.util.IStatusCallback;
+import de.codesourcery.eve.skills.util.IStatusCallback.MessageType;
+import de.codesourcery.eve.skills.util.StatusCallbackHelper;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Imports market logs exported by the EVE client
+ * without user interaction.
+ * 
+ * <pre>
+ * {@link #watch(File)} imports all market logs in a directory and 
+ * keeps watching it for new or modified files. Files are 
+ * parsed by up to {@link #setMaxConcurrentParsers(int)} threads , 
+ * the resulting (per-day aggregated) prices are stored 
+ * on the thread that invoked {@link #importFiles(Collection)} , 
+ * one {@link IPriceInfoStore#save(de.codesourcery.eve.skills.db.datamodel.Region, de.codesourcery.eve.skills.db.datamodel.InventoryType, Collection)}
+ * call per file.
+ * 
+ * Files whose content has already been imported are skipped , the 
+ * SHA-1 hashes of all imported files are kept in memory and optionally
+ * appended to the file set with {@link #setImportedHashesFile(File)}.
+ * 
+ * Progress and errors are reported to {@link IStatusCallback}s.
+ * 
+ * The static data model passed to the constructor 
+ * is accessed from the parser threads. 
+ * 
+ * This class is thread-safe.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class MarketLogImporter {
+
+	private static final Logger LOG = Logger.getLogger(MarketLogImporter.class);
+
+	private static final String HASH_FILE_ENCODING = "UTF-8";
+
+	/**
+	 * Market logs only contain numbers and dates (no item or 
+	 * station names) , the EVE client writes them as plain ASCII.
+	 */
+	private static final String MARKET_LOG_ENCODING = "UTF-8";
+
+	private static final String MARKET_LOG_SUFFIX = ".txt";
+
+	private static final char[] HEX = { '0' , '1' , '2', '3' , '4','5','6','7','8','9',
+		'a' , 'b' , 'c' , 'd' , 'e' , 'f' };
+
+	public static final int DEFAULT_MAX_CONCURRENT_PARSERS = 
+		Math.max( 1 , Math.min( 4 , Runtime.getRuntime().availableProcessors() ) );
+
+	public static final long DEFAULT_QUIET_PERIOD_MILLIS = 1000;
+
+	private final IStaticDataModel dataModel;
+	private final IPriceInfoStore priceInfoStore;
+	private final ISystemClock systemClock;
+
+	private final StatusCallbackHelper callbackHelper = new StatusCallbackHelper();
+
+	// SHA-1 hashes of all files imported so far
+	private final Set<String> importedHashes = 
+		Collections.newSetFromMap( new ConcurrentHashMap<String,Boolean>() );
+
+	private final AtomicInteger importedFileCount = new AtomicInteger(0);
+	private final AtomicInteger skippedFileCount = new AtomicInteger(0);
+	private final AtomicInteger failedFileCount = new AtomicInteger(0);
+	private final AtomicInteger importedPriceCount = new AtomicInteger(0);
+
+	private volatile long quietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+
+	// guarded-by: this
+	private int maxConcurrentParsers = DEFAULT_MAX_CONCURRENT_PARSERS;
+
+	// guarded-by: this
+	private ThreadPoolExecutor executor;
+
+	// guarded-by: this
+	private DirectoryWatcher watcher;
+
+	// guarded-by: importedHashes
+	private File hashFile;
+
+	private static final class ParsedLog {
+
+		private final File file;
+		private final String hash;
+		// null if the file has already been imported or could not be parsed
+		private final MarketLogFile logFile;
+		private final List<PriceInfo> prices;
+		private final Exception error;
+
+		public ParsedLog(File file, String hash, MarketLogFile logFile, List<PriceInfo> prices) {
+			this.file = file;
+			this.hash = hash;
+			this.logFile = logFile;
+			this.prices = prices;
+			this.error = null;
+		}
+
+		public ParsedLog(File file, Exception error) {
+			this.file = file;
+			this.hash = null;
+			this.logFile = null;
+			this.prices = null;
+			this.error = error;
+		}
+	}
+
+	public MarketLogImporter(IStaticDataModel dataModel,IPriceInfoStore priceInfoStore,ISystemClock systemClock) 
+	{
+		if ( dataModel == null ) {
+			throw new IllegalArgumentException("dataModel cannot be NULL");
+		}
+		if ( priceInfoStore == null ) {
+			throw new IllegalArgumentException("priceInfoStore cannot be NULL");
+		}
+		if ( systemClock == null ) {
+			throw new IllegalArgumentException("systemClock cannot be NULL");
+		}
+		this.dataModel = dataModel;
+		this.priceInfoStore = priceInfoStore;
+		this.systemClock = systemClock;
+	}
+
+	/**
+	 * Imports all market logs in a directory and 
+	 * starts watching it for changes.
+	 * 
+	 * Stops watching the directory passed 
+	 * to the previous invocation (if any).
+	 * 
+	 * @param directory
+	 * @throws IOException if the directory does not exist or cannot be watched
+	 */
+	public synchronized void watch(File directory) throws IOException 
+	{
+		if ( directory == null ) {
+			throw new IllegalArgumentException("directory cannot be NULL");
+		}
+
+		if ( ! directory.isDirectory() ) {
+			throw new IOException("Not a directory: "+directory.getAbsolutePath());
+		}
+
+		stopWatching();
+
+		LOG.info("watch(): Watching "+directory.getAbsolutePath()+" for market logs");
+		watcher = new DirectoryWatcher( directory );
+		watcher.start();
+	}
+
+	/**
+	 * Stops watching for market logs.
+	 */
+	public synchronized void stopWatching() 
+	{
+		if ( watcher != null ) {
+			watcher.terminate();
+			watcher = null;
+		}
+	}
+
+	/**
+	 * Returns the directory currently being watched.
+	 * 
+	 * @return directory or <code>null</code>
+	 */
+	public synchronized File getDirectory() {
+		return watcher != null ? watcher.directory : null;
+	}
+
+	/**
+	 * Stops watching for market logs and
+	 * terminates all parser threads.
+	 */
+	public void shutdown() 
+	{
+		LOG.info("shutdown(): Called.");
+		synchronized( this ) {
+			stopWatching();
+			if ( executor != null ) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+	}
+
+	/**
+	 * Imports market logs.
+	 * 
+	 * @param files market log files , files that have
+	 * already been imported are skipped
+	 * @return number of files imported
+	 * @throws InterruptedException
+	 */
+	public int importFiles(Collection<File> files) throws InterruptedException 
+	{
+		if ( files == null ) {
+			throw new IllegalArgumentException("files cannot be NULL");
+		}
+
+		if ( files.isEmpty() ) {
+			return 0;
+		}
+
+		final CompletionService<ParsedLog> completionService = 
+			new ExecutorCompletionService<ParsedLog>( getExecutor() );
+
+		for ( final File file : files ) 
+		{
+			completionService.submit( new Callable<ParsedLog>() {
+
+				@Override
+				public ParsedLog call() 
+				{
+					return parse( file );
+				}
+			} );
+		}
+
+		final List<String> newHashes = new ArrayList<String>();
+		int skipped = 0;
+		int failed = 0;
+		int priceCount = 0;
+		for ( int i = 0 ; i < files.size() ; i++ ) 
+		{
+			final ParsedLog parsed;
+			try {
+				parsed = completionService.take().get();
+			} 
+			catch (ExecutionException e) {
+				// parse() never throws
+				throw new RuntimeException( e.getCause() );
+			}
+
+			if ( parsed.error != null ) 
+			{
+				failed++;
+				LOG.error("importFiles(): Failed to import market log "+parsed.file.getAbsolutePath(),parsed.error);
+				callbackHelper.notifyStatusCallbacks( MessageType.ERROR , 
+						"Failed to import market log "+parsed.file.getName()+": "+parsed.error.getMessage() );
+				continue;
+			}
+
+			// the same content may also show up more than once in a batch
+			if ( parsed.logFile == null || importedHashes.contains( parsed.hash ) ) 
+			{
+				if ( LOG.isDebugEnabled() ) {
+					LOG.debug("importFiles(): Skipping already imported file "+parsed.file.getAbsolutePath());
+				}
+				skipped++;
+				continue;
+			}
+
+			try {
+				priceInfoStore.save( parsed.logFile.getRegion() , parsed.logFile.getInventoryType() , parsed.prices );
+			} 
+			catch(RuntimeException e) 
+			{
+				// hash is not recorded , file gets imported again next time
+				failed++;
+				LOG.error("importFiles(): Failed to store prices from market log "+parsed.file.getAbsolutePath(),e);
+				callbackHelper.notifyStatusCallbacks( MessageType.ERROR , 
+						"Failed to store prices from market log "+parsed.file.getName()+": "+e.getMessage() );
+				continue;
+			}
+
+			importedHashes.add( parsed.hash );
+			newHashes.add( parsed.hash );
+			priceCount += parsed.prices.size();
+
+			if ( LOG.isDebugEnabled() ) {
+				LOG.debug("importFiles(): Imported "+parsed.prices.size()+" prices from "+parsed.file.getAbsolutePath());
+			}
+		}
+
+		importedFileCount.addAndGet( newHashes.size() );
+		skippedFileCount.addAndGet( skipped );
+		failedFileCount.addAndGet( failed );
+		importedPriceCount.addAndGet( priceCount );
+
+		if ( ! newHashes.isEmpty() ) 
+		{
+			try {
+				priceInfoStore.persist();
+				appendToHashFile( newHashes );
+			} 
+			catch (IOException e) {
+				LOG.error("importFiles(): Failed to persist imported prices",e);
+			}
+
+			LOG.info("importFiles(): Imported "+priceCount+" prices from "+newHashes.size()+" market logs , skipped "+
+					skipped+" , "+failed+" failed");
+			callbackHelper.notifyStatusCallbacks( MessageType.INFO , 
+					"Imported "+priceCount+" prices from "+newHashes.size()+" market logs" );
+		}
+		return newHashes.size();
+	}
+
+	private ParsedLog parse(File file) 
+	{
+		try {
+			final byte[] data = Files.readAllBytes( file.toPath() );
+			final String hash = hash( data );
+			if ( importedHashes.contains( hash ) ) {
+				return new ParsedLog( file , hash , null , null );
+			}
+
+			// parsers are not thread-safe
+			final MarketLogFile logFile = new EveMarketLogParser( dataModel , systemClock ).parse( 
+					new InputStreamReader( new ByteArrayInputStream( data ) , MARKET_LOG_ENCODING ) , file.getAbsolutePath() );
+
+			return new ParsedLog( file , hash , logFile , logFile.getAggregatedOrders( systemClock ) );
+		} 
+		catch(Exception e) {
+			return new ParsedLog( file , e );
+		}
+	}
+
+	protected static String hash(byte[] data) 
+	{
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA1");
+		} 
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+
+		final byte[] hash = digest.digest( data );
+		final char[] result = new char[ hash.length * 2 ];
+		for ( int i = 0 ; i < hash.length ; i++ ) {
+			result[ 2*i ] = HEX[ ( hash[i] >> 4 ) & 0x0f ];
+			result[ 2*i+1 ] = HEX[ hash[i] & 0x0f ];
+		}
+		return new String( result );
+	}
+
+	protected static boolean isMarketLog(File file) {
+		return file.isFile() && file.getName().toLowerCase().endsWith( MARKET_LOG_SUFFIX );
+	}
+
+	protected static List<File> listMarketLogs(File directory) 
+	{
+		final List<File> result = new ArrayList<File>();
+		final File[] files = directory.listFiles();
+		if ( files != null ) {
+			for ( File file : files ) {
+				if ( isMarketLog( file ) ) {
+					result.add( file );
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the file used to remember the content hashes 
+	 * of imported market logs across restarts.
+	 * 
+	 * Hashes already stored in the file are loaded immediately.
+	 * 
+	 * @param file file , gets created if it doesn't exist
+	 * @throws IOException
+	 */
+	public void setImportedHashesFile(File file) throws IOException 
+	{
+		if ( file == null ) {
+			throw new IllegalArgumentException("file cannot be NULL");
+		}
+
+		synchronized( importedHashes ) 
+		{
+			this.hashFile = file;
+			if ( ! file.exists() ) {
+				return;
+			}
+
+			final BufferedReader reader = new BufferedReader( 
+					new InputStreamReader( new FileInputStream( file ) , HASH_FILE_ENCODING ) );
+			try {
+				String line;
+				while ( ( line = reader.readLine() ) != null ) {
+					if ( line.trim().length() > 0 ) {
+						importedHashes.add( line.trim() );
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		if ( LOG.isDebugEnabled() ) {
+			LOG.debug("setImportedHashesFile(): "+importedHashes.size()+" market logs already imported.");
+		}
+	}
+
+	private void appendToHashFile(List<String> hashes) throws IOException 
+	{
+		synchronized( importedHashes ) 
+		{
+			if ( hashFile == null ) {
+				return;
+			}
+
+			final Writer writer = new BufferedWriter( new OutputStreamWriter( 
+					new FileOutputStream( hashFile , true ) , HASH_FILE_ENCODING ) );
+			try {
+				for ( String hash : hashes ) {
+					writer.write( hash );
+					writer.write( '\n' );
+				}
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Sets the max. number of market logs
+	 * that are parsed concurrently.
+	 * 
+	 * @param maxConcurrentParsers
+	 */
+	public void setMaxConcurrentParsers(int maxConcurrentParsers) 
+	{
+		if ( maxConcurrentParsers < 1 ) {
+			throw new IllegalArgumentException("max. concurrent parsers must be >= 1");
+		}
+
+		synchronized( this ) {
+			this.maxConcurrentParsers = maxConcurrentParsers;
+			if ( executor != null ) {
+				if ( maxConcurrentParsers > executor.getMaximumPoolSize() ) {
+					executor.setMaximumPoolSize( maxConcurrentParsers );
+					executor.setCorePoolSize( maxConcurrentParsers );
+				} else {
+					executor.setCorePoolSize( maxConcurrentParsers );
+					executor.setMaximumPoolSize( maxConcurrentParsers );
+				}
+			}
+		}
+	}
+
+	public synchronized int getMaxConcurrentParsers() {
+		return maxConcurrentParsers;
+	}
+
+	/**
+	 * Sets how long to wait for further changes 
+	 * before importing modified files.
+	 * 
+	 * The EVE client usually triggers more than 
+	 * one file system event per exported market log.
+	 * 
+	 * @param quietPeriodMillis
+	 */
+	public void setQuietPeriodMillis(long quietPeriodMillis) {
+		if ( quietPeriodMillis < 0 ) {
+			throw new IllegalArgumentException("quiet period must be >= 0");
+		}
+		this.quietPeriodMillis = quietPeriodMillis;
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() 
+	{
+		if ( executor == null ) 
+		{
+			final AtomicInteger threadCount = new AtomicInteger(0);
+			executor = new ThreadPoolExecutor( maxConcurrentParsers , maxConcurrentParsers , 
+					60 , TimeUnit.SECONDS , new LinkedBlockingQueue<Runnable>() , new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread result = new Thread( r , "marketlog-parser-"+threadCount.incrementAndGet() );
+					result.setDaemon( true );
+					return result;
+				}
+			} );
+			executor.allowCoreThreadTimeOut( true );
+		}
+		return executor;
+	}
+
+	public int getImportedFileCount() {
+		return importedFileCount.get();
+	}
+
+	public int getSkippedFileCount() {
+		return skippedFileCount.get();
+	}
+
+	public int getFailedFileCount() {
+		return failedFileCount.get();
+	}
+
+	public int getImportedPriceCount() {
+		return importedPriceCount.get();
+	}
+
+	public void addStatusCallback(IStatusCallback callback) {
+		callbackHelper.addStatusCallback( callback );
+	}
+
+	public void removeStatusCallback(IStatusCallback callback) {
+		callbackHelper.removeStatusCallback( callback );
+	}
+
+	private final class DirectoryWatcher extends Thread {
+
+		private final File directory;
+		private final WatchService watchService;
+
+		private volatile boolean terminate = false;
+
+		public DirectoryWatcher(File directory) throws IOException 
+		{
+			super("marketlog-watcher");
+			setDaemon( true );
+			this.directory = directory;
+			this.watchService = FileSystems.getDefault().newWatchService();
+			try {
+				directory.toPath().register( watchService , ENTRY_CREATE , ENTRY_MODIFY );
+			} 
+			catch(IOException e) {
+				watchService.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public void run() 
+		{
+			try 
+			{
+				importChanges( listMarketLogs( directory ) );
+
+				while ( ! terminate ) 
+				{
+					final Set<File> changed = new LinkedHashSet<File>();
+
+					WatchKey key = watchService.take();
+					do 
+					{
+						if ( ! collectChanges( key , changed ) ) {
+							LOG.warn("run(): "+directory.getAbsolutePath()+" is no longer accessible , stopped watching.");
+							return;
+						}
+						// wait until the client has finished writing
+					} while ( ( key = watchService.poll( quietPeriodMillis , TimeUnit.MILLISECONDS ) ) != null );
+
+					importChanges( changed );
+				}
+			} 
+			catch(InterruptedException e) {
+				// terminated
+			}
+			catch(ClosedWatchServiceException e) {
+				// terminated
+			}
+			finally {
+				close();
+			}
+		}
+
+		/**
+		 * Imports a batch of files , failures are reported
+		 * but never terminate the watcher.
+		 */
+		private void importChanges(Collection<File> files) throws InterruptedException 
+		{
+			try {
+				importFiles( files );
+			} 
+			catch(RuntimeException e) 
+			{
+				LOG.error("importChanges(): Failed to import market logs from "+directory.getAbsolutePath(),e);
+				callbackHelper.notifyStatusCallbacks( MessageType.ERROR , 
+						"Failed to import market logs: "+e.getMessage() );
+			}
+		}
+
+		private boolean collectChanges(WatchKey key,Set<File> changed) 
+		{
+			for ( WatchEvent<?> event : key.pollEvents() ) 
+			{
+				if ( event.kind() == OVERFLOW ) {
+					changed.addAll( listMarketLogs( directory ) );
+					continue;
+				}
+
+				final File file = new File( directory , event.context().toString() );
+				if ( isMarketLog( file ) ) {
+					changed.add( file );
+				}
+			}
+			return key.reset();
+		}
+
+		private void close() 
+		{
+			try {
+				watchService.close();
+			} 
+			catch (IOException e) {
+				LOG.error("close(): Failed to close watch service for "+directory.getAbsolutePath(),e);
+			}
+		}
+
+		public void terminate() 
+		{
+			terminate = true;
+			interrupt();
+			close();
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Source;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+
+/**
+ * Parses eve-central <code>marketstat</code> responses
+ * in a single pass using StAX.
+ * 
+ * <pre>
+ * The response looks like
+ * 
+ * &lt;evec_api version="2.0" method="marketstat_xml"&gt;
+ *   &lt;marketstat&gt;
+ *     &lt;type id="34"&gt;
+ *       &lt;all&gt;...&lt;/all&gt;
+ *       &lt;buy&gt;
+ *         &lt;volume&gt;23271663605&lt;/volume&gt;
+ *         &lt;avg&gt;3.96983095868&lt;/avg&gt;
+ *         &lt;max&gt;4.3&lt;/max&gt;
+ *         &lt;min&gt;0.3&lt;/min&gt;
+ *         &lt;stddev&gt;0.572456683074&lt;/stddev&gt;
+ *         &lt;median&gt;3.87&lt;/median&gt;
+ *       &lt;/buy&gt;
+ *       &lt;sell&gt;...&lt;/sell&gt;
+ *     &lt;/type&gt;
+ *     ...
+ * 
+ * Each <code>buy</code> / <code>sell</code> block that matches the requested 
+ * order type is handed to a {@link IPriceInfoConsumer} as soon as
+ * it has been read , the median is used as average price. Price infos have
+ * {@link Source#EVE_CENTRAL} as source , neither item type , region nor
+ * timestamp are set.
+ * 
+ * Instances are stateless and thread-safe.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class MarketStatParser {
+
+	private static final XMLInputFactory INPUT_FACTORY;
+
+	static {
+		INPUT_FACTORY = XMLInputFactory.newInstance();
+		INPUT_FACTORY.setProperty( XMLInputFactory.IS_COALESCING , Boolean.TRUE );
+		INPUT_FACTORY.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE , Boolean.FALSE );
+		INPUT_FACTORY.setProperty( XMLInputFactory.SUPPORT_DTD , Boolean.FALSE );
+	}
+
+	private static final int MEDIAN_SEEN = 1;
+	private static final int MIN_SEEN = 2;
+	private static final int MAX_SEEN = 4;
+	private static final int ALL_SEEN = MEDIAN_SEEN | MIN_SEEN | MAX_SEEN;
+
+	/**
+	 * Receives parsed prices.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public interface IPriceInfoConsumer {
+
+		/**
+		 * Invoked for every buy / sell price.
+		 * 
+		 * @param itemTypeId ID of the item type this price belongs to
+		 * @param info the price
+		 */
+		public void priceInfoParsed(long itemTypeId,PriceInfo info);
+	}
+
+	/**
+	 * Parses a response.
+	 * 
+	 * @param xml the response
+	 * @param orderType order type to parse prices for , {@link PriceInfo.Type#ANY}
+	 * parses both buy and sell prices
+	 * @param consumer
+	 * @throws UnparseableResponseException
+	 */
+	public void parse(String xml,PriceInfo.Type orderType,IPriceInfoConsumer consumer) throws UnparseableResponseException 
+	{
+		if ( xml == null ) {
+			throw new IllegalArgumentException("xml cannot be NULL");
+		}
+
+		try {
+			parse( new StringReader( xml ) , orderType , consumer );
+		} 
+		catch (IOException e) {
+			// should never happen, we're reading a string....
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Parses a response.
+	 * 
+	 * @param in the response , not closed by this method
+	 * @param orderType order type to parse prices for , {@link PriceInfo.Type#ANY}
+	 * parses both buy and sell prices
+	 * @param consumer
+	 * @throws IOException
+	 * @throws UnparseableResponseException
+	 */
+	public void parse(Reader in,PriceInfo.Type orderType,IPriceInfoConsumer consumer) throws IOException, UnparseableResponseException 
+	{
+		if ( in == null ) {
+			throw new IllegalArgumentException("input cannot be NULL");
+		}
+		if ( orderType == null ) {
+			throw new IllegalArgumentException("order type cannot be NULL");
+		}
+		if ( consumer == null ) {
+			throw new IllegalArgumentException("consumer cannot be NULL");
+		}
+
+		try {
+			final XMLStreamReader reader;
+			synchronized( INPUT_FACTORY ) {
+				reader = INPUT_FACTORY.createXMLStreamReader( in );
+			}
+
+			try {
+				parseDocument( reader , orderType , consumer );
+			} finally {
+				reader.close();
+			}
+		}
+		catch (XMLStreamException e) {
+			if ( e.getNestedException() instanceof IOException ) {
+				throw (IOException) e.getNestedException();
+			}
+			throw new UnparseableResponseException("Received invalid XML from eve-central",e);
+		}
+		catch(NumberFormatException e) {
+			throw new UnparseableResponseException("Response XML contains invalid number",e);
+		}
+	}
+
+	private void parseDocument(XMLStreamReader reader,PriceInfo.Type orderType,IPriceInfoConsumer consumer) throws XMLStreamException 
+	{
+		final boolean parseBuy = orderType.matches( PriceInfo.Type.BUY );
+		final boolean parseSell = orderType.matches( PriceInfo.Type.SELL );
+
+		int depth = 0;
+		boolean isAPIResponse = false;
+		boolean inMarketStat = false;
+		boolean inType = false;
+		long typeId = 0;
+
+		PriceInfo current = null;
+		int seen = 0;
+
+		while ( reader.hasNext() ) 
+		{
+			switch( reader.next() ) 
+			{
+				case XMLStreamConstants.START_ELEMENT:
+
+					depth++;
+					final String name = reader.getLocalName();
+
+					if ( depth == 1 ) {
+						isAPIResponse = "evec_api".equals( name );
+					} 
+					else if ( depth == 2 ) {
+						inMarketStat = isAPIResponse && "marketstat".equals( name );
+					} 
+					else if ( depth == 3 ) 
+					{
+						inType = inMarketStat && "type".equals( name );
+						if ( inType ) {
+							typeId = parseTypeId( reader );
+						}
+					} 
+					else if ( depth == 4 && inType ) 
+					{
+						if ( parseBuy && "buy".equals( name ) ) {
+							current = new PriceInfo( PriceInfo.Type.BUY , (InventoryType) null , Source.EVE_CENTRAL );
+						} else if ( parseSell && "sell".equals( name ) ) {
+							current = new PriceInfo( PriceInfo.Type.SELL , (InventoryType) null , Source.EVE_CENTRAL );
+						}
+						seen = 0;
+					} 
+					else if ( depth == 5 && current != null ) 
+					{
+						if ( "median".equals( name ) ) {
+							current.setAveragePrice( parseISKValue( reader.getElementText() ) );
+							seen |= MEDIAN_SEEN;
+							depth--; // getElementText() consumed the end element
+						} else if ( "min".equals( name ) ) {
+							current.setMinPrice( parseISKValue( reader.getElementText() ) );
+							seen |= MIN_SEEN;
+							depth--;
+						} else if ( "max".equals( name ) ) {
+							current.setMaxPrice( parseISKValue( reader.getElementText() ) );
+							seen |= MAX_SEEN;
+							depth--;
+						}
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+
+					if ( depth == 4 && current != null ) 
+					{
+						if ( seen != ALL_SEEN ) {
+							throw new UnparseableResponseException("<"+reader.getLocalName()+"> element of " +
+									"type "+typeId+" lacks <median>, <min> or <max> element");
+						}
+						consumer.priceInfoParsed( typeId , current );
+						current = null;
+					} 
+					else if ( depth == 3 ) {
+						inType = false;
+					} 
+					else if ( depth == 2 ) {
+						inMarketStat = false;
+					}
+					depth--;
+					break;
+				default:
+					// ignore
+			}
+		}
+	}
+
+	private static long parseTypeId(XMLStreamReader reader) 
+	{
+		final String value = reader.getAttributeValue( null , "id" );
+		if ( value == null ) {
+			throw new UnparseableResponseException("<type> element lacks 'id' attribute");
+		}
+		return Long.parseLong( value.trim() );
+	}
+
+	/**
+	 * Converts a price to ISK cents.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public static long parseISKValue(String value) {
+		return Math.round( Double.parseDouble( value ) * 100.0d );
+	}
+}
@@ -0,0 +1,662 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Source;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.Region;
+import de.codesourcery.eve.skills.utils.EveDate;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Append-only , column-oriented file holding the price
+ * history of all items in one region.
+ * 
+ * <pre>
+ * File layout:
+ * 
+ * [ FILE_MAGIC ][ VERSION ] ( block )*
+ * 
+ * block:
+ * 
+ * [ BLOCK_MAGIC ][ type count ][ row count ]
+ * ( [ type ID (long) ][ first row (int) ][ row count (int) ] ) * type count
+ * long columns (timestamp , type ID , order ID , min , avg , max , order count , volume , remaining volume)
+ * byte columns (order type , source)
+ * 
+ * Each column is stored as one contiguous array of <code>row count</code> values.
+ * </pre>
+ * 
+ * Every {@link #append(Map)} writes a new block containing the full price history
+ * of the items passed in , superseding any rows previously written for them. The 
+ * index (item ID -&gt; row range of the latest block) is rebuilt by scanning
+ * the block headers when the file is opened and updated in place on every 
+ * append , rows are read column by column using positional reads. A truncated 
+ * block at the end of the file (crash while appending) is ignored and 
+ * overwritten by the next append.
+ * 
+ * Superseded rows are only reclaimed by {@link #compact()} , which writes
+ * a new file and moves it over the old one. The file is never memory-mapped
+ * since a mapped file cannot be replaced on Windows.
+ * 
+ * This class is thread-safe.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+final class PriceColumnFile {
+
+	private static final Logger log = Logger.getLogger(PriceColumnFile.class);
+
+	private static final int FILE_MAGIC = 0xEFE9C01F;
+	private static final int BLOCK_MAGIC = 0xB10CB10C;
+	private static final int VERSION = 1;
+
+	private static final int FILE_HEADER_SIZE = 8;
+	private static final int BLOCK_HEADER_SIZE = 12;
+	private static final int DIRECTORY_ENTRY_SIZE = 16;
+
+	// long columns
+	private static final int COL_TIMESTAMP = 0;
+	private static final int COL_TYPE_ID = 1;
+	private static final int COL_ORDER_ID = 2;
+	private static final int COL_MIN_PRICE = 3;
+	private static final int COL_AVG_PRICE = 4;
+	private static final int COL_MAX_PRICE = 5;
+	private static final int COL_ORDER_COUNT = 6;
+	private static final int COL_VOLUME = 7;
+	private static final int COL_REMAINING_VOLUME = 8;
+	private static final int LONG_COLUMNS = 9;
+
+	// byte columns
+	private static final int COL_ORDER_TYPE = 0;
+	private static final int COL_SOURCE = 1;
+	private static final int BYTE_COLUMNS = 2;
+
+	private static final int BYTES_PER_ROW = LONG_COLUMNS * 8 + BYTE_COLUMNS;
+
+	/**
+	 * Compaction is only worth it if at least 
+	 * this many rows have been superseded.
+	 */
+	private static final int MIN_DEAD_ROWS_FOR_COMPACTION = 1000;
+
+	private final File file;
+
+	// guarded-by: this
+	private final Map<Long,RowRange> index = new HashMap<Long,RowRange>();
+
+	// guarded-by: this
+	private FileChannel channel;
+
+	// guarded-by: this
+	private long validLength;
+
+	// guarded-by: this
+	private long liveRows;
+
+	// guarded-by: this
+	private long deadRows;
+
+	/**
+	 * Location of an item's rows inside a block.
+	 */
+	private static final class RowRange {
+
+		// file offset of the first column
+		private final long columnsOffset;
+		private final int blockRows;
+		private final int firstRow;
+		private final int rowCount;
+
+		public RowRange(long columnsOffset, int blockRows, int firstRow,int rowCount) {
+			this.columnsOffset = columnsOffset;
+			this.blockRows = blockRows;
+			this.firstRow = firstRow;
+			this.rowCount = rowCount;
+		}
+
+		public long longValueOffset(int column,int row) {
+			return columnsOffset + ( (long) column * blockRows + firstRow + row ) * 8;
+		}
+
+		public long byteValueOffset(int column,int row) {
+			return columnsOffset + (long) LONG_COLUMNS * blockRows * 8 + 
+					(long) column * blockRows + firstRow + row;
+		}
+	}
+
+	/**
+	 * Create instance.
+	 * 
+	 * @param file the file to use , gets created on the first {@link #append(Map)}
+	 * if it doesn't exist
+	 * @throws IOException if the file exists but is no column file
+	 */
+	public PriceColumnFile(File file) throws IOException {
+		if ( file == null ) {
+			throw new IllegalArgumentException("file cannot be NULL");
+		}
+		this.file = file;
+		open();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean exists() {
+		return file.exists();
+	}
+
+	private void open() throws IOException {
+
+		closeChannel();
+		index.clear();
+		liveRows = 0;
+		deadRows = 0;
+		validLength = 0;
+
+		if ( ! file.exists() ) {
+			return;
+		}
+
+		channel = FileChannel.open( file.toPath() , StandardOpenOption.READ , StandardOpenOption.WRITE );
+
+		final long length = channel.size();
+		if ( length < FILE_HEADER_SIZE ) {
+			// crashed while creating the file
+			log.warn("open(): Ignoring incomplete file "+file.getAbsolutePath());
+			return;
+		}
+
+		final ByteBuffer header = read( 0 , FILE_HEADER_SIZE );
+		if ( header.getInt( 0 ) != FILE_MAGIC ) {
+			closeChannel();
+			throw new IOException("File "+file.getAbsolutePath()+" is no price column file");
+		}
+
+		final int version = header.getInt( 4 );
+		if ( version != VERSION ) {
+			closeChannel();
+			throw new IOException("File "+file.getAbsolutePath()+" has unsupported version "+version);
+		}
+
+		long offset = FILE_HEADER_SIZE;
+		while ( offset < length ) {
+			final long blockLength = readBlock( offset , length );
+			if ( blockLength < 0 ) {
+				log.warn("open(): Ignoring truncated block at offset "+offset+" in "+file.getAbsolutePath());
+				break;
+			}
+			offset += blockLength;
+		}
+		validLength = offset;
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("open(): "+file.getAbsolutePath()+" has "+index.size()+" items , "+
+					liveRows+" live rows , "+deadRows+" superseded rows");
+		}
+	}
+
+	/**
+	 * Adds the directory of a block to the index.
+	 * 
+	 * @return the block's length in bytes or <code>-1</code> if 
+	 * the block is incomplete
+	 */
+	private long readBlock(long offset,long fileLength) throws IOException {
+
+		if ( offset + BLOCK_HEADER_SIZE > fileLength ) {
+			return -1;
+		}
+
+		final ByteBuffer header = read( offset , BLOCK_HEADER_SIZE );
+		if ( header.getInt( 0 ) != BLOCK_MAGIC ) {
+			return -1;
+		}
+
+		final int typeCount = header.getInt( 4 );
+		final int rowCount = header.getInt( 8 );
+		if ( typeCount < 0 || rowCount < 0 ) {
+			return -1;
+		}
+
+		final long blockLength = getBlockLength( typeCount , rowCount );
+		if ( offset + blockLength > fileLength ) {
+			return -1;
+		}
+
+		final ByteBuffer directory = read( offset + BLOCK_HEADER_SIZE , typeCount * DIRECTORY_ENTRY_SIZE );
+		indexBlock( offset , typeCount , rowCount , directory );
+		return blockLength;
+	}
+
+	/**
+	 * Adds the rows of a block to the index.
+	 * 
+	 * @param offset file offset of the block
+	 * @param directory buffer positioned at the block's first directory entry
+	 */
+	private void indexBlock(long offset,int typeCount,int rowCount,ByteBuffer directory) {
+
+		final long columnsOffset = offset + BLOCK_HEADER_SIZE + (long) typeCount * DIRECTORY_ENTRY_SIZE;
+		for ( int i = 0 ; i < typeCount ; i++ ) {
+			final long typeId = directory.getLong();
+			final int firstRow = directory.getInt();
+			final int count = directory.getInt();
+			updateIndex( typeId , new RowRange( columnsOffset , rowCount , firstRow , count ) );
+		}
+	}
+
+	private static long getBlockLength(int typeCount,int rowCount) {
+		return BLOCK_HEADER_SIZE + (long) typeCount * DIRECTORY_ENTRY_SIZE + (long) rowCount * BYTES_PER_ROW;
+	}
+
+	private void updateIndex(long typeId,RowRange range) {
+
+		final RowRange previous;
+		if ( range.rowCount > 0 ) {
+			previous = index.put( typeId , range );
+			liveRows += range.rowCount;
+		} else {
+			// item has no prices any longer
+			previous = index.remove( typeId );
+		}
+
+		if ( previous != null ) {
+			liveRows -= previous.rowCount;
+			deadRows += previous.rowCount;
+		}
+	}
+
+	/**
+	 * Returns the IDs of all items that have
+	 * prices stored in this file.
+	 */
+	public synchronized Set<Long> getTypeIds() {
+		return new HashSet<Long>( index.keySet() );
+	}
+
+	public synchronized boolean contains(long typeId) {
+		return index.containsKey( typeId );
+	}
+
+	public synchronized long getLiveRowCount() {
+		return liveRows;
+	}
+
+	public synchronized long getDeadRowCount() {
+		return deadRows;
+	}
+
+	/**
+	 * Reads the price history of an item.
+	 * 
+	 * @param region region to assign to the returned prices
+	 * @param itemType item to assign to the returned prices
+	 * @param clock
+	 * @return prices in the order they were appended , empty list
+	 * if this file holds no prices for the item
+
+	 * @throws IOException
+	 */
+	public synchronized List<PriceInfo> read(Region region,InventoryType itemType,ISystemClock clock) throws IOException {
+
+		final RowRange range = index.get( itemType.getTypeId() );
+		if ( range == null ) {
+			return new ArrayList<PriceInfo>();
+		}
+
+		final ByteBuffer[] longColumns = new ByteBuffer[ LONG_COLUMNS ];
+		for ( int column = 0 ; column < LONG_COLUMNS ; column++ ) {
+			longColumns[ column ] = read( range.longValueOffset( column , 0 ) , range.rowCount * 8 );
+		}
+
+		final ByteBuffer[] byteColumns = new ByteBuffer[ BYTE_COLUMNS ];
+		for ( int column = 0 ; column < BYTE_COLUMNS ; column++ ) {
+			byteColumns[ column ] = read( range.byteValueOffset( column , 0 ) , range.rowCount );
+		}
+
+		final List<PriceInfo> result = new ArrayList<PriceInfo>( range.rowCount );
+		for ( int row = 0 ; row < range.rowCount ; row++ ) {
+
+			final PriceInfo info = new PriceInfo( 
+					toOrderType( byteColumns[ COL_ORDER_TYPE ].get( row ) ) ,
+					itemType ,
+					toSource( byteColumns[ COL_SOURCE ].get( row ) ) );
+
+			final int offset = row * 8;
+			info.setRegion( region );
+			info.setTimestamp( EveDate.fromLocalTime( longColumns[ COL_TIMESTAMP ].getLong( offset ) , clock ) );
+			info.setOrderId( longColumns[ COL_ORDER_ID ].getLong( offset ) );
+			info.setMinPrice( longColumns[ COL_MIN_PRICE ].getLong( offset ) );
+			info.setAveragePrice( longColumns[ COL_AVG_PRICE ].getLong( offset ) );
+			info.setMaxPrice( longColumns[ COL_MAX_PRICE ].getLong( offset ) );
+			info.setOrderCount( longColumns[ COL_ORDER_COUNT ].getLong( offset ) );
+			info.setVolume( longColumns[ COL_VOLUME ].getLong( offset ) );
+			info.setRemainingVolume( longColumns[ COL_REMAINING_VOLUME ].getLong( offset ) );
+			result.add( info );
+		}
+		return result;
+	}
+
+	private ByteBuffer read(long position,int length) throws IOException {
+		final ByteBuffer result = ByteBuffer.allocate( length );
+		readFully( result , position );
+		result.flip();
+		return result;
+	}
+
+	private void readFully(ByteBuffer target,long position) throws IOException {
+		while ( target.hasRemaining() ) {
+			final int count = channel.read( target , position );
+			if ( count < 0 ) {
+				throw new EOFException("Unexpected end of file "+file.getAbsolutePath()+" at offset "+position);
+			}
+			position += count;
+		}
+	}
+
+	/**
+	 * Appends the price histories of some items.
+	 * 
+	 * @param pricesByItemId price histories by item type ID , an empty 
+	 * list removes all prices for an item
+	 * @throws IOException
+	 */
+	public synchronized void append(Map<Long,List<PriceInfo>> pricesByItemId) throws IOException {
+
+		if ( pricesByItemId.isEmpty() ) {
+			return;
+		}
+
+		final ByteBuffer block = createBlock( new TreeMap<Long,List<PriceInfo>>( pricesByItemId ) );
+
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if ( ! parent.exists() && ! parent.mkdirs() ) {
+			throw new IOException("Unable to create directory "+parent.getAbsolutePath());
+		}
+
+		if ( channel == null ) {
+			channel = FileChannel.open( file.toPath() , StandardOpenOption.READ , 
+					StandardOpenOption.WRITE , StandardOpenOption.CREATE );
+		}
+
+		long position = validLength;
+		if ( position == 0 ) {
+			final ByteBuffer header = ByteBuffer.allocate( FILE_HEADER_SIZE );
+			header.putInt( FILE_MAGIC ).putInt( VERSION ).flip();
+			writeFully( channel , header , 0 );
+			position = FILE_HEADER_SIZE;
+		}
+		// discard truncated block left over from a crash
+		channel.truncate( position );
+		writeFully( channel , block , position );
+		channel.force( false );
+
+		// no need to re-scan the file , just add the new block
+		block.position( BLOCK_HEADER_SIZE );
+		indexBlock( position , block.getInt( 4 ) , block.getInt( 8 ) , block );
+		validLength = position + block.capacity();
+	}
+
+	private static void writeFully(FileChannel channel,ByteBuffer buffer,long position) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			position += channel.write( buffer , position );
+		}
+	}
+
+	private static ByteBuffer createBlock(Map<Long,List<PriceInfo>> pricesByItemId) throws IOException {
+
+		int rowCount = 0;
+		for ( List<PriceInfo> prices : pricesByItemId.values() ) {
+			rowCount += prices.size();
+		}
+
+		final int typeCount = pricesByItemId.size();
+		final long blockLength = getBlockLength( typeCount , rowCount );
+		if ( blockLength > Integer.MAX_VALUE ) {
+			throw new IOException("Too many prices ("+rowCount+" rows)");
+		}
+
+		final ByteBuffer block = ByteBuffer.allocate( (int) blockLength );
+		block.putInt( BLOCK_MAGIC ).putInt( typeCount ).putInt( rowCount );
+
+		final int columnsOffset = BLOCK_HEADER_SIZE + typeCount * DIRECTORY_ENTRY_SIZE;
+		final int byteColumnsOffset = columnsOffset + LONG_COLUMNS * rowCount * 8;
+
+		int row = 0;
+		for ( Map.Entry<Long,List<PriceInfo>> entry : pricesByItemId.entrySet() ) {
+
+			block.putLong( entry.getKey() ).putInt( row ).putInt( entry.getValue().size() );
+
+			for ( PriceInfo info : entry.getValue() ) {
+
+				final long[] values = new long[ LONG_COLUMNS ];
+				values[ COL_TIMESTAMP ] = info.getTimestamp().getLocalTime().getTime();
+				values[ COL_TYPE_ID ] = entry.getKey();
+				values[ COL_ORDER_ID ] = info.getOrderId();
+				values[ COL_MIN_PRICE ] = info.getMinPrice();
+				values[ COL_AVG_PRICE ] = info.getAveragePrice();
+				values[ COL_MAX_PRICE ] = info.getMaxPrice();
+				values[ COL_ORDER_COUNT ] = info.getOrderCount();
+				values[ COL_VOLUME ] = info.getVolume();
+				values[ COL_REMAINING_VOLUME ] = info.getRemainingVolume();
+
+				for ( int column = 0 ; column < LONG_COLUMNS ; column++ ) {
+					block.putLong( columnsOffset + ( column * rowCount + row ) * 8 , values[ column ] );
+				}
+				block.put( byteColumnsOffset + COL_ORDER_TYPE * rowCount + row , toCode( info.getPriceType() ) );
+				block.put( byteColumnsOffset + COL_SOURCE * rowCount + row , toCode( info.getSource() ) );
+				row++;
+			}
+		}
+
+		block.clear();
+		return block;
+	}
+
+	/**
+	 * Checks whether enough rows have been superseded
+	 * to make {@link #compact()} worthwhile.
+	 */
+	public synchronized boolean needsCompaction() {
+		return deadRows >= MIN_DEAD_ROWS_FOR_COMPACTION && deadRows > liveRows;
+	}
+
+	/**
+	 * Rewrites this file so it only contains
+	 * the latest rows of each item.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void compact() throws IOException {
+
+		if ( deadRows == 0 ) {
+			return;
+		}
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("compact(): Compacting "+file.getAbsolutePath()+" , dropping "+deadRows+" rows");
+		}
+
+		final ByteBuffer block = copyLiveRows();
+
+		final File tmpFile = new File( file.getAbsoluteFile().getParentFile() , file.getName()+".tmp" );
+		final FileChannel out = FileChannel.open( tmpFile.toPath() , StandardOpenOption.WRITE , 
+				StandardOpenOption.CREATE , StandardOpenOption.TRUNCATE_EXISTING );
+		try {
+			final ByteBuffer header = ByteBuffer.allocate( FILE_HEADER_SIZE );
+			header.putInt( FILE_MAGIC ).putInt( VERSION ).flip();
+			writeFully( out , header , 0 );
+			writeFully( out , block , FILE_HEADER_SIZE );
+			out.force( false );
+		} finally {
+			out.close();
+		}
+
+		// open files cannot be replaced on Windows
+		closeChannel();
+		try {
+			Files.move( tmpFile.toPath() , file.toPath() , 
+					StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+		} finally {
+			// re-open the old file if the move failed
+			open();
+		}
+	}
+
+	/**
+	 * Copies the live rows into a single new block , column 
+	 * by column and without converting them to {@link PriceInfo}s.
+	 */
+	private ByteBuffer copyLiveRows() throws IOException {
+
+		final Map<Long,RowRange> ranges = new TreeMap<Long,RowRange>( index );
+		final int rowCount = (int) liveRows;
+		final int typeCount = ranges.size();
+
+		final ByteBuffer block = ByteBuffer.allocate( (int) getBlockLength( typeCount , rowCount ) );
+		block.putInt( BLOCK_MAGIC ).putInt( typeCount ).putInt( rowCount );
+
+		final int columnsOffset = BLOCK_HEADER_SIZE + typeCount * DIRECTORY_ENTRY_SIZE;
+		final int byteColumnsOffset = columnsOffset + LONG_COLUMNS * rowCount * 8;
+
+		int row = 0;
+		for ( Map.Entry<Long,RowRange> entry : ranges.entrySet() ) {
+
+			final RowRange range = entry.getValue();
+			block.putLong( entry.getKey() ).putInt( row ).putInt( range.rowCount );
+
+			for ( int column = 0 ; column < LONG_COLUMNS ; column++ ) {
+				copy( range.longValueOffset( column , 0 ) , range.rowCount * 8 ,
+						block , columnsOffset + ( column * rowCount + row ) * 8 );
+			}
+			for ( int column = 0 ; column < BYTE_COLUMNS ; column++ ) {
+				copy( range.byteValueOffset( column , 0 ) , range.rowCount ,
+						block , byteColumnsOffset + column * rowCount + row );
+			}
+			row += range.rowCount;
+		}
+
+		block.clear();
+		return block;
+	}
+
+	private void copy(long sourceOffset,int length,ByteBuffer target,int targetOffset) throws IOException {
+		final ByteBuffer slice = target.duplicate();
+		slice.limit( targetOffset + length ).position( targetOffset );
+		readFully( slice , sourceOffset );
+	}
+
+	/**
+	 * Closes the file and releases the index , this 
+	 * instance must not be used afterwards.
+	 */
+	public synchronized void close() {
+		closeChannel();
+		index.clear();
+		liveRows = 0;
+		deadRows = 0;
+		validLength = 0;
+	}
+
+	private void closeChannel() {
+		if ( channel == null ) {
+			return;
+		}
+		try {
+			channel.close();
+		} 
+		catch (IOException e) {
+			log.warn("closeChannel(): Failed to close "+file.getAbsolutePath(),e);
+		} finally {
+			channel = null;
+		}
+	}
+
+	private static byte toCode(Type type) {
+		switch( type ) {
+			case BUY:
+				return 1;
+			case SELL:
+				return 2;
+			case ANY:
+				return 3;
+			default:
+				throw new RuntimeException("Unhandled order type "+type);
+		}
+	}
+
+	private static Type toOrderType(byte code) {
+		switch( code ) {
+			case 1:
+				return Type.BUY;
+			case 2:
+				return Type.SELL;
+			case 3:
+				return Type.ANY;
+			default:
+				throw new RuntimeException("Unknown order type code "+code);
+		}
+	}
+
+	private static byte toCode(Source source) {
+		switch( source ) {
+			case USER_PROVIDED:
+				return 1;
+			case EVE_CENTRAL:
+				return 2;
+			case MARKET_LOG:
+				return 3;
+			default:
+				throw new RuntimeException("Unhandled source "+source);
+		}
+	}
+
+	private static Source toSource(byte code) {
+		switch( code ) {
+			case 1:
+				return Source.USER_PROVIDED;
+			case 2:
+				return Source.EVE_CENTRAL;
+			case 3:
+				return Source.MARKET_LOG;
+			default:
+				throw new RuntimeException("Unknown source code "+code);
+		}
+	}
+}
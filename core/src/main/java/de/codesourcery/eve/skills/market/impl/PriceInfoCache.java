@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
 
@@ -38,6 +39,18 @@ import de.codesourcery.eve.skills.market.MarketFilter;
  * Cache that holds inventory type price information
  * for all <code>Region</code>s.
  * 
+ * <pre>
+ * Each item's prices are published as an immutable
+ * {@link PriceSnapshot} through a volatile field , writers 
+ * update the (mutable) price list under the item's lock and
+ * discard the snapshot. The snapshot is rebuilt by the 
+ * first read after a change , so storing many prices
+ * one by one does not rebuild it for every price. 
+ * 
+ * Readers never wait for the item's lock , the first read 
+ * after a change only synchronizes on the price list itself.
+ * </pre>
+ * 
  * @author tobias.gierke@code-sourcery.de
  */
 class PriceInfoCache {
@@ -45,19 +58,78 @@ class PriceInfoCache {
 	public static final Logger log = Logger.getLogger(PriceInfoCache.class);
 
 	// Map<Region,Map<InventoryType#getId(),CacheEntry>
-	protected final Map<Region,Map<Long,CacheEntry>> cache =
-		new ConcurrentHashMap<Region,Map<Long,CacheEntry>>();
+	protected final ConcurrentMap<Region,ConcurrentMap<Long,CacheEntry>> cache =
+		new ConcurrentHashMap<Region,ConcurrentMap<Long,CacheEntry>>();
+
+	/**
+	 * Immutable view of an item's prices.
+	 */
+	protected static final class PriceSnapshot {
+
+		public static final PriceSnapshot EMPTY = 
+			new PriceSnapshot( Collections.<PriceInfo>emptyList() , null , null );
+
+		// latest entries come first
+		private final List<PriceInfo> prices;
+		private final PriceInfo latestBuyPrice;
+		private final PriceInfo latestSellPrice;
+
+		public PriceSnapshot(List<PriceInfo> prices,PriceInfo latestBuyPrice,PriceInfo latestSellPrice) {
+			this.prices = prices;
+			this.latestBuyPrice = latestBuyPrice;
+			this.latestSellPrice = latestSellPrice;
+		}
+
+		public List<PriceInfo> getPrices() {
+			return prices;
+		}
+
+		public boolean isEmpty() {
+			return prices.isEmpty();
+		}
+
+		public List<PriceInfo> getLatestPriceInfos(Type requestedType) {
+
+			final PriceInfo buyPrice = requestedType.matches( Type.BUY ) ? latestBuyPrice : null;
+			final PriceInfo sellPrice = requestedType.matches( Type.SELL ) ? latestSellPrice : null;
+
+			if ( buyPrice == null && sellPrice == null ) {
+				return Collections.emptyList();
+			}
+
+			final List<PriceInfo> result = new ArrayList<PriceInfo>( 2 );
+			if ( buyPrice != null ) {
+				result.add( buyPrice );
+			}
+			if ( sellPrice != null ) {
+				result.add( sellPrice );
+			}
+			return result;
+		}
+
+		public List<PriceInfo> getPriceHistory(Type type) {
+
+			final List<PriceInfo> result = new ArrayList<PriceInfo>();
+			for ( PriceInfo info : prices ) {
+				if ( info.getPriceType().matches( type ) ) {
+					result.add( info );
+				}
+			}
+			return result;
+		}
+	}
 
 	protected class CacheEntry {
 
-		protected Long itemTypeId;
-		protected Region region;
+		protected final Long itemTypeId;
+		protected final Region region;
 
-		/*
-		 * hint: List entries are always sorted descending
-		 * by timestamp (latest entries come first).
-		 */
-		protected final SortedPriceList priceInfos = new SortedPriceList();
+		// modifications guarded-by: this
+		private final SortedPriceList priceInfos = new SortedPriceList();
+
+		// NULL if prices have been changed since the snapshot was created
+		// modifications guarded-by: priceInfos
+		private volatile PriceSnapshot snapshot = PriceSnapshot.EMPTY;
 
 		public CacheEntry(Long itemTypeId,Region region) {
 			if (itemTypeId == null) {
@@ -68,26 +140,40 @@ class PriceInfoCache {
 			this.region = region;
 		}
 
-		public synchronized InventoryType getItemType(IInventoryTypeDAO dao) {
-			if ( priceInfos.isEmpty() ) {
+		public PriceSnapshot getSnapshot() {
+			final PriceSnapshot result = snapshot;
+			if ( result != null ) {
+				return result;
+			}
+			synchronized( priceInfos ) {
+				if ( snapshot == null ) {
+					snapshot = createSnapshot();
+				}
+				return snapshot;
+			}
+		}
+
+		public InventoryType getItemType(IInventoryTypeDAO dao) {
+			final PriceSnapshot current = getSnapshot();
+			if ( current.isEmpty() ) {
 				return dao.fetch( itemTypeId );
 			}
-			return priceInfos.getItemType();
+			return current.getPrices().get(0).getItemType();
 		}
 
-		public synchronized List<PriceInfo> getPriceInfos() {
-			return priceInfos.getAllPrices();
+		public List<PriceInfo> getPriceInfos() {
+			return getSnapshot().getPrices();
 		}
 
-		public synchronized boolean isEmpty() {
-			return priceInfos.isEmpty();
+		public boolean isEmpty() {
+			return getSnapshot().isEmpty();
 		}
 
 		public List<PriceInfo> getLatestPriceInfos(Type requestedType) {
-			return priceInfos.getLatestPriceInfos( requestedType );
+			return getSnapshot().getLatestPriceInfos( requestedType );
 		}
 
-		public void addPriceInfo(PriceInfo info) {
+		public synchronized void addPriceInfo(PriceInfo info) {
 
 			if ( log.isDebugEnabled() ) {
 				log.debug("addPriceInfo(): Adding "+info);
@@ -105,7 +191,10 @@ class PriceInfoCache {
 				throw new IllegalArgumentException("Item type mismatch.");
 			}
 
-			priceInfos.store( info );
+			synchronized( priceInfos ) {
+				priceInfos.store( info );
+				snapshot = null;
+			}
 			
 			if ( log.isTraceEnabled() ) {
 				log.debug("addPriceInfo(): After store: "+priceInfos.getDebugString());
@@ -116,7 +205,7 @@ class PriceInfoCache {
 			if (filter == null) {
 				throw new IllegalArgumentException("filter cannot be NULL");
 			}
-			return priceInfos.getLatestPriceInfos( filter.getOrderType() );
+			return getSnapshot().getLatestPriceInfos( filter.getOrderType() );
 		}
 		
 		public List<PriceInfo> getPriceHistory(Type type) {
@@ -125,21 +214,36 @@ class PriceInfoCache {
 				throw new IllegalArgumentException("type cannot be NULL");
 			}
 			
-			return priceInfos.getPriceHistory( type );
+			return getSnapshot().getPriceHistory( type );
 		}	
 
-		public void addPriceInfos(Collection<PriceInfo> info) {
+		public synchronized void addPriceInfos(Collection<PriceInfo> info) {
 			if ( log.isDebugEnabled() ) {
 				log.debug("addPriceInfos(): Storing "+info.size()+" prices "+
 						" for item ID "+itemTypeId+" , region "+region.getName() );
 			}
-			this.priceInfos.store( info );
+			synchronized( priceInfos ) {
+				this.priceInfos.store( info );
+				snapshot = null;
+			}
 		}
 
 		public synchronized void evict(PriceInfo info) {
-			priceInfos.remove( info );
+			synchronized( priceInfos ) {
+				priceInfos.remove( info );
+				snapshot = null;
+			}
 		}
 
+		// caller must hold lock on priceInfos
+		private PriceSnapshot createSnapshot() {
+			if ( priceInfos.isEmpty() ) {
+				return PriceSnapshot.EMPTY;
+			} 
+			return new PriceSnapshot( priceInfos.getAllPrices() , 
+					priceInfos.getLatestPrice( Type.BUY ) , 
+					priceInfos.getLatestPrice( Type.SELL ) );
+		}
 	}
 
 	public Set<Region> getCachedRegions() {
@@ -165,6 +269,23 @@ class PriceInfoCache {
 		return result;
 	}
 
+	/**
+	 * Returns all prices of an item.
+	 * 
+	 * @param r
+	 * @param itemTypeId
+	 * @return prices (latest first) , empty list if nothing is cached
+	 */
+	public List<PriceInfo> getPriceInfos(Region r,Long itemTypeId) {
+
+		final Map<Long, CacheEntry> entries = getCacheEntriesForRegion( r );
+		final CacheEntry entry = entries != null ? entries.get( itemTypeId ) : null;
+		if ( entry == null ) {
+			return new ArrayList<PriceInfo>();
+		}
+		return entry.getPriceInfos();
+	}
+
 	public void clear() {
 		this.cache.clear();
 	}
@@ -173,15 +294,21 @@ class PriceInfoCache {
 		
 		CacheEntry entry = getCacheEntry(r, type);
 		if ( entry == null && createIfMissing) {
-			entry = new CacheEntry( type.getId() , r );
-			Map<Long, CacheEntry> map =
-				getCacheEntriesForRegion( r );
 
+			ConcurrentMap<Long, CacheEntry> map = getCacheEntriesForRegion( r );
 			if ( map == null ) {
-				map = new ConcurrentHashMap<Long, CacheEntry>();
-				storeCacheEntriesForRegion( r , map );
+				final ConcurrentMap<Long, CacheEntry> newMap = new ConcurrentHashMap<Long, CacheEntry>();
+				map = cache.putIfAbsent( r , newMap );
+				if ( map == null ) {
+					map = newMap;
+				}
+			}
+
+			final CacheEntry newEntry = new CacheEntry( type.getId() , r );
+			entry = map.putIfAbsent( type.getId() , newEntry );
+			if ( entry == null ) {
+				entry = newEntry;
 			}
-			map.put( type.getId() , entry );
 		}
 		return entry;
 	}
@@ -316,11 +443,7 @@ class PriceInfoCache {
 		return result;
 	}
 
-	protected void storeCacheEntriesForRegion(Region region , Map<Long, CacheEntry> entries) {
-		this.cache.put( region , entries );
-	}
-
-	protected Map<Long, CacheEntry> getCacheEntriesForRegion(Region region) {
+	protected ConcurrentMap<Long, CacheEntry> getCacheEntriesForRegion(Region region) {
 		return this.cache.get( region );
 	}
 
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.apiclient.utils.DefaultSystemClock;
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.Region;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Imports the per-item CSV files written by {@link FilePriceInfoStore}
+ * into the per-region column files used by {@link ColumnarPriceInfoStore}.
+ * 
+ * <pre>
+ * Usage: PriceInfoStoreMigration &lt;CSV base directory&gt; [&lt;target directory&gt;]
+ * 
+ * The CSV files are left untouched , regions that already 
+ * have a column file are skipped. If no target directory is
+ * given , the column files are created next to the CSV files.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class PriceInfoStoreMigration {
+
+	private static final Logger log = Logger.getLogger(PriceInfoStoreMigration.class);
+
+	private static final String CSV_SUFFIX = "_priceinfo.csv";
+
+	public static void main(String[] args) throws Exception {
+
+		if ( args.length < 1 || args.length > 2 ) {
+			System.err.println("Usage: PriceInfoStoreMigration <CSV base directory> [<target directory>]");
+			System.exit(1);
+		}
+
+		final File sourceDir = new File( args[0] );
+		final File targetDir = args.length > 1 ? new File( args[1] ) : sourceDir;
+
+		if ( ! sourceDir.isDirectory() ) {
+			System.err.println("Not a directory: "+sourceDir.getAbsolutePath() );
+			System.exit(1);
+		}
+
+		final int count = migrate( sourceDir , targetDir , new DefaultSystemClock() );
+		System.out.println("\nImported "+count+" prices.");
+	}
+
+	/**
+	 * Migrates a whole CSV tree.
+	 * 
+	 * @param sourceDir base directory of a {@link FilePriceInfoStore} 
+	 * @param targetDir base directory of the {@link ColumnarPriceInfoStore}
+	 * @param clock
+	 * @return number of prices imported
+	 * @throws IOException
+	 */
+	public static int migrate(File sourceDir,File targetDir,ISystemClock clock) throws IOException {
+
+		final File[] regionDirs = sourceDir.listFiles();
+		if ( regionDirs == null ) {
+			return 0;
+		}
+
+		int count = 0;
+		for ( File regionDir : regionDirs ) {
+
+			final Long regionId = parseId( regionDir.getName() );
+			if ( ! regionDir.isDirectory() || regionId == null ) {
+				continue;
+			}
+
+			final File targetFile = ColumnarPriceInfoStore.getColumnFile( targetDir , regionId );
+			if ( targetFile.exists() ) {
+				System.out.println("Skipping region "+regionId+" , "+targetFile.getAbsolutePath()+" already exists.");
+				continue;
+			}
+
+			System.out.print("Importing region "+regionId+" ...");
+			final PriceColumnFile columnFile = new PriceColumnFile( targetFile );
+			try {
+				final int imported = importRegion( regionDir , createRegion( regionId ) , columnFile , clock );
+				System.out.println(" "+imported+" prices.");
+				count += imported;
+			} finally {
+				columnFile.close();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Imports all CSV files of a region.
+	 * 
+	 * @param regionDir directory holding the CSV files
+	 * @param region
+	 * @param target column file to append to
+	 * @param clock
+	 * @return number of prices imported
+	 * @throws IOException
+	 */
+	static int importRegion(File regionDir,Region region,PriceColumnFile target,ISystemClock clock) throws IOException {
+
+		final File[] files = regionDir.listFiles();
+		if ( files == null ) {
+			return 0;
+		}
+
+		final Map<Long,List<PriceInfo>> pricesByItemId = new HashMap<Long,List<PriceInfo>>();
+		int count = 0;
+		for ( File file : files ) {
+
+			final String name = file.getName();
+			if ( ! file.isFile() || ! name.endsWith( CSV_SUFFIX ) ) {
+				continue;
+			}
+
+			final Long typeId = parseId( name.substring( 0 , name.length() - CSV_SUFFIX.length() ) );
+			if ( typeId == null ) {
+				continue;
+			}
+
+			final InventoryType type = new InventoryType();
+			type.setTypeId( typeId );
+
+			final List<PriceInfo> prices;
+			try {
+				prices = new PriceInfoFile( region , type , file ).load( clock );
+			} 
+			catch (ParseException e) {
+				throw new IOException("Parsing file "+file.getAbsolutePath()+" failed",e);
+			}
+
+			if ( ! prices.isEmpty() ) {
+				pricesByItemId.put( typeId , prices );
+				count += prices.size();
+			}
+		}
+
+		if ( log.isDebugEnabled() ) {
+			log.debug("importRegion(): Importing "+count+" prices for "+pricesByItemId.size()+
+					" items from "+regionDir.getAbsolutePath());
+		}
+
+		target.append( pricesByItemId );
+		return count;
+	}
+
+	private static Region createRegion(Long regionId) {
+		final Region region = new Region();
+		region.setID( regionId );
+		return region;
+	}
+
+	private static Long parseId(String s) {
+		try {
+			return Long.parseLong( s );
+		} 
+		catch(NumberFormatException e) {
+			return null;
+		}
+	}
+}
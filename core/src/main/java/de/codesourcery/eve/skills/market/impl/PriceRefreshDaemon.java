@@ -0,0 +1,480 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Source;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.Region;
+import de.codesourcery.eve.skills.exceptions.PriceInfoUnavailableException;
+import de.codesourcery.eve.skills.market.IMarketDataProvider;
+import de.codesourcery.eve.skills.market.IMarketDataProvider.IUpdateStrategy;
+import de.codesourcery.eve.skills.market.IMarketDataProvider.UpdateMode;
+import de.codesourcery.eve.skills.market.IPriceInfoStore;
+import de.codesourcery.eve.skills.market.IPriceQueryCallback;
+import de.codesourcery.eve.skills.market.MarketFilter;
+import de.codesourcery.eve.skills.market.MarketFilterBuilder;
+import de.codesourcery.eve.skills.market.PriceInfoQueryResult;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Refreshes the prices of a watch-set of items in the background , so
+ * that interactive price lookups are (almost always) served from the cache.
+ * 
+ * <pre>
+ * Every {@link #setRefreshIntervalMillis(long)} milliseconds , the daemon
+ * 
+ * - collects the watched items from all {@link IWatchedItemSource}s
+ * - looks up their cached buy / sell prices for the region returned by {@link #getRegion()}
+ * - picks items that the {@link UpdateMode} set with {@link #setUpdateMode(UpdateMode)} 
+ *   would update , plus items with eve-central prices that are going to be
+ *   outdated within the next {@link #setRefreshAheadMillis(long)} milliseconds
+ * - fetches prices for at most {@link #setMaxItemsPerRun(int)} of them , 
+ *   missing prices first , then ordered by the time they go stale.
+ * 
+ * Items whose prices are going to be outdated soon are updated using {@link UpdateMode#UPDATE_ALL} ,
+ * this is only done when none of their prices was provided by the user.
+ * 
+ * Items are not queried again within {@link #setMinRetryIntervalMillis(long)} milliseconds , 
+ * so items eve-central has no price for are not requested over and over. Nothing
+ * is fetched while the market data provider is in offline mode or 
+ * no region is available. The user is never asked to enter prices.
+ * </pre>
+ * 
+ * This class is thread-safe.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class PriceRefreshDaemon {
+
+	private static final Logger LOG = Logger.getLogger(PriceRefreshDaemon.class);
+
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 60 * 1000;
+
+	public static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+	public static final long DEFAULT_REFRESH_AHEAD_MILLIS = 2 * 60 * 60 * 1000;
+
+	public static final long DEFAULT_MIN_RETRY_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+	public static final int DEFAULT_MAX_ITEMS_PER_RUN = 500;
+
+	/**
+	 * Source of items whose prices should 
+	 * be kept up-to-date.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 * @see WatchedItemSources
+	 */
+	public interface IWatchedItemSource {
+
+		/**
+		 * Returns the items to watch.
+		 * 
+		 * Invoked on the daemon's thread.
+		 * 
+		 * @return items , never <code>null</code>
+		 */
+		public Collection<InventoryType> getWatchedItems();
+	}
+
+	/*
+	 * Prices unavailable on eve-central are simply
+	 * skipped , there's nobody to ask.
+	 */
+	private static final IPriceQueryCallback NO_USER_QUERIES = new IPriceQueryCallback() {
+
+		@Override
+		public List<PriceInfo> getPriceInfo(MarketFilter filter, String message, InventoryType item) 
+		{
+			return Collections.emptyList();
+		}
+	};
+
+	private static final Comparator<DueItem> STALEST_FIRST = new Comparator<DueItem>() {
+
+		@Override
+		public int compare(DueItem o1, DueItem o2) {
+			return o1.staleAt < o2.staleAt ? -1 : ( o1.staleAt > o2.staleAt ? 1 : 0 );
+		}
+	};
+
+	private static final class DueItem {
+
+		private final InventoryType item;
+		private final long staleAt;
+		private final boolean refreshAhead;
+
+		public DueItem(InventoryType item, long staleAt, boolean refreshAhead) {
+			this.item = item;
+			this.staleAt = staleAt;
+			this.refreshAhead = refreshAhead;
+		}
+	}
+
+	private final IMarketDataProvider marketDataProvider;
+	private final IPriceInfoStore priceInfoStore;
+	private final ISystemClock systemClock;
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private final List<IWatchedItemSource> sources = new CopyOnWriteArrayList<IWatchedItemSource>();
+
+	// key is item type ID , value is time of last refresh attempt
+	private final Map<Long,Long> lastAttempts = new ConcurrentHashMap<Long,Long>();
+
+	private volatile Region region;
+	private volatile UpdateMode updateMode = UpdateMode.DEFAULT;
+
+	private volatile long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+	private volatile long refreshIntervalMillis = DEFAULT_REFRESH_INTERVAL_MILLIS;
+	private volatile long refreshAheadMillis = DEFAULT_REFRESH_AHEAD_MILLIS;
+	private volatile long minRetryIntervalMillis = DEFAULT_MIN_RETRY_INTERVAL_MILLIS;
+	private volatile int maxItemsPerRun = DEFAULT_MAX_ITEMS_PER_RUN;
+
+	private final Runnable refreshTask = new Runnable() {
+
+		@Override
+		public void run()
+		{
+			try {
+				refresh();
+			} 
+			catch(Exception e) {
+				// must not escape , would cancel all future runs
+				LOG.error("run(): Refreshing prices failed",e);
+			}
+		}
+	};
+
+	public PriceRefreshDaemon(IMarketDataProvider marketDataProvider,IPriceInfoStore priceInfoStore,ISystemClock systemClock) 
+	{
+		if ( marketDataProvider == null ) {
+			throw new IllegalArgumentException("marketDataProvider cannot be NULL");
+		}
+		if ( priceInfoStore == null ) {
+			throw new IllegalArgumentException("priceInfoStore cannot be NULL");
+		}
+		if ( systemClock == null ) {
+			throw new IllegalArgumentException("systemClock cannot be NULL");
+		}
+		this.marketDataProvider = marketDataProvider;
+		this.priceInfoStore = priceInfoStore;
+		this.systemClock = systemClock;
+
+		this.executor = new ScheduledThreadPoolExecutor( 1 , new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread( r , "price-refresh" );
+				t.setDaemon( true );
+				t.setPriority( Thread.MIN_PRIORITY );
+				return t;
+			}
+		} );
+	}
+
+	/**
+	 * Starts refreshing prices periodically.
+	 */
+	public void start() 
+	{
+		LOG.info("start(): Refreshing prices every "+refreshIntervalMillis+" ms");
+		try {
+			executor.scheduleWithFixedDelay( refreshTask , initialDelayMillis , 
+					refreshIntervalMillis , TimeUnit.MILLISECONDS );
+		} 
+		catch(RejectedExecutionException e) {
+			// shutdown
+		}
+	}
+
+	/**
+	 * Stops refreshing prices , a running
+	 * refresh gets interrupted.
+	 */
+	public void shutdown() 
+	{
+		LOG.info("shutdown(): Called.");
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Refreshes prices as soon as possible ,
+	 * without waiting for the next scheduled run.
+	 */
+	public void refreshNow() 
+	{
+		try {
+			executor.execute( refreshTask );
+		} 
+		catch(RejectedExecutionException e) {
+			// shutdown
+		}
+	}
+
+	/**
+	 * Refreshes prices.
+	 * 
+	 * @return number of items prices were requested for
+	 * @throws PriceInfoUnavailableException
+	 */
+	protected int refresh() throws PriceInfoUnavailableException 
+	{
+		if ( marketDataProvider.isOfflineMode() ) {
+			LOG.debug("refresh(): Offline mode , not refreshing prices.");
+			return 0;
+		}
+
+		final Region currentRegion = getRegion();
+		if ( currentRegion == null ) {
+			LOG.debug("refresh(): No region , not refreshing prices.");
+			return 0;
+		}
+
+		final Collection<InventoryType> items = collectWatchedItems();
+		if ( items.isEmpty() ) {
+			return 0;
+		}
+
+		final UpdateMode mode = this.updateMode;
+		final MarketFilter filter = new MarketFilterBuilder( PriceInfo.Type.ANY , currentRegion ).updateMode( mode ).end();
+		final IUpdateStrategy strategy = marketDataProvider.createUpdateStrategy( mode , PriceInfo.Type.ANY );
+
+		final long now = systemClock.getCurrentTimeMillis();
+		final List<DueItem> dueItems = new ArrayList<DueItem>();
+		for ( InventoryType item : items ) 
+		{
+			final Long lastAttempt = lastAttempts.get( item.getId() );
+			if ( lastAttempt != null && ( now - lastAttempt ) < minRetryIntervalMillis ) {
+				continue;
+			}
+
+			final PriceInfoQueryResult cached = 
+				new PriceInfoQueryResult( item , priceInfoStore.get( filter , item ) );
+
+			final PriceInfo buyPrice = cached.hasBuyPrice() ? cached.buyPrice() : null;
+			final PriceInfo sellPrice = cached.hasSellPrice() ? cached.sellPrice() : null;
+
+			final long staleAt = getStaleAt( now , buyPrice , sellPrice );
+
+			if ( strategy.requiresUpdate( item , buyPrice ) || strategy.requiresUpdate( item , sellPrice ) ) {
+				dueItems.add( new DueItem( item , staleAt , false ) );
+			} 
+			else if ( isFromEveCentral( buyPrice ) && isFromEveCentral( sellPrice ) && staleAt - now <= refreshAheadMillis ) 
+			{
+				dueItems.add( new DueItem( item , staleAt , true ) );
+			}
+		}
+
+		if ( dueItems.isEmpty() ) {
+			if ( LOG.isDebugEnabled() ) {
+				LOG.debug("refresh(): Prices of all "+items.size()+" watched items are up-to-date.");
+			}
+			return 0;
+		}
+
+		Collections.sort( dueItems , STALEST_FIRST );
+
+		final List<InventoryType> outdated = new ArrayList<InventoryType>();
+		final List<InventoryType> refreshAhead = new ArrayList<InventoryType>();
+		for ( DueItem due : dueItems.subList( 0 , Math.min( dueItems.size() , maxItemsPerRun ) ) ) 
+		{
+			lastAttempts.put( due.item.getId() , now );
+			if ( due.refreshAhead ) {
+				refreshAhead.add( due.item );
+			} else {
+				outdated.add( due.item );
+			}
+		}
+
+		LOG.info("refresh(): Refreshing prices of "+outdated.size()+" outdated and "+
+				refreshAhead.size()+" soon outdated items ("+dueItems.size()+" of "+items.size()+" watched items due)");
+
+		fetch( filter , outdated );
+		fetch( new MarketFilterBuilder( PriceInfo.Type.ANY , currentRegion ).updateMode( UpdateMode.UPDATE_ALL ).end() , refreshAhead );
+
+		return outdated.size() + refreshAhead.size();
+	}
+
+	private void fetch(MarketFilter filter,List<InventoryType> items) throws PriceInfoUnavailableException 
+	{
+		if ( ! items.isEmpty() && ! Thread.currentThread().isInterrupted() ) {
+			marketDataProvider.getPriceInfos( filter , NO_USER_QUERIES , items.toArray( new InventoryType[ items.size() ] ) );
+		}
+	}
+
+	/*
+	 * Returns the time (local millis) when the first of 
+	 * two prices gets outdated , 0 if any of them is missing.
+	 */
+	private long getStaleAt(long now,PriceInfo buyPrice,PriceInfo sellPrice) 
+	{
+		if ( buyPrice == null || sellPrice == null ) {
+			return 0;
+		}
+		final long maxAge = Math.max( buyPrice.getTimestamp().getAgeInMillis( systemClock ) , 
+				sellPrice.getTimestamp().getAgeInMillis( systemClock ) );
+		return now - maxAge + PriceInfoQueryResult.REFRESH_AGE;
+	}
+
+	private static boolean isFromEveCentral(PriceInfo info) {
+		return info != null && info.getSource() == Source.EVE_CENTRAL;
+	}
+
+	private Collection<InventoryType> collectWatchedItems() 
+	{
+		final Map<Long,InventoryType> result = new LinkedHashMap<Long,InventoryType>();
+		for ( IWatchedItemSource source : sources ) 
+		{
+			final Collection<InventoryType> items;
+			try {
+				items = source.getWatchedItems();
+			} 
+			catch(RuntimeException e) {
+				LOG.error("collectWatchedItems(): Failed to get watched items from "+source,e);
+				continue;
+			}
+
+			for ( InventoryType item : items ) {
+				if ( ! result.containsKey( item.getId() ) ) {
+					result.put( item.getId() , item );
+				}
+			}
+		}
+		return result.values();
+	}
+
+	/**
+	 * Returns the region to refresh prices for.
+	 * 
+	 * @return region or <code>null</code> if none 
+	 * is available (yet)
+	 */
+	protected Region getRegion() {
+		return region;
+	}
+
+	public void setRegion(Region region) {
+		this.region = region;
+	}
+
+	public void addWatchedItemSource(IWatchedItemSource source) {
+		if ( source == null ) {
+			throw new IllegalArgumentException("source cannot be NULL");
+		}
+		sources.add( source );
+	}
+
+	public void removeWatchedItemSource(IWatchedItemSource source) {
+		if ( source == null ) {
+			throw new IllegalArgumentException("source cannot be NULL");
+		}
+		sources.remove( source );
+	}
+
+	public void setWatchedItemSources(List<IWatchedItemSource> sources) {
+		if ( sources == null ) {
+			throw new IllegalArgumentException("sources cannot be NULL");
+		}
+		for ( IWatchedItemSource source : sources ) {
+			addWatchedItemSource( source );
+		}
+	}
+
+	/**
+	 * Sets the update mode used to decide which
+	 * prices need to be refreshed.
+	 * 
+	 * @param updateMode
+	 */
+	public void setUpdateMode(UpdateMode updateMode) {
+		if ( updateMode == null ) {
+			throw new IllegalArgumentException("updateMode cannot be NULL");
+		}
+		this.updateMode = updateMode;
+	}
+
+	public void setInitialDelayMillis(long initialDelayMillis) {
+		if ( initialDelayMillis < 0 ) {
+			throw new IllegalArgumentException("initial delay must be >= 0");
+		}
+		this.initialDelayMillis = initialDelayMillis;
+	}
+
+	/**
+	 * Sets the delay between two refreshes , takes effect 
+	 * when the daemon gets started.
+	 * 
+	 * @param refreshIntervalMillis
+	 */
+	public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+		if ( refreshIntervalMillis <= 0 ) {
+			throw new IllegalArgumentException("refresh interval must be > 0");
+		}
+		this.refreshIntervalMillis = refreshIntervalMillis;
+	}
+
+	/**
+	 * Sets how long before getting outdated eve-central 
+	 * prices are refreshed.
+	 * 
+	 * @param refreshAheadMillis time in milliseconds , <code>0</code> to only refresh 
+	 * prices that are already outdated
+	 */
+	public void setRefreshAheadMillis(long refreshAheadMillis) {
+		if ( refreshAheadMillis < 0 ) {
+			throw new IllegalArgumentException("refresh-ahead time must be >= 0");
+		}
+		this.refreshAheadMillis = refreshAheadMillis;
+	}
+
+	/**
+	 * Sets the minimum time between two refreshes
+	 * of the same item.
+	 * 
+	 * @param minRetryIntervalMillis
+	 */
+	public void setMinRetryIntervalMillis(long minRetryIntervalMillis) {
+		if ( minRetryIntervalMillis < 0 ) {
+			throw new IllegalArgumentException("min. retry interval must be >= 0");
+		}
+		this.minRetryIntervalMillis = minRetryIntervalMillis;
+	}
+
+	public void setMaxItemsPerRun(int maxItemsPerRun) {
+		if ( maxItemsPerRun < 1 ) {
+			throw new IllegalArgumentException("max. items per run must be >= 1");
+		}
+		this.maxItemsPerRun = maxItemsPerRun;
+	}
+}
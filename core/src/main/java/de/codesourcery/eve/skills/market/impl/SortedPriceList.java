@@ -16,10 +16,18 @@
 package de.codesourcery.eve.skills.market.impl;
 
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 
@@ -27,16 +35,165 @@ import de.codesourcery.eve.skills.datamodel.PriceInfo;
 import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
 import de.codesourcery.eve.skills.db.datamodel.InventoryType;
 
+/**
+ * Price history of an item , holding at most
+ * one price per region , order type and day.
+ * 
+ * <pre>
+ * Prices are indexed by (region , order type) and day so
+ * storing a price (including replacing an older price
+ * from the same day) and looking up the latest price 
+ * takes O(log n). Each index is sorted by day , so the full
+ * (latest first) list is built by merging the indices instead 
+ * of sorting all prices.
+ * </pre>
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
 public final class SortedPriceList implements Iterable<PriceInfo> {
 
 	public static final Logger log = Logger.getLogger(SortedPriceList.class);
 	
+	private static final Comparator<PriceInfo> LATEST_FIRST = new Comparator<PriceInfo>() {
+
+		@Override
+		public int compare(PriceInfo o1, PriceInfo o2) {
+			if ( o1.isNewerThan( o2 ) ) {
+				return -1;
+			} 
+			if ( o2.isNewerThan( o1 ) ) {
+				return 1;
+			}
+			return 0;
+		}
+	};
+	
+	// guarded-by: this
+	private final Map<IndexKey,TreeMap<Integer,PriceInfo>> pricesByDay =
+		new HashMap<IndexKey,TreeMap<Integer,PriceInfo>>();
+	
+	// guarded-by: this
+	private final Set<PriceInfo> members = 
+		Collections.newSetFromMap( new IdentityHashMap<PriceInfo,Boolean>() );
+	
 	/*
 	 * hint: List entries are always sorted descending
 	 * by timestamp (latest entries come first).
+	 * 
+	 * Built lazily , NULL after the list has been modified.
 	 */
-	protected final List<PriceInfo> priceInfos =
-		new ArrayList<PriceInfo>();
+	// guarded-by: this
+	private List<PriceInfo> allPrices;
+	
+	// guarded-by: this
+	private final Calendar calendar = Calendar.getInstance();
+	
+	/**
+	 * Head of an (already sorted) price list that
+	 * takes part in a merge.
+	 */
+	private static final class MergeSource implements Comparable<MergeSource> {
+		
+		private final int index;
+		private final Iterator<PriceInfo> iterator;
+		private PriceInfo head;
+		
+		public MergeSource(int index,Iterator<PriceInfo> iterator) {
+			this.index = index;
+			this.iterator = iterator;
+			this.head = iterator.next();
+		}
+		
+		public boolean advance() {
+			if ( ! iterator.hasNext() ) {
+				return false;
+			}
+			head = iterator.next();
+			return true;
+		}
+
+		@Override
+		public int compareTo(MergeSource o) {
+			final int result = LATEST_FIRST.compare( this.head , o.head );
+			if ( result != 0 ) {
+				return result;
+			}
+			// keep prices with equal timestamps in list order
+			return this.index - o.index;
+		}
+	}
+	
+	/**
+	 * Merges price lists that are sorted 
+	 * latest-first.
+	 * 
+	 * @param lists sorted lists , latest prices first
+	 * @param result list to add merged prices to
+	 */
+	private static void mergeLatestFirst(List<Collection<PriceInfo>> lists,List<PriceInfo> result) {
+		
+		if ( lists.size() == 1 ) {
+			result.addAll( lists.get(0) );
+			return;
+		}
+		
+		final PriorityQueue<MergeSource> queue = 
+			new PriorityQueue<MergeSource>( Math.max( 1 , lists.size() ) );
+		
+		int index = 0;
+		for ( Collection<PriceInfo> list : lists ) {
+			if ( ! list.isEmpty() ) {
+				queue.add( new MergeSource( index++ , list.iterator() ) );
+			}
+		}
+		
+		MergeSource source;
+		while ( ( source = queue.poll() ) != null ) {
+			result.add( source.head );
+			if ( source.advance() ) {
+				queue.add( source );
+			}
+		}
+	}
+	
+	private static final class IndexKey {
+		
+		private final Long regionId;
+		private final Type type;
+		
+		public IndexKey(PriceInfo info) {
+			this.regionId = info.getRegion() != null ? info.getRegion().getID() : null;
+			this.type = info.getPriceType();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if ( ! ( obj instanceof IndexKey ) ) {
+				return false;
+			}
+			final IndexKey other = (IndexKey) obj;
+			if ( this.type != other.type ) {
+				return false;
+			}
+			return regionId != null ? regionId.equals( other.regionId ) : other.regionId == null;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * type.hashCode() + ( regionId != null ? regionId.hashCode() : 0 );
+		}
+	}
+	
+	/**
+	 * Returns a sortable number for the (local) day 
+	 * of a price , see {@link PriceInfo#isFromSameDayAs(PriceInfo)}.
+	 */
+	private int getDay(PriceInfo info) {
+		calendar.setTime( info.getTimestamp().getLocalTime() );
+		return calendar.get( Calendar.YEAR ) * 10000 + 
+			calendar.get( Calendar.MONTH ) * 100 + 
+			calendar.get( Calendar.DAY_OF_MONTH );
+	}
 
 	public synchronized void store(PriceInfo changedData) {
 		
@@ -44,61 +201,42 @@ public final class SortedPriceList implements Iterable<PriceInfo> {
 			throw new IllegalArgumentException("info cannot be NULL");
 		}
 		
-		if ( priceInfos.isEmpty() ) {
-			if ( log.isTraceEnabled() ) {
-				log.trace("store(): [ empty list ] Adding priceinfo "+changedData);
-			}			
-			priceInfos.add( changedData );
-			return;
+		if ( members.contains( changedData ) ) {
+			return; // already in list
 		}
 		
-		int index=-1;
-		for ( PriceInfo existing : priceInfos ) 
-		{
-			index++;
-			
-			if ( existing == changedData ) {
-				return; // already in list
-			}
-
-			if ( ! existing.hasType( changedData.getPriceType() ) || 
-				 ! existing.hasRegion( changedData.getRegion() ) )
-			{
+		final IndexKey key = new IndexKey( changedData );
+		TreeMap<Integer,PriceInfo> prices = pricesByDay.get( key );
+		if ( prices == null ) {
+			prices = new TreeMap<Integer,PriceInfo>();
+			pricesByDay.put( key , prices );
+		}
+		
+		final Integer day = getDay( changedData );
+		final PriceInfo existing = prices.get( day );
+		if ( existing != null ) {
+			// replace existing entry from same day - 
+			// we don't keep more than 1 price per day for an item
+			if ( ! changedData.isNewerThan( existing ) ) {
 				if ( log.isTraceEnabled() ) {
-					log.trace("store(): Not matched: "+existing);
-				}				
-				continue;
-			}
-
-			if ( existing.isFromSameDayAs( changedData ) ) {
-				// replace existing entry from same day - 
-				// we don't keep more than 1 price per day for an item
-				if ( changedData.isNewerThan( existing ) ) {
-					if ( log.isTraceEnabled() ) {
-						log.trace("store(): [ replace at index "+index+" ] existing = "+existing+", other ="+changedData);
-					}					
-					priceInfos.remove(index);
-					priceInfos.add( index , changedData );
-				} else if ( log.isTraceEnabled() ) {
 					log.trace("store(): [ entry not added ] existing = "+existing+", other ="+changedData);
 				}
 				return;
-			} else if ( changedData.isNewerThan( existing ) ) {
-				if ( log.isTraceEnabled() ) {
-					log.trace("store(): [ inserted at index "+index+" ] existing = "+existing+", other ="+changedData);
-				}						
-				priceInfos.add( index , changedData );
-				return;
-			} 
+			}
+			if ( log.isTraceEnabled() ) {
+				log.trace("store(): [ replace ] existing = "+existing+", other ="+changedData);
+			}
+			members.remove( existing );
+		} else if ( log.isTraceEnabled() ) {
+			log.trace("store(): [ added ] price ="+changedData);
 		}
 		
-		if ( log.isTraceEnabled() ) {
-			log.trace("store(): [ added at end of list ] price ="+changedData);
-		}		
-		priceInfos.add( changedData );
+		prices.put( day , changedData );
+		members.add( changedData );
+		allPrices = null;
 	}
 	
-	public synchronized boolean isEmpty() { return priceInfos.isEmpty(); }
+	public synchronized boolean isEmpty() { return members.isEmpty(); }
 	
 	protected synchronized PriceInfo getLatestPrice(PriceInfo.Type type) {
 		
@@ -106,14 +244,19 @@ public final class SortedPriceList implements Iterable<PriceInfo> {
 			throw new IllegalArgumentException("Unsupported price info type requested: "+type);
 		}
 		
-		for ( PriceInfo info : priceInfos ) {
-			if ( info.hasType( type ) ) {
-				return info;
+		PriceInfo result = null;
+		for ( Map.Entry<IndexKey,TreeMap<Integer,PriceInfo>> entry : pricesByDay.entrySet() ) {
+			if ( entry.getKey().type != type || entry.getValue().isEmpty() ) {
+				continue;
+			}
+			final PriceInfo latest = entry.getValue().lastEntry().getValue();
+			if ( result == null || latest.isNewerThan( result ) ) {
+				result = latest;
 			}
 		}
-		return null;
+		return result;
 	}
-	
+
 	public synchronized List<PriceInfo> getLatestPriceInfos(Type requestedType) {
 
 		PriceInfo buyPrice = null;
@@ -157,7 +300,16 @@ public final class SortedPriceList implements Iterable<PriceInfo> {
 	}
 	
 	public synchronized List<PriceInfo> getAllPrices() {
-		return Collections.unmodifiableList( priceInfos ); 
+		if ( allPrices == null ) {
+			final List<Collection<PriceInfo>> lists = new ArrayList<Collection<PriceInfo>>( pricesByDay.size() );
+			for ( TreeMap<Integer,PriceInfo> prices : pricesByDay.values() ) {
+				lists.add( prices.descendingMap().values() );
+			}
+			final List<PriceInfo> result = new ArrayList<PriceInfo>( members.size() );
+			mergeLatestFirst( lists , result );
+			allPrices = Collections.unmodifiableList( result );
+		}
+		return allPrices; 
 	}
 
 	public synchronized void store(Collection<PriceInfo> infos) {
@@ -173,14 +325,14 @@ public final class SortedPriceList implements Iterable<PriceInfo> {
 
 	@Override
 	public synchronized Iterator<PriceInfo> iterator() {
-		return Collections.unmodifiableList( new ArrayList<PriceInfo>( this.priceInfos ) ).iterator(); 
+		return getAllPrices().iterator(); 
 	}
 
 	public synchronized InventoryType getItemType() {
 		if ( isEmpty() ) {
 			throw new IllegalStateException("getItemType() called although list is empty ?");
 		}
-		return priceInfos.get(0).getItemType();
+		return members.iterator().next().getItemType();
 	}
 
 	public synchronized void remove(PriceInfo info) {
@@ -193,10 +345,24 @@ public final class SortedPriceList implements Iterable<PriceInfo> {
 			log.debug("remove(): Removing "+info);
 		}
 		
-		for ( Iterator<PriceInfo> it = priceInfos.iterator() ; it.hasNext() ; ) {
-			if ( it.next() == info ) {
-				it.remove();
-				break;
+		if ( ! members.remove( info ) ) {
+			return;
+		}
+		allPrices = null;
+		
+		final TreeMap<Integer,PriceInfo> prices = pricesByDay.get( new IndexKey( info ) );
+		if ( prices != null ) {
+			final Integer day = getDay( info );
+			if ( prices.get( day ) == info ) {
+				prices.remove( day );
+				return;
+			}
+		}
+		
+		// timestamp , region or type have been changed after the price was stored
+		for ( TreeMap<Integer,PriceInfo> map : pricesByDay.values() ) {
+			if ( map.values().remove( info ) ) {
+				return;
 			}
 		}
 	}
@@ -206,20 +372,25 @@ public final class SortedPriceList implements Iterable<PriceInfo> {
 		final ArrayList<PriceInfo> result = 
 			new ArrayList<PriceInfo>();
 		
-		for ( PriceInfo info : priceInfos ) {
-			if ( info.getPriceType().matches( type ) ) {
-				result.add( info );
+		final List<Collection<PriceInfo>> lists = new ArrayList<Collection<PriceInfo>>();
+		for ( Map.Entry<IndexKey,TreeMap<Integer,PriceInfo>> entry : pricesByDay.entrySet() ) {
+			if ( entry.getKey().type.matches( type ) && ! entry.getValue().isEmpty() ) {
+				lists.add( entry.getValue().descendingMap().values() );
 			}
 		}
+		
+		if ( ! lists.isEmpty() ) {
+			mergeLatestFirst( lists , result );
+		}
 		return result;
 	}
 
 	synchronized String getDebugString() {
 		
 		final StringBuilder stringBuilder = new StringBuilder();
-		for ( PriceInfo info : priceInfos ) {
+		for ( PriceInfo info : getAllPrices() ) {
 			stringBuilder.append( info.toString() ).append("\n");
 		}
 		return stringBuilder.toString();
 	}
-}
\ No newline at end of file
+}
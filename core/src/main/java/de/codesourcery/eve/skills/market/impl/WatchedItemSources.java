@@ -0,0 +1,201 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import de.codesourcery.eve.skills.accountdata.IUserAccountStore;
+import de.codesourcery.eve.skills.assets.IAssetManager;
+import de.codesourcery.eve.skills.datamodel.AssetList;
+import de.codesourcery.eve.skills.datamodel.Blueprint;
+import de.codesourcery.eve.skills.datamodel.ICharacter;
+import de.codesourcery.eve.skills.datamodel.RequiredMaterial;
+import de.codesourcery.eve.skills.datamodel.Requirements;
+import de.codesourcery.eve.skills.datamodel.ShoppingList;
+import de.codesourcery.eve.skills.datamodel.ShoppingList.ShoppingListEntry;
+import de.codesourcery.eve.skills.datamodel.UserAccount;
+import de.codesourcery.eve.skills.db.datamodel.Activity;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.market.impl.PriceRefreshDaemon.IWatchedItemSource;
+import de.codesourcery.eve.skills.production.BlueprintWithAttributes;
+import de.codesourcery.eve.skills.production.IBlueprintLibrary;
+import de.codesourcery.eve.skills.production.ShoppingListManager;
+import de.codesourcery.eve.skills.util.Misc;
+
+/**
+ * {@link IWatchedItemSource} implementations for 
+ * the items a user is most likely to look up prices for.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public final class WatchedItemSources {
+
+	private WatchedItemSources() {
+	}
+
+	/**
+	 * Collects items on the EDT , for data 
+	 * that is only modified there or may be lazily
+	 * fetched by Hibernate.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	private static abstract class EventThreadSource implements IWatchedItemSource {
+
+		@Override
+		public final Collection<InventoryType> getWatchedItems()
+		{
+			final List<InventoryType> result = new ArrayList<InventoryType>();
+			Misc.runOnEventThread( new Runnable() {
+
+				@Override
+				public void run() {
+					collectItems( result );
+				}
+			} );
+			return result;
+		}
+
+		protected abstract void collectItems(List<InventoryType> result);
+	}
+
+	/**
+	 * Items on any shopping list.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static class ShoppingListItems extends EventThreadSource {
+
+		private final ShoppingListManager shoppingListManager;
+
+		public ShoppingListItems(ShoppingListManager shoppingListManager) {
+			if ( shoppingListManager == null ) {
+				throw new IllegalArgumentException("shoppingListManager cannot be NULL");
+			}
+			this.shoppingListManager = shoppingListManager;
+		}
+
+		@Override
+		protected void collectItems(List<InventoryType> result)
+		{
+			for ( ShoppingList list : shoppingListManager.getEntries() ) {
+				for ( ShoppingListEntry entry : list ) {
+					result.add( entry.getType() );
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "shopping lists";
+		}
+	}
+
+	/**
+	 * Products and manufacturing materials of all 
+	 * blueprints in the blueprint library.
+	 * 
+	 * Production templates are created from blueprints , so this
+	 * covers the items cost statements ask for.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static class BlueprintMaterials extends EventThreadSource {
+
+		private final IBlueprintLibrary blueprintLibrary;
+
+		public BlueprintMaterials(IBlueprintLibrary blueprintLibrary) {
+			if ( blueprintLibrary == null ) {
+				throw new IllegalArgumentException("blueprintLibrary cannot be NULL");
+			}
+			this.blueprintLibrary = blueprintLibrary;
+		}
+
+		@Override
+		protected void collectItems(List<InventoryType> result)
+		{
+			for ( BlueprintWithAttributes bp : blueprintLibrary.getBlueprints() ) 
+			{
+				final Blueprint blueprint = bp.getBlueprint();
+				result.add( blueprint.getProductType() );
+
+				final Requirements requirements = blueprint.getRequirementsFor( Activity.MANUFACTURING );
+				for ( RequiredMaterial material : requirements.getRequiredMaterials() ) {
+					result.add( material.getType() );
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "blueprint library";
+		}
+	}
+
+	/**
+	 * Types of all assets owned by any character.
+	 * 
+	 * Only assets that have already been fetched are considered ,
+	 * nothing is returned while the user account store is locked.
+	 * 
+	 * @author tobias.gierke@code-sourcery.de
+	 */
+	public static class AssetTypes implements IWatchedItemSource {
+
+		private final IAssetManager assetManager;
+		private final IUserAccountStore userAccountStore;
+
+		public AssetTypes(IAssetManager assetManager,IUserAccountStore userAccountStore) {
+			if ( assetManager == null ) {
+				throw new IllegalArgumentException("assetManager cannot be NULL");
+			}
+			if ( userAccountStore == null ) {
+				throw new IllegalArgumentException("userAccountStore cannot be NULL");
+			}
+			this.assetManager = assetManager;
+			this.userAccountStore = userAccountStore;
+		}
+
+		@Override
+		public Collection<InventoryType> getWatchedItems()
+		{
+			final List<InventoryType> result = new ArrayList<InventoryType>();
+			if ( userAccountStore.isLocked() ) {
+				return result;
+			}
+
+			for ( UserAccount account : userAccountStore.getAccounts() ) 
+			{
+				for ( ICharacter character : account.getCharacters() ) 
+				{
+					// assets are fetched by the UI , don't trigger API requests here
+					final AssetList assets = assetManager.getCachedAssets( character );
+					if ( assets != null ) {
+						result.addAll( assets.getInventoryTypes() );
+					}
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "assets";
+		}
+	}
+}
@@ -16,21 +16,26 @@
 package de.codesourcery.eve.skills.production.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
 import de.codesourcery.eve.skills.accountdata.IUserAccountChangeListener;
 import de.codesourcery.eve.skills.accountdata.IUserAccountStore;
 import de.codesourcery.eve.skills.accountdata.UserAccountChangeListenerAdapter;
+import de.codesourcery.eve.skills.assets.AssetDelta;
 import de.codesourcery.eve.skills.assets.IAssetManager;
 import de.codesourcery.eve.skills.assets.IAssetManager.IAssetChangeListener;
+import de.codesourcery.eve.skills.assets.IAssetManager.IAssetDeltaListener;
 import de.codesourcery.eve.skills.datamodel.Asset;
 import de.codesourcery.eve.skills.datamodel.AssetList;
 import de.codesourcery.eve.skills.datamodel.Blueprint;
@@ -81,7 +86,7 @@ public class InMemoryBlueprintLibrary implements IBlueprintLibrary
 	};
 
 	private final IAssetChangeListener assetChangeListener =
-		new IAssetChangeListener() {
+		new IAssetDeltaListener() {
 
 		@Override
 		public void assetsChanged(ICharacter character)
@@ -89,6 +94,11 @@ public class InMemoryBlueprintLibrary implements IBlueprintLibrary
 			InMemoryBlueprintLibrary.this.assetsChanged( character );
 		}
 
+		@Override
+		public void assetsChanged(ICharacter character, AssetDelta delta)
+		{
+			InMemoryBlueprintLibrary.this.assetsChanged( character , delta );
+		}
 	};
 
 	protected final IStaticDataModel getDataModel() {
@@ -320,6 +330,154 @@ public class InMemoryBlueprintLibrary implements IBlueprintLibrary
 		}
 
 		public void assetsChanged(ICharacter character)
+		{
+			syncWithAssets( character , assetManager.getAssets( character ) );
+		}
+
+		/**
+		 * Updates the 'found in assets' flags using only
+		 * the assets that were added / removed since the last 
+		 * notification.
+		 * 
+		 * @param character
+		 * @param delta
+		 */
+		public void assetsChanged(ICharacter character,AssetDelta delta)
+		{
+			if ( delta.isInitialSnapshot() ) {
+				syncWithAssets( character , delta.getCurrent() );
+				return;
+			}
+
+			final Map<Long,Asset> addedBlueprints = new HashMap<Long, Asset>();
+			for ( Asset a : delta.getAdded() ) {
+				if ( a.getType().isBlueprint() ) {
+					addedBlueprints.put( a.getType().getId() , a );
+				}
+			}
+
+			final Set<Long> removedBlueprintTypes = new HashSet<Long>();
+			for ( Asset a : delta.getRemoved() ) {
+				if ( a.getType().isBlueprint() && ! addedBlueprints.containsKey( a.getType().getId() ) ) {
+					removedBlueprintTypes.add( a.getType().getId() );
+				}
+			}
+
+			if ( addedBlueprints.isEmpty() && removedBlueprintTypes.isEmpty() ) {
+				if ( log.isDebugEnabled() ) {
+					log.debug("assetsChanged(): [ "+character.getName()+" ] no blueprints added/removed , "+delta);
+				}
+				return;
+			}
+
+			// other copies of a removed blueprint may still be around
+			if ( ! removedBlueprintTypes.isEmpty() ) {
+				for ( Asset a : delta.getCurrent().getAssets( true ) ) {
+					if ( removedBlueprintTypes.remove( a.getType().getId() ) && removedBlueprintTypes.isEmpty() ) {
+						break;
+					}
+				}
+			}
+
+			final List<BlueprintWithAttributesImpl> newlyAdded =
+				new ArrayList<BlueprintWithAttributesImpl> ();
+
+			final List<BlueprintWithAttributesImpl> updatedBlueprints =
+				new ArrayList<BlueprintWithAttributesImpl>();
+
+			final Map<Long,Asset> newBlueprints =
+				new HashMap<Long, Asset>();
+
+			synchronized( CACHE_LOCK ) 
+			{
+				for ( Asset a : addedBlueprints.values() ) {
+					markFoundInAssets( character , a , newBlueprints , updatedBlueprints );
+				}
+
+				final Map<Long, BlueprintWithAttributesImpl> map = 
+					blueprintsByCharacter.get( character.getCharacterId() );
+
+				if ( map != null ) {
+					for ( Long typeId : removedBlueprintTypes ) {
+						final BlueprintWithAttributesImpl knownBlueprint = map.get( typeId );
+						if ( knownBlueprint != null && knownBlueprint.isFoundInAssets() ) {
+							knownBlueprint.setFoundInAssets( false );
+							updatedBlueprints.add( knownBlueprint );
+						}
+					}
+				}
+
+				addNewBlueprints( character , newBlueprints.values() , newlyAdded );
+			}
+
+			notifyListeners( newlyAdded , updatedBlueprints , new ArrayList<BlueprintWithAttributesImpl>() );
+		}
+
+		// guarded-by: CACHE_LOCK
+		private void markFoundInAssets(ICharacter character,
+				Asset a,
+				Map<Long,Asset> newBlueprints,
+				List<BlueprintWithAttributesImpl> updatedBlueprints) 
+		{
+			final Map<CharacterID, BlueprintWithAttributesImpl> knownBlueprints = 
+				blueprintsByType.get( a.getType().getId() );
+
+			if ( knownBlueprints == null ) {
+				newBlueprints.put( a.getType().getId() , a );
+				return;
+			}
+
+			final BlueprintWithAttributesImpl knownBlueprint= 
+				knownBlueprints.get( character.getCharacterId() );
+
+			if ( knownBlueprint == null ) {
+				if ( log.isDebugEnabled() ) {
+					log.debug("assetsChanged(): [ "+character.getName()+" ] new blueprint: "+a.getType().getName() );
+				}
+				newBlueprints.put( a.getType().getId() , a );
+				return;
+			}
+
+			if ( ! knownBlueprint.isFoundInAssets() ) {
+				if ( log.isDebugEnabled() ) {
+					log.debug("assetsChanged(): [ "+character.getName()+" ] "+
+							knownBlueprint.getBlueprint().getType().getBlueprintType().getName()
+							+" changes 'isFoundInAssets' false -> true");
+				}
+				knownBlueprint.setFoundInAssets( true );
+				updatedBlueprints.add( knownBlueprint );
+			}
+		}
+
+		// guarded-by: CACHE_LOCK
+		private void addNewBlueprints(ICharacter character,
+				Collection<Asset> newBlueprints,
+				List<BlueprintWithAttributesImpl> newlyAdded) 
+		{
+			for ( Asset newBlueprint : newBlueprints ) {
+
+				final BlueprintWithAttributesImpl bp =
+					new BlueprintWithAttributesImpl( character.getCharacterId(),
+							newBlueprint.getType().getId(),
+							0,
+							0,
+							true);
+
+				/*
+				 * Do NOT call addBlueprint() from here ,
+				 * addBlueprint() calls BlueprintWithAttributesImpl#getBlueprint()
+				 * which tries to lazily fetch the associated InventoryType
+				 * (which we already know about anyway) 
+				 * and this code might NOT be currently running 
+				 * on the EDT (and this is a no-go since the
+				 * Hibernate Session needs to be confined to the EDT).
+				 */
+				internalAddBlueprint( bp , newBlueprint.getType() );
+				newlyAdded.add( bp );
+			}
+		}
+
+		private void syncWithAssets(ICharacter character,AssetList allAssets)
 		{
 
 			log.info("assetsChanged(): Syncing blueprints with assets of "+character.getName() );
@@ -330,7 +488,6 @@ public class InMemoryBlueprintLibrary implements IBlueprintLibrary
 			final List<BlueprintWithAttributesImpl> updatedBlueprints =
 				new ArrayList<BlueprintWithAttributesImpl>();
 
-			final AssetList allAssets = assetManager.getAssets( character );
 			log.info("assetsChanged(): "+character.getName()+" has "+allAssets.size()+" assets.");
 			
 			final AssetList mergedAssets = 
@@ -355,35 +512,7 @@ public class InMemoryBlueprintLibrary implements IBlueprintLibrary
 					}
 
 					blueprintsFromAssets.put( a.getType().getId() , a );
-
-					final Map<CharacterID, BlueprintWithAttributesImpl> knownBlueprints = 
-						blueprintsByType.get( a.getType().getId() );
-
-					if ( knownBlueprints == null ) {
-						newBlueprints.put( a.getType().getId() , a );
-						continue;
-					}
-
-					final BlueprintWithAttributesImpl knownBlueprint= 
-						knownBlueprints.get( character.getCharacterId() );
-
-					if ( knownBlueprint == null ) {
-						if ( log.isDebugEnabled() ) {
-							log.debug("assetsChanged(): [ "+character.getName()+" ] new blueprint: "+a.getType().getName() );
-						}
-						newBlueprints.put( a.getType().getId() , a );
-						continue;
-					}
-
-					if ( ! knownBlueprint.isFoundInAssets() ) {
-						if ( log.isDebugEnabled() ) {
-							log.debug("assetsChanged(): [ "+character.getName()+" ] "+
-									knownBlueprint.getBlueprint().getType().getBlueprintType().getName()
-									+" changes 'isFoundInAssets' false -> true");
-						}
-						knownBlueprint.setFoundInAssets( true );
-						updatedBlueprints.add( knownBlueprint );
-					}
+					markFoundInAssets( character , a , newBlueprints , updatedBlueprints );
 				}
 
 				// clears 'foundInAssets' flag for all blueprints we know about
@@ -408,27 +537,7 @@ public class InMemoryBlueprintLibrary implements IBlueprintLibrary
 				}
 
 				// add new blueprints we didn't know about before
-				for ( Asset newBlueprint : newBlueprints.values() ) {
-
-					final BlueprintWithAttributesImpl bp =
-						new BlueprintWithAttributesImpl( character.getCharacterId(),
-								newBlueprint.getType().getId(),
-								0,
-								0,
-								true);
-
-					/*
-					 * Do NOT call addBlueprint() from here ,
-					 * addBlueprint() calls BlueprintWithAttributesImpl#getBlueprint()
-					 * which tries to lazily fetch the associated InventoryType
-					 * (which we already know about anyway) 
-					 * and this code might NOT be currently running 
-					 * on the EDT (and this is a no-go since the
-					 * Hibernate Session needs to be confined to the EDT).
-					 */
-					internalAddBlueprint( bp , newBlueprint.getType() );
-					newlyAdded.add( bp );
-				}
+				addNewBlueprints( character , newBlueprints.values() , newlyAdded );
 			} // end of synchronized block
 
 			// notify listeners
@@ -530,6 +639,14 @@ public class InMemoryBlueprintLibrary implements IBlueprintLibrary
 		getCache().assetsChanged( character );
 	}
 
+	protected void assetsChanged(ICharacter character,AssetDelta delta)
+	{
+		if ( log.isDebugEnabled() ) {
+			log.debug("assetsChanged(): character "+character.getCharacterId()+" , "+delta);
+		}
+		getCache().assetsChanged( character , delta );
+	}
+
 	protected List<Asset> findBlueprint(ICharacter character, Blueprint blueprint) {
 
 		List<Asset> results =
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.accountdata;
+
+import static org.easymock.EasyMock.*;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.easymock.IAnswer;
+
+import de.codesourcery.eve.apiclient.IAPIClient;
+import de.codesourcery.eve.apiclient.ICredentialsProvider;
+import de.codesourcery.eve.apiclient.InternalAPIResponse;
+import de.codesourcery.eve.apiclient.datamodel.APIResponse;
+import de.codesourcery.eve.apiclient.datamodel.Credentials;
+import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
+import de.codesourcery.eve.apiclient.exceptions.APIUnavailableException;
+import de.codesourcery.eve.skills.datamodel.Character;
+import de.codesourcery.eve.skills.datamodel.CharacterID;
+import de.codesourcery.eve.skills.datamodel.ICharacter;
+import de.codesourcery.eve.skills.datamodel.UserAccount;
+import de.codesourcery.eve.skills.utils.MockSystemClock;
+
+public class MemoryUserAccountStoreTest extends TestCase {
+
+	private static final Date LAST_UPDATE = new Date( 123456789L );
+
+	private MemoryUserAccountStore store;
+	private IAPIClient client;
+	private Character char1;
+	private Character char2;
+	private Character char3;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		char1 = new Character( "char1" , new CharacterID( "1" ) );
+		char2 = new Character( "char2" , new CharacterID( "2" ) );
+		char3 = new Character( "char3" , new CharacterID( "3" ) );
+
+		final UserAccount account1 = new UserAccount( "account1" , new Credentials( 1 ) );
+		account1.addCharacter( char1 );
+		account1.addCharacter( char2 );
+		final UserAccount account2 = new UserAccount( "account2" , new Credentials( 2 ) );
+		account2.addCharacter( char3 );
+
+		client = createMock( IAPIClient.class );
+
+		store = new MemoryUserAccountStore();
+		store.setAPIClient( client );
+		store.unlock();
+		store.storeAccount( account1 );
+		store.storeAccount( account2 );
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		store.close();
+		super.tearDown();
+	}
+
+	private void expectGetCharacter(final CharacterID id,final RuntimeException error) 
+	{
+		expect( client.getCharacter( eq( id ) , (ICredentialsProvider) anyObject() , 
+				eq( RequestOptions.KEEP_FRESH ) ) ).andAnswer( new IAnswer<APIResponse<ICharacter>>() {
+
+			@Override
+			public APIResponse<ICharacter> answer() throws Throwable
+			{
+				if ( error != null ) {
+					throw error;
+				}
+				final Character result = new Character( "fromAPI" , id );
+				result.setLastUpdateTimestamp( LAST_UPDATE );
+				return new APIResponse<ICharacter>( new InternalAPIResponse( "<xml/>" , null , null , null ) , 
+						result , new MockSystemClock() );
+			}
+		} );
+	}
+
+	public void testReconcileAllRefreshesEveryCharacter() throws Exception {
+
+		expectGetCharacter( char1.getCharacterId() , null );
+		expectGetCharacter( char2.getCharacterId() , null );
+		expectGetCharacter( char3.getCharacterId() , null );
+		replay( client );
+
+		store.reconcileAll();
+
+		assertEquals( LAST_UPDATE , char1.getLastUpdateTimestamp() );
+		assertEquals( LAST_UPDATE , char2.getLastUpdateTimestamp() );
+		assertEquals( LAST_UPDATE , char3.getLastUpdateTimestamp() );
+		verify( client );
+	}
+
+	public void testReconcileAllRefreshesOtherCharactersOnFailure() throws Exception {
+
+		final APIUnavailableException error = new APIUnavailableException("server down");
+		expectGetCharacter( char1.getCharacterId() , null );
+		expectGetCharacter( char2.getCharacterId() , error );
+		expectGetCharacter( char3.getCharacterId() , null );
+		replay( client );
+
+		try {
+			store.reconcileAll();
+			fail("Should have failed");
+		} 
+		catch(RuntimeException e) {
+			assertSame( error , e.getCause() );
+		}
+
+		assertEquals( LAST_UPDATE , char1.getLastUpdateTimestamp() );
+		assertFalse( LAST_UPDATE.equals( char2.getLastUpdateTimestamp() ) );
+		assertEquals( LAST_UPDATE , char3.getLastUpdateTimestamp() );
+		verify( client );
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.assets.impl;
+
+import junit.framework.TestCase;
+import de.codesourcery.eve.skills.assets.AssetDelta;
+import de.codesourcery.eve.skills.datamodel.Asset;
+import de.codesourcery.eve.skills.datamodel.AssetList;
+import de.codesourcery.eve.skills.datamodel.CharacterID;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.Station;
+
+public class AssetDiffEngineTest extends TestCase {
+
+	private static final CharacterID CHARACTER = new CharacterID("42");
+	
+	private final AssetDiffEngine engine = new AssetDiffEngine();
+	
+	private InventoryType type;
+	private Station station1;
+	private Station station2;
+	
+	@Override
+	protected void setUp() throws Exception {
+		type = new InventoryType();
+		type.setTypeId( 34L );
+		type.setName("Tritanium");
+		
+		station1 = createStation( 1L , "Station #1" );
+		station2 = createStation( 2L , "Station #2" );
+	}
+	
+	private static Station createStation(long id,String name) {
+		final Station result = new Station();
+		result.setID( id );
+		result.setName( name );
+		return result;
+	}
+	
+	private Asset createAsset(long itemId,int quantity,Station location) {
+		final Asset result = new Asset( CHARACTER , itemId );
+		result.setType( type );
+		result.setQuantity( quantity );
+		if ( location != null ) {
+			result.setLocation( location );
+		}
+		return result;
+	}
+	
+	public void testInitialSnapshotReportsEverythingAsAdded() {
+		
+		final AssetList current = new AssetList();
+		current.add( createAsset( 1 , 10 , station1 ) );
+		current.add( createAsset( 2 , 20 , station1 ) );
+		
+		final AssetDelta delta = engine.diff( null , current );
+		assertTrue( delta.isInitialSnapshot() );
+		assertSame( current , delta.getCurrent() );
+		assertEquals( 2 , delta.getAdded().size() );
+		assertTrue( delta.getRemoved().isEmpty() );
+		assertTrue( delta.getMoved().isEmpty() );
+		assertTrue( delta.getQuantityChanged().isEmpty() );
+	}
+	
+	public void testUnchangedAssets() {
+		
+		final AssetList previous = new AssetList();
+		previous.add( createAsset( 1 , 10 , station1 ) );
+		
+		final AssetList current = new AssetList();
+		current.add( createAsset( 1 , 10 , station1 ) );
+		
+		final AssetDelta delta = engine.diff( previous , current );
+		assertFalse( delta.isInitialSnapshot() );
+		assertTrue( delta.isEmpty() );
+	}
+	
+	public void testAddedRemovedAndChanged() {
+		
+		final AssetList previous = new AssetList();
+		previous.add( createAsset( 1 , 10 , station1 ) );
+		previous.add( createAsset( 2 , 20 , station1 ) );
+		previous.add( createAsset( 3 , 30 , station1 ) );
+		previous.add( createAsset( 4 , 40 , station1 ) );
+		
+		final AssetList current = new AssetList();
+		current.add( createAsset( 1 , 10 , station1 ) ); // unchanged
+		current.add( createAsset( 2 , 25 , station1 ) ); // quantity changed
+		current.add( createAsset( 3 , 30 , station2 ) ); // moved
+		current.add( createAsset( 5 , 50 , station1 ) ); // added , 4 removed
+		
+		final AssetDelta delta = engine.diff( previous , current );
+		
+		assertEquals( 1 , delta.getAdded().size() );
+		assertEquals( 5 , delta.getAdded().get(0).getItemId() );
+		
+		assertEquals( 1 , delta.getRemoved().size() );
+		assertEquals( 4 , delta.getRemoved().get(0).getItemId() );
+		
+		assertEquals( 1 , delta.getQuantityChanged().size() );
+		assertEquals( 2 , delta.getQuantityChanged().get(0).getItemId() );
+		assertEquals( 20 , delta.getQuantityChanged().get(0).getOldAsset().getQuantity() );
+		assertEquals( 25 , delta.getQuantityChanged().get(0).getNewAsset().getQuantity() );
+		
+		assertEquals( 1 , delta.getMoved().size() );
+		assertEquals( 3 , delta.getMoved().get(0).getItemId() );
+	}
+	
+	public void testMovedIntoContainer() {
+		
+		final AssetList previous = new AssetList();
+		previous.add( createAsset( 1 , 1 , station1 ) );
+		previous.add( createAsset( 2 , 5 , station1 ) );
+		
+		final AssetList current = new AssetList();
+		final Asset container = createAsset( 1 , 1 , station1 );
+		current.add( container );
+		container.getContents().add( createAsset( 2 , 5 , null ) );
+		
+		final AssetDelta delta = engine.diff( previous , current );
+		
+		assertTrue( delta.getAdded().isEmpty() );
+		assertTrue( delta.getRemoved().isEmpty() );
+		assertTrue( delta.getQuantityChanged().isEmpty() );
+		assertEquals( 1 , delta.getMoved().size() );
+		assertEquals( 2 , delta.getMoved().get(0).getItemId() );
+		assertSame( container , delta.getMoved().get(0).getNewAsset().getContainer() );
+	}
+}
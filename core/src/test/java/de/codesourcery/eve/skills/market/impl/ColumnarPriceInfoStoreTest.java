@@ -0,0 +1,276 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Source;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
+import de.codesourcery.eve.skills.market.MarketFilter;
+import de.codesourcery.eve.skills.market.MarketFilterBuilder;
+import de.codesourcery.eve.skills.utils.EveDate;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+import de.codesourcery.eve.skills.utils.MockSystemClock;
+
+public class ColumnarPriceInfoStoreTest extends TestHelper {
+
+	private File tmpDir;
+	private ISystemClock clock = new MockSystemClock();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		tmpDir = createTempDir();
+	}
+
+	protected EveDate parseDate(String s) throws ParseException {
+		DateFormat DF = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		return EveDate.fromLocalTime( DF.parse( s ) , clock );
+	}
+
+	private ColumnarPriceInfoStore createStore() {
+		final ColumnarPriceInfoStore store = new ColumnarPriceInfoStore( clock );
+		store.setBaseDir( tmpDir );
+		return store;
+	}
+
+	private PriceColumnFile openColumnFile() throws Exception {
+		return new PriceColumnFile( ColumnarPriceInfoStore.getColumnFile( tmpDir , REGION1.getID() ) );
+	}
+
+	private PriceInfo createPriceInfo(Type type,String date,long avgPrice) throws ParseException {
+		final PriceInfo info = createPriceInfo( type , ITEM1 , REGION1 );
+		info.setMinPrice( avgPrice - 1 );
+		info.setAveragePrice( avgPrice );
+		info.setMaxPrice( avgPrice + 1 );
+		info.setTimestamp( parseDate( date ) );
+		return info;
+	}
+
+	public void testStore() throws Exception {
+
+		final PriceInfo info = new PriceInfo( Type.SELL , ITEM1 , Source.MARKET_LOG );
+		info.setRegion( REGION1 );
+		info.setTimestamp( parseDate("2009-10-09 12:34:56" ) );
+		info.setOrderId( 42 );
+		info.setMinPrice( 1 );
+		info.setAveragePrice( 2 );
+		info.setMaxPrice( 3 );
+		info.setOrderCount( 4 );
+		info.setVolume( 5 );
+		info.setRemainingVolume( 6 );
+
+		ColumnarPriceInfoStore store = createStore();
+		store.save( info );
+		store.persist();
+
+		store = createStore();
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.SELL , REGION1 ).end();
+		final List<PriceInfo> result = store.get( filter , ITEM1 );
+		assertNotNull( result );
+		assertEquals( 1 , result.size() );
+
+		final PriceInfo loaded = result.get(0);
+		assertSame( REGION1 , loaded.getRegion() );
+		assertSame( ITEM1 , loaded.getItemType() );
+		assertEquals( Type.SELL , loaded.getPriceType() );
+		assertEquals( Source.MARKET_LOG , loaded.getSource() );
+		assertEquals( info.getTimestamp() , loaded.getTimestamp() );
+		assertEquals( 42 , loaded.getOrderId() );
+		assertEquals( 1 , loaded.getMinPrice() );
+		assertEquals( 2 , loaded.getAveragePrice() );
+		assertEquals( 3 , loaded.getMaxPrice() );
+		assertEquals( 4 , loaded.getOrderCount() );
+		assertEquals( 5 , loaded.getVolume() );
+		assertEquals( 6 , loaded.getRemainingVolume() );
+
+		assertNull( store.get( filter , ITEM2 ) );
+	}
+
+	public void testSaveKeepsPersistedHistory() throws Exception {
+
+		ColumnarPriceInfoStore store = createStore();
+		store.save( createPriceInfo( Type.BUY , "2009-10-01 00:00:00" , 10 ) );
+		store.persist();
+
+		// new price saved without reading old ones first
+		store = createStore();
+		store.save( createPriceInfo( Type.BUY , "2009-10-02 00:00:00" , 20 ) );
+		store.persist();
+
+		store = createStore();
+		final List<PriceInfo> history = store.getPriceHistory( REGION1 , Type.BUY , ITEM1 );
+		assertEquals( 2 , history.size() );
+
+		final PriceColumnFile file = openColumnFile();
+		assertEquals( 2 , file.getLiveRowCount() );
+		assertEquals( 1 , file.getDeadRowCount() );
+	}
+
+	public void testEvict() throws Exception {
+
+		final PriceInfo info = createPriceInfo( Type.BUY , "2009-10-01 00:00:00" , 10 );
+
+		ColumnarPriceInfoStore store = createStore();
+		store.save( info );
+		store.persist();
+
+		store = createStore();
+		final MarketFilter filter = new MarketFilterBuilder( Type.BUY , REGION1 ).end();
+		store.evict( store.get( filter , ITEM1 ).get(0) );
+		store.persist();
+
+		assertFalse( openColumnFile().contains( ITEM1.getTypeId() ) );
+
+		store = createStore();
+		assertNull( store.get( filter , ITEM1 ) );
+	}
+
+	public void testCompact() throws Exception {
+
+		final ColumnarPriceInfoStore store = createStore();
+		for ( int day = 1 ; day <= 5 ; day++ ) {
+			store.save( createPriceInfo( Type.BUY , "2009-10-0"+day+" 00:00:00" , day ) );
+			store.save( createPriceInfo( Type.SELL , "2009-10-0"+day+" 00:00:00" , 100 + day ) );
+			store.persist();
+		}
+
+		PriceColumnFile file = openColumnFile();
+		assertEquals( 10 , file.getLiveRowCount() );
+		assertEquals( 2+4+6+8 , file.getDeadRowCount() );
+		final long sizeBefore = file.getFile().length();
+
+		store.compact();
+
+		file = openColumnFile();
+		assertEquals( 10 , file.getLiveRowCount() );
+		assertEquals( 0 , file.getDeadRowCount() );
+		assertTrue( file.getFile().length() < sizeBefore );
+
+		final ColumnarPriceInfoStore reloaded = createStore();
+		final List<PriceInfo> buy = reloaded.getPriceHistory( REGION1 , Type.BUY , ITEM1 );
+		final List<PriceInfo> sell = reloaded.getPriceHistory( REGION1 , Type.SELL , ITEM1 );
+		assertEquals( 5 , buy.size() );
+		assertEquals( 5 , sell.size() );
+		for ( PriceInfo info : buy ) {
+			assertTrue( info.getAveragePrice() >= 1 && info.getAveragePrice() <= 5 );
+		}
+		for ( PriceInfo info : sell ) {
+			assertTrue( info.getAveragePrice() >= 101 && info.getAveragePrice() <= 105 );
+		}
+	}
+
+	public void testAppendAfterCompact() throws Exception {
+
+		final ColumnarPriceInfoStore store = createStore();
+		for ( int day = 1 ; day <= 3 ; day++ ) {
+			store.save( createPriceInfo( Type.BUY , "2009-10-0"+day+" 00:00:00" , day ) );
+			store.persist();
+		}
+
+		store.compact();
+		assertFalse( new File( openColumnFile().getFile().getPath()+".tmp" ).exists() );
+
+		store.save( createPriceInfo( Type.BUY , "2009-10-04 00:00:00" , 4 ) );
+		store.persist();
+
+		final PriceColumnFile file = openColumnFile();
+		assertEquals( 4 , file.getLiveRowCount() );
+		assertEquals( 3 , file.getDeadRowCount() );
+		file.close();
+
+		final List<PriceInfo> buy = createStore().getPriceHistory( REGION1 , Type.BUY , ITEM1 );
+		assertEquals( 4 , buy.size() );
+	}
+
+	public void testTruncatedBlockIsIgnored() throws Exception {
+
+		ColumnarPriceInfoStore store = createStore();
+		store.save( createPriceInfo( Type.BUY , "2009-10-01 00:00:00" , 10 ) );
+		store.persist();
+
+		final File dataFile = openColumnFile().getFile();
+		final long validLength = dataFile.length();
+
+		store.save( createPriceInfo( Type.BUY , "2009-10-02 00:00:00" , 20 ) );
+		store.persist();
+
+		// simulate crash while appending
+		final RandomAccessFile raf = new RandomAccessFile( dataFile , "rw" );
+		try {
+			raf.setLength( dataFile.length() - 3 );
+		} finally {
+			raf.close();
+		}
+
+		store = createStore();
+		List<PriceInfo> history = store.getPriceHistory( REGION1 , Type.BUY , ITEM1 );
+		assertEquals( 1 , history.size() );
+		assertEquals( 10 , history.get(0).getAveragePrice() );
+
+		store.save( createPriceInfo( Type.BUY , "2009-10-03 00:00:00" , 30 ) );
+		store.persist();
+		assertTrue( dataFile.length() > validLength );
+
+		store = createStore();
+		history = store.getPriceHistory( REGION1 , Type.BUY , ITEM1 );
+		assertEquals( 2 , history.size() );
+	}
+
+	public void testImportsLegacyFiles() throws Exception {
+
+		final FilePriceInfoStore legacyStore = new FilePriceInfoStore( clock );
+		legacyStore.setBaseDir( tmpDir );
+		legacyStore.save( createPriceInfo( Type.BUY , "2009-10-01 00:00:00" , 10 ) );
+		legacyStore.save( createPriceInfo( Type.BUY , "2009-10-02 00:00:00" , 20 ) );
+		legacyStore.persist();
+
+		final ColumnarPriceInfoStore store = createStore();
+		final List<PriceInfo> history = store.getPriceHistory( REGION1 , Type.BUY , ITEM1 );
+		assertEquals( 2 , history.size() );
+		assertSame( ITEM1 , history.get(0).getItemType() );
+
+		assertTrue( openColumnFile().exists() );
+		assertTrue( legacyStore.getFileForItem( REGION1 , ITEM1 ).exists() );
+	}
+
+	public void testMigrateCsvTree() throws Exception {
+
+		final FilePriceInfoStore legacyStore = new FilePriceInfoStore( clock );
+		legacyStore.setBaseDir( tmpDir );
+		legacyStore.save( createPriceInfo( Type.BUY , "2009-10-01 00:00:00" , 10 ) );
+		legacyStore.save( createPriceInfo( Type.SELL , "2009-10-01 00:00:00" , 11 ) );
+		legacyStore.persist();
+
+		final File targetDir = new File( tmpDir , "columnar" );
+		assertEquals( 2 , PriceInfoStoreMigration.migrate( tmpDir , targetDir , clock ) );
+
+		// existing files are skipped
+		assertEquals( 0 , PriceInfoStoreMigration.migrate( tmpDir , targetDir , clock ) );
+
+		final ColumnarPriceInfoStore store = new ColumnarPriceInfoStore( clock );
+		store.setBaseDir( targetDir );
+		assertEquals( 1 , store.getPriceHistory( REGION1 , Type.BUY , ITEM1 ).size() );
+		assertEquals( 1 , store.getPriceHistory( REGION1 , Type.SELL , ITEM1 ).size() );
+	}
+}
@@ -0,0 +1,388 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import org.apache.http.NameValuePair;
+import org.easymock.EasyMock;
+
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.db.datamodel.Region;
+import de.codesourcery.eve.skills.market.IMarketDataProvider;
+import de.codesourcery.eve.skills.market.IMarketDataProvider.IPriceInfoChangeListener;
+import de.codesourcery.eve.skills.market.MarketFilter;
+import de.codesourcery.eve.skills.market.MarketFilterBuilder;
+import de.codesourcery.eve.skills.market.PriceInfoQueryResult;
+import de.codesourcery.eve.skills.util.IStatusCallback;
+
+public class EveCentralMarketDataProviderTest extends TestHelper {
+
+	private static final String TYPE_RESPONSE = 
+		"<buy><volume>10</volume><avg>3.5</avg><max>4.0</max><min>3.0</min><stddev>0.1</stddev><median>3.5</median></buy>"+
+		"<sell><volume>20</volume><avg>4.5</avg><max>5.0</max><min>4.0</min><stddev>0.1</stddev><median>4.5</median></sell>";
+
+	private EveCentralMarketDataProvider provider;
+	private StubClient client;
+
+	private static final class StubClient implements IEveCentralClient {
+
+		private final AtomicReference<Thread> requestThread = new AtomicReference<Thread>();
+
+		// type IDs of all requests sent so far
+		private final List<Set<Long>> requests = new Vector<Set<Long>>();
+
+		private final AtomicInteger inFlight = new AtomicInteger(0);
+		private final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+		// requests for this type ID fail
+		private volatile long failingTypeId = -1;
+		private final AtomicInteger failuresRemaining = new AtomicInteger(0);
+
+		@Override
+		public String sendRequestToServer(List<NameValuePair> requestParams) 
+		{
+			requestThread.set( Thread.currentThread() );
+
+			final Set<Long> typeIds = new HashSet<Long>();
+			for ( NameValuePair pair : requestParams ) {
+				if ( "typeid".equals( pair.getName() ) ) {
+					typeIds.add( Long.parseLong( pair.getValue() ) );
+				}
+			}
+			requests.add( typeIds );
+
+			final int current = inFlight.incrementAndGet();
+			try 
+			{
+				int max;
+				do {
+					max = maxInFlight.get();
+				} while ( current > max && ! maxInFlight.compareAndSet( max , current ) );
+
+				Thread.sleep( 20 );
+
+				if ( typeIds.contains( failingTypeId ) && failuresRemaining.getAndDecrement() > 0 ) {
+					throw new RuntimeException("Simulated failure");
+				}
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				inFlight.decrementAndGet();
+			}
+
+			final StringBuilder response = 
+				new StringBuilder("<evec_api version=\"2.0\" method=\"marketstat_xml\"><marketstat>");
+			for ( Long typeId : typeIds ) {
+				response.append("<type id=\"").append( typeId ).append("\">").append( TYPE_RESPONSE ).append("</type>");
+			}
+			return response.append("</marketstat></evec_api>").toString();
+		}
+
+		@Override
+		public void setServerURI(String serverURI) { }
+
+		@Override
+		public void dispose() { }
+
+		@Override
+		public void addStatusCallback(IStatusCallback callback) { }
+
+		@Override
+		public void removeStatusCallback(IStatusCallback callback) { }
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		client = new StubClient();
+		provider = new EveCentralMarketDataProvider();
+		provider.setSystemClock( systemClock() );
+		provider.setPriceInfoStore( new InMemoryPriceInfoStore( systemClock() ) );
+		provider.setEveCentralClient( client );
+	}
+
+	private IStaticDataModel createDataModel(InventoryType... items) {
+		final IStaticDataModel model = EasyMock.createNiceMock( IStaticDataModel.class );
+		EasyMock.expect( model.getRegion( REGION1.getID() ) ).andReturn( REGION1 ).anyTimes();
+		EasyMock.expect( model.getInventoryType( ITEM1.getId() ) ).andReturn( ITEM1 ).anyTimes();
+		for ( InventoryType item : items ) {
+			EasyMock.expect( model.getInventoryType( item.getId() ) ).andReturn( item ).anyTimes();
+		}
+		EasyMock.replay( model );
+		return model;
+	}
+
+	private static InventoryType[] createItems(int count) {
+		final InventoryType[] result = new InventoryType[ count ];
+		for ( int i = 0 ; i < count ; i++ ) {
+			result[i] = createItem( 1000 + i , "item #"+i );
+		}
+		return result;
+	}
+
+	public void testQueriesDoNotUseEventThreadInThreadSafeMode() throws Exception {
+
+		provider.setStaticDataModel( createDataModel() );
+		assertTrue( provider.isThreadSafeMode() );
+
+		final CountDownLatch notified = new CountDownLatch(1);
+		final AtomicBoolean notifiedOnEDT = new AtomicBoolean(false);
+		provider.addChangeListener( new IPriceInfoChangeListener() {
+
+			@Override
+			public void priceChanged(IMarketDataProvider caller, Region region, Set<InventoryType> types) {
+				notifiedOnEDT.set( SwingUtilities.isEventDispatchThread() );
+				notified.countDown();
+			}
+		});
+
+		// block the EDT while querying
+		final CountDownLatch releaseEDT = new CountDownLatch(1);
+		SwingUtilities.invokeLater( new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					releaseEDT.await( 10 , TimeUnit.SECONDS );
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.ANY , REGION1 ).end();
+		final Map<InventoryType, PriceInfoQueryResult> result;
+		try {
+			result = provider.getPriceInfos( filter , null , ITEM1 );
+		} finally {
+			releaseEDT.countDown();
+		}
+
+		assertSame( Thread.currentThread() , client.requestThread.get() );
+
+		final PriceInfoQueryResult prices = result.get( ITEM1 );
+		assertNotNull( prices );
+		assertEquals( 350 , prices.buyPrice().getAveragePrice() );
+		assertEquals( 450 , prices.sellPrice().getAveragePrice() );
+		assertSame( REGION1 , prices.buyPrice().getRegion() );
+
+		assertTrue( notified.await( 10 , TimeUnit.SECONDS ) );
+		assertTrue( "Listener not notified on EDT" , notifiedOnEDT.get() );
+	}
+
+	public void testCachedPricesAreNotQueriedAgain() throws Exception {
+
+		provider.setStaticDataModel( createDataModel() );
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.ANY , REGION1 ).end();
+		provider.getPriceInfos( filter , null , ITEM1 );
+		client.requestThread.set( null );
+
+		final PriceInfoQueryResult prices = provider.getPriceInfos( filter , null , ITEM1 ).get( ITEM1 );
+		assertNull( client.requestThread.get() );
+		assertEquals( 350 , prices.buyPrice().getAveragePrice() );
+	}
+
+	public void testQueriesRunOnEventThreadByDefault() throws Exception {
+
+		assertFalse( provider.isThreadSafeMode() );
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.BUY , REGION1 ).end();
+		final PriceInfoQueryResult prices = provider.getPriceInfos( filter , null , ITEM1 ).get( ITEM1 );
+
+		assertEquals( 350 , prices.buyPrice().getAveragePrice() );
+	}
+
+	public void testItemsAreFetchedInChunks() throws Exception {
+
+		final InventoryType[] items = createItems( 10 );
+		provider.setStaticDataModel( createDataModel( items ) );
+		provider.setChunkSize( 3 );
+		provider.setMaxConcurrentRequests( 2 );
+
+		final List<String> messages = new Vector<String>();
+		provider.addStatusCallback( new IStatusCallback() {
+
+			@Override
+			public void displayMessage(MessageType type, String message) {
+				messages.add( message );
+			}
+		});
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.ANY , REGION1 ).end();
+		final Map<InventoryType, PriceInfoQueryResult> result = provider.getPriceInfos( filter , null , items );
+
+		assertEquals( 4 , client.requests.size() );
+		final Set<Long> requested = new HashSet<Long>();
+		for ( Set<Long> request : client.requests ) {
+			assertTrue( request.size() <= 3 );
+			requested.addAll( request );
+		}
+		assertEquals( 10 , requested.size() );
+		assertTrue( "Too many concurrent requests: "+client.maxInFlight.get() , client.maxInFlight.get() <= 2 );
+
+		for ( InventoryType item : items ) {
+			assertEquals( 350 , result.get( item ).buyPrice().getAveragePrice() );
+			assertEquals( 450 , result.get( item ).sellPrice().getAveragePrice() );
+		}
+
+		assertEquals( 4 , messages.size() );
+		assertEquals( "Received prices for 10 of 10 items from eve-central" , messages.get( 3 ) );
+
+		provider.dispose();
+	}
+
+	public void testFailedChunkIsRetriedForItsOwnItems() throws Exception {
+
+		final InventoryType[] items = createItems( 6 );
+		provider.setStaticDataModel( createDataModel( items ) );
+		provider.setChunkSize( 2 );
+
+		client.failingTypeId = items[4].getId();
+		client.failuresRemaining.set( 1 );
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.BUY , REGION1 ).end();
+		final Map<InventoryType, PriceInfoQueryResult> result = provider.getPriceInfos( filter , null , items );
+
+		assertEquals( 4 , client.requests.size() );
+
+		int failedChunkRequests = 0;
+		for ( Set<Long> request : client.requests ) {
+			if ( request.contains( items[4].getId() ) ) {
+				assertEquals( 2 , request.size() );
+				assertTrue( request.contains( items[5].getId() ) );
+				failedChunkRequests++;
+			}
+		}
+		assertEquals( 2 , failedChunkRequests );
+
+		for ( InventoryType item : items ) {
+			assertEquals( 350 , result.get( item ).buyPrice().getAveragePrice() );
+		}
+		provider.dispose();
+	}
+
+	public void testFailingChunkDoesNotAffectOtherChunks() throws Exception {
+
+		final InventoryType[] items = createItems( 6 );
+		provider.setStaticDataModel( createDataModel( items ) );
+		provider.setChunkSize( 2 );
+		provider.setMaxRetries( 0 );
+
+		client.failingTypeId = items[0].getId();
+		client.failuresRemaining.set( 1 );
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.BUY , REGION1 ).end();
+		try {
+			provider.getPriceInfos( filter , null , items );
+			fail("Should have failed");
+		} catch(RuntimeException e) {
+			assertEquals( "Simulated failure" , e.getMessage() );
+		}
+		assertEquals( 3 , client.requests.size() );
+
+		// successfully fetched chunks have been stored
+		client.requests.clear();
+		final Map<InventoryType, PriceInfoQueryResult> result = provider.getPriceInfos( filter , null , items );
+
+		assertEquals( 1 , client.requests.size() );
+		assertEquals( new HashSet<Long>( Arrays.asList( items[0].getId() , items[1].getId() ) ) , client.requests.get(0) );
+		for ( InventoryType item : items ) {
+			assertEquals( 350 , result.get( item ).buyPrice().getAveragePrice() );
+		}
+		provider.dispose();
+	}
+
+	public void testSingleChunkReportsProgress() throws Exception {
+
+		final InventoryType[] items = createItems( 2 );
+		provider.setStaticDataModel( createDataModel( items ) );
+
+		final List<String> messages = new Vector<String>();
+		provider.addStatusCallback( new IStatusCallback() {
+
+			@Override
+			public void displayMessage(MessageType type, String message) {
+				messages.add( message );
+			}
+		});
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.BUY , REGION1 ).end();
+		provider.getPriceInfos( filter , null , items );
+
+		assertEquals( 1 , client.requests.size() );
+		assertEquals( Arrays.asList( "Received prices for 2 of 2 items from eve-central" ) , messages );
+		provider.dispose();
+	}
+
+	public void testFailedChunkIsRetriedAfterDelay() throws Exception {
+
+		final InventoryType[] items = createItems( 2 );
+		provider.setStaticDataModel( createDataModel( items ) );
+		provider.setRetryDelayMillis( 300 );
+
+		client.failingTypeId = items[0].getId();
+		client.failuresRemaining.set( 1 );
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.BUY , REGION1 ).end();
+		final long start = System.currentTimeMillis();
+		provider.getPriceInfos( filter , null , items );
+		final long elapsed = System.currentTimeMillis() - start;
+
+		assertEquals( 2 , client.requests.size() );
+		assertTrue( "Retried after only "+elapsed+" ms" , elapsed >= 300 );
+		provider.dispose();
+	}
+
+	public void testInterruptedFetchFails() throws Exception {
+
+		final InventoryType[] items = createItems( 10 );
+		provider.setStaticDataModel( createDataModel( items ) );
+		provider.setChunkSize( 3 );
+
+		final MarketFilter filter = new MarketFilterBuilder( Type.BUY , REGION1 ).end();
+		Thread.currentThread().interrupt();
+		try {
+			provider.getPriceInfos( filter , null , items );
+			fail("Should have failed");
+		} 
+		catch(RuntimeException e) {
+			assertTrue( e.getMessage() , e.getMessage().startsWith("Interrupted") );
+		} 
+		finally {
+			assertTrue( "Interrupted flag not restored" , Thread.interrupted() );
+		}
+		provider.dispose();
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Vector;
+
+import org.easymock.EasyMock;
+
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.market.IPriceInfoStore;
+import de.codesourcery.eve.skills.util.IStatusCallback;
+
+public class MarketLogImporterTest extends TestHelper {
+
+	private static final String HEADER = 
+		"price,volRemaining,typeID,range,orderID,volEntered,minVolume,bid,issued,duration,stationID,regionID,solarSystemID,jumps,";
+
+	private File tmpDir;
+	private IStaticDataModel dataModel;
+	private IPriceInfoStore store;
+	private MarketLogImporter importer;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		tmpDir = createTempDir();
+
+		dataModel = EasyMock.createMock( IStaticDataModel.class );
+		EasyMock.expect( dataModel.getInventoryType( ITEM1.getId() ) ).andReturn( ITEM1 ).anyTimes();
+		EasyMock.expect( dataModel.getInventoryType( ITEM2.getId() ) ).andReturn( ITEM2 ).anyTimes();
+		EasyMock.expect( dataModel.getRegion( REGION1.getID() ) ).andReturn( REGION1 ).anyTimes();
+		EasyMock.replay( dataModel );
+
+		store = EasyMock.createMock( IPriceInfoStore.class );
+		store.persist();
+		EasyMock.expectLastCall().anyTimes();
+		importer = createImporter();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		importer.shutdown();
+		for ( File f : tmpDir.listFiles() ) {
+			f.delete();
+		}
+		tmpDir.delete();
+		super.tearDown();
+	}
+
+	private MarketLogImporter createImporter() {
+		final MarketLogImporter result = new MarketLogImporter( dataModel , store , systemClock() );
+		result.setMaxConcurrentParsers( 2 );
+		return result;
+	}
+
+	private File writeMarketLog(String name,long typeId,double... prices) throws IOException 
+	{
+		final File file = new File( tmpDir , name );
+		final Writer writer = new FileWriter( file );
+		try {
+			writer.write( HEADER+"\n" );
+			long orderId = 1;
+			for ( double price : prices ) {
+				writer.write( price+",100.0,"+typeId+",32767,"+( orderId++ )+",100,1,False,2009-08-09 16:57:34.000,90,60007579,"+
+						REGION1.getID()+",30000037,0,\n" );
+			}
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private void expectSave(long typeId,int times) throws IOException 
+	{
+		store.save( EasyMock.eq( REGION1 ) , EasyMock.eq( dataModel.getInventoryType( typeId ) ) , 
+				EasyMock.isA( Collection.class ) );
+		EasyMock.expectLastCall().times( times );
+	}
+
+	public void testFilesWithSameContentAreImportedOnce() throws Exception {
+
+		final File file1 = writeMarketLog( "item1.txt" , ITEM1.getId() , 10.0 , 11.0 );
+		final File copy = writeMarketLog( "item1-copy.txt" , ITEM1.getId() , 10.0 , 11.0 );
+		final File file2 = writeMarketLog( "item2.txt" , ITEM2.getId() , 20.0 );
+
+		expectSave( ITEM1.getId() , 1 );
+		expectSave( ITEM2.getId() , 1 );
+		EasyMock.replay( store );
+
+		assertEquals( 2 , importer.importFiles( Arrays.asList( file1 , copy , file2 ) ) );
+		assertEquals( 0 , importer.importFiles( Arrays.asList( file1 , copy , file2 ) ) );
+
+		assertEquals( 2 , importer.getImportedFileCount() );
+		assertEquals( 4 , importer.getSkippedFileCount() );
+		assertEquals( 0 , importer.getFailedFileCount() );
+		assertEquals( 2 , importer.getImportedPriceCount() );
+		EasyMock.verify( store );
+	}
+
+	public void testImportedHashesAreRemembered() throws Exception {
+
+		final File hashFile = new File( tmpDir , "imported.hashes" );
+		final File file1 = writeMarketLog( "item1.txt" , ITEM1.getId() , 10.0 );
+
+		expectSave( ITEM1.getId() , 1 );
+		EasyMock.replay( store );
+
+		importer.setImportedHashesFile( hashFile );
+		assertEquals( 1 , importer.importFiles( Arrays.asList( file1 ) ) );
+
+		importer.shutdown();
+		importer = createImporter();
+		importer.setImportedHashesFile( hashFile );
+
+		assertEquals( 0 , importer.importFiles( Arrays.asList( file1 ) ) );
+		assertEquals( 1 , importer.getSkippedFileCount() );
+		EasyMock.verify( store );
+	}
+
+	public void testUnparseableFileIsReported() throws Exception {
+
+		final File file = new File( tmpDir , "garbage.txt" );
+		final Writer writer = new FileWriter( file );
+		writer.write( "not a market log\n" );
+		writer.close();
+
+		EasyMock.replay( store );
+
+		final List<String> errors = new Vector<String>();
+		importer.addStatusCallback( new IStatusCallback() {
+
+			@Override
+			public void displayMessage(MessageType type, String message) {
+				if ( type == MessageType.ERROR ) {
+					errors.add( message );
+				}
+			}
+		} );
+
+		assertEquals( 0 , importer.importFiles( Arrays.asList( file ) ) );
+		assertEquals( 1 , importer.getFailedFileCount() );
+		assertEquals( 1 , errors.size() );
+		EasyMock.verify( store );
+	}
+
+	public void testFileIsImportedAgainIfPricesCouldNotBeStored() throws Exception {
+
+		final File file1 = writeMarketLog( "item1.txt" , ITEM1.getId() , 10.0 );
+
+		store.save( EasyMock.eq( REGION1 ) , EasyMock.eq( ITEM1 ) , EasyMock.isA( Collection.class ) );
+		EasyMock.expectLastCall().andThrow( new RuntimeException("disk full") );
+		expectSave( ITEM1.getId() , 1 );
+		EasyMock.replay( store );
+
+		assertEquals( 0 , importer.importFiles( Arrays.asList( file1 ) ) );
+		assertEquals( 1 , importer.getFailedFileCount() );
+
+		assertEquals( 1 , importer.importFiles( Arrays.asList( file1 ) ) );
+		assertEquals( 1 , importer.getImportedFileCount() );
+		assertEquals( 0 , importer.getSkippedFileCount() );
+		EasyMock.verify( store );
+	}
+
+	public void testWatchedDirectoryIsImported() throws Exception {
+
+		writeMarketLog( "item1.txt" , ITEM1.getId() , 10.0 );
+		writeMarketLog( "ignored.csv" , ITEM2.getId() , 10.0 );
+
+		expectSave( ITEM1.getId() , 1 );
+		expectSave( ITEM2.getId() , 1 );
+		EasyMock.replay( store );
+
+		importer.setQuietPeriodMillis( 100 );
+		importer.watch( tmpDir );
+		waitForImportedFiles( 1 );
+
+		writeMarketLog( "item2.txt" , ITEM2.getId() , 20.0 );
+		waitForImportedFiles( 2 );
+
+		importer.stopWatching();
+		assertNull( importer.getDirectory() );
+		EasyMock.verify( store );
+	}
+
+	private void waitForImportedFiles(int count) throws InterruptedException 
+	{
+		final long deadline = System.currentTimeMillis() + 30 * 1000;
+		while ( importer.getImportedFileCount() < count && System.currentTimeMillis() < deadline ) {
+			Thread.sleep( 50 );
+		}
+		assertEquals( count , importer.getImportedFileCount() );
+	}
+}
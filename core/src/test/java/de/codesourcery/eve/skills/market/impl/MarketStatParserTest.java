@@ -0,0 +1,166 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import de.codesourcery.eve.apiclient.exceptions.UnparseableResponseException;
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Source;
+import de.codesourcery.eve.skills.market.impl.MarketStatParser.IPriceInfoConsumer;
+
+/**
+ * Compares the parser output with golden files 
+ * (<code>typeId type avg=... min=... max=...</code> , one line per price)
+ * for responses captured from eve-central.
+ */
+public class MarketStatParserTest extends TestCase {
+
+	private static final String RESOURCE_PATH = "/de/codesourcery/eve/skills/market/impl/marketstat/";
+
+	private final MarketStatParser parser = new MarketStatParser();
+
+	private static final class Collector implements IPriceInfoConsumer {
+
+		private final List<String> lines = new ArrayList<String>();
+
+		@Override
+		public void priceInfoParsed(long itemTypeId, PriceInfo info) {
+			assertEquals( Source.EVE_CENTRAL , info.getSource() );
+			assertNull( info.getItemType() );
+			lines.add( itemTypeId+" "+info.getPriceType()+" avg="+info.getAveragePrice()+
+					" min="+info.getMinPrice()+" max="+info.getMaxPrice() );
+		}
+	}
+
+	private static Reader open(String name) throws IOException {
+		final InputStream in = MarketStatParserTest.class.getResourceAsStream( RESOURCE_PATH + name );
+		if ( in == null ) {
+			throw new IOException("Unable to find test resource "+name);
+		}
+		return new InputStreamReader( in , "UTF-8" );
+	}
+
+	private static List<String> readGoldenFile(String name) throws IOException {
+		final List<String> result = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader( open( name + ".golden" ) );
+		try {
+			String line;
+			while ( ( line = reader.readLine() ) != null ) {
+				if ( line.trim().length() > 0 ) {
+					result.add( line.trim() );
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	private List<String> parse(String name,PriceInfo.Type orderType) throws IOException {
+		final Collector collector = new Collector();
+		final Reader in = open( name + ".xml" );
+		try {
+			parser.parse( in , orderType , collector );
+		} finally {
+			in.close();
+		}
+		return collector.lines;
+	}
+
+	private static List<String> filter(List<String> lines,PriceInfo.Type type) {
+		final List<String> result = new ArrayList<String>();
+		for ( String line : lines ) {
+			if ( line.contains( " "+type+" " ) ) {
+				result.add( line );
+			}
+		}
+		return result;
+	}
+
+	private void assertMatchesGoldenFile(String name) throws IOException {
+		final List<String> expected = readGoldenFile( name );
+
+		assertEquals( expected , parse( name , PriceInfo.Type.ANY ) );
+		assertEquals( filter( expected , PriceInfo.Type.BUY ) , parse( name , PriceInfo.Type.BUY ) );
+		assertEquals( filter( expected , PriceInfo.Type.SELL ) , parse( name , PriceInfo.Type.SELL ) );
+	}
+
+	public void testMinerals() throws Exception {
+		assertMatchesGoldenFile( "minerals" );
+	}
+
+	public void testItemsWithoutOrders() throws Exception {
+		assertMatchesGoldenFile( "no_orders" );
+	}
+
+	public void testEmptyResponse() throws Exception {
+		assertMatchesGoldenFile( "empty" );
+	}
+
+	public void testParseString() throws Exception {
+
+		final String xml = "<evec_api version=\"2.0\" method=\"marketstat_xml\"><marketstat>"+
+		"<type id=\"34\"><sell><volume>1</volume><avg>4.5</avg><max>5.0</max><min>4.0</min>" +
+		"<stddev>0.1</stddev><median>4.55</median></sell></type>"+
+		"</marketstat></evec_api>";
+
+		final Collector collector = new Collector();
+		parser.parse( xml , PriceInfo.Type.ANY , collector );
+		assertEquals( 1 , collector.lines.size() );
+		assertEquals( "34 SELL avg=455 min=400 max=500" , collector.lines.get(0) );
+	}
+
+	public void testIgnoresElementsOutsideOfMarketStat() throws Exception {
+
+		final String xml = "<evec_api version=\"2.0\" method=\"marketstat_xml\">"+
+		"<other><type id=\"34\"><buy><max>5.0</max><min>4.0</min><median>4.5</median></buy></type></other>"+
+		"<marketstat/></evec_api>";
+
+		final Collector collector = new Collector();
+		parser.parse( xml , PriceInfo.Type.ANY , collector );
+		assertTrue( collector.lines.isEmpty() );
+	}
+
+	public void testIncompletePriceIsRejected() throws Exception {
+
+		final String xml = "<evec_api version=\"2.0\" method=\"marketstat_xml\"><marketstat>"+
+		"<type id=\"34\"><buy><max>5.0</max><median>4.5</median></buy></type>"+
+		"</marketstat></evec_api>";
+		try {
+			parser.parse( xml , PriceInfo.Type.BUY , new Collector() );
+			fail("Should have failed");
+		} catch(UnparseableResponseException e) {
+			// ok
+		}
+	}
+
+	public void testInvalidXMLIsRejected() throws Exception {
+		try {
+			parser.parse( "<evec_api><marketstat>" , PriceInfo.Type.BUY , new Collector() );
+			fail("Should have failed");
+		} catch(UnparseableResponseException e) {
+			// ok
+		}
+	}
+}
@@ -23,6 +23,9 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import de.codesourcery.eve.skills.datamodel.PriceInfo;
 import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
@@ -371,4 +374,88 @@ public class PriceInfoCacheTest extends TestHelper {
 		assertTrue( history.contains( info1 ) );
 		assertTrue( history.contains( info2 ) );
 	}
+	
+	public void testReadersDoNotBlockWhileEntryIsLocked() throws Exception {
+		
+		final PriceInfo info = createPriceInfo(Type.BUY , ITEM1 , REGION1);
+		cache.storePriceInfo( info );
+		
+		final PriceInfoCache.CacheEntry entry = cache.getCacheEntry( REGION1 , ITEM1 );
+		final MarketFilter filter = new MarketFilterBuilder(Type.BUY  , REGION1 ).end();
+		
+		final CountDownLatch readDone = new CountDownLatch(1);
+		final List<PriceInfo> result = new ArrayList<PriceInfo>();
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				result.addAll( cache.getLatestPriceInfos( filter , ITEM1 ) );
+				result.addAll( cache.getPriceHistory( REGION1 , Type.BUY , ITEM1 ) );
+				readDone.countDown();
+			}
+		};
+		
+		// simulate a writer holding the entry's lock
+		synchronized( entry ) {
+			reader.start();
+			assertTrue( "Reader blocked" , readDone.await( 5 , TimeUnit.SECONDS ) );
+		}
+		
+		assertEquals( 2 , result.size() );
+		assertSame( info , result.get(0) );
+		assertSame( info , result.get(1) );
+	}
+	
+	public void testConcurrentStoreAndRead() throws Exception {
+		
+		final MarketFilter filter = new MarketFilterBuilder(Type.BUY  , REGION1 ).end();
+		final int days = 200;
+		
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for ( int i = days ; i > 0 ; i-- ) {
+					final PriceInfo info = createPriceInfo(Type.BUY , ITEM1 , REGION1);
+					info.setTimestamp( eveDateFromLocalTime( new Date( System.currentTimeMillis() - i * 24L * 60 * 60 * 1000 ) ) );
+					info.setAveragePrice( days - i );
+					cache.storePriceInfo( info );
+				}
+			}
+		};
+		
+		final Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					long lastSeen = -1;
+					while ( lastSeen < days - 1 ) {
+						final List<PriceInfo> latest = cache.getLatestPriceInfos( filter , ITEM1 );
+						if ( latest == null || latest.isEmpty() ) {
+							continue;
+						}
+						assertEquals( 1 , latest.size() );
+						// prices are stored in ascending order , latest price must never go back
+						assertTrue( latest.get(0).getAveragePrice() >= lastSeen );
+						lastSeen = latest.get(0).getAveragePrice();
+						
+						final List<PriceInfo> history = cache.getPriceHistory( REGION1 , Type.BUY , ITEM1 );
+						assertTrue( history.size() >= lastSeen + 1 );
+					}
+				} catch(Throwable t) {
+					failure.set( t );
+				}
+			}
+		};
+		
+		reader.start();
+		writer.start();
+		writer.join( 10000 );
+		reader.join( 10000 );
+		
+		if ( failure.get() != null ) {
+			throw new RuntimeException( failure.get() );
+		}
+		assertFalse( reader.isAlive() );
+		assertEquals( days , cache.getPriceHistory( REGION1 , Type.BUY , ITEM1 ).size() );
+	}
 }
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+
+import de.codesourcery.eve.skills.datamodel.PriceInfo;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Source;
+import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
+import de.codesourcery.eve.skills.db.datamodel.InventoryType;
+import de.codesourcery.eve.skills.market.IMarketDataProvider.UpdateMode;
+import de.codesourcery.eve.skills.market.IPriceInfoStore;
+import de.codesourcery.eve.skills.market.IPriceQueryCallback;
+import de.codesourcery.eve.skills.market.MarketFilter;
+import de.codesourcery.eve.skills.market.PriceInfoQueryResult;
+import de.codesourcery.eve.skills.market.impl.PriceRefreshDaemon.IWatchedItemSource;
+import de.codesourcery.eve.skills.utils.EveDate;
+
+public class PriceRefreshDaemonTest extends TestHelper {
+
+	private static final long HOUR = 60 * 60 * 1000;
+
+	private RecordingProvider provider;
+	private IPriceInfoStore store;
+	private PriceRefreshDaemon daemon;
+
+	private static final class Request {
+
+		private final UpdateMode mode;
+		private final List<InventoryType> items;
+
+		public Request(UpdateMode mode, List<InventoryType> items) {
+			this.mode = mode;
+			this.items = items;
+		}
+	}
+
+	private static final class RecordingProvider extends EveCentralMarketDataProvider {
+
+		private final List<Request> requests = new ArrayList<Request>();
+
+		@Override
+		public Map<InventoryType, PriceInfoQueryResult> getPriceInfos(
+				MarketFilter filter, IPriceQueryCallback callback,
+				InventoryType... items) 
+		{
+			requests.add( new Request( filter.getUpdateMode() , Arrays.asList( items ) ) );
+			return null;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		provider = new RecordingProvider();
+		provider.setSystemClock( systemClock() );
+
+		store = EasyMock.createMock( IPriceInfoStore.class );
+
+		daemon = new PriceRefreshDaemon( provider , store , systemClock() );
+		daemon.setRegion( REGION1 );
+		daemon.addWatchedItemSource( new IWatchedItemSource() {
+
+			@Override
+			public Collection<InventoryType> getWatchedItems() {
+				return Arrays.asList( ITEM1 , ITEM2 , ITEM3 , ITEM1 );
+			}
+		} );
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		daemon.shutdown();
+		super.tearDown();
+	}
+
+	private void cachedPrices(InventoryType item,PriceInfo... prices) {
+		EasyMock.expect( store.get( EasyMock.isA( MarketFilter.class ) , EasyMock.same( item ) ) )
+			.andReturn( Arrays.asList( prices ) ).anyTimes();
+	}
+
+	private PriceInfo price(Type type,InventoryType item,Source source,long ageInMillis) {
+		final PriceInfo info = new PriceInfo( type , item , source );
+		info.setRegion( REGION1 );
+		info.setAveragePrice( 100 );
+		info.setTimestamp( EveDate.fromLocalTime( 
+				systemClock().getCurrentTimeMillis() - ageInMillis , systemClock() ) );
+		return info;
+	}
+
+	public void testMissingPricesFirstThenStalest() throws Exception {
+
+		cachedPrices( ITEM1 , 
+				price( Type.BUY , ITEM1 , Source.EVE_CENTRAL , PriceInfoQueryResult.REFRESH_AGE + 2 * HOUR ) ,
+				price( Type.SELL , ITEM1 , Source.EVE_CENTRAL , HOUR ) );
+		cachedPrices( ITEM2 , 
+				price( Type.BUY , ITEM2 , Source.EVE_CENTRAL , PriceInfoQueryResult.REFRESH_AGE + 5 * HOUR ) ,
+				price( Type.SELL , ITEM2 , Source.EVE_CENTRAL , HOUR ) );
+		cachedPrices( ITEM3 , price( Type.SELL , ITEM3 , Source.EVE_CENTRAL , HOUR ) );
+		EasyMock.replay( store );
+
+		daemon.setMaxItemsPerRun( 2 );
+		assertEquals( 2 , daemon.refresh() );
+
+		assertEquals( 1 , provider.requests.size() );
+		assertEquals( UpdateMode.DEFAULT , provider.requests.get(0).mode );
+		assertEquals( Arrays.asList( ITEM3 , ITEM2 ) , provider.requests.get(0).items );
+	}
+
+	public void testSoonOutdatedEveCentralPricesAreRefreshedAhead() throws Exception {
+
+		final long soonOutdated = PriceInfoQueryResult.REFRESH_AGE - HOUR;
+
+		cachedPrices( ITEM1 , 
+				price( Type.BUY , ITEM1 , Source.EVE_CENTRAL , soonOutdated ) ,
+				price( Type.SELL , ITEM1 , Source.EVE_CENTRAL , HOUR ) );
+		cachedPrices( ITEM2 , 
+				price( Type.BUY , ITEM2 , Source.USER_PROVIDED , soonOutdated ) ,
+				price( Type.SELL , ITEM2 , Source.EVE_CENTRAL , HOUR ) );
+		cachedPrices( ITEM3 , 
+				price( Type.BUY , ITEM3 , Source.EVE_CENTRAL , HOUR ) ,
+				price( Type.SELL , ITEM3 , Source.EVE_CENTRAL , HOUR ) );
+		EasyMock.replay( store );
+
+		assertEquals( 1 , daemon.refresh() );
+
+		assertEquals( 1 , provider.requests.size() );
+		assertEquals( UpdateMode.UPDATE_ALL , provider.requests.get(0).mode );
+		assertEquals( Arrays.asList( ITEM1 ) , provider.requests.get(0).items );
+	}
+
+	public void testNothingIsRefreshedWhileOffline() throws Exception {
+
+		EasyMock.replay( store );
+
+		provider.setOfflineMode( true );
+		assertEquals( 0 , daemon.refresh() );
+
+		provider.setOfflineMode( false );
+		daemon.setRegion( null );
+		assertEquals( 0 , daemon.refresh() );
+
+		assertTrue( provider.requests.isEmpty() );
+		EasyMock.verify( store );
+	}
+
+	public void testItemsAreNotRetriedWithinMinRetryInterval() throws Exception {
+
+		cachedPrices( ITEM1 );
+		cachedPrices( ITEM2 );
+		cachedPrices( ITEM3 );
+		EasyMock.replay( store );
+
+		assertEquals( 3 , daemon.refresh() );
+		assertEquals( 0 , daemon.refresh() );
+		assertEquals( 1 , provider.requests.size() );
+
+		daemon.setMinRetryIntervalMillis( 0 );
+		assertEquals( 3 , daemon.refresh() );
+		assertEquals( 2 , provider.requests.size() );
+	}
+}
@@ -15,10 +15,16 @@
  */
 package de.codesourcery.eve.skills.market.impl;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
 
 import de.codesourcery.eve.skills.datamodel.PriceInfo;
 import de.codesourcery.eve.skills.datamodel.PriceInfo.Type;
+import de.codesourcery.eve.skills.db.datamodel.Region;
 
 public class SortedPriceListTest extends TestHelper {
 
@@ -246,4 +252,85 @@ public class SortedPriceListTest extends TestHelper {
 		assertTrue( prices.isEmpty() );
 	}
 	
+	public void testPricesAreSortedLatestFirst() {
+		
+		final Calendar cal = Calendar.getInstance();
+		cal.set( Calendar.HOUR_OF_DAY , 12 );
+		
+		final List<PriceInfo> expected = new ArrayList<PriceInfo>();
+		for ( int day = 0 ; day < 100 ; day++ ) {
+			final PriceInfo buy = createPriceInfo( Type.BUY , ITEM1 , REGION1 );
+			buy.setTimestamp( eveDateFromLocalTime( cal.getTime() ) );
+			final PriceInfo sell = createPriceInfo( Type.SELL , ITEM1 , REGION1 );
+			sell.setTimestamp( eveDateFromLocalTime( new Date( cal.getTimeInMillis() - 1000 ) ) );
+			cal.add( Calendar.DAY_OF_MONTH , -1 );
+			expected.add( buy );
+			expected.add( sell );
+		}
+		
+		final List<PriceInfo> shuffled = new ArrayList<PriceInfo>( expected );
+		Collections.shuffle( shuffled , new Random(42) );
+		prices.store( shuffled );
+		
+		assertEquals( expected , prices.getAllPrices() );
+		assertSame( expected.get(0) , prices.getLatestPrice( Type.BUY ) );
+		assertSame( expected.get(1) , prices.getLatestPrice( Type.SELL ) );
+		
+		final List<PriceInfo> history = prices.getPriceHistory( Type.SELL );
+		assertEquals( 100 , history.size() );
+		for ( int i = 0 ; i < history.size() ; i++ ) {
+			assertSame( expected.get( 2*i+1 ) , history.get(i) );
+		}
+		
+		assertEquals( 200 , prices.getPriceHistory( Type.ANY ).size() );
+	}
+	
+	public void testPricesFromSeveralRegionsAreMergedLatestFirst() {
+		
+		final Calendar cal = Calendar.getInstance();
+		cal.set( Calendar.HOUR_OF_DAY , 12 );
+		
+		final List<PriceInfo> expected = new ArrayList<PriceInfo>();
+		final List<PriceInfo> expectedBuy = new ArrayList<PriceInfo>();
+		for ( int day = 0 ; day < 50 ; day++ ) {
+			int offset = 0;
+			for ( Type type : new Type[] { Type.BUY , Type.SELL } ) {
+				for ( Region region : new Region[] { REGION2 , REGION1 } ) {
+					final PriceInfo info = createPriceInfo( type , ITEM1 , region );
+					info.setTimestamp( eveDateFromLocalTime( new Date( cal.getTimeInMillis() - offset ) ) );
+					offset += 1000;
+					expected.add( info );
+					if ( type == Type.BUY ) {
+						expectedBuy.add( info );
+					}
+				}
+			}
+			cal.add( Calendar.DAY_OF_MONTH , -1 );
+		}
+		
+		final List<PriceInfo> shuffled = new ArrayList<PriceInfo>( expected );
+		Collections.shuffle( shuffled , new Random(42) );
+		prices.store( shuffled );
+		
+		assertEquals( expected , prices.getAllPrices() );
+		assertEquals( expectedBuy , prices.getPriceHistory( Type.BUY ) );
+		assertEquals( expected , prices.getPriceHistory( Type.ANY ) );
+	}
+	
+	public void testPricesFromDifferentRegionsAreKept() {
+		
+		final PriceInfo priceInfo1 = 
+			createPriceInfo( Type.BUY , ITEM1 , REGION1 );
+		
+		final PriceInfo priceInfo2 = 
+			createPriceInfo( Type.BUY , ITEM1 , REGION2 );
+		
+		priceInfo2.setTimestamp( eveDateFromLocalTime( new Date( System.currentTimeMillis()+ 5000 ) ) );
+		
+		prices.store( priceInfo1 );
+		prices.store( priceInfo2 );
+		
+		assertEquals( 2 , prices.getAllPrices().size() );
+		assertSame( priceInfo2 , prices.getLatestPrice( Type.BUY ) );
+	}
 }
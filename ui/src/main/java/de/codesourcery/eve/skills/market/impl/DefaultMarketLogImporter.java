@@ -0,0 +1,93 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.market.IPriceInfoStore;
+import de.codesourcery.eve.skills.ui.config.AppConfig;
+import de.codesourcery.eve.skills.ui.config.IAppConfigChangeListener;
+import de.codesourcery.eve.skills.ui.config.IAppConfigProvider;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Watches the directory market logs were last 
+ * imported from.
+ * 
+ * Nothing is watched until the user imported a market log
+ * manually , the watched directory follows later manual imports.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class DefaultMarketLogImporter extends MarketLogImporter implements InitializingBean {
+
+	private static final Logger LOG = Logger.getLogger(DefaultMarketLogImporter.class);
+
+	private IAppConfigProvider applicationConfig;
+
+	private final IAppConfigChangeListener configChangeListener = 
+		new IAppConfigChangeListener() {
+
+			@Override
+			public void appConfigChanged(AppConfig config, String... properties) 
+			{
+				if ( ArrayUtils.contains( properties , AppConfig.PROP_LAST_MARKETLOG_IMPORT_DIRECTORY ) ) {
+					watchImportDirectory( config );
+				}
+			}
+		};
+
+	public DefaultMarketLogImporter(IStaticDataModel dataModel,
+			IPriceInfoStore priceInfoStore, ISystemClock systemClock) 
+	{
+		super(dataModel, priceInfoStore, systemClock);
+	}
+
+	private void watchImportDirectory(AppConfig config) 
+	{
+		if ( ! config.hasLastMarketLogImportDirectory() ) {
+			return;
+		}
+
+		final File directory = config.getLastMarketLogImportDirectory().getAbsoluteFile();
+		if ( directory.equals( getDirectory() ) ) {
+			return;
+		}
+
+		try {
+			watch( directory );
+		} 
+		catch (IOException e) {
+			LOG.error("watchImportDirectory(): Unable to watch "+directory.getAbsolutePath(),e);
+		}
+	}
+
+	public void setApplicationConfigProvider(IAppConfigProvider applicationConfig) {
+		this.applicationConfig = applicationConfig;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		applicationConfig.addChangeListener( this.configChangeListener );
+		watchImportDirectory( applicationConfig.getAppConfig() );
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2004-2009 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.eve.skills.market.impl;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.codesourcery.eve.skills.datamodel.IStaticDataModel;
+import de.codesourcery.eve.skills.db.datamodel.Region;
+import de.codesourcery.eve.skills.market.IMarketDataProvider;
+import de.codesourcery.eve.skills.market.IPriceInfoStore;
+import de.codesourcery.eve.skills.ui.config.AppConfig;
+import de.codesourcery.eve.skills.ui.config.IAppConfigChangeListener;
+import de.codesourcery.eve.skills.ui.config.IAppConfigProvider;
+import de.codesourcery.eve.skills.utils.ISystemClock;
+
+/**
+ * Refreshes prices for the user's default region.
+ * 
+ * Nothing gets refreshed until the user chose a default region ,
+ * changing the default region or enabling eve-central 
+ * triggers an immediate refresh.
+ * 
+ * @author tobias.gierke@code-sourcery.de
+ */
+public class DefaultPriceRefreshDaemon extends PriceRefreshDaemon implements InitializingBean {
+
+	private IAppConfigProvider applicationConfig;
+	private IStaticDataModel staticDataModel;
+
+	// guarded-by: this
+	private Region defaultRegion;
+
+	private final IAppConfigChangeListener configChangeListener = 
+		new IAppConfigChangeListener() {
+
+			@Override
+			public void appConfigChanged(AppConfig config, String... properties) 
+			{
+				if ( ArrayUtils.contains( properties , AppConfig.PROP_DEFAULT_REGION ) ) {
+					synchronized( DefaultPriceRefreshDaemon.this ) {
+						defaultRegion = null;
+					}
+					refreshNow();
+				} 
+				else if ( ArrayUtils.contains( properties , AppConfig.PROP_EVE_CENTRAL_ENABLED ) && 
+						config.isEveCentralEnabled() ) 
+				{
+					refreshNow();
+				}
+			}
+		};
+
+	public DefaultPriceRefreshDaemon(IMarketDataProvider marketDataProvider,
+			IPriceInfoStore priceInfoStore, ISystemClock systemClock) 
+	{
+		super(marketDataProvider, priceInfoStore, systemClock);
+	}
+
+	@Override
+	protected synchronized Region getRegion() 
+	{
+		if ( defaultRegion == null ) 
+		{
+			final AppConfig config = applicationConfig.getAppConfig();
+			if ( config.hasDefaultRegion() ) {
+				defaultRegion = staticDataModel.getRegion( Long.parseLong( config.getProperty( AppConfig.PROP_DEFAULT_REGION ) ) );
+			}
+		}
+		return defaultRegion;
+	}
+
+	public void setApplicationConfigProvider(IAppConfigProvider applicationConfig) {
+		this.applicationConfig = applicationConfig;
+	}
+
+	/**
+	 * Sets the data model used to look up the default region ,
+	 * must be safe to use from the daemon's thread.
+	 * 
+	 * @param staticDataModel
+	 */
+	public void setStaticDataModel(IStaticDataModel staticDataModel) {
+		this.staticDataModel = staticDataModel;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		applicationConfig.addChangeListener( this.configChangeListener );
+	}
+}
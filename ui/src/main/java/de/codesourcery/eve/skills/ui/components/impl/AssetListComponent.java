@@ -61,7 +61,9 @@ import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
+import de.codesourcery.eve.skills.assets.AssetDelta;
 import de.codesourcery.eve.skills.assets.IAssetManager;
+import de.codesourcery.eve.skills.assets.IAssetManager.IAssetDeltaListener;
 import de.codesourcery.eve.skills.datamodel.Asset;
 import de.codesourcery.eve.skills.datamodel.AssetList;
 import de.codesourcery.eve.skills.datamodel.ICharacter;
@@ -203,6 +205,28 @@ public class AssetListComponent extends AbstractComponent implements ICharacterS
 		}
 	};
 	
+	private final IAssetDeltaListener assetChangeListener = new IAssetDeltaListener() {
+
+		@Override
+		public void assetsChanged(ICharacter character)
+		{
+			// not invoked for delta listeners
+		}
+
+		@Override
+		public void assetsChanged(final ICharacter character, final AssetDelta delta)
+		{
+			Misc.runOnEventThreadLater( new Runnable() {
+
+				@Override
+				public void run()
+				{
+					applyAssetDelta( character , delta );
+				}
+			} );
+		}
+	};
+	
 	private IViewFilter<Asset> viewFilter = new AbstractViewFilter<Asset>() {
 
 		@Override
@@ -388,6 +412,7 @@ public class AssetListComponent extends AbstractComponent implements ICharacterS
 	{
 
 		this.selectionProvider.addSelectionListener(characterSelectionListener);
+		this.assetManager.addAssetChangeListener( assetChangeListener );
 
 		updateAssetListModel();
 	}
@@ -395,6 +420,9 @@ public class AssetListComponent extends AbstractComponent implements ICharacterS
 	@Override
 	protected void onDetachHook()
 	{
+		if ( this.assetManager != null ) {
+			this.assetManager.removeAssetChangeListener( assetChangeListener );
+		}
 		if ( this.selectionProvider != null ) {
 			this.selectionProvider
 			.removeSelectionListener(characterSelectionListener);
@@ -405,6 +433,9 @@ public class AssetListComponent extends AbstractComponent implements ICharacterS
 	protected void disposeHook()
 	{
 
+		if ( this.assetManager != null ) {
+			this.assetManager.removeAssetChangeListener( assetChangeListener );
+		}
 		table = null;
 		model.dispose();
 		if ( this.selectionProvider != null ) {
@@ -896,6 +927,10 @@ public class AssetListComponent extends AbstractComponent implements ICharacterS
 			@Override
 			public void successHook() throws Exception
 			{
+				if ( model.getAssetList() == assets ) {
+					// already updated by applyAssetDelta()
+					return;
+				}
 				updateAssetListModel( assets );
 			}
 
@@ -913,6 +948,33 @@ public class AssetListComponent extends AbstractComponent implements ICharacterS
 		submitFutureTask(updateTask, true );
 	}
 
+	/**
+	 * Updates the table incrementally when the 
+	 * (unmerged) assets of the selected character changed.
+	 */
+	protected void applyAssetDelta(ICharacter character,AssetDelta delta) 
+	{
+		final ICharacter selected = 
+			this.selectionProvider != null ? this.selectionProvider.getSelectedItem() : null;
+			
+		if ( table == null || selected == null || 
+			 ! selected.getCharacterId().equals( character.getCharacterId() ) ||
+			 mergeAssetsByType.isSelected() ) 
+		{
+			return;
+		}
+		
+		if ( log.isDebugEnabled() ) {
+			log.debug("applyAssetDelta(): "+character.getName()+" , "+delta);
+		}
+		
+		model.applyDelta( delta );
+		
+		if ( ! delta.getAdded().isEmpty() || ! delta.getRemoved().isEmpty() || ! delta.getMoved().isEmpty() ) {
+			updateComboBoxModels( delta.getCurrent() );
+		}
+	}
+	
 	protected static <T> List<T> toList(Collection<T> data) {
 		return new ArrayList<T>( data );
 	}
@@ -19,7 +19,11 @@ import java.awt.GridBagLayout;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 import javax.swing.JPanel;
@@ -27,6 +31,8 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 
 import de.codesourcery.eve.apiclient.IAPIClient;
+import de.codesourcery.eve.apiclient.IAPIClient.EntityType;
+import de.codesourcery.eve.apiclient.INameResolver;
 import de.codesourcery.eve.apiclient.datamodel.RequestOptions;
 import de.codesourcery.eve.skills.accountdata.IUserAccountStore;
 import de.codesourcery.eve.skills.datamodel.ICharacter;
@@ -51,6 +57,9 @@ public class MarketTransactionsComponent extends AbstractComponent implements IC
 	@Resource(name="useraccount-store")
 	private IUserAccountStore userAccountStore;
 	
+	@Resource(name="name-resolver")
+	private INameResolver nameResolver;
+	
 	private ISelectionProvider<ICharacter> selectionProvider;
 	private final MyTableModel model = new MyTableModel();
 	private final JTable table = new JTable();
@@ -102,6 +111,10 @@ public class MarketTransactionsComponent extends AbstractComponent implements IC
 		private volatile List<MarketTransaction> data =
 			new ArrayList<MarketTransaction>();
 		
+		// names of clients the API response did not include , by client ID
+		private volatile Map<String,String> clientNames =
+			new HashMap<String,String>();
+		
 		@Override
 		protected Object getColumnValueAt(int modelRowIndex,
 				int modelColumnIndex)
@@ -127,7 +140,7 @@ public class MarketTransactionsComponent extends AbstractComponent implements IC
 				case PRICE_IDX:
 					return AmountHelper.formatISKAmount( t.getPrice() );
 				case CLIENT_NAME_IDX:
-					return t.getClientName();
+					return getClientName( t );
 				case STATION_NAME_IDX:
 					return t.getStation().getName();
 				case CORPORATE_TRANSACTION_IDX:
@@ -137,12 +150,24 @@ public class MarketTransactionsComponent extends AbstractComponent implements IC
 			}
 		}
 
-		public void setData(List<MarketTransaction> data)
+		private String getClientName(MarketTransaction t) {
+			String result = t.getClientName();
+			if ( result == null ) {
+				result = clientNames.get( t.getClientId().asCharacterId().getValue() );
+			}
+			return result != null ? result : "<unknown>";
+		}
+
+		public void setData(List<MarketTransaction> data,Map<String,String> clientNames)
 		{
 			if ( data == null ) {
 				throw new IllegalArgumentException("data cannot be NULL");
 			}
+			if ( clientNames == null ) {
+				throw new IllegalArgumentException("clientNames cannot be NULL");
+			}
 			this.data = data;
+			this.clientNames = clientNames;
 			modelDataChanged();
 		}
 		@Override
@@ -164,13 +189,14 @@ public class MarketTransactionsComponent extends AbstractComponent implements IC
 		final ICharacter character = selectionProvider.getSelectedItem();
 		
 		if ( character == null ) {
-			model.setData( new ArrayList<MarketTransaction>() );
+			model.setData( new ArrayList<MarketTransaction>() , new HashMap<String,String>() );
 			return;
 		}
 		
 		submitTask( new UITask() {
 
 			private List<MarketTransaction> transactions;
+			private Map<String,String> clientNames;
 			@Override
 			public String getId()
 			{
@@ -183,10 +209,11 @@ public class MarketTransactionsComponent extends AbstractComponent implements IC
 				
 				displayStatus("Fetching market transactions for "+character.getName());
 				
-				transactions = apiClient.getMarketTransactions(
+				// the payload may be shared with other callers , do not modify it
+				transactions = new ArrayList<MarketTransaction>( apiClient.getMarketTransactions(
 						character ,
 						userAccountStore.getAccountByCharacterID( character.getCharacterId() ) ,
-						RequestOptions.DEFAULT ).getPayload();
+						RequestOptions.DEFAULT ).getPayload() );
 				
 				Collections.sort( transactions , new Comparator<MarketTransaction>() {
 
@@ -196,12 +223,14 @@ public class MarketTransactionsComponent extends AbstractComponent implements IC
 					{
 						return o1.getTransactionDate().compareTo( o2.getTransactionDate() );
 					}} );
+				
+				clientNames = resolveClientNames( transactions );
 			}
 			
 			@Override
 			public void successHook() throws Exception
 			{
-				model.setData( transactions );
+				model.setData( transactions , clientNames );
 			}
 			
 			@Override
@@ -213,6 +242,40 @@ public class MarketTransactionsComponent extends AbstractComponent implements IC
 		);
 	}
 	
+	/**
+	 * Looks up client names the API
+	 * did not include in the response.
+	 * 
+	 * The transactions are cached and shared , so
+	 * resolved names are returned instead of being
+	 * stored in the transactions.
+	 * 
+	 * @param transactions
+	 * @return client names by client ID
+	 */
+	private Map<String,String> resolveClientNames(List<MarketTransaction> transactions) {
+		
+		final Set<String> ids = new HashSet<String>();
+		for ( MarketTransaction t : transactions ) {
+			if ( t.getClientName() == null ) {
+				ids.add( t.getClientId().asCharacterId().getValue() );
+			}
+		}
+		
+		if ( ids.isEmpty() ) {
+			return new HashMap<String,String>();
+		}
+		
+		try {
+			// client IDs may be characters or corporations , the API resolves both
+			return new HashMap<String,String>( nameResolver.resolveNames( EntityType.CHARACTER , ids ) );
+		} 
+		catch(RuntimeException e) {
+			log.warn("resolveClientNames(): Failed to resolve "+ids.size()+" client names",e);
+			return new HashMap<String,String>();
+		}
+	}
+	
 	@Override
 	protected JPanel createPanel()
 	{
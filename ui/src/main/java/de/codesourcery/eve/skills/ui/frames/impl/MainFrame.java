@@ -41,6 +41,7 @@ import de.codesourcery.eve.skills.datamodel.IBaseCharacter;
 import de.codesourcery.eve.skills.datamodel.ICharacter;
 import de.codesourcery.eve.skills.datamodel.UserAccount;
 import de.codesourcery.eve.skills.market.IMarketDataProvider;
+import de.codesourcery.eve.skills.market.impl.MarketLogImporter;
 import de.codesourcery.eve.skills.ui.IMain;
 import de.codesourcery.eve.skills.ui.components.AbstractSelectionProvider;
 import de.codesourcery.eve.skills.ui.components.ComponentWrapper;
@@ -124,6 +125,9 @@ public class MainFrame extends CustomFrame implements ActionListener,ItemListene
 	@Resource(name="marketdata-provider")
 	private IMarketDataProvider marketDataProvider;
 	
+	@Resource(name="marketlog-importer")
+	private MarketLogImporter marketLogImporter;
+	
 	private final SkillTreeComponent skillTreeComponent =
 		new SkillTreeComponent();
 
@@ -217,7 +221,7 @@ public class MainFrame extends CustomFrame implements ActionListener,ItemListene
 		
 		// add status bar
 		statusBar.onAttach( null );
-		marketDataProvider.addStatusCallback( new IStatusCallback() {
+		final IStatusCallback statusCallback = new IStatusCallback() {
 
 			@Override
 			public void displayMessage(MessageType type, String message) {
@@ -227,7 +231,9 @@ public class MainFrame extends CustomFrame implements ActionListener,ItemListene
 					statusBar.addMessage("ERROR: "+message);
 				}
 			}
-		} );
+		};
+		marketDataProvider.addStatusCallback( statusCallback );
+		marketLogImporter.addStatusCallback( statusCallback );
 		JPanel p = statusBar.getPanel();
 		p.setPreferredSize(new Dimension(600,20 ) );
 		
@@ -313,6 +319,41 @@ public class MainFrame extends CustomFrame implements ActionListener,ItemListene
 		}) );
 		
 
+		menuBar.add( new SmartMenuItem("File/Refresh all characters" , 
+				new ICommand() {
+			@Override
+			public void execute(Object context) {
+				
+				submitTask( new UITask() {
+
+					@Override
+					public String getId() {
+						return "reconcile_all";
+					}
+					
+					@Override
+					public void beforeExecution() {
+						statusBar.addMessage("Fetching character data for all characters");
+					}
+					
+					@Override
+					public void failureHook(Throwable t) throws Exception {
+						statusBar.addMessage("Failed to fetch character data: "+t.getMessage() );
+					}
+					
+					@Override
+					public void successHook() throws Exception {
+						statusBar.addMessage("Data retrieved.");
+					}
+
+					@Override
+					public void run() throws Exception {
+						userAccountStore.reconcileAll();
+					}
+				} );
+			}
+		}));
+		
 		menuBar.add( new SmartMenuItem("File/Edit preferences..." , 
 				new ICommand() {
 			@Override
@@ -16,10 +16,15 @@
 package de.codesourcery.eve.skills.ui.model.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import de.codesourcery.eve.skills.assets.AssetDelta;
+import de.codesourcery.eve.skills.assets.AssetDelta.Change;
 import de.codesourcery.eve.skills.datamodel.Asset;
 import de.codesourcery.eve.skills.datamodel.AssetList;
 import de.codesourcery.eve.skills.ui.model.AbstractTableModel;
@@ -29,11 +34,11 @@ import de.codesourcery.eve.skills.ui.model.TableColumnBuilder;
 
 public abstract class AssetListTableModel extends AbstractTableModel<Asset> implements IViewFilterAware<Asset> {
 
-	@SuppressWarnings("unused")
 	private static final Logger log = Logger
 			.getLogger(AssetListTableModel.class);
 	
 	private AssetList assetList;
+	private boolean addContainerContents;
 	private final List<Asset> assets = new ArrayList<Asset>();
 	
 	public AssetListTableModel(AssetList list,TableColumnBuilder columns) {
@@ -68,12 +73,128 @@ public abstract class AssetListTableModel extends AbstractTableModel<Asset> impl
 		synchronized( assets ) {
 			assets.clear();
 			this.assetList = list;
+			this.addContainerContents = addContainerContents;
 			assets.addAll( list.getAssets( addContainerContents ) );
 		}
 		
 		modelDataChanged();
 	}
 	
+	/**
+	 * Updates this model with the changes from an asset delta , 
+	 * firing row-level events instead of rebuilding the whole table.
+	 * 
+	 * Falls back to {@link #setAssetList(AssetList, boolean)} if the
+	 * delta does not start from the asset list currently
+	 * displayed or touches a large fraction of all rows.
+	 * 
+	 * Must be called on the EDT.
+	 * 
+	 * @param delta
+	 */
+	public void applyDelta(AssetDelta delta) 
+	{
+		if ( delta == null ) {
+			throw new IllegalArgumentException("delta cannot be NULL");
+		}
+		
+		final int changeCount = delta.getAdded().size() + delta.getRemoved().size() + 
+			delta.getMoved().size() + delta.getQuantityChanged().size();
+		
+		if ( delta.getPrevious() != getAssetList() || changeCount > getRowCount() / 4 ) {
+			if ( log.isDebugEnabled() ) {
+				log.debug("applyDelta(): Rebuilding model , "+delta);
+			}
+			setAssetList( delta.getCurrent() , addContainerContents );
+			return;
+		}
+		
+		final Map<Long,Asset> updated = new HashMap<Long,Asset>();
+		for ( Change c : delta.getMoved() ) {
+			updated.put( c.getItemId() , c.getNewAsset() );
+			// assets stored in a moved container change their location as well 
+			for ( Asset child : c.getNewAsset().getContents().getAssets( true ) ) {
+				updated.put( child.getItemId() , child );
+			}
+		}
+		for ( Change c : delta.getQuantityChanged() ) {
+			updated.put( c.getItemId() , c.getNewAsset() );
+		}
+		for ( Asset a : delta.getRemoved() ) {
+			updated.put( a.getItemId() , null );
+		}
+		
+		final List<Integer> changedRows = new ArrayList<Integer>();
+		final List<Integer> removedRows = new ArrayList<Integer>();
+		final Map<Long,Asset> toAdd = new LinkedHashMap<Long,Asset>();
+		
+		for ( Asset a : delta.getAdded() ) {
+			if ( isVisible( a ) ) {
+				toAdd.put( a.getItemId() , a );
+			}
+		}
+		
+		synchronized( assets ) 
+		{
+			this.assetList = delta.getCurrent();
+			
+			final int rowCount = assets.size();
+			for ( int i = 0 ; i < rowCount ; i++ ) 
+			{
+				final Long itemId = assets.get( i ).getItemId();
+				if ( ! updated.containsKey( itemId ) ) {
+					continue;
+				}
+				
+				final Asset newAsset = updated.remove( itemId );
+				if ( newAsset != null && isVisible( newAsset ) ) {
+					assets.set( i , newAsset );
+					changedRows.add( i );
+				} else {
+					removedRows.add( i );
+				}
+			}
+			
+			// assets that were not displayed before 
+			for ( Asset a : updated.values() ) {
+				if ( a != null && isVisible( a ) ) {
+					toAdd.put( a.getItemId() , a );
+				}
+			}
+		}
+		
+		for ( int row : changedRows ) {
+			notifyRowChanged( row );
+		}
+		
+		// remove from the end so row indices stay valid
+		for ( int i = removedRows.size() - 1 ; i >= 0 ; i-- ) {
+			final int row = removedRows.get( i );
+			synchronized( assets ) {
+				assets.remove( row );
+			}
+			notifyRowRemoved( row );
+		}
+		
+		if ( ! toAdd.isEmpty() ) {
+			final int first;
+			synchronized( assets ) {
+				first = assets.size();
+				assets.addAll( toAdd.values() );
+			}
+			notifyRowsInserted( first , first + toAdd.size() - 1 );
+		}
+		
+		if ( log.isDebugEnabled() ) {
+			log.debug("applyDelta(): "+changedRows.size()+" rows changed , "+removedRows.size()+
+					" removed , "+toAdd.size()+" added");
+		}
+	}
+	
+	private boolean isVisible(Asset a) {
+		return addContainerContents || a.getContainer() == null;
+	}
+	
 	protected void disposeHook() {
 		synchronized( assets ) {
 			assets.clear();